@@ -0,0 +1,441 @@
+package com.chatrealtime.archive;
+
+import com.chatrealtime.model.Message;
+import com.chatrealtime.util.VarInts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable, column-oriented file holding a slice of a conversation, rows sorted by (timestamp, id).
+ *
+ * Layout: [magic:int][version:byte][count:int][minTimestamp:long][maxTimestamp:long], then the columns, each
+ * [length:int][bytes], then [crc32:int] of everything before it. Columns:
+ * - timestamps: varint deltas from the previous row
+ * - ids: front-coded, [shared prefix length][suffix length][suffix] in UTF-8
+ * - participants: dictionary of the distinct senders and recipients, followed by the sender and recipient
+ *   columns as varint indexes into it (0 being {@code null})
+ * - read flags: bitset
+ * - content: a dictionary of the most frequent words of the file, then blocks of {@link #BLOCK_ROWS} contents
+ *   deflated with that dictionary preset, so a page only inflates the blocks it returns
+ * The whole file is loaded on open; only the content stays compressed in memory.
+ */
+final class ArchiveFile {
+    static final String EXTENSION = ".arc";
+    static final int BLOCK_ROWS = 64;
+    private static final int MAGIC = 0x43415243;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 8;
+    private static final int MAX_DICTIONARY_BYTES = 16 * 1024;
+    private static final int MIN_WORD_LENGTH = 4;
+
+    static final Comparator<Message> ORDER = Comparator.comparingLong(ArchiveFile::epochMillis)
+        .thenComparing(Message::getId);
+
+    private final Path path;
+    private final long sizeBytes;
+    private final long[] timestamps;
+    private final String[] ids;
+    private final String[] participants;
+    private final int[] senders;
+    private final int[] recipients;
+    private final BitSet read;
+    private final byte[] dictionary;
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int[] blockRawSizes;
+
+    private ArchiveFile(Path path, long sizeBytes, long[] timestamps, String[] ids, String[] participants,
+                        int[] senders, int[] recipients, BitSet read, byte[] dictionary, byte[] data,
+                        int[] blockOffsets, int[] blockRawSizes) {
+        this.path = path;
+        this.sizeBytes = sizeBytes;
+        this.timestamps = timestamps;
+        this.ids = ids;
+        this.participants = participants;
+        this.senders = senders;
+        this.recipients = recipients;
+        this.read = read;
+        this.dictionary = dictionary;
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.blockRawSizes = blockRawSizes;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long sizeBytes() {
+        return sizeBytes;
+    }
+
+    int count() {
+        return ids.length;
+    }
+
+    /**
+     * Number of rows strictly before the cursor; a {@code null} {@code beforeId} excludes the whole timestamp.
+     */
+    int endOf(long beforeMillis, String beforeId) {
+        int end = lowerBound(beforeMillis);
+        if (beforeId != null) {
+            while (end < timestamps.length && timestamps[end] == beforeMillis && ids[end].compareTo(beforeId) < 0) {
+                end++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Index of the first row whose timestamp is at least {@code millis}.
+     */
+    int lowerBound(long millis) {
+        int low = 0;
+        int high = timestamps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    List<Message> rows(int from, int to) throws IOException {
+        List<Message> messages = new ArrayList<>(Math.max(0, to - from));
+        int block = -1;
+        ByteBuffer contents = null;
+        for (int row = from; row < to; row++) {
+            if (row / BLOCK_ROWS != block) {
+                block = row / BLOCK_ROWS;
+                contents = inflate(block);
+                // Saute les contenus du bloc qui précèdent la première ligne demandée
+                for (int skipped = block * BLOCK_ROWS; skipped < row; skipped++) {
+                    readString(contents);
+                }
+            }
+            Message message = new Message();
+            message.setId(ids[row]);
+            message.setFrom(participants[senders[row]]);
+            message.setTo(participants[recipients[row]]);
+            message.setContent(readString(contents));
+            message.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[row]), ZoneId.systemDefault()));
+            message.setRead(read.get(row));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    List<Message> rows() throws IOException {
+        return rows(0, count());
+    }
+
+    /**
+     * Writes {@code messages}, sorted by {@link #ORDER}, to {@code path} through a temporary file, so that a
+     * reader never sees a partial archive.
+     */
+    static void write(Path path, List<Message> messages) throws IOException {
+        int count = messages.size();
+        long minTimestamp = count == 0 ? 0 : epochMillis(messages.get(0));
+        long maxTimestamp = count == 0 ? 0 : epochMillis(messages.get(count - 1));
+
+        ByteArrayOutputStream timestamps = new ByteArrayOutputStream();
+        long previous = minTimestamp;
+        for (Message message : messages) {
+            long timestamp = epochMillis(message);
+            VarInts.write(timestamps, timestamp - previous);
+            previous = timestamp;
+        }
+
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        byte[] previousId = new byte[0];
+        for (Message message : messages) {
+            byte[] id = message.getId().getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            while (shared < id.length && shared < previousId.length && id[shared] == previousId[shared]) {
+                shared++;
+            }
+            VarInts.write(ids, shared);
+            VarInts.write(ids, id.length - shared);
+            ids.write(id, shared, id.length - shared);
+            previousId = id;
+        }
+
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        ByteArrayOutputStream senders = new ByteArrayOutputStream();
+        ByteArrayOutputStream recipients = new ByteArrayOutputStream();
+        for (Message message : messages) {
+            VarInts.write(senders, participant(dictionary, message.getFrom()));
+            VarInts.write(recipients, participant(dictionary, message.getTo()));
+        }
+        ByteArrayOutputStream participants = new ByteArrayOutputStream();
+        VarInts.write(participants, dictionary.size());
+        for (String participant : dictionary.keySet()) {
+            writeString(participants, participant);
+        }
+        participants.write(senders.toByteArray(), 0, senders.size());
+        participants.write(recipients.toByteArray(), 0, recipients.size());
+
+        BitSet read = new BitSet(count);
+        for (int row = 0; row < count; row++) {
+            read.set(row, messages.get(row).isRead());
+        }
+
+        byte[] contentDictionary = buildDictionary(messages);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        VarInts.write(content, contentDictionary.length);
+        content.write(contentDictionary, 0, contentDictionary.length);
+        VarInts.write(content, (count + BLOCK_ROWS - 1) / BLOCK_ROWS);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            for (int start = 0; start < count; start += BLOCK_ROWS) {
+                ByteArrayOutputStream raw = new ByteArrayOutputStream();
+                for (Message message : messages.subList(start, Math.min(count, start + BLOCK_ROWS))) {
+                    writeString(raw, message.getContent());
+                }
+                byte[] compressed = deflate(deflater, contentDictionary, raw.toByteArray());
+                VarInts.write(content, raw.size());
+                VarInts.write(content, compressed.length);
+                content.write(compressed, 0, compressed.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        byte[][] columns = {timestamps.toByteArray(), ids.toByteArray(), participants.toByteArray(),
+            read.toByteArray(), content.toByteArray()};
+        int size = HEADER_SIZE + 4;
+        for (byte[] column : columns) {
+            size += 4 + column.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).put(VERSION).putInt(count).putLong(minTimestamp).putLong(maxTimestamp);
+        for (byte[] column : columns) {
+            buffer.putInt(column.length).put(column);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ArchiveFile open(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < HEADER_SIZE + 4) {
+            throw new IOException("Truncated archive " + path);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if (in.getInt() != MAGIC || in.get() != VERSION || in.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            throw new IOException("Corrupted archive " + path);
+        }
+        int count = in.getInt();
+        long previous = in.getLong();
+        in.getLong();
+
+        ByteBuffer column = column(in);
+        long[] timestamps = new long[count];
+        for (int row = 0; row < count; row++) {
+            previous += VarInts.readLong(column);
+            timestamps[row] = previous;
+        }
+
+        column = column(in);
+        String[] ids = new String[count];
+        byte[] id = new byte[0];
+        for (int row = 0; row < count; row++) {
+            int shared = VarInts.readInt(column);
+            int suffix = VarInts.readInt(column);
+            byte[] next = new byte[shared + suffix];
+            System.arraycopy(id, 0, next, 0, shared);
+            column.get(next, shared, suffix);
+            ids[row] = new String(next, StandardCharsets.UTF_8);
+            id = next;
+        }
+
+        column = column(in);
+        String[] participants = new String[VarInts.readInt(column) + 1];
+        for (int i = 1; i < participants.length; i++) {
+            participants[i] = readString(column);
+        }
+        int[] senders = new int[count];
+        int[] recipients = new int[count];
+        for (int row = 0; row < count; row++) {
+            senders[row] = VarInts.readInt(column);
+        }
+        for (int row = 0; row < count; row++) {
+            recipients[row] = VarInts.readInt(column);
+        }
+
+        BitSet read = BitSet.valueOf(column(in));
+
+        column = column(in);
+        byte[] dictionary = new byte[VarInts.readInt(column)];
+        column.get(dictionary);
+        int blocks = VarInts.readInt(column);
+        int[] blockOffsets = new int[blocks + 1];
+        int[] blockRawSizes = new int[blocks];
+        for (int block = 0; block < blocks; block++) {
+            blockRawSizes[block] = VarInts.readInt(column);
+            int length = VarInts.readInt(column);
+            blockOffsets[block] = column.arrayOffset() + column.position();
+            column.position(column.position() + length);
+        }
+        blockOffsets[blocks] = column.arrayOffset() + column.position();
+
+        return new ArchiveFile(path, bytes.length, timestamps, ids, participants, senders, recipients, read,
+            dictionary, bytes, blockOffsets, blockRawSizes);
+    }
+
+    static long epochMillis(Message message) {
+        return message.getTimestamp() == null ? 0L
+            : message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private ByteBuffer inflate(int block) throws IOException {
+        byte[] raw = new byte[blockRawSizes[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, blockOffsets[block], blockOffsets[block + 1] - blockOffsets[block]);
+            int length = 0;
+            while (length < raw.length) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated content block " + block + " in " + path);
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted content block " + block + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] dictionary, byte[] raw) {
+        deflater.reset();
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    // Mots fréquents de la conversation, les plus rentables en fin de dictionnaire (distances les plus courtes)
+    private static byte[] buildDictionary(List<Message> messages) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (Message message : messages) {
+            if (message.getContent() == null) {
+                continue;
+            }
+            for (String word : message.getContent().split("\\s+")) {
+                if (word.length() >= MIN_WORD_LENGTH) {
+                    frequencies.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> words = new ArrayList<>();
+        for (Map.Entry<String, Integer> word : frequencies.entrySet()) {
+            if (word.getValue() > 1) {
+                words.add(word);
+            }
+        }
+        words.sort(Comparator.comparingLong((Map.Entry<String, Integer> word) ->
+            (long) word.getValue() * word.getKey().length()).reversed().thenComparing(Map.Entry::getKey));
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> word : words) {
+            byte[] bytes = (word.getKey() + ' ').getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_DICTIONARY_BYTES) {
+                break;
+            }
+            selected.add(bytes);
+            size += bytes.length;
+        }
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] bytes : selected) {
+            position -= bytes.length;
+            System.arraycopy(bytes, 0, dictionary, position, bytes.length);
+        }
+        return dictionary;
+    }
+
+    private static int participant(Map<String, Integer> dictionary, String participant) {
+        return participant == null ? 0 : dictionary.computeIfAbsent(participant, ignored -> dictionary.size() + 1);
+    }
+
+    private static ByteBuffer column(ByteBuffer in) {
+        int length = in.getInt();
+        ByteBuffer column = in.slice();
+        column.limit(length);
+        in.position(in.position() + length);
+        return column;
+    }
+
+    // [longueur + 1][UTF-8], 0 pour null
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            VarInts.write(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        VarInts.write(out, bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = VarInts.readInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
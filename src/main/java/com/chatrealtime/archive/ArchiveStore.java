@@ -0,0 +1,296 @@
+package com.chatrealtime.archive;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cold history moved out of the hot {@link com.chatrealtime.store.MessageStore} by the
+ * {@link com.chatrealtime.service.ConversationArchiver}.
+ *
+ * Each conversation is a directory of {@link ArchiveFile}s under {@code archive.path}, named after the first and
+ * last timestamp they hold; only those names are kept on the heap, and the most recently read files stay open
+ * (decoded columns, compressed content) up to {@code archive.open-files}. Files of a conversation do not need to
+ * be contiguous: reads merge every file overlapping the requested page.
+ */
+@Component
+public class ArchiveStore {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveStore.class);
+
+    private final Path baseDir;
+    private final int maxOpenFiles;
+    private final Map<String, ConversationArchive> conversations = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Path, ArchiveFile> openFiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong fileCount = new AtomicLong();
+    private final Timer readLatency;
+
+    public ArchiveStore(MeterRegistry meterRegistry, ClusterNode clusterNode,
+                        @Value("${archive.path:data/archive}") String path,
+                        @Value("${archive.open-files:64}") int maxOpenFiles) throws IOException {
+        this.baseDir = clusterNode.dataPath(path);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        Files.createDirectories(baseDir);
+        this.readLatency = Timer.builder("chat.archive.read.latency")
+            .description("Time to read a history page from the archive")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        Gauge.builder("chat.archive.files", fileCount, AtomicLong::get)
+            .description("Archive files written by the conversation archiver")
+            .register(meterRegistry);
+        try (Stream<Path> files = Files.walk(baseDir, 2)) {
+            fileCount.set(files.filter(ArchiveStore::isArchiveFile).count());
+        }
+        logger.info("Message archive opened at {}", baseDir.toAbsolutePath());
+    }
+
+    /**
+     * Timestamp of the most recent archived message of a conversation, {@link Long#MIN_VALUE} when none is.
+     */
+    public long newestTimestamp(String chatId) {
+        return conversation(chatId).newestTimestamp();
+    }
+
+    /**
+     * Archives {@code messages}; a message archived twice (e.g. after a crash before its deletion from the hot
+     * store) is kept once.
+     */
+    public void append(String chatId, List<Message> messages) throws IOException {
+        if (!messages.isEmpty()) {
+            conversation(chatId).append(messages);
+        }
+    }
+
+    /**
+     * Reads the {@code limit} archived messages preceding the cursor {@code (beforeMillis, beforeId)}, ignoring
+     * those older than {@code floorMillis}, with the same cursor semantics as
+     * {@link com.chatrealtime.store.MessageStore#readBefore}.
+     *
+     * @return At most {@code limit} messages, in chronological order
+     */
+    public List<Message> readBefore(String chatId, long floorMillis, long beforeMillis, String beforeId, int limit)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return conversation(chatId).readBefore(floorMillis, beforeMillis, beforeId, limit);
+        } finally {
+            readLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Deletes the archived messages older than {@code millis}, e.g. when a retention policy applies.
+     *
+     * @return The number of messages deleted
+     */
+    public int deleteBefore(String chatId, long millis) throws IOException {
+        return conversation(chatId).deleteBefore(millis);
+    }
+
+    private ConversationArchive conversation(String chatId) {
+        return conversations.computeIfAbsent(chatId, id -> {
+            try {
+                return new ConversationArchive(baseDir.resolve(URLEncoder.encode(id, StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private ArchiveFile open(Path path) throws IOException {
+        synchronized (openFiles) {
+            ArchiveFile file = openFiles.get(path);
+            if (file != null) {
+                return file;
+            }
+        }
+        ArchiveFile file = ArchiveFile.open(path);
+        synchronized (openFiles) {
+            openFiles.put(path, file);
+            while (openFiles.size() > maxOpenFiles) {
+                openFiles.remove(openFiles.keySet().iterator().next());
+            }
+        }
+        return file;
+    }
+
+    private void forget(Path path) {
+        synchronized (openFiles) {
+            openFiles.remove(path);
+        }
+    }
+
+    private static boolean isArchiveFile(Path path) {
+        return path.getFileName().toString().endsWith(ArchiveFile.EXTENSION);
+    }
+
+    /**
+     * Archive files of one conversation, identified by their timestamp range.
+     */
+    private final class ConversationArchive {
+        private final Path dir;
+        // Triés par dernier horodatage décroissant : une page récente s'arrête aux premiers fichiers
+        private final List<FileRange> files = new ArrayList<>();
+
+        ConversationArchive(Path dir) throws IOException {
+            this.dir = dir;
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> listing = Files.list(dir)) {
+                    for (Path path : listing.filter(ArchiveStore::isArchiveFile).collect(Collectors.toList())) {
+                        files.add(new FileRange(path));
+                    }
+                }
+                files.sort(FileRange.NEWEST_FIRST);
+            }
+        }
+
+        synchronized long newestTimestamp() {
+            return files.isEmpty() ? Long.MIN_VALUE : files.get(0).maxTimestamp;
+        }
+
+        synchronized void append(List<Message> messages) throws IOException {
+            List<Message> sorted = new ArrayList<>(messages);
+            sorted.sort(ArchiveFile.ORDER);
+            Files.createDirectories(dir);
+            write(sorted);
+            files.sort(FileRange.NEWEST_FIRST);
+        }
+
+        synchronized List<Message> readBefore(long floorMillis, long beforeMillis, String beforeId, int limit)
+                throws IOException {
+            List<Message> messages = new ArrayList<>();
+            long oldest = Long.MAX_VALUE;
+            for (FileRange range : files) {
+                if (range.maxTimestamp < floorMillis) {
+                    break;
+                }
+                // Les fichiers suivants ne contiennent rien de plus récent que la page déjà lue
+                if (messages.size() >= limit && range.maxTimestamp < oldest) {
+                    break;
+                }
+                if (range.minTimestamp > beforeMillis) {
+                    continue;
+                }
+                ArchiveFile file = open(range.path);
+                int end = file.endOf(beforeMillis, beforeId);
+                int start = Math.max(file.lowerBound(floorMillis), end - limit);
+                if (start >= end) {
+                    continue;
+                }
+                messages = merge(messages, file.rows(start, end));
+                if (messages.size() > limit) {
+                    messages = new ArrayList<>(messages.subList(messages.size() - limit, messages.size()));
+                }
+                oldest = ArchiveFile.epochMillis(messages.get(0));
+            }
+            return messages;
+        }
+
+        synchronized int deleteBefore(long millis) throws IOException {
+            int deleted = 0;
+            for (FileRange range : new ArrayList<>(files)) {
+                if (range.minTimestamp >= millis) {
+                    continue;
+                }
+                ArchiveFile file = open(range.path);
+                forget(range.path);
+                files.remove(range);
+                int keepFrom = file.lowerBound(millis);
+                deleted += keepFrom;
+                if (keepFrom < file.count()) {
+                    // Fichier à cheval sur la limite : on réécrit la partie conservée
+                    write(file.rows(keepFrom, file.count()));
+                }
+                Files.deleteIfExists(range.path);
+                fileCount.decrementAndGet();
+            }
+            files.sort(FileRange.NEWEST_FIRST);
+            return deleted;
+        }
+
+        // Écrit des messages triés ; une plage déjà archivée est fusionnée plutôt qu'écrasée
+        private void write(List<Message> sorted) throws IOException {
+            FileRange range = new FileRange(dir.resolve(String.format("%013d-%013d%s",
+                ArchiveFile.epochMillis(sorted.get(0)), ArchiveFile.epochMillis(sorted.get(sorted.size() - 1)),
+                ArchiveFile.EXTENSION)));
+            if (files.remove(range)) {
+                sorted = merge(open(range.path).rows(), sorted);
+                forget(range.path);
+            } else {
+                fileCount.incrementAndGet();
+            }
+            ArchiveFile.write(range.path, sorted);
+            files.add(range);
+        }
+    }
+
+    // Fusion chronologique sans doublons, les messages déjà présents étant conservés
+    private static List<Message> merge(List<Message> first, List<Message> second) {
+        Set<String> ids = new HashSet<>();
+        List<Message> merged = new ArrayList<>(first.size() + second.size());
+        for (Message message : first) {
+            if (ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        for (Message message : second) {
+            if (ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        merged.sort(ArchiveFile.ORDER);
+        return merged;
+    }
+
+    private static final class FileRange {
+        static final Comparator<FileRange> NEWEST_FIRST = Comparator.comparingLong((FileRange range) -> range.maxTimestamp)
+            .reversed().thenComparing(range -> range.path);
+
+        final Path path;
+        final long minTimestamp;
+        final long maxTimestamp;
+
+        FileRange(Path path) {
+            String name = path.getFileName().toString();
+            String[] bounds = name.substring(0, name.length() - ArchiveFile.EXTENSION.length()).split("-");
+            this.path = path;
+            this.minTimestamp = Long.parseLong(bounds[0]);
+            this.maxTimestamp = Long.parseLong(bounds[1]);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof FileRange && path.equals(((FileRange) other).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
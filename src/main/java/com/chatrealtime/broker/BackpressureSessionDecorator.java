@@ -0,0 +1,150 @@
+package com.chatrealtime.broker;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Session whose sends never block the caller: frames are buffered and written by a single writer task at a
+ * time, so a client that stopped reading only holds up its own writer. The buffer is bounded by
+ * {@link OutboundBackpressure}, which applies the {@link SlowConsumerPolicy} of each destination type.
+ */
+final class BackpressureSessionDecorator extends WebSocketSessionDecorator {
+    private final OutboundBackpressure owner;
+    private final Deque<OutboundBackpressure.Frame> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    private boolean flushScheduled;
+    // Début de l'écriture en cours, 0 hors écriture
+    private volatile long writeStartedAt;
+    private volatile boolean closing;
+
+    BackpressureSessionDecorator(WebSocketSession session, OutboundBackpressure owner) {
+        super(session);
+        this.owner = owner;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closing) {
+            return;
+        }
+        OutboundBackpressure.Frame frame = owner.classify(message);
+        boolean overflow = false;
+        boolean schedule;
+        synchronized (buffer) {
+            if (frame.coalesceKey == null || !replacePending(frame)) {
+                buffer.addLast(frame);
+                bufferedBytes += frame.size;
+            }
+            if (bufferedBytes > owner.sendBufferBytes()) {
+                overflow = !makeRoom();
+            }
+            schedule = !overflow && !flushScheduled;
+            flushScheduled |= schedule;
+        }
+        if (overflow || isWriteStalled(System.currentTimeMillis())) {
+            closeSlowConsumer();
+        } else if (schedule) {
+            owner.writer().execute(this::flush);
+        }
+    }
+
+    /**
+     * Whether frames are waiting behind a write in progress.
+     */
+    boolean isBackpressured() {
+        synchronized (buffer) {
+            return writeStartedAt != 0 && !buffer.isEmpty();
+        }
+    }
+
+    boolean isWriteStalled(long now) {
+        long startedAt = writeStartedAt;
+        return startedAt != 0 && now - startedAt > owner.sendTimeLimitMillis();
+    }
+
+    void closeSlowConsumer() {
+        if (abandon()) {
+            owner.disconnected();
+            try {
+                getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException e) {
+                // La session est déjà fermée ou inutilisable
+            }
+        }
+    }
+
+    // Vrai pour le premier appelant : les trames en attente ne seront plus écrites
+    private boolean abandon() {
+        synchronized (buffer) {
+            if (closing) {
+                return false;
+            }
+            closing = true;
+            buffer.clear();
+            bufferedBytes = 0;
+            return true;
+        }
+    }
+
+    // Remplace la trame encore en attente pour la même destination et la même clé (l'expéditeur d'un « typing »)
+    private boolean replacePending(OutboundBackpressure.Frame frame) {
+        Iterator<OutboundBackpressure.Frame> frames = buffer.descendingIterator();
+        while (frames.hasNext()) {
+            OutboundBackpressure.Frame pending = frames.next();
+            if (frame.coalesceKey.equals(pending.coalesceKey)) {
+                frames.remove();
+                bufferedBytes -= pending.size;
+                buffer.addLast(frame);
+                bufferedBytes += frame.size;
+                owner.dropped(SlowConsumerPolicy.COALESCE);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Retire les trames les plus anciennes qui peuvent l'être ; faux s'il faut déconnecter
+    private boolean makeRoom() {
+        Iterator<OutboundBackpressure.Frame> frames = buffer.iterator();
+        while (bufferedBytes > owner.sendBufferBytes() && frames.hasNext()) {
+            OutboundBackpressure.Frame pending = frames.next();
+            if (pending.policy != SlowConsumerPolicy.DISCONNECT) {
+                frames.remove();
+                bufferedBytes -= pending.size;
+                owner.dropped(SlowConsumerPolicy.DROP_OLDEST);
+            }
+        }
+        return bufferedBytes <= owner.sendBufferBytes();
+    }
+
+    private void flush() {
+        while (!closing) {
+            OutboundBackpressure.Frame frame;
+            synchronized (buffer) {
+                frame = buffer.pollFirst();
+                if (frame == null) {
+                    flushScheduled = false;
+                    return;
+                }
+                bufferedBytes -= frame.size;
+                writeStartedAt = System.currentTimeMillis();
+            }
+            try {
+                getDelegate().sendMessage(frame.message);
+            } catch (IOException | RuntimeException e) {
+                // Erreur de transport : la session se ferme d'elle-même
+                abandon();
+                return;
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+    }
+}
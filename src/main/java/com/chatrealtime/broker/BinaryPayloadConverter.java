@@ -0,0 +1,53 @@
+package com.chatrealtime.broker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+
+/**
+ * Converts {@code application/octet-stream} payloads in the {@link BinaryPayloads} format to and from objects,
+ * through the Jackson tree model so that they map exactly like their JSON form.
+ *
+ * Only used for messages that declare this content type: JSON and raw {@code byte[]} payloads keep their usual
+ * converters.
+ */
+public class BinaryPayloadConverter extends AbstractMessageConverter {
+    private final ObjectMapper objectMapper;
+
+    public BinaryPayloadConverter(ObjectMapper objectMapper) {
+        super(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        this.objectMapper = objectMapper;
+        setStrictContentTypeMatch(true);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz != byte[].class;
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[])) {
+            return null;
+        }
+        try {
+            return objectMapper.treeToValue(BinaryPayloads.decode((byte[]) message.getPayload()), targetClass);
+        } catch (IOException | RuntimeException e) {
+            throw new MessageConversionException(message, "Could not read binary payload: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        try {
+            return BinaryPayloads.encode(objectMapper.valueToTree(payload));
+        } catch (IllegalArgumentException e) {
+            throw new MessageConversionException("Could not write binary payload: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.chatrealtime.broker;
+
+import com.chatrealtime.util.VarInts;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compact binary form of JSON payloads, negotiated per STOMP session with the {@value #FORMAT_HEADER} header.
+ *
+ * A version byte is followed by one value: a tag byte, then LEB128 varints ({@link VarInts}) for lengths and
+ * zigzag-encoded integers. Object keys of the chat payloads are replaced by their index in a fixed dictionary,
+ * and ISO local date-times ({@code LocalDateTime} as serialized by Jackson) are stored as epoch seconds and
+ * nanos. Any JSON document round-trips: a string is only stored as a timestamp when it formats back identically.
+ */
+public final class BinaryPayloads {
+    /** CONNECT header asking for binary payloads; {@code json} or absent keeps JSON. */
+    public static final String FORMAT_HEADER = "payload-format";
+    public static final String BINARY = "binary";
+
+    private static final int VERSION = 1;
+    private static final int NULL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int INTEGER = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int TIMESTAMP = 6;
+    private static final int ARRAY = 7;
+    private static final int OBJECT = 8;
+    private static final int BIG_INTEGER = 9;
+
+    // Ne jamais réordonner : l'index fait partie du format (ajouter en fin avec une nouvelle version)
+    private static final String[] KEYS = {
+        "id", "from", "to", "content", "timestamp", "read", "clientMessageId", "type", "typing", "statuses",
+        "snapshot", "messages", "hasMore", "nextBeforeTimestamp", "nextBeforeId", "chatId", "messageIds",
+        "peerId", "status", "name", "email", "lastMessage", "lastSenderId", "unreadCount", "messageId"
+    };
+    private static final Map<String, Integer> KEY_INDEX = new HashMap<>();
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_INDEX.put(KEYS[i], i);
+        }
+    }
+
+    private BinaryPayloads() {
+    }
+
+    public static byte[] encode(JsonNode node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        write(out, node);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a payload written by {@link #encode}.
+     *
+     * @throws IllegalArgumentException when the payload is truncated or of another version
+     */
+    public static JsonNode decode(byte[] payload) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        try {
+            if (in.get() != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary payload version");
+            }
+            JsonNode node = read(in);
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after binary payload");
+            }
+            return node;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary payload", e);
+        }
+    }
+
+    /**
+     * Re-encodes a JSON document, as published through {@code SimpMessagingTemplate}.
+     */
+    public static byte[] fromJson(byte[] json) throws IOException {
+        return encode(JSON.readTree(json));
+    }
+
+    private static void write(ByteArrayOutputStream out, JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            out.write(NULL);
+        } else if (node.isBoolean()) {
+            out.write(node.booleanValue() ? TRUE : FALSE);
+        } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+            long value = node.longValue();
+            out.write(INTEGER);
+            VarInts.write(out, (value << 1) ^ (value >> 63));
+        } else if (node.isIntegralNumber()) {
+            out.write(BIG_INTEGER);
+            writeString(out, node.bigIntegerValue().toString());
+        } else if (node.isNumber()) {
+            long bits = Double.doubleToLongBits(node.doubleValue());
+            out.write(DOUBLE);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        } else if (node.isArray()) {
+            out.write(ARRAY);
+            VarInts.write(out, node.size());
+            for (JsonNode element : node) {
+                write(out, element);
+            }
+        } else if (node.isObject()) {
+            out.write(OBJECT);
+            VarInts.write(out, node.size());
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                Integer key = KEY_INDEX.get(field.getKey());
+                // 0 : clé hors dictionnaire, écrite en clair
+                VarInts.write(out, key != null ? key + 1 : 0);
+                if (key == null) {
+                    writeString(out, field.getKey());
+                }
+                write(out, field.getValue());
+            }
+        } else {
+            String text = node.asText();
+            LocalDateTime timestamp = parseTimestamp(text);
+            if (timestamp != null) {
+                long seconds = timestamp.toEpochSecond(ZoneOffset.UTC);
+                out.write(TIMESTAMP);
+                VarInts.write(out, (seconds << 1) ^ (seconds >> 63));
+                VarInts.write(out, timestamp.getNano());
+            } else {
+                out.write(STRING);
+                writeString(out, text);
+            }
+        }
+    }
+
+    private static JsonNode read(ByteBuffer in) {
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        int tag = in.get();
+        switch (tag) {
+            case NULL:
+                return nodes.nullNode();
+            case FALSE:
+                return nodes.booleanNode(false);
+            case TRUE:
+                return nodes.booleanNode(true);
+            case INTEGER:
+                long zigzag = VarInts.readLong(in);
+                return nodes.numberNode((zigzag >>> 1) ^ -(zigzag & 1));
+            case DOUBLE:
+                return nodes.numberNode(Double.longBitsToDouble(in.getLong()));
+            case BIG_INTEGER:
+                return nodes.numberNode(new BigInteger(readString(in)));
+            case STRING:
+                return nodes.textNode(readString(in));
+            case TIMESTAMP:
+                long seconds = VarInts.readLong(in);
+                int nanos = VarInts.readInt(in);
+                LocalDateTime timestamp = LocalDateTime.ofEpochSecond((seconds >>> 1) ^ -(seconds & 1), nanos,
+                    ZoneOffset.UTC);
+                return nodes.textNode(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp));
+            case ARRAY:
+                int length = VarInts.readInt(in);
+                ArrayNode array = nodes.arrayNode();
+                for (int i = 0; i < length; i++) {
+                    array.add(read(in));
+                }
+                return array;
+            case OBJECT:
+                int size = VarInts.readInt(in);
+                ObjectNode object = nodes.objectNode();
+                for (int i = 0; i < size; i++) {
+                    int key = VarInts.readInt(in);
+                    if (key < 0 || key > KEYS.length) {
+                        throw new IllegalArgumentException("Unknown key " + key + " in binary payload");
+                    }
+                    String name = key == 0 ? readString(in) : KEYS[key - 1];
+                    object.set(name, read(in));
+                }
+                return object;
+            default:
+                throw new IllegalArgumentException("Unknown tag " + tag + " in binary payload");
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        VarInts.write(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = VarInts.readInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated binary payload");
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Seules les dates que Jackson écrirait à l'identique : le décodage restitue exactement la chaîne
+    private static LocalDateTime parseTimestamp(String text) {
+        int length = text.length();
+        if (length < 19 || length > 29 || text.charAt(4) != '-' || text.charAt(10) != 'T') {
+            return null;
+        }
+        try {
+            LocalDateTime timestamp = LocalDateTime.parse(text, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp).equals(text) ? timestamp : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.chatrealtime.broker;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Session that deflates outbound frames of at least {@code websocket.compression.min-bytes} before writing them,
+ * for clients that negotiated it (see {@link OutboundCompression}). Sits right above the native session, so the
+ * backpressure buffer still sees, classifies and counts the plain frames.
+ */
+final class CompressingSessionDecorator extends WebSocketSessionDecorator {
+    private final OutboundCompression owner;
+    private final boolean dictionary;
+
+    CompressingSessionDecorator(WebSocketSession session, OutboundCompression owner, boolean dictionary) {
+        super(session);
+        this.owner = owner;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        boolean binary = message instanceof BinaryMessage;
+        if ((!binary && !(message instanceof TextMessage)) || message.getPayloadLength() < owner.minBytes()) {
+            super.sendMessage(message);
+            return;
+        }
+        byte[] frame;
+        if (binary) {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+            frame = new byte[payload.remaining()];
+            payload.get(frame);
+        } else {
+            frame = ((TextMessage) message).asBytes();
+        }
+        byte[] compressed = owner.compress(frame, binary, dictionary);
+        super.sendMessage(compressed != null ? new BinaryMessage(compressed) : message);
+    }
+}
@@ -0,0 +1,59 @@
+package com.chatrealtime.broker;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * Client side of {@link FrameCompression}: restores compressed frames before the STOMP client decodes them.
+ * Compression is only used when the handshake carries the {@value FrameCompression#HEADER} header.
+ */
+public final class DecompressingWebSocketClient implements WebSocketClient {
+    private final WebSocketClient delegate;
+    private final FrameCompression compression = new FrameCompression(1);
+    private final int maxBytes;
+
+    public DecompressingWebSocketClient(WebSocketClient delegate, int maxBytes) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler handler, String uriTemplate,
+                                                          Object... uriVariables) {
+        return delegate.doHandshake(decorate(handler), uriTemplate, uriVariables);
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler handler, WebSocketHttpHeaders headers,
+                                                          URI uri) {
+        return delegate.doHandshake(decorate(handler), headers, uri);
+    }
+
+    private WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                if (message instanceof BinaryMessage) {
+                    ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    if (FrameCompression.isCompressed(bytes)) {
+                        byte[] frame = compression.decompress(bytes, maxBytes);
+                        message = FrameCompression.isBinary(bytes) ? new BinaryMessage(frame) : new TextMessage(frame);
+                    }
+                }
+                super.handleMessage(session, message);
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package com.chatrealtime.broker;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-message deflate of STOMP frames, negotiated at the WebSocket handshake with the {@value #HEADER} header.
+ *
+ * A compressed frame travels as a binary WebSocket message: a marker byte, then the frame deflated on its own (raw
+ * deflate, nothing kept from one message to the next, so a frame dropped by a {@link SlowConsumerPolicy} never
+ * breaks the following ones). The marker tells whether the frame was text or binary and whether the preset
+ * {@link #DICTIONARY} was used. STOMP frames start with a command letter or an EOL, never with a marker, so frames
+ * too small to be worth compressing are sent unchanged on the same session. Deflaters and inflaters hold native
+ * buffers and are pooled.
+ */
+public final class FrameCompression {
+    /** Handshake header listing the accepted modes, by preference, e.g. {@code deflate-stomp-1, deflate}. */
+    public static final String HEADER = "X-Frame-Compression";
+    public static final String DEFLATE = "deflate";
+    /** Deflate with the preset {@link #DICTIONARY}, which both sides must know. */
+    public static final String DEFLATE_DICTIONARY = "deflate-stomp-1";
+
+    private static final int MARKER = 0x10;
+    private static final int BINARY_FLAG = 0x01;
+    private static final int DICTIONARY_FLAG = 0x02;
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    // Ne jamais modifier : en changer impose un nouveau mode (deflate-stomp-2). Le plus fréquent en dernier,
+    // ce sont les distances les plus courtes
+    private static final byte[] DICTIONARY = (
+        "ERROR\nmessage:RECEIPT\nreceipt-id:CONNECTED\nversion:1.2\nheart-beat:0,25000\nuser-name:"
+            + "\"hasMore\":false,\"nextBeforeTimestamp\":null,\"nextBeforeId\":null,\"messages\":["
+            + "{\"statuses\":{\"snapshot\":false}\"offline\"\"online\""
+            + "{\"chatId\":\"messageIds\":[\"expired\"\"peerId\":\"lastMessage\":\"unreadCount\":"
+            + "{\"from\":\"\",\"typing\":false}{\"from\":\"\",\"typing\":true}"
+            + "content-type:application/octet-stream\ncontent-type:application/json\n"
+            + "MESSAGE\ndestination:/topic/chat/\nsubscription:\nmessage-id:\ncontent-length:"
+            + "{\"id\":\"\",\"from\":\"\",\"to\":\"\",\"content\":\"\",\"timestamp\":\"20"
+            + "\",\"read\":false,\"clientMessageId\":null}\",\"read\":true,\"clientMessageId\":\"")
+        .getBytes(StandardCharsets.UTF_8);
+
+    private final int level;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public FrameCompression(int level) {
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * Mode chosen among those offered in a {@value #HEADER} header, {@code null} when none is supported.
+     */
+    public static String negotiate(String offer, boolean dictionaryEnabled) {
+        if (offer == null) {
+            return null;
+        }
+        for (String mode : offer.split(",")) {
+            mode = mode.trim();
+            if (DEFLATE.equals(mode) || (dictionaryEnabled && DEFLATE_DICTIONARY.equals(mode))) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    public static boolean isCompressed(byte[] message) {
+        return message.length > 1 && (message[0] & ~(BINARY_FLAG | DICTIONARY_FLAG)) == MARKER;
+    }
+
+    /**
+     * Whether a compressed message held a binary frame.
+     */
+    public static boolean isBinary(byte[] message) {
+        return (message[0] & BINARY_FLAG) != 0;
+    }
+
+    /**
+     * Deflates a frame; {@code null} when the result would not be smaller, the frame is then sent as it is.
+     */
+    public byte[] compress(byte[] frame, boolean binary, boolean dictionary) {
+        if (frame.length < 2) {
+            return null;
+        }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            byte[] out = new byte[frame.length];
+            out[0] = (byte) (MARKER | (binary ? BINARY_FLAG : 0) | (dictionary ? DICTIONARY_FLAG : 0));
+            if (dictionary) {
+                deflater.setDictionary(DICTIONARY);
+            }
+            deflater.setInput(frame);
+            deflater.finish();
+            int length = 1;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    return null;
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Restores a frame written by {@link #compress}.
+     *
+     * @throws IllegalArgumentException when the message is corrupted or inflates beyond {@code maxBytes}
+     */
+    public byte[] decompress(byte[] message, int maxBytes) {
+        if (!isCompressed(message)) {
+            throw new IllegalArgumentException("Not a compressed frame");
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(message, 1, message.length - 1);
+            if ((message[0] & DICTIONARY_FLAG) != 0) {
+                inflater.setDictionary(DICTIONARY);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(message.length * 4);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed frame");
+                }
+                out.write(chunk, 0, length);
+                if (out.size() > maxBytes) {
+                    throw new IllegalArgumentException("Compressed frame inflates beyond " + maxBytes + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted compressed frame", e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
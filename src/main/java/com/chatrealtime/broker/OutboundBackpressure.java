@@ -0,0 +1,253 @@
+package com.chatrealtime.broker;
+
+import com.chatrealtime.util.VirtualThreads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds what the server buffers for each WebSocket session.
+ *
+ * Every session is wrapped in a {@link BackpressureSessionDecorator}: sends return at once and frames are
+ * written by a writer task, so a stalled client never blocks the broker or the client outbound channel. Once a
+ * session buffers more than {@code websocket.backpressure.send-buffer-bytes}, the {@link SlowConsumerPolicy}
+ * of each destination type applies; the type of {@code /topic/chat/{userId}/typing} is {@code typing}, that of
+ * {@code /topic/chat/{userId}} is {@code messages}, frames without destination are {@code control} and are never
+ * dropped. A session whose write stays blocked longer than {@code send-time-limit-ms} is closed.
+ */
+@Component
+public class OutboundBackpressure implements WebSocketHandlerDecoratorFactory {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundBackpressure.class);
+    /**
+     * Native header naming what a frame stands for within its destination, e.g. the sender of a typing event: under
+     * {@link SlowConsumerPolicy#COALESCE} a buffered frame is only replaced by one with the same destination and key.
+     */
+    public static final String COALESCE_KEY_HEADER = "coalesce-key";
+    private static final String MESSAGES = "messages";
+    private static final String CONTROL = "control";
+    // Les en-têtes STOMP d'une trame MESSAGE tiennent largement dans ce préfixe
+    private static final int HEADER_SCAN_BYTES = 1024;
+
+    private final String userDestinationPrefix;
+    private final long sendBufferBytes;
+    private final long sendTimeLimitMillis;
+    private final Map<String, SlowConsumerPolicy> policies = new HashMap<>();
+    private final SlowConsumerPolicy defaultPolicy;
+    private final Map<String, BackpressureSessionDecorator> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    private final ScheduledExecutorService watchdog;
+    private final Counter droppedOldest;
+    private final Counter coalesced;
+    private final Counter disconnected;
+
+    public OutboundBackpressure(MeterRegistry meterRegistry,
+                                @Value("${websocket.destination-prefix:/topic}") String destinationPrefix,
+                                @Value("${websocket.backpressure.send-buffer-bytes:524288}") long sendBufferBytes,
+                                @Value("${websocket.backpressure.send-time-limit-ms:10000}") long sendTimeLimitMillis,
+                                @Value("${websocket.backpressure.policies:typing:coalesce}") String policies,
+                                @Value("${websocket.backpressure.default-policy:disconnect}") String defaultPolicy,
+                                @Value("${execution.virtual-threads:false}") boolean virtualThreads) {
+        this.userDestinationPrefix = destinationPrefix + "/chat/";
+        this.sendBufferBytes = Math.max(1, sendBufferBytes);
+        this.sendTimeLimitMillis = Math.max(1, sendTimeLimitMillis);
+        for (String entry : policies.split(",")) {
+            int separator = entry.indexOf(':');
+            if (separator > 0) {
+                this.policies.put(entry.substring(0, separator).trim(), SlowConsumerPolicy.parse(entry.substring(separator + 1)));
+            }
+        }
+        this.defaultPolicy = SlowConsumerPolicy.parse(defaultPolicy);
+        this.policies.put(CONTROL, SlowConsumerPolicy.DISCONNECT);
+        if (virtualThreads && VirtualThreads.isAvailable()) {
+            this.writer = VirtualThreads.newThreadPerTaskExecutor("websocket-writer-");
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.writer = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "websocket-writer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.droppedOldest = Counter.builder("chat.websocket.frames.dropped")
+            .description("Outbound frames discarded for sessions over their send buffer")
+            .tag("policy", "drop-oldest")
+            .register(meterRegistry);
+        this.coalesced = Counter.builder("chat.websocket.frames.dropped")
+            .description("Outbound frames discarded for sessions over their send buffer")
+            .tag("policy", "coalesce")
+            .register(meterRegistry);
+        this.disconnected = Counter.builder("chat.websocket.sessions.disconnected")
+            .description("Sessions closed as slow consumers")
+            .register(meterRegistry);
+        Gauge.builder("chat.websocket.sessions.backpressured", sessions, OutboundBackpressure::countBackpressured)
+            .description("Sessions with frames waiting behind a blocked write")
+            .register(meterRegistry);
+
+        long checkInterval = Math.max(100, Math.min(1000, this.sendTimeLimitMillis / 2));
+        watchdog.scheduleWithFixedDelay(this::closeStalledSessions, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        watchdog.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                BackpressureSessionDecorator decorated = new BackpressureSessionDecorator(session, OutboundBackpressure.this);
+                sessions.put(session.getId(), decorated);
+                super.afterConnectionEstablished(decorated);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    long sendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    long sendTimeLimitMillis() {
+        return sendTimeLimitMillis;
+    }
+
+    ExecutorService writer() {
+        return writer;
+    }
+
+    void dropped(SlowConsumerPolicy policy) {
+        (policy == SlowConsumerPolicy.COALESCE ? coalesced : droppedOldest).increment();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    Frame classify(WebSocketMessage<?> message) {
+        String head = headOf(message);
+        String destination = head != null ? headerOf(head, "destination") : null;
+        String type = destination != null ? typeOf(destination) : CONTROL;
+        SlowConsumerPolicy policy = policies.getOrDefault(type, defaultPolicy);
+        // Sans clé, la trame n'en remplace aucune : seule la destination ne distingue pas les expéditeurs
+        String key = policy == SlowConsumerPolicy.COALESCE ? headerOf(head, COALESCE_KEY_HEADER) : null;
+        return new Frame(message, key != null ? destination + '\u0000' + key : null, policy);
+    }
+
+    // /topic/chat/{userId} -> messages, /topic/chat/{userId}/typing -> typing, autre -> destination entière
+    private String typeOf(String destination) {
+        if (!destination.startsWith(userDestinationPrefix)) {
+            return destination;
+        }
+        int separator = destination.indexOf('/', userDestinationPrefix.length());
+        return separator < 0 ? MESSAGES : destination.substring(separator + 1);
+    }
+
+    private void closeStalledSessions() {
+        long now = System.currentTimeMillis();
+        for (BackpressureSessionDecorator session : sessions.values()) {
+            if (session.isWriteStalled(now)) {
+                logger.warn("Closing WebSocket session {}: write blocked for more than {} ms", session.getId(),
+                    sendTimeLimitMillis);
+                session.closeSlowConsumer();
+            }
+        }
+    }
+
+    private static double countBackpressured(Map<String, BackpressureSessionDecorator> sessions) {
+        int count = 0;
+        for (BackpressureSessionDecorator session : sessions.values()) {
+            if (session.isBackpressured()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Destination d'une trame STOMP MESSAGE, null pour les autres trames
+    static String destinationOf(WebSocketMessage<?> message) {
+        String head = headOf(message);
+        return head != null ? headerOf(head, "destination") : null;
+    }
+
+    // Début d'une trame STOMP MESSAGE, null pour les autres trames
+    private static String headOf(WebSocketMessage<?> message) {
+        String head;
+        if (message instanceof TextMessage) {
+            String payload = ((TextMessage) message).getPayload();
+            head = payload.length() > HEADER_SCAN_BYTES ? payload.substring(0, HEADER_SCAN_BYTES) : payload;
+        } else if (message instanceof BinaryMessage) {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+            byte[] bytes = new byte[Math.min(payload.remaining(), HEADER_SCAN_BYTES)];
+            payload.get(bytes);
+            head = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            return null;
+        }
+        return head.startsWith("MESSAGE\n") ? head : null;
+    }
+
+    // Valeur d'un en-tête parmi ceux de la trame, null s'il est absent
+    private static String headerOf(String head, String name) {
+        String prefix = "\n" + name + ":";
+        int start = head.indexOf(prefix);
+        int headersEnd = head.indexOf("\n\n");
+        if (start < 0 || (headersEnd >= 0 && start > headersEnd)) {
+            return null;
+        }
+        start += prefix.length();
+        int end = head.indexOf('\n', start);
+        return end < 0 ? null : head.substring(start, end);
+    }
+
+    static final class Frame {
+        final WebSocketMessage<?> message;
+        // Destination et clé de regroupement d'une trame COALESCE, null si elle n'en remplace aucune
+        final String coalesceKey;
+        final SlowConsumerPolicy policy;
+        final int size;
+
+        Frame(WebSocketMessage<?> message, String coalesceKey, SlowConsumerPolicy policy) {
+            this.message = message;
+            this.coalesceKey = coalesceKey;
+            this.policy = policy;
+            this.size = message.getPayloadLength();
+        }
+    }
+}
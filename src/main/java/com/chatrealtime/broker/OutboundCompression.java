@@ -0,0 +1,106 @@
+package com.chatrealtime.broker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message compression of the frames sent to WebSocket clients.
+ *
+ * A client opts in with the {@value FrameCompression#HEADER} handshake header; the server picks the first mode it
+ * supports, preferring the preset dictionary of {@link FrameCompression} when {@code websocket.compression.dictionary}
+ * is on. Frames of at least {@code websocket.compression.min-bytes} are then deflated at
+ * {@code websocket.compression.level}, on the backpressure writer threads, and sent unchanged when that does not
+ * make them smaller. SockJS fallback sessions, which carry only text, are never compressed.
+ */
+@Component
+public class OutboundCompression implements WebSocketHandlerDecoratorFactory, HandshakeInterceptor {
+    private static final String MODE_ATTRIBUTE = OutboundCompression.class.getName() + ".mode";
+
+    private final boolean enabled;
+    private final boolean dictionaryEnabled;
+    private final int minBytes;
+    private final FrameCompression compression;
+    private final Counter bytesSaved;
+    private final Timer compressionTime;
+
+    public OutboundCompression(MeterRegistry meterRegistry,
+                               @Value("${websocket.compression.enabled:true}") boolean enabled,
+                               @Value("${websocket.compression.dictionary:true}") boolean dictionaryEnabled,
+                               @Value("${websocket.compression.level:6}") int level,
+                               @Value("${websocket.compression.min-bytes:256}") int minBytes) {
+        this.enabled = enabled;
+        this.dictionaryEnabled = dictionaryEnabled;
+        this.minBytes = Math.max(2, minBytes);
+        this.compression = new FrameCompression(level);
+        this.bytesSaved = Counter.builder("chat.websocket.compression.bytes.saved")
+            .description("Bytes not sent thanks to frame compression")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.compressionTime = Timer.builder("chat.websocket.compression.time")
+            .description("Time spent deflating outbound frames")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (enabled) {
+            String mode = FrameCompression.negotiate(request.getHeaders().getFirst(FrameCompression.HEADER),
+                dictionaryEnabled);
+            if (mode != null) {
+                attributes.put(MODE_ATTRIBUTE, mode);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                               Exception exception) {
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                Object mode = session.getAttributes().get(MODE_ATTRIBUTE);
+                if (mode == null || session instanceof SockJsSession) {
+                    super.afterConnectionEstablished(session);
+                } else {
+                    boolean dictionary = FrameCompression.DEFLATE_DICTIONARY.equals(mode);
+                    super.afterConnectionEstablished(
+                        new CompressingSessionDecorator(session, OutboundCompression.this, dictionary));
+                }
+            }
+        };
+    }
+
+    int minBytes() {
+        return minBytes;
+    }
+
+    byte[] compress(byte[] frame, boolean binary, boolean dictionary) {
+        long start = System.nanoTime();
+        byte[] compressed = compression.compress(frame, binary, dictionary);
+        compressionTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (compressed != null) {
+            bytesSaved.increment(frame.length - compressed.length);
+        }
+        return compressed;
+    }
+}
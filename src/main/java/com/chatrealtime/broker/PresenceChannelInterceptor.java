@@ -0,0 +1,68 @@
+package com.chatrealtime.broker;
+
+import com.chatrealtime.service.PresenceService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+
+/**
+ * Feeds {@link PresenceService} from the client inbound channel: CONNECT and DISCONNECT frames open and close a
+ * session, any other frame, heartbeats included, keeps it alive. Registered after the authentication interceptor,
+ * so CONNECT frames reaching it carry their user.
+ *
+ * Once the broker registered a subscription to a user's own {@code /presence} destination, the user is sent the
+ * snapshot of their contacts' statuses; sending it earlier could reach the broker before the subscription.
+ */
+@Component
+public class PresenceChannelInterceptor implements ExecutorChannelInterceptor {
+    private final PresenceService presenceService;
+    private final String userDestinationPrefix;
+
+    public PresenceChannelInterceptor(PresenceService presenceService,
+                                      @Value("${websocket.destination-prefix:/topic}") String destinationPrefix) {
+        this.presenceService = presenceService;
+        this.userDestinationPrefix = destinationPrefix + "/chat/";
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return message;
+        }
+        if (SimpMessageType.CONNECT.equals(messageType)) {
+            Principal user = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+            if (user != null) {
+                presenceService.connected(sessionId, user.getName());
+            }
+        } else if (SimpMessageType.DISCONNECT.equals(messageType)) {
+            presenceService.disconnected(sessionId);
+        } else {
+            presenceService.touch(sessionId);
+        }
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                    Exception ex) {
+        if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)
+                || !SimpMessageType.SUBSCRIBE.equals(SimpMessageHeaderAccessor.getMessageType(message.getHeaders()))) {
+            return;
+        }
+        Principal user = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (user != null && (userDestinationPrefix + user.getName() + "/presence").equals(destination)) {
+            presenceService.sendSnapshot(user.getName());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.chatrealtime.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last frames delivered to each user of a broker shard, numbered by a sequence that only grows, for sessions
+ * resuming after a reconnection.
+ *
+ * Each user keeps at most {@code perUser} frames, and the shard at most {@code maxBytes}: beyond it the log of
+ * the user who received nothing for the longest time is dropped. Sequence numbers are shared by the users of the
+ * shard, so a number is never reused after a drop, and a resume is answered only when every frame sent to the
+ * user after it is still held. Not thread-safe: used by the shard thread only.
+ */
+final class ReplayLog<T> {
+    // Surcoût estimé d'une entrée en plus de la charge utile (message, en-têtes, nœud)
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final int perUser;
+    private final long maxBytes;
+    // Ordre d'accès : le premier journal est celui de l'utilisateur inactif depuis le plus longtemps
+    private final Map<String, UserLog<T>> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long lastSeq;
+    // Plus grand numéro des journaux supprimés en entier : un journal recréé ne couvre que ce qui suit
+    private long droppedUpTo;
+    private volatile long bytes;
+
+    ReplayLog(int perUser, long maxBytes) {
+        this.perUser = Math.max(1, perUser);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Records a frame sent to {@code userId}, of about {@code size} bytes.
+     *
+     * @return Its sequence number
+     */
+    long append(String userId, T item, int size) {
+        long seq = ++lastSeq;
+        UserLog<T> log = users.get(userId);
+        if (log == null) {
+            log = new UserLog<>(droppedUpTo);
+            users.put(userId, log);
+        }
+        long entryBytes = (long) size + ENTRY_OVERHEAD;
+        log.entries.addLast(new Entry<>(seq, item, entryBytes));
+        long total = bytes + entryBytes;
+        if (log.entries.size() > perUser) {
+            Entry<T> oldest = log.entries.pollFirst();
+            log.floor = oldest.seq;
+            total -= oldest.bytes;
+        }
+        Iterator<UserLog<T>> eldest = users.values().iterator();
+        while (total > maxBytes && eldest.hasNext()) {
+            UserLog<T> dropped = eldest.next();
+            eldest.remove();
+            for (Entry<T> entry : dropped.entries) {
+                total -= entry.bytes;
+            }
+            if (!dropped.entries.isEmpty()) {
+                droppedUpTo = Math.max(droppedUpTo, dropped.entries.peekLast().seq);
+            }
+        }
+        bytes = total;
+        return seq;
+    }
+
+    /**
+     * Returns the frames sent to {@code userId} after {@code afterSeq}, oldest first, or {@code null} when some of
+     * them are no longer held or {@code afterSeq} was never issued.
+     */
+    List<Entry<T>> after(String userId, long afterSeq) {
+        if (afterSeq < 0 || afterSeq > lastSeq) {
+            return null;
+        }
+        UserLog<T> log = users.get(userId);
+        if (log == null) {
+            return afterSeq >= droppedUpTo ? new ArrayList<>() : null;
+        }
+        if (afterSeq < log.floor) {
+            return null;
+        }
+        List<Entry<T>> entries = new ArrayList<>();
+        for (Entry<T> entry : log.entries) {
+            if (entry.seq > afterSeq) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    static final class Entry<T> {
+        final long seq;
+        final T item;
+        final long bytes;
+
+        Entry(long seq, T item, long bytes) {
+            this.seq = seq;
+            this.item = item;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class UserLog<T> {
+        final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+        // Tout ce qui suit ce numéro est dans entries
+        long floor;
+
+        UserLog(long floor) {
+            this.floor = floor;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package com.chatrealtime.broker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.PathMatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process STOMP broker replacing the simple broker, whose single subscription registry matches every
+ * destination against every subscription.
+ *
+ * Subscriptions are partitioned into shards, each with its own lock, index of exact destinations and dispatch
+ * thread. Destinations under {@code {prefix}/chat/{userId}} are routed by user id, so that every destination of
+ * a user lives on the same shard and keeps its publish order, up to the session (see
+ * {@link #setPreservePublishOrder}); other destinations are routed by their hash.
+ * Publishing only enqueues the message on its shard, which fans it out to the subscribed sessions; when a shard
+ * queue is full the publisher waits. Pattern subscriptions ({@code *}, {@code {var}}) are supported but matched
+ * against every message, as in the simple broker; STOMP selectors are not.
+ *
+ * Sessions whose CONNECT frame carries {@code payload-format: binary} receive JSON payloads re-encoded with
+ * {@link BinaryPayloads}, once per message whatever the number of such subscribers; others keep JSON.
+ *
+ * Frames of the {@code websocket.replay.types} destinations of a user carry a {@value #SEQ_HEADER} header,
+ * {@code {epoch}:{n}}, whose number grows with every frame sent to that user, and are kept in the bounded
+ * {@link ReplayLog} of their shard. A client reconnecting subscribes to one of its own destinations with the last
+ * value it received in a {@value #RESUME_HEADER} header (ignored on the destinations of other users): the frames of that destination it missed are sent again before the live ones or,
+ * when the log no longer holds all of them (or the server restarted since), a single {@code {}} frame with
+ * {@code resync: true} tells it to reload, its {@value #SEQ_HEADER} being the position to resume from next time.
+ */
+public class ShardedBrokerMessageHandler extends AbstractBrokerMessageHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBrokerMessageHandler.class);
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final byte[] RESYNC_PAYLOAD = "{}".getBytes(StandardCharsets.UTF_8);
+    public static final String SEQ_HEADER = "seq";
+    public static final String RESUME_HEADER = "resume-after";
+    public static final String RESYNC_HEADER = "resync";
+    private static final String MESSAGES = "messages";
+
+    private final String userDestinationPrefix;
+    private final long heartbeatMillis;
+    private final boolean binaryPayloads;
+    private final Set<String> replayTypes;
+    // Change à chaque démarrage : les numéros d'une instance précédente ne sont pas reconnus
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final Shard[] shards;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    // Abonnements par session puis par identifiant, pour UNSUBSCRIBE et DISCONNECT
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+    private final List<Subscription> patternSubscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+    private final Set<String> binarySessions = ConcurrentHashMap.newKeySet();
+    private final Counter replayed;
+    private final Counter resyncs;
+
+    public ShardedBrokerMessageHandler(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+                                       SubscribableChannel brokerChannel, String destinationPrefix,
+                                       int shardCount, int queueCapacity, long heartbeatMillis,
+                                       boolean binaryPayloads, Set<String> replayTypes, int replayPerUser,
+                                       long replayMaxBytes, MeterRegistry meterRegistry) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, Collections.singletonList(destinationPrefix));
+        this.userDestinationPrefix = destinationPrefix + "/chat/";
+        this.heartbeatMillis = Math.max(0, heartbeatMillis);
+        this.binaryPayloads = binaryPayloads;
+        this.replayTypes = replayTypes;
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[count];
+        this.replayed = Counter.builder("chat.broker.replay.frames")
+            .description("Frames sent again to resuming sessions")
+            .register(meterRegistry);
+        this.resyncs = Counter.builder("chat.broker.replay.resyncs")
+            .description("Resumes the replay log could not cover")
+            .register(meterRegistry);
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, Math.max(1, queueCapacity), replayPerUser, replayMaxBytes / count,
+                meterRegistry);
+        }
+        Gauge.builder("chat.broker.subscriptions", subscriptionCount, AtomicInteger::get)
+            .description("STOMP subscriptions held by the broker")
+            .register(meterRegistry);
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    @Override
+    protected void startInternal() {
+        for (Shard shard : shards) {
+            shard.start();
+        }
+        logger.info("Sharded broker started with {} shards", shards.length);
+        publishBrokerAvailableEvent();
+    }
+
+    @Override
+    protected void stopInternal() {
+        publishBrokerUnavailableEvent();
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+
+        if (!checkDestinationPrefix(destination)) {
+            return;
+        }
+        if (SimpMessageType.MESSAGE.equals(messageType)) {
+            if (destination != null) {
+                shardOf(destination).enqueue(message, destination);
+            }
+        } else if (SimpMessageType.SUBSCRIBE.equals(messageType)) {
+            subscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers), destination,
+                SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(RESUME_HEADER),
+                SimpMessageHeaderAccessor.getUser(headers));
+        } else if (SimpMessageType.UNSUBSCRIBE.equals(messageType)) {
+            unsubscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+        } else if (SimpMessageType.CONNECT.equals(messageType)) {
+            if (binaryPayloads && sessionId != null && BinaryPayloads.BINARY.equalsIgnoreCase(
+                    SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(BinaryPayloads.FORMAT_HEADER))) {
+                binarySessions.add(sessionId);
+            }
+            SimpMessageHeaderAccessor connectAck = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+            connectAck.setSessionId(sessionId);
+            connectAck.setUser(SimpMessageHeaderAccessor.getUser(headers));
+            connectAck.setHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER, message);
+            // Le serveur n'envoie pas de heartbeat mais en attend du client (présence)
+            connectAck.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, new long[] {0, heartbeatMillis});
+            getClientOutboundChannel().send(MessageBuilder.createMessage(EMPTY_PAYLOAD, connectAck.getMessageHeaders()));
+        } else if (SimpMessageType.DISCONNECT.equals(messageType)) {
+            unsubscribeAll(sessionId);
+            if (sessionId != null) {
+                binarySessions.remove(sessionId);
+            }
+            Principal user = SimpMessageHeaderAccessor.getUser(headers);
+            SimpMessageHeaderAccessor disconnectAck = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT_ACK);
+            disconnectAck.setSessionId(sessionId);
+            disconnectAck.setUser(user);
+            disconnectAck.setHeader(SimpMessageHeaderAccessor.DISCONNECT_MESSAGE_HEADER, message);
+            getClientOutboundChannel().send(MessageBuilder.createMessage(EMPTY_PAYLOAD, disconnectAck.getMessageHeaders()));
+        }
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination, String resumeAfter,
+                           Principal user) {
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        Subscription subscription = new Subscription(sessionId, subscriptionId, destination,
+            pathMatcher.isPattern(destination));
+        Subscription previous = sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+            .put(subscriptionId, subscription);
+        if (previous != null) {
+            remove(previous);
+        } else {
+            subscriptionCount.incrementAndGet();
+        }
+        if (subscription.pattern) {
+            patternSubscriptions.add(subscription);
+        } else if (resumeAfter != null && isReplayed(destination) && user != null
+                && user.getName().equals(userOf(destination))) {
+            // Ajouté par le thread du shard après le rattrapage, pour ne rien perdre ni doubler entre les deux
+            shardOf(destination).resume(subscription, resumeAfter);
+        } else {
+            shardOf(destination).add(subscription);
+        }
+    }
+
+    private boolean isRegistered(Subscription subscription) {
+        Map<String, Subscription> subscriptions = sessions.get(subscription.sessionId);
+        return subscriptions != null && subscriptions.get(subscription.subscriptionId) == subscription;
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, Subscription> subscriptions = sessionId != null ? sessions.get(sessionId) : null;
+        Subscription subscription = subscriptions != null && subscriptionId != null
+            ? subscriptions.remove(subscriptionId) : null;
+        if (subscription != null) {
+            subscriptionCount.decrementAndGet();
+            remove(subscription);
+        }
+    }
+
+    private void unsubscribeAll(String sessionId) {
+        Map<String, Subscription> subscriptions = sessionId != null ? sessions.remove(sessionId) : null;
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions.values()) {
+                subscriptionCount.decrementAndGet();
+                remove(subscription);
+            }
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        if (subscription.pattern) {
+            patternSubscriptions.remove(subscription);
+        } else {
+            shardOf(subscription.destination).remove(subscription);
+        }
+    }
+
+    private Shard shardOf(String destination) {
+        // Routage direct par utilisateur : /topic/chat/{userId}[/...]
+        String userId = userOf(destination);
+        String key = userId != null ? userId : destination;
+        int hash = key.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    private String userOf(String destination) {
+        if (!destination.startsWith(userDestinationPrefix)) {
+            return null;
+        }
+        int end = destination.indexOf('/', userDestinationPrefix.length());
+        return end < 0 ? destination.substring(userDestinationPrefix.length())
+            : destination.substring(userDestinationPrefix.length(), end);
+    }
+
+    // /topic/chat/{userId} -> messages, /topic/chat/{userId}/receipts -> receipts, comme OutboundBackpressure
+    private boolean isReplayed(String destination) {
+        if (replayTypes.isEmpty() || !destination.startsWith(userDestinationPrefix)) {
+            return false;
+        }
+        int separator = destination.indexOf('/', userDestinationPrefix.length());
+        return replayTypes.contains(separator < 0 ? MESSAGES : destination.substring(separator + 1));
+    }
+
+    // {epoch}:{n} -> n, -1 si le numéro vient d'une autre instance ou est illisible
+    private long seqOf(String position) {
+        int separator = position.lastIndexOf(':');
+        if (separator < 0 || !epoch.equals(position.substring(0, separator))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(position.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void send(Subscription subscription, Dispatch dispatch) {
+        Message<?> message = dispatch.message;
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headerAccessor.setSessionId(subscription.sessionId);
+        headerAccessor.setSubscriptionId(subscription.subscriptionId);
+        Object payload = message.getPayload();
+        byte[] binary = binarySessions.contains(subscription.sessionId) ? dispatch.binary() : null;
+        if (binary != null) {
+            // application/octet-stream : trame WebSocket binaire côté StompSubProtocolHandler
+            headerAccessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+            payload = binary;
+        }
+        if (dispatch.seq != null) {
+            // Copie des en-têtes natifs du message, partagés entre les abonnés, avant d'y ajouter le numéro
+            @SuppressWarnings("unchecked")
+            Map<String, List<String>> nativeHeaders = (Map<String, List<String>>)
+                message.getHeaders().get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+            if (nativeHeaders != null) {
+                nativeHeaders.forEach((name, values) -> headerAccessor.setNativeHeaderValues(name,
+                    new ArrayList<>(values)));
+            }
+            headerAccessor.setNativeHeader(SEQ_HEADER, dispatch.seq);
+            if (dispatch.resync) {
+                headerAccessor.setNativeHeader(RESYNC_HEADER, "true");
+            }
+        }
+        headerAccessor.copyHeadersIfAbsent(message.getHeaders());
+        headerAccessor.setLeaveMutable(true);
+        Message<?> reply = MessageBuilder.createMessage(payload, headerAccessor.getMessageHeaders());
+        try {
+            getClientOutboundChannelForSession(subscription.sessionId).send(reply);
+        } catch (Exception e) {
+            logger.error("Failed to send {} to session {}: {}", subscription.destination, subscription.sessionId,
+                e.getMessage());
+        }
+    }
+
+    private static final class Subscription {
+        final String sessionId;
+        final String subscriptionId;
+        final String destination;
+        final boolean pattern;
+
+        Subscription(String sessionId, String subscriptionId, String destination, boolean pattern) {
+            this.sessionId = sessionId;
+            this.subscriptionId = subscriptionId;
+            this.destination = destination;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final class Dispatch {
+        final Message<?> message;
+        final String destination;
+        final long enqueuedAt;
+        // Abonnement à rattraper à partir de resumeAfter, au lieu d'un message à diffuser
+        final Subscription resuming;
+        final String resumeAfter;
+        // {epoch}:{n}, posé par le thread du shard pour les destinations rejouables
+        String seq;
+        boolean resync;
+        // Forme binaire, calculée au premier abonné qui l'a demandée ; vide si le message n'est pas du JSON
+        private byte[] binary;
+
+        Dispatch(Message<?> message, String destination) {
+            this(message, destination, null, null);
+        }
+
+        Dispatch(Message<?> message, String destination, Subscription resuming, String resumeAfter) {
+            this.message = message;
+            this.destination = destination;
+            this.resuming = resuming;
+            this.resumeAfter = resumeAfter;
+            this.enqueuedAt = System.nanoTime();
+        }
+
+        // Appelé uniquement par le thread du shard
+        byte[] binary() {
+            if (binary == null) {
+                binary = EMPTY_PAYLOAD;
+                MimeType contentType = SimpMessageHeaderAccessor.wrap(message).getContentType();
+                if (message.getPayload() instanceof byte[] && contentType != null
+                        && MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+                    try {
+                        binary = BinaryPayloads.fromJson((byte[]) message.getPayload());
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Cannot re-encode payload for {}: {}", destination, e.getMessage());
+                    }
+                }
+            }
+            return binary.length > 0 ? binary : null;
+        }
+    }
+
+    /**
+     * Subscriptions of the destinations routed to one partition, and the thread fanning out their messages.
+     */
+    private final class Shard implements Runnable {
+        private final int index;
+        // Destination exacte -> abonnements, sous le verrou du shard
+        private final Map<String, List<Subscription>> byDestination = new HashMap<>();
+        private final BlockingQueue<Dispatch> queue;
+        private final ReplayLog<Dispatch> replayLog;
+        private final Timer dispatchLatency;
+        private volatile Thread thread;
+
+        Shard(int index, int queueCapacity, int replayPerUser, long replayMaxBytes, MeterRegistry meterRegistry) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.replayLog = new ReplayLog<>(replayPerUser, replayMaxBytes);
+            this.dispatchLatency = Timer.builder("chat.broker.dispatch.latency")
+                .description("Time from publish to delivery to the client outbound channel")
+                .tag("shard", String.valueOf(index))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+            Gauge.builder("chat.broker.queue", queue, BlockingQueue::size)
+                .description("Messages waiting for dispatch on a broker shard")
+                .tag("shard", String.valueOf(index))
+                .register(meterRegistry);
+            Gauge.builder("chat.broker.replay.bytes", replayLog, ReplayLog::bytes)
+                .description("Estimated size of the replay log of a broker shard")
+                .tag("shard", String.valueOf(index))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        }
+
+        void start() {
+            Thread dispatcher = new Thread(this, "broker-shard-" + index);
+            dispatcher.setDaemon(true);
+            thread = dispatcher;
+            dispatcher.start();
+        }
+
+        void stop() {
+            Thread dispatcher = thread;
+            thread = null;
+            if (dispatcher != null) {
+                dispatcher.interrupt();
+            }
+        }
+
+        synchronized void add(Subscription subscription) {
+            byDestination.computeIfAbsent(subscription.destination, d -> new ArrayList<>(2)).add(subscription);
+        }
+
+        synchronized void remove(Subscription subscription) {
+            List<Subscription> subscriptions = byDestination.get(subscription.destination);
+            if (subscriptions != null && subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+                byDestination.remove(subscription.destination);
+            }
+        }
+
+        synchronized Subscription[] subscribers(String destination) {
+            List<Subscription> subscriptions = byDestination.get(destination);
+            return subscriptions != null ? subscriptions.toArray(new Subscription[0]) : null;
+        }
+
+        synchronized void addIfRegistered(Subscription subscription) {
+            // Sous le verrou du shard : un UNSUBSCRIBE concurrent attend l'ajout pour le retirer
+            if (isRegistered(subscription)) {
+                add(subscription);
+            }
+        }
+
+        void enqueue(Message<?> message, String destination) {
+            put(new Dispatch(message, destination));
+        }
+
+        void resume(Subscription subscription, String resumeAfter) {
+            put(new Dispatch(null, subscription.destination, subscription, resumeAfter));
+        }
+
+        private void put(Dispatch dispatch) {
+            try {
+                queue.put(dispatch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while publishing to {}, message dropped", dispatch.destination);
+            }
+        }
+
+        private void replay(Dispatch request) {
+            Subscription subscription = request.resuming;
+            if (!isRegistered(subscription)) {
+                return;
+            }
+            String userId = userOf(subscription.destination);
+            List<ReplayLog.Entry<Dispatch>> missed = replayLog.after(userId, seqOf(request.resumeAfter));
+            if (missed == null) {
+                SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                headers.setDestination(subscription.destination);
+                headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                Dispatch resync = new Dispatch(MessageBuilder.createMessage(RESYNC_PAYLOAD,
+                    headers.getMessageHeaders()), subscription.destination);
+                resync.seq = epoch + ":" + replayLog.lastSeq();
+                resync.resync = true;
+                send(subscription, resync);
+                resyncs.increment();
+            } else {
+                for (ReplayLog.Entry<Dispatch> entry : missed) {
+                    if (entry.item.destination.equals(subscription.destination)) {
+                        send(subscription, entry.item);
+                        replayed.increment();
+                    }
+                }
+            }
+            addIfRegistered(subscription);
+        }
+
+        @Override
+        public void run() {
+            while (thread == Thread.currentThread()) {
+                Dispatch dispatch;
+                try {
+                    dispatch = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (dispatch.resuming != null) {
+                    replay(dispatch);
+                    continue;
+                }
+                if (isReplayed(dispatch.destination)) {
+                    Object payload = dispatch.message.getPayload();
+                    long seq = replayLog.append(userOf(dispatch.destination), dispatch,
+                        payload instanceof byte[] ? ((byte[]) payload).length : 0);
+                    dispatch.seq = epoch + ":" + seq;
+                }
+                Subscription[] subscribers = subscribers(dispatch.destination);
+                if (subscribers != null) {
+                    for (Subscription subscription : subscribers) {
+                        send(subscription, dispatch);
+                    }
+                }
+                for (Subscription subscription : patternSubscriptions) {
+                    if (pathMatcher.match(subscription.destination, dispatch.destination)) {
+                        send(subscription, dispatch);
+                    }
+                }
+                dispatchLatency.record(System.nanoTime() - dispatch.enqueuedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
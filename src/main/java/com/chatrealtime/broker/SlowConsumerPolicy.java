@@ -0,0 +1,26 @@
+package com.chatrealtime.broker;
+
+import java.util.Locale;
+
+/**
+ * What happens to the frames of a destination type when a session's send buffer is full.
+ */
+public enum SlowConsumerPolicy {
+    /** The oldest buffered frames of droppable destinations are discarded to make room. */
+    DROP_OLDEST,
+    /**
+     * A frame replaces the one still buffered for the same destination and
+     * {@value OutboundBackpressure#COALESCE_KEY_HEADER} header, and is droppable like DROP_OLDEST; frames without
+     * that header replace none.
+     */
+    COALESCE,
+    /** The session is closed; the client reconnects and catches up from the history. */
+    DISCONNECT;
+
+    /**
+     * Parses {@code drop-oldest}, {@code coalesce} or {@code disconnect}.
+     */
+    public static SlowConsumerPolicy parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
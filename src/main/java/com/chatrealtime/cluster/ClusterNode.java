@@ -0,0 +1,75 @@
+package com.chatrealtime.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Identity of this backend node, and what it keeps to itself in cluster mode ({@code cluster.enabled=true}).
+ *
+ * Each node keeps its files (embedded message store, search index, archive) under its own directory,
+ * {@code <path>/<node-id>}, so that nodes sharing a host or a volume never write the same files. The search index
+ * and the archive of every node are kept in step through the {@link ClusterReplication}; only the
+ * {@code cluster.leader} node runs the {@code ConversationArchiver}. Outside cluster mode this node is its own leader
+ * and the paths are used as they are.
+ */
+@Component
+public class ClusterNode {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final boolean enabled;
+    private final String id;
+    private final boolean leader;
+
+    public ClusterNode(@Value("${cluster.enabled:false}") boolean enabled,
+                       @Value("${cluster.node-id:}") String nodeId,
+                       @Value("${cluster.port:9101}") int port,
+                       @Value("${cluster.leader:}") String leader) {
+        this.enabled = enabled;
+        this.id = nodeId.isEmpty() ? defaultNodeId(port) : nodeId;
+        this.leader = !enabled || id.equals(leader);
+        if (enabled && leader.isEmpty()) {
+            logger.warn("cluster.leader is not set: no node of the cluster archives conversations");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Whether this node runs the jobs that only one node of the cluster may run.
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Directory of this node's files under {@code path}.
+     */
+    public Path dataPath(String path) {
+        Path base = Paths.get(path);
+        // host:port par défaut : seuls les caractères sûrs dans un nom de fichier sont gardés
+        return enabled ? base.resolve(id.replaceAll("[^A-Za-z0-9._-]", "_")) : base;
+    }
+
+    private static String defaultNodeId(int port) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,398 @@
+package com.chatrealtime.cluster;
+
+import com.chatrealtime.service.PresenceService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Cluster mode ({@code cluster.enabled=true}): several backend nodes behind a load balancer, each delivering the
+ * messages published on any node to the STOMP sessions it holds.
+ *
+ * Registered on the client inbound channel, the relay follows the local sessions: the first session of a user on
+ * this node and the end of the last one are announced to every peer, which keeps a {@link RoutingTable} of the
+ * nodes hosting each user. Registered on the broker channel, it forwards each message published here for
+ * {@code /topic/chat/{userId}[/...]} to the nodes hosting that user, and any other broker destination to every
+ * peer, over the {@link PeerLink} of each of them; messages received from peers are published on the local broker
+ * channel, marked so that they are not forwarded again. Only the destination, content type and payload cross the
+ * relay. Events between the services of the nodes ({@link #broadcast}) take the same path under a destination
+ * outside the broker prefix, and are handed to their handler instead of the broker.
+ *
+ * The route of a user carries the presence status they chose, so that the {@link PresenceService} of every node
+ * sees the sessions held by the others ({@link PresenceService.ClusterView}).
+ *
+ * {@code cluster.peers} lists the relay addresses ({@code host:port}) of the nodes and may include this node, so
+ * that every node shares the same list; several nodes run on one host with their own {@code server.port} and
+ * {@code cluster.port}. The relay lag is measured with the clocks of both nodes.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class ClusterRelay implements ChannelInterceptor, RelayListener.Handler, PresenceService.ClusterView {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRelay.class);
+    // En-tête des messages reçus d'un autre nœud, valeur : le nœud d'origine
+    public static final String RELAYED_HEADER = "clusterRelayedFrom";
+    // Destination des événements entre nœuds : hors du préfixe du broker, jamais remis aux sessions
+    private static final String EVENT_PREFIX = "cluster:";
+
+    private final MessageChannel brokerChannel;
+    private final String nodeId;
+    private final String destinationPrefix;
+    private final String userDestinationPrefix;
+    private final RoutingTable routingTable = new RoutingTable();
+    // Session STOMP locale -> utilisateur, et nombre de sessions locales par utilisateur
+    private final Map<String, String> localSessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> localUsers = new ConcurrentHashMap<>();
+    // Statut de présence choisi par chaque utilisateur, ici et sur les autres nœuds
+    private final Map<String, String> localStatuses = new ConcurrentHashMap<>();
+    private final Map<String, String> remoteStatuses = new ConcurrentHashMap<>();
+    private final PresenceService presenceService;
+    private final List<PeerLink> links = new ArrayList<>();
+    private final Map<String, PeerLink> linksByNode = new ConcurrentHashMap<>();
+    private final RelayListener listener;
+    private final MeterRegistry meterRegistry;
+    // Mesures de réception par nœud d'origine
+    private final Map<String, NodeMeters> nodeMeters = new ConcurrentHashMap<>();
+    private final Counter unrouted;
+    private final Map<String, Consumer<byte[]>> eventHandlers = new ConcurrentHashMap<>();
+
+    public ClusterRelay(@Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                        @Lazy PresenceService presenceService, MeterRegistry meterRegistry,
+                        @Value("${websocket.destination-prefix:/topic}") String destinationPrefix,
+                        ClusterNode node,
+                        @Value("${cluster.bind-address:127.0.0.1}") String bindAddress,
+                        @Value("${cluster.port:9101}") int port,
+                        @Value("${cluster.peers:}") String peers,
+                        @Value("${cluster.secret:}") String secret,
+                        @Value("${cluster.relay.batch-bytes:65536}") int batchBytes,
+                        @Value("${cluster.relay.linger-ms:1}") long lingerMillis,
+                        @Value("${cluster.relay.queue-bytes:16777216}") long queueBytes,
+                        @Value("${cluster.relay.reconnect-ms:1000}") long reconnectMillis) throws IOException {
+        this.brokerChannel = brokerChannel;
+        this.presenceService = presenceService;
+        this.nodeId = node.id();
+        this.destinationPrefix = destinationPrefix + "/";
+        this.userDestinationPrefix = destinationPrefix + "/chat/";
+        this.meterRegistry = meterRegistry;
+        this.unrouted = Counter.builder("chat.cluster.relay.unrouted")
+            .description("Messages for a node whose relay connection was never established")
+            .register(meterRegistry);
+        Gauge.builder("chat.cluster.routes", routingTable, RoutingTable::size)
+            .description("Users with sessions on other cluster nodes")
+            .register(meterRegistry);
+        Gauge.builder("chat.cluster.local.users", localUsers, Map::size)
+            .description("Users with sessions on this cluster node")
+            .register(meterRegistry);
+
+        this.listener = new RelayListener(bindAddress, port, this.nodeId, secret, this);
+        for (String peer : peers.split(",")) {
+            String address = peer.trim();
+            int separator = address.lastIndexOf(':');
+            if (separator <= 0) {
+                if (!address.isEmpty()) {
+                    logger.warn("Ignoring cluster peer '{}': expected host:port", address);
+                }
+                continue;
+            }
+            links.add(new PeerLink(address.substring(0, separator),
+                Integer.parseInt(address.substring(separator + 1)), this.nodeId, secret, this::localRoutes,
+                link -> linksByNode.put(link.nodeId(), link), batchBytes, lingerMillis, reconnectMillis,
+                queueBytes, meterRegistry));
+        }
+        listener.start();
+        for (PeerLink link : links) {
+            link.start();
+        }
+        logger.info("Cluster node {} relaying on {}:{} to {} peers", this.nodeId, bindAddress, listener.port(),
+            links.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        for (PeerLink link : links) {
+            link.stop();
+        }
+        listener.stop();
+    }
+
+    /**
+     * Sends {@code payload} to every other node, which hands it to the handler registered there for {@code event}.
+     * Like the relay of broker messages, a node that is not connected at that time never receives it.
+     */
+    public void broadcast(String event, byte[] payload) {
+        byte[] frame = null;
+        for (PeerLink link : linksByNode.values()) {
+            frame = frame != null ? frame
+                : RelayProtocol.publish(System.currentTimeMillis(), EVENT_PREFIX + event, null, payload);
+            link.publish(frame);
+        }
+    }
+
+    /**
+     * Registers the handler of the {@code event}s broadcast by the other nodes, called on the thread of their
+     * relay connection.
+     */
+    public void onEvent(String event, Consumer<byte[]> handler) {
+        eventHandlers.put(event, handler);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (SimpMessageType.MESSAGE.equals(messageType)) {
+            forward(message);
+        } else if (SimpMessageType.CONNECT.equals(messageType) && sessionId != null) {
+            Principal user = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+            if (user != null) {
+                localConnected(sessionId, user.getName());
+            }
+        } else if (SimpMessageType.DISCONNECT.equals(messageType) && sessionId != null) {
+            localDisconnected(sessionId);
+        }
+        return message;
+    }
+
+    private void forward(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(destinationPrefix)
+                || message.getHeaders().containsKey(RELAYED_HEADER) || links.isEmpty()) {
+            return;
+        }
+        Object payload = message.getPayload();
+        byte[] bytes = payload instanceof byte[] ? (byte[]) payload
+            : payload instanceof String ? ((String) payload).getBytes(StandardCharsets.UTF_8) : null;
+        if (bytes == null) {
+            logger.debug("Not relaying {}: payload of type {}", destination, payload.getClass().getName());
+            return;
+        }
+        String userId = userOf(destination);
+        byte[] frame = null;
+        if (userId == null) {
+            for (PeerLink link : linksByNode.values()) {
+                frame = frame != null ? frame : frame(destination, message, bytes);
+                link.publish(frame);
+            }
+            return;
+        }
+        for (String node : routingTable.nodesOf(userId)) {
+            PeerLink link = linksByNode.get(node);
+            if (link == null) {
+                unrouted.increment();
+                continue;
+            }
+            frame = frame != null ? frame : frame(destination, message, bytes);
+            link.publish(frame);
+        }
+    }
+
+    private static byte[] frame(String destination, Message<?> message, byte[] payload) {
+        // MimeType ou chaîne selon l'émetteur
+        Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        return RelayProtocol.publish(System.currentTimeMillis(), destination,
+            contentType != null ? contentType.toString() : null, payload);
+    }
+
+    // Première session locale d'un utilisateur et fin de la dernière : annoncées aux pairs dans l'ordre des changements
+    private synchronized void localConnected(String sessionId, String userId) {
+        String previous = localSessions.put(sessionId, userId);
+        if (userId.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            release(previous);
+        }
+        if (localUsers.merge(userId, 1, Integer::sum) == 1) {
+            announce(userId, statusOf(userId));
+        }
+    }
+
+    private synchronized void localDisconnected(String sessionId) {
+        String userId = localSessions.remove(sessionId);
+        if (userId != null) {
+            release(userId);
+        }
+    }
+
+    private void release(String userId) {
+        if (localUsers.computeIfPresent(userId, (user, count) -> count > 1 ? count - 1 : null) == null) {
+            localStatuses.remove(userId);
+            announce(userId, null);
+        }
+    }
+
+    // Statut null : l'utilisateur n'a plus de session sur ce nœud
+    private void announce(String userId, String status) {
+        byte[] frame = status != null ? RelayProtocol.routeAdd(userId, status) : RelayProtocol.routeRemove(userId);
+        for (PeerLink link : links) {
+            link.route(frame);
+        }
+    }
+
+    private String statusOf(String userId) {
+        String status = localStatuses.get(userId);
+        if (status == null) {
+            status = remoteStatuses.get(userId);
+        }
+        return status != null ? status : PresenceService.ONLINE;
+    }
+
+    private List<byte[]> localRoutes() {
+        List<byte[]> routes = new ArrayList<>(localUsers.size());
+        for (String userId : localUsers.keySet()) {
+            routes.add(RelayProtocol.routeAdd(userId, statusOf(userId)));
+        }
+        return routes;
+    }
+
+    @Override
+    public String remoteStatus(String userId) {
+        if (routingTable.nodesOf(userId).isEmpty()) {
+            return null;
+        }
+        return remoteStatuses.getOrDefault(userId, PresenceService.ONLINE);
+    }
+
+    @Override
+    public synchronized void statusChosen(String userId, String status) {
+        // Le CONNECT peut arriver ici après PresenceService : le statut est alors annoncé avec la route
+        localStatuses.put(userId, status);
+        if (localUsers.containsKey(userId)) {
+            announce(userId, status);
+        }
+    }
+
+    @Override
+    public void connected(String node) {
+        // Routes annoncées de nouveau par la connexion : rien n'est publié pour ce nœud toujours présent
+        for (String userId : routingTable.removeNode(node)) {
+            remoteStatuses.remove(userId);
+        }
+        logger.info("Cluster node {} connected", node);
+    }
+
+    @Override
+    public void routeAdded(String node, String userId, String status) {
+        routingTable.add(node, userId);
+        String previous = remoteStatuses.put(userId, status);
+        if (!status.equals(previous)) {
+            // Un statut est celui de l'utilisateur sur tous les nœuds
+            localStatuses.computeIfPresent(userId, (user, local) -> status);
+            presenceService.remoteStatusChosen(userId, status);
+        }
+    }
+
+    @Override
+    public void routeRemoved(String node, String userId) {
+        routingTable.remove(node, userId);
+        if (routingTable.nodesOf(userId).isEmpty()) {
+            remoteStatuses.remove(userId);
+        }
+    }
+
+    @Override
+    public void publish(String node, long sentAt, String destination, String contentType, byte[] payload) {
+        NodeMeters meters = nodeMeters.computeIfAbsent(node, id -> new NodeMeters(id, meterRegistry));
+        meters.lag.record(Math.max(0, System.currentTimeMillis() - sentAt), TimeUnit.MILLISECONDS);
+        meters.messages.increment();
+        meters.bytes.increment(RelayProtocol.publishSize(destination, contentType, payload.length));
+        if (destination.startsWith(EVENT_PREFIX)) {
+            handleEvent(node, destination.substring(EVENT_PREFIX.length()), payload);
+            return;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        if (contentType != null) {
+            headers.setContentType(MimeType.valueOf(contentType));
+        }
+        headers.setHeader(RELAYED_HEADER, node);
+        try {
+            brokerChannel.send(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+        } catch (RuntimeException e) {
+            logger.warn("Cannot deliver {} relayed from {}: {}", destination, node, e.getMessage());
+        }
+    }
+
+    private void handleEvent(String node, String event, byte[] payload) {
+        Consumer<byte[]> handler = eventHandlers.get(event);
+        if (handler == null) {
+            logger.debug("No handler for event {} from {}", event, node);
+            return;
+        }
+        try {
+            handler.accept(payload);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot handle event {} from {}: {}", event, node, e.getMessage());
+        }
+    }
+
+    @Override
+    public void disconnected(String node) {
+        // Le nœud parti ne publiera pas la déconnexion de ses utilisateurs : chaque nœud restant le fait
+        for (String userId : routingTable.removeNode(node)) {
+            String status = remoteStatuses.remove(userId);
+            presenceService.remoteSessionsLost(userId, status != null ? status : PresenceService.ONLINE);
+        }
+        logger.info("Cluster node {} disconnected, its routes are dropped", node);
+    }
+
+    private String userOf(String destination) {
+        if (!destination.startsWith(userDestinationPrefix)) {
+            return null;
+        }
+        int end = destination.indexOf('/', userDestinationPrefix.length());
+        return end < 0 ? destination.substring(userDestinationPrefix.length())
+            : destination.substring(userDestinationPrefix.length(), end);
+    }
+
+    private static final class NodeMeters {
+        final Timer lag;
+        final Counter messages;
+        final Counter bytes;
+
+        NodeMeters(String node, MeterRegistry meterRegistry) {
+            this.lag = Timer.builder("chat.cluster.relay.lag")
+                .description("Time from publish on a node to delivery to the broker of this node")
+                .tag("peer", node)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+            this.messages = Counter.builder("chat.cluster.relay.messages")
+                .description("Messages relayed between cluster nodes")
+                .tag("direction", "in")
+                .tag("peer", node)
+                .register(meterRegistry);
+            this.bytes = Counter.builder("chat.cluster.relay.bytes")
+                .description("Bytes of relay frames between cluster nodes")
+                .tag("direction", "in")
+                .tag("peer", node)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.chatrealtime.cluster;
+
+import com.chatrealtime.archive.ArchiveStore;
+import com.chatrealtime.model.Message;
+import com.chatrealtime.search.SearchIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the search index and the archive of every node in step in cluster mode: each node keeps its own copy of
+ * them ({@link ClusterNode#dataPath}), fed by the messages it writes and by the changes the other nodes broadcast
+ * over the {@link ClusterRelay}.
+ *
+ * A node indexes the messages sent through it and broadcasts them; it deletes from its index the messages expired
+ * by its own timers and broadcasts their ids; the leader appends each batch it archives and broadcasts it.
+ * Retention sweeps already run on every node. A node that was not connected when a change was broadcast misses it
+ * for good: its files are then rebuilt from those of another node.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class ClusterReplication {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterReplication.class);
+    private static final String INDEXED = "search.indexed";
+    private static final String EXPIRED = "search.expired";
+    private static final String ARCHIVED = "archive.appended";
+
+    private final ClusterRelay relay;
+    private final SearchIndex searchIndex;
+    private final ArchiveStore archiveStore;
+    private final ObjectMapper objectMapper;
+
+    public ClusterReplication(ClusterRelay relay, SearchIndex searchIndex, ArchiveStore archiveStore,
+                              ObjectMapper objectMapper) {
+        this.relay = relay;
+        this.searchIndex = searchIndex;
+        this.archiveStore = archiveStore;
+        this.objectMapper = objectMapper;
+        relay.onEvent(INDEXED, payload -> {
+            Change change = read(payload);
+            for (Message message : change.messages) {
+                searchIndex.index(change.chatId, message);
+            }
+        });
+        relay.onEvent(EXPIRED, payload -> {
+            Change change = read(payload);
+            searchIndex.delete(change.chatId, change.messageIds);
+        });
+        relay.onEvent(ARCHIVED, payload -> {
+            Change change = read(payload);
+            try {
+                archiveStore.append(change.chatId, change.messages);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * A message written here has been indexed.
+     */
+    public void indexed(String chatId, Message message) {
+        broadcast(INDEXED, new Change(chatId, Collections.singletonList(message), Collections.emptyList()));
+    }
+
+    /**
+     * Messages expired here have been deleted from the index.
+     */
+    public void expired(String chatId, Collection<String> messageIds) {
+        broadcast(EXPIRED, new Change(chatId, Collections.emptyList(), new ArrayList<>(messageIds)));
+    }
+
+    /**
+     * A batch has been archived here, by the leader.
+     */
+    public void archived(String chatId, List<Message> messages) {
+        broadcast(ARCHIVED, new Change(chatId, messages, Collections.emptyList()));
+    }
+
+    private void broadcast(String event, Change change) {
+        try {
+            relay.broadcast(event, objectMapper.writeValueAsBytes(change));
+        } catch (IOException e) {
+            logger.error("Cannot broadcast {} for {}: {}", event, change.chatId, e.getMessage());
+        }
+    }
+
+    private Change read(byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, Change.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Corps des événements : messages indexés ou archivés, ou identifiants des messages supprimés
+    static final class Change {
+        public String chatId;
+        public List<Message> messages = Collections.emptyList();
+        public List<String> messageIds = Collections.emptyList();
+
+        Change() {
+        }
+
+        Change(String chatId, List<Message> messages, List<String> messageIds) {
+            this.chatId = chatId;
+            this.messages = messages;
+            this.messageIds = messageIds;
+        }
+    }
+}
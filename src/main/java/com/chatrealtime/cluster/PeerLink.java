@@ -0,0 +1,302 @@
+package com.chatrealtime.cluster;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Connection from this node to one peer, opened again after every failure.
+ *
+ * Frames are queued by the publishing threads and written by the link thread in batches: after the first frame it
+ * waits up to {@code lingerMillis} for more, up to {@code batchBytes}, then flushes once. Published messages are
+ * kept while the peer is unreachable, within {@code maxQueuedBytes}, and dropped beyond it; those of a batch whose
+ * write failed are sent again on the next connection, so a peer may receive a message twice but does not lose it
+ * to a connection closed under the writer. Route changes are only queued while connected: each connection starts
+ * with the full list of local users, which covers those missed.
+ */
+final class PeerLink implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(PeerLink.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final String peer;
+    private final byte[] hello;
+    private final String localNodeId;
+    private final String secret;
+    private final Supplier<List<byte[]>> localRoutes;
+    private final Consumer<PeerLink> onHandshake;
+    private final int batchBytes;
+    private final long lingerNanos;
+    private final long reconnectMillis;
+    private final long maxQueuedBytes;
+    private final BlockingDeque<Frame> queue = new LinkedBlockingDeque<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Counter messagesSent;
+    private final Counter bytesSent;
+    private final Counter dropped;
+    private final DistributionSummary batchFrames;
+    private volatile String nodeId;
+    private volatile Thread thread;
+    // Modifié sous le verrou du lien, avec la purge des routes en attente
+    private boolean connected;
+
+    PeerLink(String host, int port, String localNodeId, String secret, Supplier<List<byte[]>> localRoutes,
+             Consumer<PeerLink> onHandshake, int batchBytes, long lingerMillis, long reconnectMillis,
+             long maxQueuedBytes, MeterRegistry meterRegistry) {
+        this.host = host;
+        this.port = port;
+        this.peer = host + ":" + port;
+        this.hello = RelayProtocol.hello(localNodeId, secret);
+        this.localNodeId = localNodeId;
+        this.secret = secret;
+        this.localRoutes = localRoutes;
+        this.onHandshake = onHandshake;
+        this.batchBytes = Math.max(1024, batchBytes);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.reconnectMillis = Math.max(100, reconnectMillis);
+        this.maxQueuedBytes = Math.max(0, maxQueuedBytes);
+        this.messagesSent = Counter.builder("chat.cluster.relay.messages")
+            .description("Messages relayed between cluster nodes")
+            .tag("direction", "out")
+            .tag("peer", peer)
+            .register(meterRegistry);
+        this.bytesSent = Counter.builder("chat.cluster.relay.bytes")
+            .description("Bytes of relay frames between cluster nodes")
+            .tag("direction", "out")
+            .tag("peer", peer)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.dropped = Counter.builder("chat.cluster.relay.dropped")
+            .description("Messages for a peer dropped because its queue was full")
+            .tag("peer", peer)
+            .register(meterRegistry);
+        this.batchFrames = DistributionSummary.builder("chat.cluster.relay.batch.frames")
+            .description("Frames written to a peer per flush")
+            .tag("peer", peer)
+            .register(meterRegistry);
+        Gauge.builder("chat.cluster.relay.queue", queuedBytes, AtomicLong::get)
+            .description("Bytes of messages waiting to be relayed to a peer")
+            .tag("peer", peer)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Node id of the peer, known after the first handshake.
+     */
+    String nodeId() {
+        return nodeId;
+    }
+
+    String peer() {
+        return peer;
+    }
+
+    void start() {
+        Thread writer = new Thread(this, "cluster-relay-" + peer);
+        writer.setDaemon(true);
+        thread = writer;
+        writer.start();
+    }
+
+    void stop() {
+        Thread writer = thread;
+        thread = null;
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * Queues a published message, unless the messages already waiting for this peer exceed the limit.
+     */
+    void publish(byte[] frame) {
+        if (queuedBytes.addAndGet(frame.length) > maxQueuedBytes) {
+            queuedBytes.addAndGet(-frame.length);
+            dropped.increment();
+            return;
+        }
+        queue.add(new Frame(frame, true));
+    }
+
+    /**
+     * Queues a change of the local routes; ignored while disconnected, the next connection sending them all.
+     */
+    synchronized void route(byte[] frame) {
+        if (connected) {
+            queue.add(new Frame(frame, false));
+        }
+    }
+
+    @Override
+    public void run() {
+        while (thread == Thread.currentThread()) {
+            boolean established = false;
+            try (Socket socket = new Socket()) {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), batchBytes);
+                if (!handshake(socket, out)) {
+                    return;
+                }
+                established = true;
+                watchClose(socket);
+                List<byte[]> routes;
+                synchronized (this) {
+                    connected = true;
+                    // Lue après connected = true : une route changée ensuite est aussi mise en file
+                    routes = localRoutes.get();
+                }
+                for (byte[] route : routes) {
+                    out.write(route);
+                }
+                out.flush();
+                logger.info("Cluster relay to {} ({}) connected, {} local users announced", peer, nodeId,
+                    routes.size());
+                writeBatches(out);
+            } catch (IOException e) {
+                // Pair arrêté : une seule alerte à la perte de la connexion, pas à chaque nouvel essai
+                if (established) {
+                    logger.warn("Cluster relay to {} lost: {}", peer, e.getMessage());
+                } else {
+                    logger.debug("Cluster relay to {} unavailable: {}", peer, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnected();
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private boolean handshake(Socket socket, OutputStream out) throws IOException {
+        out.write(hello);
+        out.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        if (in.readByte() != RelayProtocol.HELLO) {
+            throw new IOException("Unexpected handshake answer");
+        }
+        String peerNodeId = in.readUTF();
+        int version = in.readInt();
+        if (version != RelayProtocol.VERSION || !RelayProtocol.secretMatches(secret, in.readUTF())) {
+            throw new IOException("Peer " + peerNodeId + " speaks relay version " + version
+                + " or has another cluster secret");
+        }
+        socket.setSoTimeout(0);
+        if (localNodeId.equals(peerNodeId)) {
+            // Liste de pairs commune à tous les nœuds : celui-ci y figure aussi
+            logger.info("Cluster peer {} is this node, not relaying to it", peer);
+            thread = null;
+            return false;
+        }
+        nodeId = peerNodeId;
+        onHandshake.accept(this);
+        return true;
+    }
+
+    // Le pair n'écrit plus après la poignée de main : une lecture qui aboutit signale sa fermeture, la socket est
+    // alors fermée pour que l'écriture suivante échoue au lieu de partir dans le vide
+    private void watchClose(Socket socket) {
+        Thread watcher = new Thread(() -> {
+            try {
+                while (socket.getInputStream().read() >= 0) {
+                    // Rien n'est attendu du pair
+                }
+            } catch (IOException e) {
+                // Socket fermée par l'écrivain ou coupée
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close relay connection to {}: {}", peer, e.getMessage());
+            }
+        }, "cluster-relay-watch-" + peer);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void writeBatches(OutputStream out) throws IOException, InterruptedException {
+        List<Frame> batch = new ArrayList<>();
+        while (thread == Thread.currentThread()) {
+            Frame frame = queue.poll(1, TimeUnit.SECONDS);
+            if (frame == null) {
+                continue;
+            }
+            batch.clear();
+            long bytes = 0;
+            long deadline = System.nanoTime() + lingerNanos;
+            while (frame != null) {
+                batch.add(frame);
+                bytes += frame.bytes.length;
+                if (bytes >= batchBytes) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                frame = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            }
+            try {
+                for (Frame written : batch) {
+                    out.write(written.bytes);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // Remis en tête de file pour la prochaine connexion, dans l'ordre
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    queue.addFirst(batch.get(i));
+                }
+                throw e;
+            }
+            int messages = 0;
+            for (Frame written : batch) {
+                if (written.message) {
+                    queuedBytes.addAndGet(-written.bytes.length);
+                    messages++;
+                }
+            }
+            messagesSent.increment(messages);
+            bytesSent.increment(bytes);
+            batchFrames.record(batch.size());
+        }
+    }
+
+    private synchronized void disconnected() {
+        connected = false;
+        queue.removeIf(frame -> !frame.message);
+    }
+
+    private static final class Frame {
+        final byte[] bytes;
+        final boolean message;
+
+        Frame(byte[] bytes, boolean message) {
+            this.bytes = bytes;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.chatrealtime.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accepts the relay connections of the other nodes and decodes their frames, one thread per connection.
+ *
+ * A node has at most one live connection: when it connects again, its previous connection is closed and the
+ * frames still read from it are ignored, so that its routes are only those announced on the new one.
+ */
+final class RelayListener implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(RelayListener.class);
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receives what the other nodes send; called on the connection threads.
+     */
+    interface Handler {
+        /**
+         * A node connected: the routes it announced before are forgotten.
+         */
+        void connected(String nodeId);
+
+        /**
+         * {@code userId} has a session on the node, in the presence status {@code status}.
+         */
+        void routeAdded(String nodeId, String userId, String status);
+
+        void routeRemoved(String nodeId, String userId);
+
+        void publish(String nodeId, long sentAt, String destination, String contentType, byte[] payload);
+
+        /**
+         * The connection of a node was lost: its routes are forgotten.
+         */
+        void disconnected(String nodeId);
+    }
+
+    private final ServerSocket serverSocket;
+    private final String nodeId;
+    private final String secret;
+    private final Handler handler;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private volatile Thread thread;
+
+    RelayListener(String bindAddress, int port, String nodeId, String secret, Handler handler) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.handler = handler;
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    void start() {
+        Thread acceptor = new Thread(this, "cluster-relay-accept");
+        acceptor.setDaemon(true);
+        thread = acceptor;
+        acceptor.start();
+    }
+
+    void stop() {
+        thread = null;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.debug("Cannot close the relay server socket: {}", e.getMessage());
+        }
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (thread == Thread.currentThread()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(new Connection(socket)::run,
+                    "cluster-relay-in-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (thread == Thread.currentThread()) {
+                    logger.warn("Cluster relay accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        private final Socket socket;
+        private String peerNodeId;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            try {
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (!handshake(in)) {
+                    return;
+                }
+                socket.setSoTimeout(0);
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == RelayProtocol.PUBLISH) {
+                        long sentAt = in.readLong();
+                        String destination = in.readUTF();
+                        String contentType = in.readUTF();
+                        byte[] payload = RelayProtocol.readPayload(in);
+                        if (isCurrent()) {
+                            handler.publish(peerNodeId, sentAt, destination,
+                                contentType.isEmpty() ? null : contentType, payload);
+                        }
+                    } else if (type == RelayProtocol.ROUTE_ADD) {
+                        String userId = in.readUTF();
+                        String status = in.readUTF();
+                        synchronized (RelayListener.this) {
+                            if (isCurrent()) {
+                                handler.routeAdded(peerNodeId, userId, status);
+                            }
+                        }
+                    } else if (type == RelayProtocol.ROUTE_REMOVE) {
+                        String userId = in.readUTF();
+                        synchronized (RelayListener.this) {
+                            if (isCurrent()) {
+                                handler.routeRemoved(peerNodeId, userId);
+                            }
+                        }
+                    } else {
+                        throw new IOException("Unknown relay frame type " + type);
+                    }
+                }
+            } catch (EOFException e) {
+                logger.info("Cluster node {} closed its relay connection", peerNodeId);
+            } catch (SocketTimeoutException e) {
+                logger.warn("Cluster relay handshake from {} timed out", socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (thread != null) {
+                    logger.warn("Cluster relay connection from {} failed: {}", peerNodeId != null ? peerNodeId
+                        : socket.getRemoteSocketAddress(), e.getMessage());
+                }
+            } finally {
+                close();
+                if (peerNodeId != null) {
+                    synchronized (RelayListener.this) {
+                        if (connections.remove(peerNodeId, this)) {
+                            handler.disconnected(peerNodeId);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean handshake(DataInputStream in) throws IOException {
+            if (in.readByte() != RelayProtocol.HELLO) {
+                throw new IOException("Relay connection without handshake");
+            }
+            String id = in.readUTF();
+            int version = in.readInt();
+            if (version != RelayProtocol.VERSION || !RelayProtocol.secretMatches(secret, in.readUTF())) {
+                logger.warn("Rejected relay connection from {} ({}): relay version {} or cluster secret differs",
+                    socket.getRemoteSocketAddress(), id, version);
+                return false;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(RelayProtocol.hello(nodeId, secret));
+            out.flush();
+            if (nodeId.equals(id)) {
+                // Ce nœud s'est joint lui-même : il ferme le lien de son côté
+                return false;
+            }
+            peerNodeId = id;
+            synchronized (RelayListener.this) {
+                Connection previous = connections.put(id, this);
+                if (previous != null) {
+                    previous.close();
+                }
+                handler.connected(id);
+            }
+            return true;
+        }
+
+        private boolean isCurrent() {
+            return connections.get(peerNodeId) == this;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close relay connection: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.chatrealtime.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Frames exchanged over the relay connections between cluster nodes: a type byte followed by the fields of the
+ * frame, written with {@link DataOutputStream}.
+ *
+ * A connection carries one direction. The dialing node sends {@code HELLO} (its node id, the protocol version and
+ * the cluster secret) and the accepting node answers with its own {@code HELLO}; the dialing node then sends one
+ * {@code ROUTE_ADD} per user with a session on it, followed by route changes and published messages. A
+ * {@code ROUTE_ADD} carries the presence status chosen by the user and is sent again when it changes.
+ */
+final class RelayProtocol {
+    static final int VERSION = 2;
+    static final byte HELLO = 1;
+    static final byte ROUTE_ADD = 2;
+    static final byte ROUTE_REMOVE = 3;
+    static final byte PUBLISH = 4;
+    // Au-delà, la connexion est considérée comme corrompue
+    static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+
+    private RelayProtocol() {
+    }
+
+    static byte[] hello(String nodeId, String secret) {
+        return frame(HELLO, out -> {
+            out.writeUTF(nodeId);
+            out.writeInt(VERSION);
+            out.writeUTF(secret);
+        });
+    }
+
+    static byte[] routeAdd(String userId, String status) {
+        return frame(ROUTE_ADD, out -> {
+            out.writeUTF(userId);
+            out.writeUTF(status);
+        });
+    }
+
+    static byte[] routeRemove(String userId) {
+        return frame(ROUTE_REMOVE, out -> out.writeUTF(userId));
+    }
+
+    static byte[] publish(long sentAt, String destination, String contentType, byte[] payload) {
+        return frame(PUBLISH, out -> {
+            out.writeLong(sentAt);
+            out.writeUTF(destination);
+            out.writeUTF(contentType != null ? contentType : "");
+            out.writeInt(payload.length);
+            out.write(payload);
+        });
+    }
+
+    /**
+     * Size of the {@code PUBLISH} frame of a message, for the receiving side's metrics.
+     */
+    static int publishSize(String destination, String contentType, int payloadBytes) {
+        return 1 + 8 + 2 + destination.getBytes(StandardCharsets.UTF_8).length
+            + 2 + (contentType != null ? contentType.getBytes(StandardCharsets.UTF_8).length : 0) + 4 + payloadBytes;
+    }
+
+    static byte[] readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Invalid relay payload length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    static boolean secretMatches(String expected, String received) {
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+            received.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] frame(byte type, FrameWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            // Écriture en mémoire : seul un champ trop long (writeUTF > 64 Ko) peut échouer
+            throw new IllegalArgumentException("Cannot encode relay frame: " + e.getMessage(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface FrameWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,74 @@
+package com.chatrealtime.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Nodes hosting sessions of each user, as announced by the other cluster nodes; this node is not in it.
+ */
+final class RoutingTable {
+    private final Map<String, Set<String>> nodesByUser = new ConcurrentHashMap<>();
+
+    int size() {
+        return nodesByUser.size();
+    }
+
+    /**
+     * Returns the nodes hosting sessions of {@code userId}, empty when the user is only on this node or offline.
+     */
+    Set<String> nodesOf(String userId) {
+        return nodesByUser.getOrDefault(userId, Collections.emptySet());
+    }
+
+    void add(String nodeId, String userId) {
+        // Ensembles immuables remplacés en entier : nodesOf se lit sans verrou
+        nodesByUser.compute(userId, (user, nodes) -> {
+            if (nodes != null && nodes.contains(nodeId)) {
+                return nodes;
+            }
+            Set<String> updated = nodes != null ? new HashSet<>(nodes) : new HashSet<>(2);
+            updated.add(nodeId);
+            return Collections.unmodifiableSet(updated);
+        });
+    }
+
+    void remove(String nodeId, String userId) {
+        nodesByUser.computeIfPresent(userId, (user, nodes) -> without(nodes, nodeId));
+    }
+
+    /**
+     * Forgets the routes of a node.
+     *
+     * @return The users left without any node
+     */
+    List<String> removeNode(String nodeId) {
+        List<String> gone = new ArrayList<>();
+        for (String userId : nodesByUser.keySet()) {
+            nodesByUser.computeIfPresent(userId, (user, nodes) -> {
+                Set<String> updated = without(nodes, nodeId);
+                if (updated == null) {
+                    gone.add(user);
+                }
+                return updated;
+            });
+        }
+        return gone;
+    }
+
+    private static Set<String> without(Set<String> nodes, String nodeId) {
+        if (!nodes.contains(nodeId)) {
+            return nodes;
+        }
+        if (nodes.size() == 1) {
+            return null;
+        }
+        Set<String> updated = new HashSet<>(nodes);
+        updated.remove(nodeId);
+        return Collections.unmodifiableSet(updated);
+    }
+}
@@ -0,0 +1,100 @@
+package com.chatrealtime.config;
+
+import com.chatrealtime.broker.ShardedBrokerMessageHandler;
+import com.chatrealtime.util.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.user.UserDestinationResolver;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * STOMP messaging configuration, as set up by {@code @EnableWebSocketMessageBroker} with the
+ * {@link WebSocketConfig} settings, except for the broker: {@link ShardedBrokerMessageHandler} replaces the
+ * simple broker.
+ *
+ * With {@code execution.virtual-threads=true} on a JDK that supports them, the client inbound and outbound
+ * channels run each message on its own virtual thread instead of the default bounded pools.
+ */
+@Configuration
+public class BrokerConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${websocket.destination-prefix:/topic}")
+    private String destinationPrefix;
+
+    @Value("${websocket.broker.shards:0}")
+    private int shards;
+
+    @Value("${websocket.broker.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${websocket.heartbeat.interval:25000}")
+    private long heartbeatInterval;
+
+    @Value("${websocket.payload.binary-enabled:true}")
+    private boolean binaryPayloads;
+
+    @Value("${websocket.replay.types:messages,receipts,expired}")
+    private String replayTypes;
+
+    @Value("${websocket.replay.per-user:256}")
+    private int replayPerUser;
+
+    @Value("${websocket.replay.max-bytes:67108864}")
+    private long replayMaxBytes;
+
+    @Value("${execution.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    @Override
+    public TaskExecutor clientInboundChannelExecutor() {
+        if (virtualThreads && VirtualThreads.isAvailable()) {
+            return VirtualThreads.newThreadPerTaskExecutor("clientInboundChannel-")::execute;
+        }
+        return super.clientInboundChannelExecutor();
+    }
+
+    @Bean
+    @Override
+    public TaskExecutor clientOutboundChannelExecutor() {
+        if (virtualThreads && VirtualThreads.isAvailable()) {
+            return VirtualThreads.newThreadPerTaskExecutor("clientOutboundChannel-")::execute;
+        }
+        return super.clientOutboundChannelExecutor();
+    }
+
+    @Bean
+    @Override
+    public AbstractBrokerMessageHandler simpleBrokerMessageHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel,
+            @Qualifier("brokerChannel") AbstractSubscribableChannel brokerChannel,
+            UserDestinationResolver userDestinationResolver) {
+        Set<String> types = new HashSet<>();
+        for (String type : replayTypes.split(",")) {
+            if (!type.trim().isEmpty()) {
+                types.add(type.trim());
+            }
+        }
+        ShardedBrokerMessageHandler handler = new ShardedBrokerMessageHandler(clientInboundChannel,
+            clientOutboundChannel, brokerChannel, destinationPrefix, shards, queueCapacity, heartbeatInterval,
+            binaryPayloads, types, replayPerUser, replayMaxBytes, meterRegistry);
+        // Le canal sortant est un pool (ou un thread virtuel par trame) : sans cela, les trames rejouées et les
+        // suivantes d'une même session peuvent être écrites dans le désordre
+        handler.setPreservePublishOrder(true);
+        return handler;
+    }
+}
@@ -1,6 +1,6 @@
 package com.chatrealtime.config;
 
-import com.google.firebase.database.*;
+import com.chatrealtime.database.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,13 +14,13 @@ import java.util.concurrent.*;
 @Component
 public class DataInitializer {
     private static final Logger logger = LoggerFactory.getLogger(DataInitializer.class);
-    private final FirebaseDatabase database;
+    private final RealtimeDatabase database;
     private static final int INIT_TIMEOUT_SECONDS = 30;
     private static final int MAX_RETRIES = 3;
     private static final long RETRY_DELAY_MS = 2000;
 
     @Autowired
-    public DataInitializer(FirebaseDatabase database) {
+    public DataInitializer(RealtimeDatabase database) {
         this.database = database;
     }
 
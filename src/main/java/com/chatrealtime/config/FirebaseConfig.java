@@ -1,5 +1,7 @@
 package com.chatrealtime.config;
 
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.firebase.FirebaseRealtimeDatabase;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
@@ -9,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.core.io.ClassPathResource;
 
 import javax.annotation.PostConstruct;
@@ -16,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 @Configuration
+@Profile("!inmemory")
 public class FirebaseConfig {
     private static final Logger logger = LoggerFactory.getLogger(FirebaseConfig.class);
     private FirebaseDatabase database;
@@ -93,4 +97,12 @@ public class FirebaseConfig {
     public FirebaseDatabase firebaseDatabase() {
         return database;
     }
+
+    @Bean
+    public RealtimeDatabase realtimeDatabase() {
+        RealtimeDatabase realtimeDatabase = new FirebaseRealtimeDatabase(database);
+        // Le client Swing n'est pas géré par Spring et passe par l'instance statique
+        RealtimeDatabase.setInstance(realtimeDatabase);
+        return realtimeDatabase;
+    }
 } 
\ No newline at end of file
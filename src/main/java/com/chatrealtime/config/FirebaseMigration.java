@@ -1,6 +1,6 @@
 package com.chatrealtime.config;
 
-import com.google.firebase.database.*;
+import com.chatrealtime.database.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,11 +18,11 @@ import java.util.concurrent.TimeoutException;
 @Component
 public class FirebaseMigration {
     private static final Logger logger = LoggerFactory.getLogger(FirebaseMigration.class);
-    private final FirebaseDatabase database;
+    private final RealtimeDatabase database;
     private final PasswordEncoder passwordEncoder;
 
     @Autowired
-    public FirebaseMigration(FirebaseDatabase database, PasswordEncoder passwordEncoder) {
+    public FirebaseMigration(RealtimeDatabase database, PasswordEncoder passwordEncoder) {
         this.database = database;
         this.passwordEncoder = passwordEncoder;
     }
@@ -236,6 +236,7 @@ public class FirebaseMigration {
         group1.put("description", "Team discussion group");
         group1.put("createdAt", System.currentTimeMillis());
         group1.put("createdBy", "user1");
+        group1.put("members", Collections.singletonMap("user1", true));
         groups.put("group1", group1);
 
         // Groupe 2
@@ -245,6 +246,7 @@ public class FirebaseMigration {
         group2.put("description", "Friends group chat");
         group2.put("createdAt", System.currentTimeMillis());
         group2.put("createdBy", "user2");
+        group2.put("members", Collections.singletonMap("user2", true));
         groups.put("group2", group2);
 
         return groups;
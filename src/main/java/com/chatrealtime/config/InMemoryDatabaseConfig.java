@@ -0,0 +1,30 @@
+package com.chatrealtime.config;
+
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.memory.InMemoryDatabase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Replaces {@link FirebaseConfig} under the {@code inmemory} profile: the application boots against an
+ * in-process JSON tree, without credentials or network.
+ */
+@Configuration
+@Profile("inmemory")
+public class InMemoryDatabaseConfig {
+
+    @Value("${database.memory.latency-ms:0}")
+    private long latencyMs;
+
+    @Value("${database.memory.jitter-ms:0}")
+    private long jitterMs;
+
+    @Bean(destroyMethod = "close")
+    public RealtimeDatabase realtimeDatabase() {
+        InMemoryDatabase database = new InMemoryDatabase(latencyMs, jitterMs);
+        RealtimeDatabase.setInstance(database);
+        return database;
+    }
+}
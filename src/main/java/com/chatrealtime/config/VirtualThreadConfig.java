@@ -0,0 +1,34 @@
+package com.chatrealtime.config;
+
+import com.chatrealtime.util.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs Tomcat request handling on virtual threads when {@code execution.virtual-threads=true} and the JDK
+ * supports them; the STOMP channels follow the same switch in {@link BrokerConfig}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "execution.virtual-threads", havingValue = "true")
+public class VirtualThreadConfig {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (!VirtualThreads.isAvailable()) {
+                logger.warn("Virtual threads requested but not supported by Java {}, keeping the Tomcat thread pool",
+                    System.getProperty("java.version"));
+                return;
+            }
+            // Un thread virtuel par requête à la place du pool de server.tomcat.threads.max threads
+            protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-"));
+            logger.info("Tomcat requests handled on virtual threads");
+        };
+    }
+}
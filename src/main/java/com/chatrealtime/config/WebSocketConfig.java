@@ -1,25 +1,85 @@
 package com.chatrealtime.config;
 
+import com.chatrealtime.broker.BinaryPayloadConverter;
+import com.chatrealtime.broker.OutboundBackpressure;
+import com.chatrealtime.broker.OutboundCompression;
+import com.chatrealtime.broker.PresenceChannelInterceptor;
+import com.chatrealtime.cluster.ClusterRelay;
+import com.chatrealtime.security.StompAuthChannelInterceptor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+import java.util.List;
+
+// Le broker de messages est déclaré par BrokerConfig
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Autowired
+    private StompAuthChannelInterceptor stompAuthChannelInterceptor;
+
+    @Autowired
+    private PresenceChannelInterceptor presenceChannelInterceptor;
+
+    @Autowired
+    private OutboundBackpressure outboundBackpressure;
+
+    @Autowired
+    private OutboundCompression outboundCompression;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Présent avec cluster.enabled=true
+    @Autowired(required = false)
+    private ClusterRelay clusterRelay;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
         config.setApplicationDestinationPrefixes("/app");
+        if (clusterRelay != null) {
+            // Messages publiés ici relayés vers les nœuds qui hébergent leurs destinataires
+            config.configureBrokerChannel().interceptors(clusterRelay);
+        }
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
                 .setAllowedOrigins("*")
+                .addInterceptors(outboundCompression)
                 .withSockJS();
     }
-} 
\ No newline at end of file
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Le JWT est vérifié une fois au CONNECT, pas à chaque trame ; la présence suit les sessions authentifiées
+        registration.interceptors(stompAuthChannelInterceptor, presenceChannelInterceptor);
+        if (clusterRelay != null) {
+            // Sessions locales annoncées aux autres nœuds
+            registration.interceptors(clusterRelay);
+        }
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Charges utiles binaires (content-type application/octet-stream), en plus des convertisseurs par défaut
+        messageConverters.add(new BinaryPayloadConverter(objectMapper));
+        return true;
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Envois non bloquants et tampon borné par session ; la compression, déclarée après, s'applique au plus
+        // près de la session native, une fois les trames sorties du tampon
+        registration.addDecoratorFactory(outboundBackpressure);
+        registration.addDecoratorFactory(outboundCompression);
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import org.springframework.http.HttpStatus;
 
 @RestController
@@ -29,23 +31,29 @@ public class AuthController {
         String name = request.get("name");
 
         return authService.register(email, password, name)
-            .thenApply(ResponseEntity::ok)
+            .<ResponseEntity<User>>thenApply(ResponseEntity::ok)
             .exceptionally(throwable -> {
                 logger.error("Registration error: {}", throwable.getMessage());
+                if (isOverloaded(throwable)) {
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+                }
                 return ResponseEntity.badRequest().build();
             });
     }
 
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody Map<String, String> credentials) {
+    public CompletableFuture<ResponseEntity<User>> login(@RequestBody Map<String, String> credentials) {
         logger.info("Received login request for email: {}", credentials.get("email"));
-        try {
-            User user = authService.login(credentials.get("email"), credentials.get("password"));
-            return ResponseEntity.ok(user);
-        } catch (Exception e) {
-            logger.error("Login error: {}", e);
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        }
+        return authService.login(credentials.get("email"), credentials.get("password"))
+            .<ResponseEntity<User>>thenApply(ResponseEntity::ok)
+            .exceptionally(throwable -> {
+                if (isOverloaded(throwable)) {
+                    logger.warn("Login refused, password hashing saturated");
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+                }
+                logger.error("Login error: {}", throwable.getMessage());
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            });
     }
 
     @PostMapping("/logout")
@@ -74,6 +82,13 @@ public class AuthController {
             .exceptionally(throwable -> ResponseEntity.<Void>badRequest().build());
     }
 
+    // File de hachage pleine : le client peut réessayer plus tard
+    private static boolean isOverloaded(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+        return cause instanceof RejectedExecutionException;
+    }
+
     private String extractUserIdFromToken(String token) {
         if (token != null && token.startsWith("Bearer ")) {
             token = token.substring(7);
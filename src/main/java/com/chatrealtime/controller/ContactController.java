@@ -2,10 +2,12 @@ package com.chatrealtime.controller;
 
 import com.chatrealtime.model.User;
 import com.chatrealtime.service.ContactService;
+import com.chatrealtime.service.UserDirectory;
 import com.chatrealtime.security.JwtTokenProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -19,6 +21,9 @@ public class ContactController {
     @Autowired
     private ContactService contactService;
 
+    @Autowired
+    private UserDirectory userDirectory;
+
     @Autowired
     private JwtTokenProvider jwtTokenProvider;
 
@@ -54,6 +59,16 @@ public class ContactController {
         return handleVoidFuture(contactService.removeContact(userId, contactId));
     }
 
+    // Recherche d'un utilisateur par email, pour l'ajout de contact
+    @GetMapping("/users/lookup")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> lookupUser(@RequestParam String email) {
+        return userDirectory.findUserId(email.trim())
+            .<ResponseEntity<Map<String, String>>>thenApply(userId -> userId == null
+                ? ResponseEntity.notFound().build()
+                : ResponseEntity.ok(Collections.singletonMap("id", userId)))
+            .exceptionally(throwable -> ResponseEntity.<Map<String, String>>badRequest().build());
+    }
+
     private String extractUserIdFromToken(String token) {
         if (token != null && token.startsWith("Bearer ")) {
             token = token.substring(7);
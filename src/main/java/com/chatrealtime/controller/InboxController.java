@@ -0,0 +1,55 @@
+package com.chatrealtime.controller;
+
+import com.chatrealtime.model.ConversationSummary;
+import com.chatrealtime.security.JwtTokenProvider;
+import com.chatrealtime.service.InboxService;
+import com.chatrealtime.service.ReadMarkerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/api")
+@CrossOrigin
+public class InboxController {
+
+    @Autowired
+    private InboxService inboxService;
+
+    @Autowired
+    private ReadMarkerService readMarkerService;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    // Boîte de réception : toutes les conversations en une lecture, la plus récente en premier
+    @GetMapping("/inbox")
+    public CompletableFuture<ResponseEntity<List<ConversationSummary>>> getInbox(
+            @RequestHeader("Authorization") String token,
+            @RequestParam(defaultValue = "" + InboxService.DEFAULT_INBOX_SIZE) int limit) {
+        String userId = extractUserIdFromToken(token);
+        return inboxService.getInbox(userId, limit)
+            .thenApply(ResponseEntity::ok)
+            .exceptionally(throwable -> ResponseEntity.<List<ConversationSummary>>badRequest().build());
+    }
+
+    @PostMapping("/inbox/{chatId}/read")
+    public CompletableFuture<ResponseEntity<Void>> markConversationRead(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String chatId) {
+        String userId = extractUserIdFromToken(token);
+        return readMarkerService.markConversationRead(userId, chatId)
+            .thenApply(ignored -> ResponseEntity.ok().<Void>build())
+            .exceptionally(throwable -> ResponseEntity.<Void>badRequest().build());
+    }
+
+    private String extractUserIdFromToken(String token) {
+        if (token != null && token.startsWith("Bearer ")) {
+            token = token.substring(7);
+        }
+        return jwtTokenProvider.getUserIdFromToken(token);
+    }
+}
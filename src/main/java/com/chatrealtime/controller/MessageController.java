@@ -0,0 +1,141 @@
+package com.chatrealtime.controller;
+
+import com.chatrealtime.model.ConversationPolicy;
+import com.chatrealtime.model.MessagePage;
+import com.chatrealtime.security.JwtTokenProvider;
+import com.chatrealtime.service.MessageExpiryService;
+import com.chatrealtime.service.MessageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+@RestController
+@RequestMapping("/api")
+@CrossOrigin
+public class MessageController {
+    private static final Logger logger = LoggerFactory.getLogger(MessageController.class);
+    private static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MessageExpiryService expiryService;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    // Historique paginé : une page avant le curseur (before, beforeId)
+    @GetMapping("/messages/{peerId}")
+    public CompletableFuture<ResponseEntity<MessagePage>> getHistory(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String peerId,
+            @RequestParam(defaultValue = "private") String type,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) String beforeId,
+            @RequestParam(defaultValue = "" + MessageService.DEFAULT_PAGE_SIZE) int size) {
+        String userId = extractUserIdFromToken(token);
+        return messageService.getHistory(userId, peerId, type, before, beforeId, size)
+            .thenApply(ResponseEntity::ok)
+            .exceptionally(throwable -> ResponseEntity.status(statusOf(throwable)).<MessagePage>build());
+    }
+
+    // Historique en flux : une page JSON par ligne, envoyée dès qu'elle est lue
+    @GetMapping(value = "/messages/{peerId}/stream", produces = NDJSON)
+    public ResponseBodyEmitter streamHistory(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String peerId,
+            @RequestParam(defaultValue = "private") String type,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) String beforeId,
+            @RequestParam(defaultValue = "" + MessageService.DEFAULT_PAGE_SIZE) int size,
+            @RequestParam(defaultValue = "10") int pages) {
+        String userId = extractUserIdFromToken(token);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        messageService.streamHistory(userId, peerId, type, before, beforeId, size, pages, page -> {
+                try {
+                    emitter.send(page, MediaType.APPLICATION_JSON);
+                    emitter.send("\n", MediaType.TEXT_PLAIN);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    logger.debug("History stream for {} stopped: {}", peerId, throwable.getMessage());
+                    emitter.completeWithError(throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause() : throwable);
+                } else {
+                    emitter.complete();
+                }
+            });
+        return emitter;
+    }
+
+    // Messages éphémères et rétention de la conversation (0 : pas de limite)
+    @GetMapping("/messages/{peerId}/policy")
+    public CompletableFuture<ResponseEntity<ConversationPolicy>> getPolicy(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String peerId,
+            @RequestParam(defaultValue = "private") String type) {
+        String userId = extractUserIdFromToken(token);
+        return messageService.conversationId(userId, peerId, type)
+            .thenApply(chatId -> ResponseEntity.ok(expiryService.getPolicy(chatId)))
+            .exceptionally(throwable -> ResponseEntity.status(statusOf(throwable)).<ConversationPolicy>build());
+    }
+
+    @PutMapping("/messages/{peerId}/policy")
+    public CompletableFuture<ResponseEntity<Void>> setPolicy(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String peerId,
+            @RequestParam(defaultValue = "private") String type,
+            @RequestBody ConversationPolicy policy) {
+        String userId = extractUserIdFromToken(token);
+        if (policy.getTtlSeconds() < 0 || policy.getRetentionDays() < 0) {
+            return CompletableFuture.completedFuture(ResponseEntity.<Void>badRequest().build());
+        }
+        // Dans un groupe, les événements vont aux membres du moment, lus par le service à chaque annonce
+        List<String> participants = "group".equals(type) ? Collections.emptyList()
+            : new ArrayList<>(Arrays.asList(userId, peerId));
+        return messageService.conversationId(userId, peerId, type)
+            .thenCompose(chatId -> expiryService.setPolicy(chatId, policy.getTtlSeconds(),
+                policy.getRetentionDays(), participants))
+            .thenApply(ignored -> ResponseEntity.ok().<Void>build())
+            .exceptionally(throwable -> ResponseEntity.status(statusOf(throwable)).<Void>build());
+    }
+
+    // Flux refusé avant sa première page
+    @ExceptionHandler(AccessDeniedException.class)
+    public ResponseEntity<Void> accessDenied() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+
+    // Conversation de groupe dont l'utilisateur n'est pas membre : 403, toute autre erreur : 400
+    private static HttpStatus statusOf(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+        return cause instanceof AccessDeniedException ? HttpStatus.FORBIDDEN : HttpStatus.BAD_REQUEST;
+    }
+
+    private String extractUserIdFromToken(String token) {
+        if (token != null && token.startsWith("Bearer ")) {
+            token = token.substring(7);
+        }
+        return jwtTokenProvider.getUserIdFromToken(token);
+    }
+}
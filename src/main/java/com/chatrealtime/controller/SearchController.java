@@ -0,0 +1,44 @@
+package com.chatrealtime.controller;
+
+import com.chatrealtime.model.SearchHit;
+import com.chatrealtime.search.SearchIndex;
+import com.chatrealtime.security.JwtTokenProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/api")
+@CrossOrigin
+public class SearchController {
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    // Recherche dans les conversations de l'utilisateur : mots, préfixes (bon*) et phrases ("à demain")
+    @GetMapping("/search")
+    public CompletableFuture<ResponseEntity<List<SearchHit>>> search(
+            @RequestHeader("Authorization") String token,
+            @RequestParam String q,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "20") int limit) {
+        String userId = extractUserIdFromToken(token);
+        return searchIndex.search(userId, q, from, to, limit)
+            .thenApply(ResponseEntity::ok)
+            .exceptionally(throwable -> ResponseEntity.<List<SearchHit>>badRequest().build());
+    }
+
+    private String extractUserIdFromToken(String token) {
+        if (token != null && token.startsWith("Bearer ")) {
+            token = token.substring(7);
+        }
+        return jwtTokenProvider.getUserIdFromToken(token);
+    }
+}
@@ -2,20 +2,36 @@ package com.chatrealtime.controller;
 
 import com.chatrealtime.model.Message;
 import com.chatrealtime.service.MessageService;
+import com.chatrealtime.service.PresenceService;
+import com.chatrealtime.service.TypingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
-import java.util.Arrays;
+import java.security.Principal;
+import java.util.Map;
 
 @Controller
 public class WebSocketController {
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketController.class);
 
     @Autowired
     private MessageService messageService;
 
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private TypingService typingService;
+
+    @Autowired
+    private PresenceService presenceService;
+
     @MessageMapping("/chat.send")
     public void sendMessage(@Payload Message message, SimpMessageHeaderAccessor headerAccessor) {
         String userId = getUserId(headerAccessor);
@@ -31,35 +47,68 @@ public class WebSocketController {
     }
 
     @MessageMapping("/chat.typing")
-    public void notifyTyping(@Payload Message message, SimpMessageHeaderAccessor headerAccessor) {
+    public void notifyTyping(@Payload Map<String, Object> request, SimpMessageHeaderAccessor headerAccessor) {
         String userId = getUserId(headerAccessor);
-        // Envoyer une notification de saisie aux autres utilisateurs
-        String destination = "/topic/chat/" + message.getTo() + "/typing";
-        // Le MessageService s'occupe d'envoyer la notification
+        // Signal éphémère : rien n'est écrit, le TypingService regroupe et publie sur /topic/chat/{to}/typing
+        Object typing = request.get("typing");
+        typingService.signal(userId, (String) request.get("to"),
+            typing == null || Boolean.parseBoolean(typing.toString()));
+    }
+
+    @MessageMapping("/presence.status")
+    public void updatePresence(@Payload Map<String, String> request, SimpMessageHeaderAccessor headerAccessor) {
+        String status = request.get("status");
+        if (status != null) {
+            presenceService.setStatus(getUserId(headerAccessor), status);
+        }
     }
 
     @MessageMapping("/chat.read")
-    public void markAsRead(@Payload Message message, SimpMessageHeaderAccessor headerAccessor) {
+    public void markAsRead(@Payload Map<String, Object> request, SimpMessageHeaderAccessor headerAccessor) {
         String userId = getUserId(headerAccessor);
-        String chatId = getChatId(message.getFrom(), message.getTo());
-        messageService.markAsRead(message.getId(), chatId);
+        // Position du dernier message lu, pas un accusé par message : le marqueur de la conversation avance
+        Object peerId = request.get("peerId");
+        Object messageId = request.get("messageId");
+        Object timestamp = request.get("timestamp");
+        if (peerId == null || messageId == null || !(timestamp instanceof Number)) {
+            return;
+        }
+        Object type = request.get("type");
+        messageService.markAsRead(userId, peerId.toString(), type != null ? type.toString() : "private",
+            ((Number) timestamp).longValue(), messageId.toString());
     }
 
-    private String getUserId(SimpMessageHeaderAccessor headerAccessor) {
-        // Récupérer l'ID utilisateur depuis le token JWT dans les en-têtes
-        String token = headerAccessor.getFirstNativeHeader("Authorization");
-        if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            // Extract user ID from JWT token
-            return "userId"; // Implementation needed
+    @MessageMapping("/chat.history")
+    public void streamHistory(@Payload Map<String, String> request, SimpMessageHeaderAccessor headerAccessor) {
+        String userId = getUserId(headerAccessor);
+        String destination = "/topic/chat/" + userId + "/history";
+        String peerId = request.get("peerId");
+        Long before;
+        int size;
+        int pages;
+        try {
+            before = request.get("before") != null ? Long.valueOf(request.get("before")) : null;
+            size = request.get("size") != null ? Integer.parseInt(request.get("size")) : MessageService.DEFAULT_PAGE_SIZE;
+            pages = request.get("pages") != null ? Integer.parseInt(request.get("pages")) : 1;
+        } catch (NumberFormatException e) {
+            logger.debug("Invalid history request from {}: {}", userId, e.getMessage());
+            return;
         }
-        throw new IllegalStateException("Non authentifié");
+        if (peerId == null) {
+            return;
+        }
+        // Chaque page est publiée dès qu'elle est lue, la plus récente en premier ; nombre de pages plafonné par le service
+        messageService.streamHistory(userId, peerId, request.getOrDefault("type", "private"),
+                before, request.get("beforeId"), size, pages,
+                page -> messagingTemplate.convertAndSend(destination, page));
     }
 
-    private String getChatId(String userId1, String userId2) {
-        // Pour les chats individuels, créer un ID unique et cohérent
-        String[] ids = {userId1, userId2};
-        Arrays.sort(ids);
-        return "private_" + ids[0] + "_" + ids[1];
+    private String getUserId(SimpMessageHeaderAccessor headerAccessor) {
+        // Utilisateur lié à la session lors du CONNECT (StompAuthChannelInterceptor)
+        Principal user = headerAccessor.getUser();
+        if (user == null) {
+            throw new IllegalStateException("Non authentifié");
+        }
+        return user.getName();
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.chatrealtime.database;
+
+/**
+ * Immutable copy of the data at a location, as seen when an event was raised.
+ */
+public interface DataSnapshot {
+
+    String getKey();
+
+    boolean exists();
+
+    Object getValue();
+
+    <T> T getValue(Class<T> valueType);
+
+    DataSnapshot child(String path);
+
+    boolean hasChild(String path);
+
+    Iterable<DataSnapshot> getChildren();
+
+    long getChildrenCount();
+
+    DatabaseReference getRef();
+}
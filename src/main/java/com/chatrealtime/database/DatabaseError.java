@@ -0,0 +1,40 @@
+package com.chatrealtime.database;
+
+/**
+ * Error reported to listeners and completion callbacks.
+ */
+public class DatabaseError {
+    public static final int OPERATION_FAILED = -2;
+    public static final int PERMISSION_DENIED = -3;
+    public static final int DISCONNECTED = -4;
+    public static final int UNKNOWN_ERROR = -999;
+
+    private final int code;
+    private final String message;
+
+    public DatabaseError(int code, String message) {
+        this.code = code;
+        this.message = message;
+    }
+
+    public static DatabaseError fromException(Throwable e) {
+        return new DatabaseError(UNKNOWN_ERROR, e.getMessage());
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public DatabaseException toException() {
+        return new DatabaseException(message);
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseError: " + message;
+    }
+}
@@ -0,0 +1,61 @@
+package com.chatrealtime.database;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A location in the tree. Writes are applied in the order they are issued by this process.
+ */
+public interface DatabaseReference extends Query {
+
+    DatabaseReference child(String path);
+
+    /**
+     * Returns a child location with a new, chronologically ordered key.
+     */
+    DatabaseReference push();
+
+    String getKey();
+
+    String getPath();
+
+    void setValue(Object value, CompletionListener listener);
+
+    CompletableFuture<Void> setValueAsync(Object value);
+
+    /**
+     * Writes several locations relative to this one atomically. Keys may be paths (e.g. {@code "a/b/c"}).
+     */
+    void updateChildren(Map<String, Object> update, CompletionListener listener);
+
+    CompletableFuture<Void> updateChildrenAsync(Map<String, Object> update);
+
+    void removeValue(CompletionListener listener);
+
+    CompletableFuture<Void> removeValueAsync();
+
+    /**
+     * Replaces the value of this location with the one {@code transaction} computes from it, atomically: no other
+     * write is applied between the value read and the value written (Firebase {@code runTransaction}).
+     *
+     * @return Whether a value was written, {@code false} when the transaction returned {@link Transaction#ABORT}
+     */
+    CompletableFuture<Boolean> runTransaction(Transaction transaction);
+
+    interface CompletionListener {
+        void onComplete(DatabaseError error, DatabaseReference ref);
+    }
+
+    interface Transaction {
+        /**
+         * Returned by {@link #apply} to leave the location unchanged.
+         */
+        Object ABORT = new Object();
+
+        /**
+         * Computes the new value from the current one ({@code null} when absent, maps being plain and mutable).
+         * May be called several times, with the latest value: it must not have side effects.
+         */
+        Object apply(Object current);
+    }
+}
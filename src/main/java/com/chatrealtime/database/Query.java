@@ -0,0 +1,46 @@
+package com.chatrealtime.database;
+
+/**
+ * Ordered, filtered view of the children of a location. Listeners are invoked on the database event thread.
+ */
+public interface Query {
+
+    Query orderByChild(String path);
+
+    Query orderByKey();
+
+    Query startAt(String value);
+
+    Query startAt(double value);
+
+    Query endAt(String value);
+
+    Query endAt(double value);
+
+    /**
+     * Ends at {@code value}, keeping only the children with that value whose key is {@code <= key}.
+     */
+    Query endAt(double value, String key);
+
+    Query equalTo(String value);
+
+    Query equalTo(double value);
+
+    Query equalTo(boolean value);
+
+    Query limitToFirst(int limit);
+
+    Query limitToLast(int limit);
+
+    void addListenerForSingleValueEvent(ValueEventListener listener);
+
+    ValueEventListener addValueEventListener(ValueEventListener listener);
+
+    ChildEventListener addChildEventListener(ChildEventListener listener);
+
+    void removeEventListener(ValueEventListener listener);
+
+    void removeEventListener(ChildEventListener listener);
+
+    DatabaseReference getRef();
+}
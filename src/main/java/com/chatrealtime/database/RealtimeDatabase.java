@@ -0,0 +1,33 @@
+package com.chatrealtime.database;
+
+/**
+ * Entry point of the JSON tree used by the backend and the Swing client.
+ *
+ * Mirrors the subset of the Firebase Realtime Database API the application relies on, so the tree can be
+ * backed either by Firebase ({@link com.chatrealtime.database.firebase.FirebaseRealtimeDatabase}) or by the
+ * in-process stand-in ({@link com.chatrealtime.database.memory.InMemoryDatabase}, profile {@code inmemory}).
+ */
+public abstract class RealtimeDatabase {
+    private static volatile RealtimeDatabase instance;
+
+    /**
+     * Returns the database configured for this process, for code that is not managed by Spring (the Swing UI).
+     *
+     * @throws IllegalStateException if the backend has not initialized the database yet
+     */
+    public static RealtimeDatabase getInstance() {
+        RealtimeDatabase database = instance;
+        if (database == null) {
+            throw new IllegalStateException("Realtime database is not initialized");
+        }
+        return database;
+    }
+
+    public static void setInstance(RealtimeDatabase database) {
+        instance = database;
+    }
+
+    public abstract DatabaseReference getReference();
+
+    public abstract DatabaseReference getReference(String path);
+}
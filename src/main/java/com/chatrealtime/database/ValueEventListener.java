@@ -0,0 +1,6 @@
+package com.chatrealtime.database;
+
+public interface ValueEventListener {
+    void onDataChange(DataSnapshot snapshot);
+    void onCancelled(DatabaseError error);
+}
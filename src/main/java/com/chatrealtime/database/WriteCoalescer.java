@@ -0,0 +1,287 @@
+package com.chatrealtime.database;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind batching of writes to the realtime database.
+ *
+ * Writes submitted within {@code database.write.coalesce-window-ms} of the first pending one are merged into a
+ * single multi-path {@code updateChildren} at the root, so a burst of messages costs one round-trip instead of
+ * several per message. The writes of one {@link #update} call, or of one {@link #batch}, form a group that always
+ * lands in the same batch, and batches are sent in submission order. Each caller's future completes when the batch
+ * carrying its writes is acknowledged.
+ *
+ * Firebase rejects an {@code updateChildren} whose paths overlap. Within a group, a write below another one is folded
+ * into its value and a write above others replaces them; a group that overlaps the pending batch flushes it first.
+ * Pending paths are kept sorted, so both checks cost a few lookups per path.
+ */
+@Component
+public class WriteCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private final DatabaseReference root;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final DistributionSummary batchSize;
+    private final Timer flushLatency;
+    private final Object lock = new Object();
+    private Batch pending;
+    // Écritures du batch() en cours, ajoutées au lot en attente à sa sortie
+    private Batch staged;
+    private int batchDepth;
+
+    public WriteCoalescer(RealtimeDatabase database, MeterRegistry meterRegistry,
+                          @Value("${database.write.coalesce-window-ms:5}") long windowMillis,
+                          @Value("${database.write.max-batch-size:500}") int maxBatchSize) {
+        this.root = database.getReference();
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchSize = DistributionSummary.builder("chat.database.write.batch.size")
+            .description("Number of paths written by one coalesced updateChildren")
+            .register(meterRegistry);
+        this.flushLatency = Timer.builder("chat.database.write.flush.latency")
+            .description("Time between sending a coalesced batch and its acknowledgement")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    /**
+     * Queues {@code writes} (paths relative to the root, {@code null} deleting a location) for the next batch.
+     */
+    public CompletableFuture<Void> update(Map<String, Object> writes) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (batchDepth > 0) {
+                staged.add(writes, future);
+            } else {
+                Batch group = new Batch();
+                group.add(writes, future);
+                enqueueLocked(group);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Runs {@code writes}, guaranteeing that every {@link #update} it issues lands in the same batch, so that
+     * the writes are applied atomically.
+     */
+    public <T> T batch(Supplier<T> writes) {
+        synchronized (lock) {
+            if (batchDepth++ == 0) {
+                staged = new Batch();
+            }
+            try {
+                return writes.get();
+            } finally {
+                if (--batchDepth == 0) {
+                    Batch group = staged;
+                    staged = null;
+                    if (!group.futures.isEmpty()) {
+                        enqueueLocked(group);
+                    }
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (lock) {
+            if (pending != null) {
+                flushLocked();
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    // Le recouvrement n'est vérifié qu'ici, une fois par groupe : un groupe n'est jamais coupé en deux lots
+    private void enqueueLocked(Batch group) {
+        if (pending != null && pending.overlaps(group)) {
+            flushLocked();
+        }
+        if (pending == null) {
+            Batch batch = new Batch();
+            pending = batch;
+            if (windowMillis > 0) {
+                scheduler.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        pending.addAll(group);
+        if (isFull()) {
+            flushLocked();
+        }
+    }
+
+    private boolean isFull() {
+        return windowMillis <= 0 || pending.writes.size() >= maxBatchSize;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (lock) {
+            if (pending == batch) {
+                flushLocked();
+            }
+        }
+    }
+
+    // Appelé sous le verrou : l'envoi est asynchrone et garantit l'ordre des lots
+    private void flushLocked() {
+        Batch batch = pending;
+        pending = null;
+        batchSize.record(batch.writes.size());
+        long start = System.nanoTime();
+        CompletableFuture<Void> result;
+        try {
+            result = root.updateChildrenAsync(batch.writes);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((ignored, error) -> {
+            flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (error != null) {
+                logger.error("Failed to write batch of {} paths: {}", batch.writes.size(), error.getMessage());
+            }
+            for (CompletableFuture<Void> future : batch.futures) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(null);
+                }
+            }
+        });
+    }
+
+    private static final class Batch {
+        // Triés : les descendants d'un chemin forment un intervalle de clés
+        final TreeMap<String, Object> writes = new TreeMap<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        void add(Map<String, Object> update, CompletableFuture<Void> future) {
+            for (Map.Entry<String, Object> write : update.entrySet()) {
+                put(normalize(write.getKey()), write.getValue());
+            }
+            futures.add(future);
+        }
+
+        /**
+         * Adds the writes of a group that does not overlap this batch.
+         */
+        void addAll(Batch group) {
+            // Une écriture plus récente sur le même chemin remplace la précédente
+            writes.putAll(group.writes);
+            futures.addAll(group.futures);
+        }
+
+        boolean overlaps(Batch group) {
+            for (String path : group.writes.keySet()) {
+                if (ancestorOf(path) != null || hasDescendant(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Écrit comme l'auraient fait deux updateChildren successifs, sans laisser de chemins qui se recouvrent
+        private void put(String path, Object value) {
+            if (path.isEmpty()) {
+                writes.clear();
+            } else {
+                // '0' suit '/' : l'intervalle couvre exactement les chemins qui commencent par path/
+                writes.subMap(path + '/', path + '0').clear();
+            }
+            String ancestor = ancestorOf(path);
+            if (ancestor == null) {
+                writes.put(path, value);
+            } else {
+                String relative = ancestor.isEmpty() ? path : path.substring(ancestor.length() + 1);
+                writes.put(ancestor, withChild(writes.get(ancestor), relative, value));
+            }
+        }
+
+        // Au plus un ancêtre : les chemins du lot ne se recouvrent pas
+        private String ancestorOf(String path) {
+            if (path.isEmpty()) {
+                return null;
+            }
+            if (writes.containsKey("")) {
+                return "";
+            }
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                String prefix = path.substring(0, slash);
+                if (writes.containsKey(prefix)) {
+                    return prefix;
+                }
+            }
+            return null;
+        }
+
+        private boolean hasDescendant(String path) {
+            if (path.isEmpty()) {
+                return !writes.isEmpty() && !(writes.size() == 1 && writes.containsKey(""));
+            }
+            String next = writes.ceilingKey(path + '/');
+            return next != null && next.startsWith(path + '/');
+        }
+
+        // Copie la valeur de l'ancêtre le long du chemin : les maps des appelants ne sont jamais modifiées
+        @SuppressWarnings("unchecked")
+        private static Object withChild(Object parent, String relativePath, Object value) {
+            Map<String, Object> root = parent instanceof Map
+                ? new LinkedHashMap<>((Map<String, Object>) parent) : new LinkedHashMap<>();
+            Map<String, Object> node = root;
+            String[] segments = relativePath.split("/");
+            for (int i = 0; i < segments.length - 1; i++) {
+                Object child = node.get(segments[i]);
+                Map<String, Object> copy = child instanceof Map
+                    ? new LinkedHashMap<>((Map<String, Object>) child) : new LinkedHashMap<>();
+                node.put(segments[i], copy);
+                node = copy;
+            }
+            String last = segments[segments.length - 1];
+            if (value == null) {
+                node.remove(last);
+            } else {
+                node.put(last, value);
+            }
+            return root;
+        }
+
+        private static String normalize(String path) {
+            int start = 0;
+            int end = path.length();
+            while (start < end && path.charAt(start) == '/') {
+                start++;
+            }
+            while (end > start && path.charAt(end - 1) == '/') {
+                end--;
+            }
+            return path.substring(start, end);
+        }
+    }
+}
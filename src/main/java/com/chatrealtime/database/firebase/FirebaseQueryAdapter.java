@@ -0,0 +1,174 @@
+package com.chatrealtime.database.firebase;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.Query;
+import com.chatrealtime.database.ValueEventListener;
+
+class FirebaseQueryAdapter implements Query {
+
+    protected final FirebaseRealtimeDatabase database;
+    private final com.google.firebase.database.Query query;
+
+    FirebaseQueryAdapter(FirebaseRealtimeDatabase database, com.google.firebase.database.Query query) {
+        this.database = database;
+        this.query = query;
+    }
+
+    @Override
+    public Query orderByChild(String path) {
+        return wrap(query.orderByChild(path));
+    }
+
+    @Override
+    public Query orderByKey() {
+        return wrap(query.orderByKey());
+    }
+
+    @Override
+    public Query startAt(String value) {
+        return wrap(query.startAt(value));
+    }
+
+    @Override
+    public Query startAt(double value) {
+        return wrap(query.startAt(value));
+    }
+
+    @Override
+    public Query endAt(String value) {
+        return wrap(query.endAt(value));
+    }
+
+    @Override
+    public Query endAt(double value) {
+        return wrap(query.endAt(value));
+    }
+
+    @Override
+    public Query endAt(double value, String key) {
+        return wrap(query.endAt(value, key));
+    }
+
+    @Override
+    public Query equalTo(String value) {
+        return wrap(query.equalTo(value));
+    }
+
+    @Override
+    public Query equalTo(double value) {
+        return wrap(query.equalTo(value));
+    }
+
+    @Override
+    public Query equalTo(boolean value) {
+        return wrap(query.equalTo(value));
+    }
+
+    @Override
+    public Query limitToFirst(int limit) {
+        return wrap(query.limitToFirst(limit));
+    }
+
+    @Override
+    public Query limitToLast(int limit) {
+        return wrap(query.limitToLast(limit));
+    }
+
+    @Override
+    public void addListenerForSingleValueEvent(ValueEventListener listener) {
+        query.addListenerForSingleValueEvent(adapt(listener));
+    }
+
+    @Override
+    public ValueEventListener addValueEventListener(ValueEventListener listener) {
+        query.addValueEventListener((com.google.firebase.database.ValueEventListener)
+            database.registerListener(listener, adapt(listener)));
+        return listener;
+    }
+
+    @Override
+    public ChildEventListener addChildEventListener(ChildEventListener listener) {
+        query.addChildEventListener((com.google.firebase.database.ChildEventListener)
+            database.registerListener(listener, adapt(listener)));
+        return listener;
+    }
+
+    @Override
+    public void removeEventListener(ValueEventListener listener) {
+        Object adapter = database.unregisterListener(listener);
+        if (adapter != null) {
+            query.removeEventListener((com.google.firebase.database.ValueEventListener) adapter);
+        }
+    }
+
+    @Override
+    public void removeEventListener(ChildEventListener listener) {
+        Object adapter = database.unregisterListener(listener);
+        if (adapter != null) {
+            query.removeEventListener((com.google.firebase.database.ChildEventListener) adapter);
+        }
+    }
+
+    @Override
+    public DatabaseReference getRef() {
+        return new FirebaseReferenceAdapter(database, query.getRef());
+    }
+
+    private Query wrap(com.google.firebase.database.Query query) {
+        return new FirebaseQueryAdapter(database, query);
+    }
+
+    private com.google.firebase.database.ValueEventListener adapt(ValueEventListener listener) {
+        return new com.google.firebase.database.ValueEventListener() {
+            @Override
+            public void onDataChange(com.google.firebase.database.DataSnapshot snapshot) {
+                listener.onDataChange(snapshot(snapshot));
+            }
+
+            @Override
+            public void onCancelled(com.google.firebase.database.DatabaseError error) {
+                listener.onCancelled(error(error));
+            }
+        };
+    }
+
+    private com.google.firebase.database.ChildEventListener adapt(ChildEventListener listener) {
+        return new com.google.firebase.database.ChildEventListener() {
+            @Override
+            public void onChildAdded(com.google.firebase.database.DataSnapshot snapshot, String previousChildName) {
+                listener.onChildAdded(snapshot(snapshot), previousChildName);
+            }
+
+            @Override
+            public void onChildChanged(com.google.firebase.database.DataSnapshot snapshot, String previousChildName) {
+                listener.onChildChanged(snapshot(snapshot), previousChildName);
+            }
+
+            @Override
+            public void onChildRemoved(com.google.firebase.database.DataSnapshot snapshot) {
+                listener.onChildRemoved(snapshot(snapshot));
+            }
+
+            @Override
+            public void onChildMoved(com.google.firebase.database.DataSnapshot snapshot, String previousChildName) {
+                listener.onChildMoved(snapshot(snapshot), previousChildName);
+            }
+
+            @Override
+            public void onCancelled(com.google.firebase.database.DatabaseError error) {
+                listener.onCancelled(error(error));
+            }
+        };
+    }
+
+    protected DataSnapshot snapshot(com.google.firebase.database.DataSnapshot snapshot) {
+        return new FirebaseSnapshotAdapter(database, snapshot);
+    }
+
+    static DatabaseError error(com.google.firebase.database.DatabaseError error) {
+        return error == null ? null : new DatabaseError(error.getCode(), error.getMessage());
+    }
+}
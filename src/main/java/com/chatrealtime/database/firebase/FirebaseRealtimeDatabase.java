@@ -0,0 +1,41 @@
+package com.chatrealtime.database.firebase;
+
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RealtimeDatabase} backed by the Firebase Admin SDK.
+ */
+public class FirebaseRealtimeDatabase extends RealtimeDatabase {
+
+    private final FirebaseDatabase database;
+    // Les listeners Firebase doivent être retirés avec l'instance enregistrée
+    private final Map<Object, Object> listenerAdapters = new ConcurrentHashMap<>();
+
+    public FirebaseRealtimeDatabase(FirebaseDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public DatabaseReference getReference() {
+        return new FirebaseReferenceAdapter(this, database.getReference());
+    }
+
+    @Override
+    public DatabaseReference getReference(String path) {
+        return new FirebaseReferenceAdapter(this, database.getReference(path));
+    }
+
+    Object registerListener(Object listener, Object adapter) {
+        listenerAdapters.put(listener, adapter);
+        return adapter;
+    }
+
+    Object unregisterListener(Object listener) {
+        return listenerAdapters.remove(listener);
+    }
+}
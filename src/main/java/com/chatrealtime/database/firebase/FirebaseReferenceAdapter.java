@@ -0,0 +1,121 @@
+package com.chatrealtime.database.firebase;
+
+import com.chatrealtime.database.DatabaseReference;
+import com.google.api.core.ApiFuture;
+import com.google.firebase.database.MutableData;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+class FirebaseReferenceAdapter extends FirebaseQueryAdapter implements DatabaseReference {
+
+    private final com.google.firebase.database.DatabaseReference reference;
+
+    FirebaseReferenceAdapter(FirebaseRealtimeDatabase database, com.google.firebase.database.DatabaseReference reference) {
+        super(database, reference);
+        this.reference = reference;
+    }
+
+    @Override
+    public DatabaseReference child(String path) {
+        return new FirebaseReferenceAdapter(database, reference.child(path));
+    }
+
+    @Override
+    public DatabaseReference push() {
+        return new FirebaseReferenceAdapter(database, reference.push());
+    }
+
+    @Override
+    public String getKey() {
+        return reference.getKey();
+    }
+
+    @Override
+    public String getPath() {
+        return reference.getPath().toString();
+    }
+
+    @Override
+    public void setValue(Object value, CompletionListener listener) {
+        reference.setValue(value, adapt(listener));
+    }
+
+    @Override
+    public CompletableFuture<Void> setValueAsync(Object value) {
+        return toCompletableFuture(reference.setValueAsync(value));
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update, CompletionListener listener) {
+        reference.updateChildren(update, adapt(listener));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateChildrenAsync(Map<String, Object> update) {
+        return toCompletableFuture(reference.updateChildrenAsync(update));
+    }
+
+    @Override
+    public void removeValue(CompletionListener listener) {
+        reference.removeValue(adapt(listener));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeValueAsync() {
+        return toCompletableFuture(reference.removeValueAsync());
+    }
+
+    @Override
+    public CompletableFuture<Boolean> runTransaction(Transaction transaction) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        reference.runTransaction(new com.google.firebase.database.Transaction.Handler() {
+            @Override
+            public com.google.firebase.database.Transaction.Result doTransaction(MutableData currentData) {
+                // Appelé d'abord avec la valeur en cache, puis de nouveau si le serveur en a une autre
+                Object updated = transaction.apply(currentData.getValue());
+                if (updated == Transaction.ABORT) {
+                    return com.google.firebase.database.Transaction.abort();
+                }
+                currentData.setValue(updated);
+                return com.google.firebase.database.Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(com.google.firebase.database.DatabaseError error, boolean committed,
+                                   com.google.firebase.database.DataSnapshot currentData) {
+                if (error != null) {
+                    future.completeExceptionally(error(error).toException());
+                } else {
+                    future.complete(committed);
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public String toString() {
+        return reference.toString();
+    }
+
+    private com.google.firebase.database.DatabaseReference.CompletionListener adapt(CompletionListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return (error, ref) -> listener.onComplete(error(error), this);
+    }
+
+    private static CompletableFuture<Void> toCompletableFuture(ApiFuture<Void> apiFuture) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        apiFuture.addListener(() -> {
+            try {
+                future.complete(apiFuture.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+}
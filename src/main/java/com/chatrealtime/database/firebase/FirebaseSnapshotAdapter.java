@@ -0,0 +1,67 @@
+package com.chatrealtime.database.firebase;
+
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FirebaseSnapshotAdapter implements DataSnapshot {
+
+    private final FirebaseRealtimeDatabase database;
+    private final com.google.firebase.database.DataSnapshot snapshot;
+
+    FirebaseSnapshotAdapter(FirebaseRealtimeDatabase database, com.google.firebase.database.DataSnapshot snapshot) {
+        this.database = database;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public String getKey() {
+        return snapshot.getKey();
+    }
+
+    @Override
+    public boolean exists() {
+        return snapshot.exists();
+    }
+
+    @Override
+    public Object getValue() {
+        return snapshot.getValue();
+    }
+
+    @Override
+    public <T> T getValue(Class<T> valueType) {
+        return snapshot.getValue(valueType);
+    }
+
+    @Override
+    public DataSnapshot child(String path) {
+        return new FirebaseSnapshotAdapter(database, snapshot.child(path));
+    }
+
+    @Override
+    public boolean hasChild(String path) {
+        return snapshot.hasChild(path);
+    }
+
+    @Override
+    public Iterable<DataSnapshot> getChildren() {
+        List<DataSnapshot> children = new ArrayList<>();
+        for (com.google.firebase.database.DataSnapshot child : snapshot.getChildren()) {
+            children.add(new FirebaseSnapshotAdapter(database, child));
+        }
+        return children;
+    }
+
+    @Override
+    public long getChildrenCount() {
+        return snapshot.getChildrenCount();
+    }
+
+    @Override
+    public DatabaseReference getRef() {
+        return new FirebaseReferenceAdapter(database, snapshot.getRef());
+    }
+}
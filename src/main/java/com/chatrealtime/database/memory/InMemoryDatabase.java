@@ -0,0 +1,446 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for the Firebase Realtime Database, used by the {@code inmemory} profile.
+ *
+ * The JSON tree lives in memory and is only touched by a single event thread, which applies writes and raises
+ * events in the order the operations were issued, like the Firebase client does. Every operation (read, write,
+ * listener registration) is delayed by {@code latency} plus a random {@code jitter}, without ever being
+ * reordered, so that throughput and tail latency of the whole stack can be measured reproducibly offline.
+ */
+public class InMemoryDatabase extends RealtimeDatabase implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryDatabase.class);
+    private static final String INFO_PREFIX = ".info";
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final TreeMap<String, Object> root = MemoryValues.newNode();
+    private final TreeMap<String, Object> info = MemoryValues.newNode();
+    private final PushIdGenerator pushIds = new PushIdGenerator();
+    private final DelayQueue<Operation> operations = new DelayQueue<>();
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final Thread eventThread;
+    private final Object scheduleLock = new Object();
+    private long lastDeadline;
+    private long sequence;
+    private volatile boolean closed;
+
+    public InMemoryDatabase() {
+        this(0, 0);
+    }
+
+    public InMemoryDatabase(long latencyMillis, long jitterMillis) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+        this.info.put("connected", Boolean.TRUE);
+        this.eventThread = new Thread(this::runEvents, "memory-database");
+        this.eventThread.setDaemon(true);
+        this.eventThread.start();
+        logger.info("In-memory database started (latency {} ms, jitter {} ms)", latencyMillis, jitterMillis);
+    }
+
+    @Override
+    public DatabaseReference getReference() {
+        return new MemoryReference(this, MemoryPath.ROOT);
+    }
+
+    @Override
+    public DatabaseReference getReference(String path) {
+        return new MemoryReference(this, MemoryPath.normalize(path));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        eventThread.interrupt();
+        operations.clear();
+        registrations.clear();
+    }
+
+    String nextPushId() {
+        return pushIds.next();
+    }
+
+    void readOnce(String path, QuerySpec spec, ValueEventListener listener) {
+        submit(() -> listener.onDataChange(new MemorySnapshot(this, path, current(path, spec))));
+    }
+
+    void addListener(String path, QuerySpec spec, ValueEventListener valueListener, ChildEventListener childListener) {
+        Registration registration = new Registration(path, spec, valueListener, childListener);
+        registrations.add(registration);
+        submit(registration::initialize);
+    }
+
+    void removeListener(String path, Object listener) {
+        for (Registration registration : registrations) {
+            if (registration.path.equals(path) && registration.listener() == listener) {
+                registration.active = false;
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Applies {@code writes} (absolute path to normalized value, {@code null} deleting the location) atomically.
+     */
+    void write(Map<String, Object> writes, DatabaseReference ref, DatabaseReference.CompletionListener listener) {
+        submit(() -> {
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                set(write.getKey(), write.getValue());
+            }
+            dispatch(writes.keySet());
+            if (listener != null) {
+                listener.onComplete(null, ref);
+            }
+        });
+    }
+
+    /**
+     * Applies {@code transaction} to the value at {@code path} on the event thread, where no other write can come
+     * between the read and the write.
+     */
+    CompletableFuture<Boolean> transact(String path, DatabaseReference.Transaction transaction) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        submit(() -> {
+            Object updated;
+            try {
+                updated = transaction.apply(MemoryValues.toPlain(valueAt(path)));
+                if (updated != DatabaseReference.Transaction.ABORT) {
+                    set(path, MemoryValues.normalize(updated));
+                }
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            if (updated == DatabaseReference.Transaction.ABORT) {
+                future.complete(false);
+                return;
+            }
+            dispatch(Collections.singleton(path));
+            future.complete(true);
+        });
+        return future;
+    }
+
+    CompletableFuture<Void> writeAsync(Map<String, Object> writes, DatabaseReference ref) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        write(writes, ref, (error, r) -> {
+            if (error != null) {
+                future.completeExceptionally(error.toException());
+            } else {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    private void submit(Runnable task) {
+        if (closed) {
+            throw new IllegalStateException("In-memory database is closed");
+        }
+        synchronized (scheduleLock) {
+            long deadline = System.nanoTime() + latencyNanos;
+            if (jitterNanos > 0) {
+                deadline += ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+            }
+            // La gigue ne doit jamais réordonner les opérations
+            if (sequence > 0 && deadline - lastDeadline < 0) {
+                deadline = lastDeadline;
+            }
+            lastDeadline = deadline;
+            operations.add(new Operation(deadline, sequence++, task));
+        }
+    }
+
+    private void runEvents() {
+        while (!closed) {
+            try {
+                operations.take().task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Error while processing in-memory database operation", e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object valueAt(String path) {
+        Object current = root;
+        String[] segments = MemoryPath.segments(path);
+        int start = 0;
+        if (segments.length > 0 && INFO_PREFIX.equals(segments[0])) {
+            current = info;
+            start = 1;
+        }
+        for (int i = start; i < segments.length; i++) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<String, Object>) current).get(segments[i]);
+        }
+        if (current instanceof Map && ((Map<String, Object>) current).isEmpty()) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Copy of the query result at {@code path}, owned by the caller.
+     */
+    private Object current(String path, QuerySpec spec) {
+        Object node = valueAt(path);
+        if (spec.isDefault()) {
+            return MemoryValues.copy(node);
+        }
+        LinkedHashMap<String, Object> children = currentChildren(node, spec);
+        return children.isEmpty() ? null : children;
+    }
+
+    private static LinkedHashMap<String, Object> currentChildren(Object node, QuerySpec spec) {
+        LinkedHashMap<String, Object> children = spec.apply(node);
+        children.replaceAll((key, value) -> MemoryValues.copy(value));
+        return children;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void set(String path, Object value) {
+        String[] segments = MemoryPath.segments(path);
+        if (segments.length == 0) {
+            root.clear();
+            if (value instanceof Map) {
+                root.putAll((Map<String, Object>) value);
+            }
+            return;
+        }
+        if (value == null) {
+            remove(segments);
+            return;
+        }
+        TreeMap<String, Object> parent = root;
+        for (int i = 0; i < segments.length - 1; i++) {
+            Object child = parent.get(segments[i]);
+            if (!(child instanceof TreeMap)) {
+                child = MemoryValues.newNode();
+                parent.put(segments[i], child);
+            }
+            parent = (TreeMap<String, Object>) child;
+        }
+        parent.put(segments[segments.length - 1], value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void remove(String[] segments) {
+        List<TreeMap<String, Object>> parents = new ArrayList<>(segments.length);
+        TreeMap<String, Object> parent = root;
+        for (int i = 0; i < segments.length - 1; i++) {
+            parents.add(parent);
+            Object child = parent.get(segments[i]);
+            if (!(child instanceof TreeMap)) {
+                return;
+            }
+            parent = (TreeMap<String, Object>) child;
+        }
+        parent.remove(segments[segments.length - 1]);
+        // Un noeud sans enfant n'existe pas : on remonte en supprimant les parents vidés
+        for (int i = segments.length - 2; i >= 0 && parent.isEmpty(); i--) {
+            TreeMap<String, Object> grandParent = parents.get(i);
+            grandParent.remove(segments[i]);
+            parent = grandParent;
+        }
+    }
+
+    private void dispatch(Set<String> writtenPaths) {
+        for (Registration registration : registrations) {
+            if (!registration.initialized || !registration.active) {
+                continue;
+            }
+            boolean full = false;
+            Set<String> touched = new TreeSet<>(MemoryValues.KEY_ORDER);
+            for (String written : writtenPaths) {
+                if (MemoryPath.contains(written, registration.path)) {
+                    full = true;
+                    break;
+                }
+                if (MemoryPath.contains(registration.path, written)) {
+                    touched.add(MemoryPath.segments(written)[MemoryPath.segments(registration.path).length]);
+                }
+            }
+            if (full || !touched.isEmpty()) {
+                registration.update(full ? null : touched);
+            }
+        }
+    }
+
+    private final class Registration {
+        final String path;
+        final QuerySpec spec;
+        final ValueEventListener valueListener;
+        final ChildEventListener childListener;
+        volatile boolean active = true;
+        volatile boolean initialized;
+        private Object lastValue;
+        private Map<String, Object> lastChildren = new LinkedHashMap<>();
+
+        Registration(String path, QuerySpec spec, ValueEventListener valueListener, ChildEventListener childListener) {
+            this.path = path;
+            this.spec = spec;
+            this.valueListener = valueListener;
+            this.childListener = childListener;
+        }
+
+        Object listener() {
+            return valueListener != null ? valueListener : childListener;
+        }
+
+        void initialize() {
+            if (!active) {
+                return;
+            }
+            initialized = true;
+            if (valueListener != null) {
+                lastValue = current(path, spec);
+                valueListener.onDataChange(new MemorySnapshot(InMemoryDatabase.this, path, lastValue));
+                return;
+            }
+            lastChildren = currentChildren(valueAt(path), spec);
+            String previous = null;
+            for (Map.Entry<String, Object> child : lastChildren.entrySet()) {
+                childListener.onChildAdded(childSnapshot(child.getKey(), MemoryValues.copy(child.getValue())), previous);
+                previous = child.getKey();
+            }
+        }
+
+        /**
+         * Raises the events caused by a write. {@code touched} lists the children that may have changed, or is
+         * {@code null} when the whole location was overwritten.
+         */
+        void update(Set<String> touched) {
+            if (valueListener != null) {
+                Object value = current(path, spec);
+                if (!Objects.equals(value, lastValue)) {
+                    lastValue = value;
+                    valueListener.onDataChange(new MemorySnapshot(InMemoryDatabase.this, path, value));
+                }
+            } else if (touched != null && spec.isDefault()) {
+                updateTouchedChildren(touched);
+            } else {
+                updateAllChildren();
+            }
+        }
+
+        // Sans filtre ni tri par enfant, un changement n'affecte que l'enfant écrit
+        @SuppressWarnings("unchecked")
+        private void updateTouchedChildren(Set<String> touched) {
+            Object node = valueAt(path);
+            TreeMap<String, Object> children = node instanceof TreeMap ? (TreeMap<String, Object>) node : null;
+            for (String key : touched) {
+                Object value = children != null ? MemoryValues.copy(children.get(key)) : null;
+                Object previousValue = lastChildren.get(key);
+                if (Objects.equals(value, previousValue)) {
+                    continue;
+                }
+                if (value == null) {
+                    lastChildren.remove(key);
+                    childListener.onChildRemoved(childSnapshot(key, previousValue));
+                    continue;
+                }
+                lastChildren.put(key, value);
+                String previousKey = children.lowerKey(key);
+                if (previousValue == null) {
+                    childListener.onChildAdded(childSnapshot(key, MemoryValues.copy(value)), previousKey);
+                } else {
+                    childListener.onChildChanged(childSnapshot(key, MemoryValues.copy(value)), previousKey);
+                }
+            }
+        }
+
+        private void updateAllChildren() {
+            Map<String, Object> oldChildren = lastChildren;
+            LinkedHashMap<String, Object> newChildren = currentChildren(valueAt(path), spec);
+            Map<String, String> oldPreviousKeys = previousKeys(oldChildren);
+            lastChildren = newChildren;
+
+            for (Map.Entry<String, Object> old : oldChildren.entrySet()) {
+                if (!newChildren.containsKey(old.getKey())) {
+                    childListener.onChildRemoved(childSnapshot(old.getKey(), old.getValue()));
+                }
+            }
+            String previous = null;
+            for (Map.Entry<String, Object> child : newChildren.entrySet()) {
+                String key = child.getKey();
+                if (!oldChildren.containsKey(key)) {
+                    childListener.onChildAdded(childSnapshot(key, MemoryValues.copy(child.getValue())), previous);
+                } else if (!Objects.equals(oldChildren.get(key), child.getValue())) {
+                    childListener.onChildChanged(childSnapshot(key, MemoryValues.copy(child.getValue())), previous);
+                    if (spec.ordersByChild() && !Objects.equals(oldPreviousKeys.get(key), previous)) {
+                        childListener.onChildMoved(childSnapshot(key, MemoryValues.copy(child.getValue())), previous);
+                    }
+                }
+                previous = key;
+            }
+        }
+
+        private Map<String, String> previousKeys(Map<String, Object> children) {
+            Map<String, String> previousKeys = new LinkedHashMap<>();
+            String previous = null;
+            for (String key : children.keySet()) {
+                previousKeys.put(key, previous);
+                previous = key;
+            }
+            return previousKeys;
+        }
+
+        private MemorySnapshot childSnapshot(String key, Object value) {
+            return new MemorySnapshot(InMemoryDatabase.this, MemoryPath.child(path, key), value);
+        }
+    }
+
+    private static final class Operation implements Delayed {
+        final long deadline;
+        final long sequence;
+        final Runnable task;
+
+        Operation(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Operation operation = (Operation) other;
+            int result = Long.compare(deadline - operation.deadline, 0);
+            return result != 0 ? result : Long.compare(sequence, operation.sequence);
+        }
+    }
+}
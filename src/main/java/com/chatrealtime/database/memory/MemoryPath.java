@@ -0,0 +1,67 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.DatabaseException;
+
+/**
+ * Paths of the in-memory tree, normalized as {@code "a/b/c"} ({@code ""} for the root).
+ */
+final class MemoryPath {
+    static final String ROOT = "";
+
+    private MemoryPath() {
+    }
+
+    static String normalize(String path) {
+        if (path == null) {
+            return ROOT;
+        }
+        StringBuilder normalized = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (normalized.length() > 0) {
+                normalized.append('/');
+            }
+            normalized.append(segment);
+        }
+        return normalized.toString();
+    }
+
+    static String child(String path, String child) {
+        String normalizedChild = normalize(child);
+        if (normalizedChild.isEmpty()) {
+            return path;
+        }
+        return path.isEmpty() ? normalizedChild : path + "/" + normalizedChild;
+    }
+
+    static String[] segments(String path) {
+        return path.isEmpty() ? new String[0] : path.split("/");
+    }
+
+    static String key(String path) {
+        return path.isEmpty() ? null : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Returns true when {@code ancestor} is {@code path} or one of its parents.
+     */
+    static boolean contains(String ancestor, String path) {
+        return ancestor.isEmpty() || path.equals(ancestor)
+            || (path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/');
+    }
+
+    static void validateKey(String key) {
+        if (key.isEmpty() || key.indexOf('.') >= 0 || key.indexOf('#') >= 0 || key.indexOf('$') >= 0
+                || key.indexOf('[') >= 0 || key.indexOf(']') >= 0) {
+            throw new DatabaseException("Invalid key: " + key);
+        }
+    }
+
+    static void validateWritable(String path) {
+        for (String segment : segments(path)) {
+            validateKey(segment);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.Query;
+import com.chatrealtime.database.ValueEventListener;
+
+class MemoryQuery implements Query {
+
+    protected final InMemoryDatabase database;
+    protected final String path;
+    private final QuerySpec spec;
+
+    MemoryQuery(InMemoryDatabase database, String path, QuerySpec spec) {
+        this.database = database;
+        this.path = path;
+        this.spec = spec;
+    }
+
+    @Override
+    public Query orderByChild(String childPath) {
+        return with(spec.orderByChild(childPath));
+    }
+
+    @Override
+    public Query orderByKey() {
+        return with(spec.orderByKey());
+    }
+
+    @Override
+    public Query startAt(String value) {
+        return with(spec.startAt(value));
+    }
+
+    @Override
+    public Query startAt(double value) {
+        return with(spec.startAt(value));
+    }
+
+    @Override
+    public Query endAt(String value) {
+        return with(spec.endAt(value));
+    }
+
+    @Override
+    public Query endAt(double value) {
+        return with(spec.endAt(value));
+    }
+
+    @Override
+    public Query endAt(double value, String key) {
+        return with(spec.endAt(value, key));
+    }
+
+    @Override
+    public Query equalTo(String value) {
+        return with(spec.startAt(value).endAt(value));
+    }
+
+    @Override
+    public Query equalTo(double value) {
+        return with(spec.startAt(value).endAt(value));
+    }
+
+    @Override
+    public Query equalTo(boolean value) {
+        return with(spec.startAt(value).endAt(value));
+    }
+
+    @Override
+    public Query limitToFirst(int limit) {
+        return with(spec.limit(limit, false));
+    }
+
+    @Override
+    public Query limitToLast(int limit) {
+        return with(spec.limit(limit, true));
+    }
+
+    @Override
+    public void addListenerForSingleValueEvent(ValueEventListener listener) {
+        database.readOnce(path, spec, listener);
+    }
+
+    @Override
+    public ValueEventListener addValueEventListener(ValueEventListener listener) {
+        database.addListener(path, spec, listener, null);
+        return listener;
+    }
+
+    @Override
+    public ChildEventListener addChildEventListener(ChildEventListener listener) {
+        database.addListener(path, spec, null, listener);
+        return listener;
+    }
+
+    @Override
+    public void removeEventListener(ValueEventListener listener) {
+        database.removeListener(path, listener);
+    }
+
+    @Override
+    public void removeEventListener(ChildEventListener listener) {
+        database.removeListener(path, listener);
+    }
+
+    @Override
+    public DatabaseReference getRef() {
+        return new MemoryReference(database, path);
+    }
+
+    private Query with(QuerySpec newSpec) {
+        return new MemoryQuery(database, path, newSpec);
+    }
+}
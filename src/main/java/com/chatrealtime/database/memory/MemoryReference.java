@@ -0,0 +1,103 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.DatabaseException;
+import com.chatrealtime.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+class MemoryReference extends MemoryQuery implements DatabaseReference {
+
+    MemoryReference(InMemoryDatabase database, String path) {
+        super(database, path, QuerySpec.DEFAULT);
+    }
+
+    @Override
+    public DatabaseReference child(String childPath) {
+        return new MemoryReference(database, MemoryPath.child(path, childPath));
+    }
+
+    @Override
+    public DatabaseReference push() {
+        return child(database.nextPushId());
+    }
+
+    @Override
+    public String getKey() {
+        return MemoryPath.key(path);
+    }
+
+    @Override
+    public String getPath() {
+        return "/" + path;
+    }
+
+    @Override
+    public void setValue(Object value, CompletionListener listener) {
+        database.write(setWrite(value), this, listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> setValueAsync(Object value) {
+        return database.writeAsync(setWrite(value), this);
+    }
+
+    @Override
+    public void updateChildren(Map<String, Object> update, CompletionListener listener) {
+        database.write(updateWrites(update), this, listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateChildrenAsync(Map<String, Object> update) {
+        return database.writeAsync(updateWrites(update), this);
+    }
+
+    @Override
+    public void removeValue(CompletionListener listener) {
+        setValue(null, listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeValueAsync() {
+        return setValueAsync(null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> runTransaction(Transaction transaction) {
+        MemoryPath.validateWritable(path);
+        return database.transact(path, transaction);
+    }
+
+    @Override
+    public String toString() {
+        return "memory:/" + path;
+    }
+
+    // Les valeurs sont copiées dans le thread appelant : une modification ultérieure de l'objet n'a pas d'effet
+    private Map<String, Object> setWrite(Object value) {
+        MemoryPath.validateWritable(path);
+        return Collections.singletonMap(path, MemoryValues.normalize(value));
+    }
+
+    private Map<String, Object> updateWrites(Map<String, Object> update) {
+        MemoryPath.validateWritable(path);
+        Map<String, Object> writes = new LinkedHashMap<>();
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            String childPath = MemoryPath.child(path, entry.getKey());
+            MemoryPath.validateWritable(childPath);
+            for (String other : paths) {
+                if (MemoryPath.contains(other, childPath) || MemoryPath.contains(childPath, other)) {
+                    throw new DatabaseException("Path '" + childPath + "' overlaps path '" + other + "' in the same update");
+                }
+            }
+            paths.add(childPath);
+            writes.put(childPath, MemoryValues.normalize(entry.getValue()));
+        }
+        return writes;
+    }
+}
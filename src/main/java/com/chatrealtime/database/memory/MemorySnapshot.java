@@ -0,0 +1,90 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot over a private copy of the data, iterated in query order.
+ */
+class MemorySnapshot implements DataSnapshot {
+
+    private final InMemoryDatabase database;
+    private final String path;
+    private final Object value;
+
+    MemorySnapshot(InMemoryDatabase database, String path, Object value) {
+        this.database = database;
+        this.path = path;
+        this.value = value;
+    }
+
+    @Override
+    public String getKey() {
+        return MemoryPath.key(path);
+    }
+
+    @Override
+    public boolean exists() {
+        return value != null;
+    }
+
+    @Override
+    public Object getValue() {
+        return MemoryValues.toPlain(value);
+    }
+
+    @Override
+    public <T> T getValue(Class<T> valueType) {
+        return MemoryValues.convert(value, valueType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DataSnapshot child(String childPath) {
+        String normalized = MemoryPath.normalize(childPath);
+        Object current = value;
+        for (String segment : MemoryPath.segments(normalized)) {
+            current = current instanceof Map ? ((Map<String, Object>) current).get(segment) : null;
+        }
+        return new MemorySnapshot(database, MemoryPath.child(path, normalized), current);
+    }
+
+    @Override
+    public boolean hasChild(String childPath) {
+        return child(childPath).exists();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterable<DataSnapshot> getChildren() {
+        if (!(value instanceof Map)) {
+            return Collections.emptyList();
+        }
+        Map<String, Object> children = (Map<String, Object>) value;
+        List<DataSnapshot> snapshots = new ArrayList<>(children.size());
+        for (Map.Entry<String, Object> child : children.entrySet()) {
+            snapshots.add(new MemorySnapshot(database, MemoryPath.child(path, child.getKey()), child.getValue()));
+        }
+        return snapshots;
+    }
+
+    @Override
+    public long getChildrenCount() {
+        return value instanceof Map ? ((Map<?, ?>) value).size() : 0;
+    }
+
+    @Override
+    public DatabaseReference getRef() {
+        return new MemoryReference(database, path);
+    }
+
+    @Override
+    public String toString() {
+        return "DataSnapshot { key = " + getKey() + ", value = " + value + " }";
+    }
+}
@@ -0,0 +1,214 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.DatabaseException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Value model of the in-memory tree.
+ *
+ * Stored values are {@code String}, {@code Boolean}, {@code Long}, {@code Double} or a {@link TreeMap} of
+ * children sorted with {@link #KEY_ORDER}. Empty maps and {@code null} children do not exist, as in Firebase.
+ * Objects are mapped to that model, and back, with Jackson.
+ */
+final class MemoryValues {
+
+    /**
+     * Firebase key order: keys that parse as 32-bit integers first, numerically, then the others lexicographically.
+     */
+    static final Comparator<String> KEY_ORDER = (a, b) -> {
+        Integer ia = asIndex(a);
+        Integer ib = asIndex(b);
+        if (ia != null && ib != null) {
+            int result = Integer.compare(ia, ib);
+            return result != 0 ? result : Integer.compare(a.length(), b.length());
+        }
+        if (ia != null) {
+            return -1;
+        }
+        if (ib != null) {
+            return 1;
+        }
+        return a.compareTo(b);
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .registerModule(new JavaTimeModule())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private MemoryValues() {
+    }
+
+    static TreeMap<String, Object> newNode() {
+        return new TreeMap<>(KEY_ORDER);
+    }
+
+    /**
+     * Converts a value written by the application to the stored model. Returns {@code null} for values that
+     * delete the location (null, empty map or list).
+     */
+    @SuppressWarnings("unchecked")
+    static Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return normalizeNumber((Number) value);
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if (value instanceof Map) {
+            TreeMap<String, Object> node = newNode();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                MemoryPath.validateKey(key);
+                Object child = normalize(entry.getValue());
+                if (child != null) {
+                    node.put(key, child);
+                }
+            }
+            return node.isEmpty() ? null : node;
+        }
+        if (value instanceof Collection) {
+            TreeMap<String, Object> node = newNode();
+            int index = 0;
+            for (Iterator<?> it = ((Collection<?>) value).iterator(); it.hasNext(); index++) {
+                Object child = normalize(it.next());
+                if (child != null) {
+                    node.put(Integer.toString(index), child);
+                }
+            }
+            return node.isEmpty() ? null : node;
+        }
+        try {
+            return normalize(MAPPER.convertValue(value, Object.class));
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException("Failed to serialize " + value.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Deep copy of a stored value, so that snapshots are not affected by later writes.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object value) {
+        if (!(value instanceof Map)) {
+            return value;
+        }
+        Map<String, Object> source = (Map<String, Object>) value;
+        Map<String, Object> copy = value instanceof TreeMap ? newNode() : new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            copy.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Value handed to the application by {@code DataSnapshot.getValue()}: plain, mutable maps in snapshot order.
+     */
+    @SuppressWarnings("unchecked")
+    static Object toPlain(Object value) {
+        if (!(value instanceof Map)) {
+            return value;
+        }
+        Map<String, Object> plain = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+            plain.put(entry.getKey(), toPlain(entry.getValue()));
+        }
+        return plain;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T convert(Object value, Class<T> type) {
+        if (value == null) {
+            return null;
+        }
+        if (type.isInstance(value) && !(value instanceof Map)) {
+            return (T) value;
+        }
+        try {
+            return MAPPER.convertValue(toPlain(value), type);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException("Failed to convert value of type " + value.getClass().getName()
+                + " to " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Firebase ordering of child values: null, false, true, numbers, strings, then objects.
+     */
+    static int compare(Object a, Object b) {
+        int rank = Integer.compare(rank(a), rank(b));
+        if (rank != 0) {
+            return rank;
+        }
+        if (a instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof String) {
+            return ((String) a).compareTo((String) b);
+        }
+        return 0;
+    }
+
+    private static int rank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 2 : 1;
+        }
+        if (value instanceof Number) {
+            return 3;
+        }
+        if (value instanceof String) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private static Object normalizeNumber(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            // Firebase relit les doubles entiers comme des Long
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 0x1p53) {
+                return (long) d;
+            }
+            return d;
+        }
+        return number.longValue();
+    }
+
+    private static Integer asIndex(String key) {
+        int length = key.length();
+        if (length == 0 || length > 11) {
+            return null;
+        }
+        int start = key.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (key.charAt(start) == '0' && length > start + 1)) {
+            return null;
+        }
+        for (int i = start; i < length; i++) {
+            if (!Character.isDigit(key.charAt(i))) {
+                return null;
+            }
+        }
+        long parsed = Long.parseLong(key);
+        return parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE ? (int) parsed : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.chatrealtime.database.memory;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates Firebase-style push keys: 8 characters of timestamp followed by 12 random characters,
+ * incremented instead of re-drawn within the same millisecond so that keys sort chronologically.
+ */
+final class PushIdGenerator {
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private final SecureRandom random = new SecureRandom();
+    private final int[] lastRandomChars = new int[12];
+    private long lastPushTime;
+
+    synchronized String next() {
+        long now = System.currentTimeMillis();
+        boolean duplicateTime = now == lastPushTime;
+        lastPushTime = now;
+
+        char[] id = new char[20];
+        long time = now;
+        for (int i = 7; i >= 0; i--) {
+            id[i] = PUSH_CHARS.charAt((int) (time % 64));
+            time /= 64;
+        }
+
+        if (!duplicateTime) {
+            for (int i = 0; i < 12; i++) {
+                lastRandomChars[i] = random.nextInt(64);
+            }
+        } else {
+            int i = 11;
+            while (i >= 0 && lastRandomChars[i] == 63) {
+                lastRandomChars[i] = 0;
+                i--;
+            }
+            if (i >= 0) {
+                lastRandomChars[i]++;
+            }
+        }
+        for (int i = 0; i < 12; i++) {
+            id[8 + i] = PUSH_CHARS.charAt(lastRandomChars[i]);
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,168 @@
+package com.chatrealtime.database.memory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Ordering, range and limit of a query, applied to the children of a node.
+ */
+final class QuerySpec {
+    static final QuerySpec DEFAULT = new QuerySpec(null, false, null, false, null, null, false, 0, false);
+
+    private final String orderByChild;
+    private final boolean orderByKey;
+    private final Object start;
+    private final boolean hasStart;
+    private final Object end;
+    private final String endKey;
+    private final boolean hasEnd;
+    private final int limit;
+    private final boolean limitToLast;
+
+    private QuerySpec(String orderByChild, boolean orderByKey, Object start, boolean hasStart,
+                      Object end, String endKey, boolean hasEnd, int limit, boolean limitToLast) {
+        this.orderByChild = orderByChild;
+        this.orderByKey = orderByKey;
+        this.start = start;
+        this.hasStart = hasStart;
+        this.end = end;
+        this.endKey = endKey;
+        this.hasEnd = hasEnd;
+        this.limit = limit;
+        this.limitToLast = limitToLast;
+    }
+
+    QuerySpec orderByChild(String path) {
+        return new QuerySpec(MemoryPath.normalize(path), false, start, hasStart, end, endKey, hasEnd, limit, limitToLast);
+    }
+
+    QuerySpec orderByKey() {
+        return new QuerySpec(null, true, start, hasStart, end, endKey, hasEnd, limit, limitToLast);
+    }
+
+    QuerySpec startAt(Object value) {
+        return new QuerySpec(orderByChild, orderByKey, value, true, end, endKey, hasEnd, limit, limitToLast);
+    }
+
+    QuerySpec endAt(Object value) {
+        return new QuerySpec(orderByChild, orderByKey, start, hasStart, value, null, true, limit, limitToLast);
+    }
+
+    QuerySpec endAt(Object value, String key) {
+        return new QuerySpec(orderByChild, orderByKey, start, hasStart, value, key, true, limit, limitToLast);
+    }
+
+    QuerySpec limit(int limit, boolean last) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be a positive integer");
+        }
+        return new QuerySpec(orderByChild, orderByKey, start, hasStart, end, endKey, hasEnd, limit, last);
+    }
+
+    /**
+     * True when the query returns every child in key order, so a change to one child never affects the others.
+     */
+    boolean isDefault() {
+        return orderByChild == null && !hasStart && !hasEnd && limit == 0;
+    }
+
+    boolean ordersByChild() {
+        return orderByChild != null;
+    }
+
+    /**
+     * Returns the matching children of {@code node}, in query order.
+     */
+    @SuppressWarnings("unchecked")
+    LinkedHashMap<String, Object> apply(Object node) {
+        LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+        if (!(node instanceof Map)) {
+            return result;
+        }
+        Map<String, Object> children = (Map<String, Object>) node;
+        List<Map.Entry<String, Object>> entries = new ArrayList<>(children.size());
+        for (Map.Entry<String, Object> entry : children.entrySet()) {
+            if (matches(entry.getKey(), entry.getValue())) {
+                entries.add(entry);
+            }
+        }
+        if (orderByChild != null) {
+            entries.sort(Comparator.<Map.Entry<String, Object>, Object>comparing(e -> orderValue(e.getKey(), e.getValue()), MemoryValues::compare)
+                .thenComparing(Map.Entry::getKey, MemoryValues.KEY_ORDER));
+        }
+        int from = 0;
+        int to = entries.size();
+        if (limit > 0 && entries.size() > limit) {
+            if (limitToLast) {
+                from = to - limit;
+            } else {
+                to = limit;
+            }
+        }
+        for (Map.Entry<String, Object> entry : entries.subList(from, to)) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private boolean matches(String key, Object value) {
+        if (!hasStart && !hasEnd) {
+            return true;
+        }
+        Object orderValue = orderValue(key, value);
+        if (orderByChild == null) {
+            if (hasStart && MemoryValues.KEY_ORDER.compare(key, String.valueOf(start)) < 0) {
+                return false;
+            }
+            return !hasEnd || MemoryValues.KEY_ORDER.compare(key, String.valueOf(end)) <= 0;
+        }
+        if (hasStart && MemoryValues.compare(orderValue, start) < 0) {
+            return false;
+        }
+        if (!hasEnd) {
+            return true;
+        }
+        int compared = MemoryValues.compare(orderValue, end);
+        return compared < 0 || (compared == 0 && (endKey == null || MemoryValues.KEY_ORDER.compare(key, endKey) <= 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object orderValue(String key, Object value) {
+        if (orderByChild == null) {
+            return key;
+        }
+        Object current = value;
+        for (String segment : MemoryPath.segments(orderByChild)) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<String, Object>) current).get(segment);
+        }
+        return current;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QuerySpec)) {
+            return false;
+        }
+        QuerySpec other = (QuerySpec) o;
+        return orderByKey == other.orderByKey && hasStart == other.hasStart && hasEnd == other.hasEnd
+            && limit == other.limit && limitToLast == other.limitToLast
+            && Objects.equals(orderByChild, other.orderByChild)
+            && Objects.equals(start, other.start) && Objects.equals(end, other.end)
+            && Objects.equals(endKey, other.endKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(orderByChild, orderByKey, start, end, endKey, limit, limitToLast);
+    }
+}
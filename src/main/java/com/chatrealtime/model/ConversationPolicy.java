@@ -0,0 +1,33 @@
+package com.chatrealtime.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Expiry settings of a conversation: messages disappear {@code ttlSeconds} after being sent (ephemeral
+ * conversation) and are never kept longer than {@code retentionDays}. Zero disables either limit.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationPolicy {
+    private String chatId;
+    private long ttlSeconds;
+    private int retentionDays;
+    private List<String> participants;
+
+    /**
+     * Lifetime of a message under this policy, 0 when messages are kept forever.
+     */
+    public long lifetimeMillis() {
+        long ttl = ttlSeconds > 0 ? ttlSeconds * 1000L : Long.MAX_VALUE;
+        long retention = retentionDays > 0 ? retentionDays * 86_400_000L : Long.MAX_VALUE;
+        long lifetime = Math.min(ttl, retention);
+        return lifetime == Long.MAX_VALUE ? 0L : lifetime;
+    }
+}
@@ -0,0 +1,23 @@
+package com.chatrealtime.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of a user's inbox, maintained on the write path of every message of the conversation.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationSummary {
+    private String chatId;
+    private String peerId;
+    private String type;
+    private String lastMessage;
+    private String lastSenderId;
+    private long timestamp;
+    private int unreadCount;
+}
@@ -0,0 +1,22 @@
+package com.chatrealtime.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Sent to {@code /topic/chat/{userId}/expired} when messages of a conversation expire: either the listed
+ * {@code messageIds}, or every message older than {@code before} (epoch milliseconds) after a retention sweep.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpiryEvent {
+    private String chatId;
+    private List<String> messageIds;
+    private Long before;
+}
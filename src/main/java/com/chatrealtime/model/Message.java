@@ -24,4 +24,6 @@ public class Message {
     String content;
     LocalDateTime timestamp;
     boolean isRead;
+    // Identifiant choisi par le client pour rendre l'envoi idempotent (non persisté)
+    String clientMessageId;
 } 
\ No newline at end of file
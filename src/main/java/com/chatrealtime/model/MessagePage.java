@@ -0,0 +1,23 @@
+package com.chatrealtime.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a conversation history, oldest message first.
+ * The next (older) page is requested with {@code before=nextBeforeTimestamp&beforeId=nextBeforeId}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessagePage {
+    private List<Message> messages;
+    private Long nextBeforeTimestamp;
+    private String nextBeforeId;
+    private boolean hasMore;
+}
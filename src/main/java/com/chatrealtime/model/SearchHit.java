@@ -0,0 +1,22 @@
+package com.chatrealtime.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A message matching a search query; {@code timestamp} is in epoch milliseconds.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchHit {
+    private String messageId;
+    private String chatId;
+    private String from;
+    private String to;
+    private String content;
+    private long timestamp;
+}
@@ -0,0 +1,278 @@
+package com.chatrealtime.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of the indexed documents, their id being their rank in the file.
+ *
+ * Frame: [length:int][crc32:int][payload], payload: [timestamp:long][chatId][messageId][from][to][content], strings
+ * being [length:int][UTF-8 bytes] with -1 for null. The file holds the stored fields returned with search hits and
+ * doubles as the write-ahead log of the in-memory index: documents not yet in a segment are re-indexed from it on
+ * startup. Only the offset and timestamp of each document are kept on the heap. Deleted documents keep their id:
+ * they are recorded as tombstones, 4-byte document ids appended to {@code deleted.dat}, and left out of search
+ * hits and of merged segments. Guarded by the lock of {@link SearchIndex}.
+ */
+final class DocumentStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentStore.class);
+    static final String FILE_NAME = "documents.dat";
+    static final String TOMBSTONES_FILE_NAME = "deleted.dat";
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final FileChannel tombstones;
+    private final BitSet deleted = new BitSet();
+    private long size;
+    private long[] offsets = new long[1024];
+    private long[] timestamps = new long[1024];
+    private int count;
+
+    /**
+     * Opens the store, handing every document with an id of at least {@code replayFrom} to {@code replay}.
+     */
+    DocumentStore(Path dir, int replayFrom, Consumer<StoredDocument> replay) throws IOException {
+        this.channel = FileChannel.open(dir.resolve(FILE_NAME),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.tombstones = FileChannel.open(dir.resolve(TOMBSTONES_FILE_NAME),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recoverTombstones();
+        recover(replayFrom, document -> {
+            if (!deleted.get(document.doc)) {
+                replay.accept(document);
+            }
+        });
+        if (deleted.length() > count) {
+            // Tombstones de documents tronqués : leurs identifiants vont resservir
+            deleted.clear(count, deleted.length());
+            rewriteTombstones();
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    long timestamp(int doc) {
+        return timestamps[doc];
+    }
+
+    boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+
+    int deletedCount() {
+        return deleted.cardinality();
+    }
+
+    /**
+     * Copy of the tombstones, for a merge running outside the lock.
+     */
+    BitSet deletedDocs() {
+        return (BitSet) deleted.clone();
+    }
+
+    /**
+     * Records the tombstone of {@code doc}; the document stays readable but is no longer returned.
+     */
+    void delete(int doc) throws IOException {
+        if (doc < 0 || doc >= count || deleted.get(doc)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(4);
+        record.putInt(0, doc);
+        long position = tombstones.size();
+        while (record.hasRemaining()) {
+            position += tombstones.write(record, position);
+        }
+        deleted.set(doc);
+    }
+
+    int append(long timestamp, String chatId, String messageId, String from, String to, String content) throws IOException {
+        byte[][] fields = {utf8(chatId), utf8(messageId), utf8(from), utf8(to), utf8(content)};
+        int payloadSize = 8;
+        for (byte[] field : fields) {
+            payloadSize += 4 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payloadSize);
+        frame.putInt(payloadSize);
+        frame.putInt(0);
+        frame.putLong(timestamp);
+        for (byte[] field : fields) {
+            if (field == null) {
+                frame.putInt(-1);
+            } else {
+                frame.putInt(field.length);
+                frame.put(field);
+            }
+        }
+        frame.putInt(4, checksum(frame.array(), FRAME_HEADER_SIZE, payloadSize));
+        frame.flip();
+
+        long position = size;
+        long writePosition = position;
+        while (frame.hasRemaining()) {
+            writePosition += channel.write(frame, writePosition);
+        }
+        size = writePosition;
+        return add(position, timestamp);
+    }
+
+    StoredDocument read(int doc) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        readFully(header, offsets[doc]);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+        readFully(payload, offsets[doc] + FRAME_HEADER_SIZE);
+        return decode(doc, payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        tombstones.close();
+    }
+
+    private int add(long offset, long timestamp) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+        }
+        offsets[count] = offset;
+        timestamps[count] = timestamp;
+        return count++;
+    }
+
+    private void recover(int replayFrom, Consumer<StoredDocument> replay) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        while (position + FRAME_HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            if (length < 8 || position + FRAME_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + FRAME_HEADER_SIZE);
+            if (checksum(payload.array(), 0, length) != header.getInt(4)) {
+                break;
+            }
+            int doc = add(position, payload.getLong(0));
+            if (doc >= replayFrom) {
+                replay.accept(decode(doc, payload));
+            }
+            position += FRAME_HEADER_SIZE + length;
+        }
+        if (position < fileSize) {
+            logger.warn("Truncating {} bytes of incomplete documents in the search index", fileSize - position);
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    // Un identifiant écrit à moitié est abandonné
+    private void recoverTombstones() throws IOException {
+        long fileSize = tombstones.size();
+        long complete = fileSize - fileSize % 4;
+        ByteBuffer records = ByteBuffer.allocate((int) Math.min(complete, 1 << 16));
+        for (long position = 0; position < complete; position += records.limit()) {
+            records.clear();
+            records.limit((int) Math.min(records.capacity(), complete - position));
+            while (records.hasRemaining()) {
+                if (tombstones.read(records, position + records.position()) < 0) {
+                    throw new IOException("Unexpected end of " + TOMBSTONES_FILE_NAME);
+                }
+            }
+            records.flip();
+            while (records.remaining() >= 4) {
+                deleted.set(records.getInt());
+            }
+        }
+        if (complete < fileSize) {
+            tombstones.truncate(complete);
+        }
+    }
+
+    private void rewriteTombstones() throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(4 * deleted.cardinality());
+        for (int doc = deleted.nextSetBit(0); doc >= 0; doc = deleted.nextSetBit(doc + 1)) {
+            records.putInt(doc);
+        }
+        records.flip();
+        tombstones.truncate(0);
+        long position = 0;
+        while (records.hasRemaining()) {
+            position += tombstones.write(records, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + FILE_NAME);
+            }
+        }
+        buffer.flip();
+    }
+
+    private static StoredDocument decode(int doc, ByteBuffer payload) {
+        payload.position(0);
+        long timestamp = payload.getLong();
+        return new StoredDocument(doc, timestamp, getString(payload), getString(payload), getString(payload),
+            getString(payload), getString(payload));
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Stored fields of an indexed message.
+     */
+    static final class StoredDocument {
+        final int doc;
+        final long timestamp;
+        final String chatId;
+        final String messageId;
+        final String from;
+        final String to;
+        final String content;
+
+        StoredDocument(int doc, long timestamp, String chatId, String messageId, String from, String to, String content) {
+            this.doc = doc;
+            this.timestamp = timestamp;
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.from = from;
+            this.to = to;
+            this.content = content;
+        }
+    }
+}
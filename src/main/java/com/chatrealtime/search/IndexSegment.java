@@ -0,0 +1,343 @@
+package com.chatrealtime.search;
+
+import com.chatrealtime.util.VarInts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Immutable on-disk part of the search index, covering the documents {@code [minDoc, maxDoc]}.
+ *
+ * A segment is a {@code .pst} file of posting lists and a {@code .dic} dictionary of
+ * [key length][key][document count][postings offset] entries in key order, all integers being {@link VarInts}.
+ * A posting list is, per document, [doc delta][frequency][position deltas...]. Both files are read through
+ * memory maps; only every {@value #SPARSE_INTERVAL}th dictionary key is held on the heap, so a lookup is a
+ * binary search followed by a short forward scan. The {@code .dic} file is renamed into place last and marks
+ * the segment as complete.
+ */
+final class IndexSegment implements PostingsSource {
+    private static final Logger logger = LoggerFactory.getLogger(IndexSegment.class);
+    static final String POSTINGS_SUFFIX = ".pst";
+    static final String DICTIONARY_SUFFIX = ".dic";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int SPARSE_INTERVAL = 64;
+
+    private final Path dir;
+    private final int minDoc;
+    private final int maxDoc;
+    private final ByteBuffer postings;
+    private final ByteBuffer dictionary;
+    private final String[] sparseKeys;
+    private final int[] sparsePositions;
+
+    private IndexSegment(Path dir, int minDoc, int maxDoc) throws IOException {
+        this.dir = dir;
+        this.minDoc = minDoc;
+        this.maxDoc = maxDoc;
+        this.postings = map(dir.resolve(baseName(minDoc, maxDoc) + POSTINGS_SUFFIX));
+        this.dictionary = map(dir.resolve(baseName(minDoc, maxDoc) + DICTIONARY_SUFFIX));
+
+        List<String> keys = new ArrayList<>();
+        int[] positions = new int[16];
+        ByteBuffer view = dictionary.duplicate();
+        int count = 0;
+        while (view.hasRemaining()) {
+            int position = view.position();
+            if (count % SPARSE_INTERVAL == 0) {
+                if (keys.size() == positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+                positions[keys.size()] = position;
+                keys.add(readKey(view));
+            } else {
+                int length = VarInts.readInt(view);
+                view.position(view.position() + length);
+            }
+            VarInts.skip(view);
+            VarInts.skip(view);
+            count++;
+        }
+        this.sparseKeys = keys.toArray(new String[0]);
+        this.sparsePositions = Arrays.copyOf(positions, keys.size());
+    }
+
+    static IndexSegment open(Path dir, int minDoc, int maxDoc) throws IOException {
+        return new IndexSegment(dir, minDoc, maxDoc);
+    }
+
+    /**
+     * Writes a segment from {@code entries}, which must be in key order.
+     */
+    static IndexSegment write(Path dir, int minDoc, int maxDoc,
+                              Iterator<Map.Entry<String, TermPostings>> entries) throws IOException {
+        String baseName = baseName(minDoc, maxDoc);
+        Path postingsTemp = dir.resolve(baseName + POSTINGS_SUFFIX + TEMP_SUFFIX);
+        Path dictionaryTemp = dir.resolve(baseName + DICTIONARY_SUFFIX + TEMP_SUFFIX);
+        try (FileOutputStream postingsFile = new FileOutputStream(postingsTemp.toFile());
+             FileOutputStream dictionaryFile = new FileOutputStream(dictionaryTemp.toFile());
+             OutputStream postingsOut = new BufferedOutputStream(postingsFile, 1 << 16);
+             OutputStream dictionaryOut = new BufferedOutputStream(dictionaryFile, 1 << 16)) {
+            ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+            long offset = 0;
+            while (entries.hasNext()) {
+                Map.Entry<String, TermPostings> entry = entries.next();
+                TermPostings termPostings = entry.getValue();
+                if (termPostings.size() == 0) {
+                    continue;
+                }
+                scratch.reset();
+                encode(termPostings, scratch);
+                scratch.writeTo(postingsOut);
+                long postingsOffset = offset;
+                offset += scratch.size();
+
+                scratch.reset();
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                VarInts.write(scratch, key.length);
+                scratch.write(key, 0, key.length);
+                VarInts.write(scratch, termPostings.size());
+                VarInts.write(scratch, postingsOffset);
+                scratch.writeTo(dictionaryOut);
+            }
+            postingsOut.flush();
+            dictionaryOut.flush();
+            postingsFile.getFD().sync();
+            dictionaryFile.getFD().sync();
+        }
+        Files.move(postingsTemp, dir.resolve(baseName + POSTINGS_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(dictionaryTemp, dir.resolve(baseName + DICTIONARY_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        return open(dir, minDoc, maxDoc);
+    }
+
+    /**
+     * Merges adjacent segments, given in document order, into a single segment covering all their documents.
+     * The postings of the {@code deleted} documents are left out.
+     */
+    static IndexSegment merge(Path dir, List<IndexSegment> segments, BitSet deleted) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(
+            Comparator.comparing(Cursor::key).thenComparingInt(cursor -> cursor.segment.minDoc));
+        for (IndexSegment segment : segments) {
+            Cursor cursor = segment.new Cursor();
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+        }
+        Iterator<Map.Entry<String, TermPostings>> merged = new Iterator<Map.Entry<String, TermPostings>>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, TermPostings> next() {
+                if (queue.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                String key = queue.peek().key();
+                // Les curseurs d'une même clé sortent dans l'ordre des documents
+                List<TermPostings> parts = new ArrayList<>();
+                while (!queue.isEmpty() && queue.peek().key().equals(key)) {
+                    Cursor cursor = queue.poll();
+                    parts.add(cursor.postings());
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(key, TermPostings.concat(parts).without(deleted));
+            }
+        };
+        return write(dir, segments.get(0).minDoc, segments.get(segments.size() - 1).maxDoc, merged);
+    }
+
+    static boolean isDictionaryFile(Path path) {
+        return path.getFileName().toString().endsWith(DICTIONARY_SUFFIX);
+    }
+
+    static int[] parseRange(Path dictionaryFile) {
+        String name = dictionaryFile.getFileName().toString();
+        String[] range = name.substring(0, name.length() - DICTIONARY_SUFFIX.length()).split("-");
+        return new int[] {Integer.parseInt(range[0]), Integer.parseInt(range[1])};
+    }
+
+    int minDoc() {
+        return minDoc;
+    }
+
+    int maxDoc() {
+        return maxDoc;
+    }
+
+    @Override
+    public TermPostings postings(String key) {
+        int entry = lastSparseAtOrBefore(key);
+        if (entry < 0) {
+            return TermPostings.EMPTY;
+        }
+        ByteBuffer view = dictionary.duplicate();
+        view.position(sparsePositions[entry]);
+        for (int i = 0; i < SPARSE_INTERVAL && view.hasRemaining(); i++) {
+            int comparison = readKey(view).compareTo(key);
+            int docCount = VarInts.readInt(view);
+            long offset = VarInts.readLong(view);
+            if (comparison == 0) {
+                return decode(offset, docCount);
+            }
+            if (comparison > 0) {
+                break;
+            }
+        }
+        return TermPostings.EMPTY;
+    }
+
+    @Override
+    public void collectKeys(String prefix, int max, Set<String> keys) {
+        ByteBuffer view = dictionary.duplicate();
+        view.position(sparsePositions.length == 0 ? 0 : sparsePositions[Math.max(0, lastSparseAtOrBefore(prefix))]);
+        while (view.hasRemaining() && keys.size() < max) {
+            String key = readKey(view);
+            VarInts.skip(view);
+            VarInts.skip(view);
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            } else if (key.compareTo(prefix) > 0) {
+                return;
+            }
+        }
+    }
+
+    void delete() {
+        String baseName = baseName(minDoc, maxDoc);
+        try {
+            // Le dictionnaire d'abord : sans lui, le fichier de postings restant est ignoré à l'ouverture
+            Files.deleteIfExists(dir.resolve(baseName + DICTIONARY_SUFFIX));
+            Files.deleteIfExists(dir.resolve(baseName + POSTINGS_SUFFIX));
+        } catch (IOException e) {
+            logger.warn("Failed to delete search segment {}: {}", baseName, e.getMessage());
+        }
+    }
+
+    private TermPostings decode(long offset, int docCount) {
+        ByteBuffer view = postings.duplicate();
+        view.position((int) offset);
+        TermPostings.Builder builder = new TermPostings.Builder(docCount);
+        int[] positions = new int[8];
+        int doc = -1;
+        for (int i = 0; i < docCount; i++) {
+            doc += VarInts.readInt(view);
+            int frequency = VarInts.readInt(view);
+            if (frequency > positions.length) {
+                positions = new int[Math.max(frequency, positions.length * 2)];
+            }
+            int position = -1;
+            for (int j = 0; j < frequency; j++) {
+                position += VarInts.readInt(view);
+                positions[j] = position;
+            }
+            builder.add(doc, positions, 0, frequency);
+        }
+        return builder.view();
+    }
+
+    private static void encode(TermPostings termPostings, ByteArrayOutputStream out) {
+        int previousDoc = -1;
+        for (int i = 0; i < termPostings.size(); i++) {
+            int doc = termPostings.doc(i);
+            VarInts.write(out, doc - previousDoc);
+            previousDoc = doc;
+            int frequency = termPostings.positionCount(i);
+            VarInts.write(out, frequency);
+            int previousPosition = -1;
+            for (int j = 0; j < frequency; j++) {
+                int position = termPostings.position(i, j);
+                VarInts.write(out, position - previousPosition);
+                previousPosition = position;
+            }
+        }
+    }
+
+    private int lastSparseAtOrBefore(String key) {
+        int low = 0;
+        int high = sparseKeys.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sparseKeys[mid].compareTo(key) <= 0) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private static String readKey(ByteBuffer view) {
+        int length = VarInts.readInt(view);
+        byte[] key = new byte[length];
+        view.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        // Le mapping reste valide après la fermeture du canal
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String baseName(int minDoc, int maxDoc) {
+        return String.format("%010d-%010d", minDoc, maxDoc);
+    }
+
+    /**
+     * Sequential walk over the dictionary, used by merges.
+     */
+    private final class Cursor {
+        private final IndexSegment segment = IndexSegment.this;
+        private final ByteBuffer view = dictionary.duplicate();
+        private String key;
+        private int docCount;
+        private long offset;
+
+        boolean next() {
+            if (!view.hasRemaining()) {
+                return false;
+            }
+            key = readKey(view);
+            docCount = VarInts.readInt(view);
+            offset = VarInts.readLong(view);
+            return true;
+        }
+
+        String key() {
+            return key;
+        }
+
+        TermPostings postings() {
+            return decode(offset, docCount);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.chatrealtime.search;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the most recent documents, kept in memory until it is written out as an {@link IndexSegment}.
+ * Guarded by the lock of {@link SearchIndex}; once frozen for a flush it is never modified again.
+ */
+final class MemoryIndex implements PostingsSource {
+    private static final int[] NO_POSITIONS = new int[0];
+    private final TreeMap<String, TermPostings.Builder> terms = new TreeMap<>();
+    private int minDoc = -1;
+    private int maxDoc = -1;
+    private int docCount;
+
+    /**
+     * Indexes {@code tokens} of document {@code doc} under the key {@code scope + SEPARATOR + term} of every scope.
+     */
+    void add(int doc, Collection<String> scopes, List<String> tokens) {
+        Map<String, int[]> termPositions = new LinkedHashMap<>();
+        for (int position = 0; position < tokens.size(); position++) {
+            int[] positions = termPositions.get(tokens.get(position));
+            positions = positions == null ? new int[2] : grow(positions);
+            positions[positions[0] + 1] = position;
+            positions[0]++;
+            termPositions.put(tokens.get(position), positions);
+        }
+        for (String scope : scopes) {
+            for (Map.Entry<String, int[]> term : termPositions.entrySet()) {
+                String key = SearchIndex.key(scope, term.getKey());
+                TermPostings.Builder builder = terms.computeIfAbsent(key, k -> new TermPostings.Builder(4));
+                // Un même document peut apparaître sous deux portées identiques (message à soi-même)
+                if (builder.lastDoc() != doc) {
+                    int[] positions = term.getValue();
+                    builder.add(doc, positions, 1, positions[0] + 1);
+                }
+            }
+        }
+        if (minDoc < 0) {
+            minDoc = doc;
+        }
+        maxDoc = doc;
+        docCount++;
+    }
+
+    /**
+     * Indexes document {@code doc} under {@code key} alone, without positions; call it before {@link #add}.
+     */
+    void addKey(int doc, String key) {
+        TermPostings.Builder builder = terms.computeIfAbsent(key, k -> new TermPostings.Builder(4));
+        if (builder.lastDoc() != doc) {
+            builder.add(doc, NO_POSITIONS, 0, 0);
+        }
+    }
+
+    int minDoc() {
+        return minDoc;
+    }
+
+    int maxDoc() {
+        return maxDoc;
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    @Override
+    public TermPostings postings(String key) {
+        TermPostings.Builder builder = terms.get(key);
+        return builder == null ? TermPostings.EMPTY : builder.view();
+    }
+
+    @Override
+    public void collectKeys(String prefix, int max, Set<String> keys) {
+        for (String key : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true).keySet()) {
+            if (keys.size() >= max) {
+                return;
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * The keys and their postings, in key order.
+     */
+    Iterator<Map.Entry<String, TermPostings>> entries() {
+        Iterator<Map.Entry<String, TermPostings.Builder>> builders = terms.entrySet().iterator();
+        return new Iterator<Map.Entry<String, TermPostings>>() {
+            @Override
+            public boolean hasNext() {
+                return builders.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, TermPostings> next() {
+                Map.Entry<String, TermPostings.Builder> entry = builders.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().view());
+            }
+        };
+    }
+
+    // positions[0] contient le nombre de positions
+    private static int[] grow(int[] positions) {
+        if (positions[0] + 1 < positions.length) {
+            return positions;
+        }
+        int[] grown = new int[positions.length * 2];
+        System.arraycopy(positions, 0, grown, 0, positions.length);
+        return grown;
+    }
+}
@@ -0,0 +1,16 @@
+package com.chatrealtime.search;
+
+import java.util.Set;
+
+/**
+ * A part of the index covering a contiguous range of document ids: the in-memory buffer or an on-disk segment.
+ */
+interface PostingsSource {
+
+    TermPostings postings(String key);
+
+    /**
+     * Adds the keys starting with {@code prefix} to {@code keys}, stopping once it holds {@code max} keys.
+     */
+    void collectKeys(String prefix, int max, Set<String> keys);
+}
@@ -0,0 +1,505 @@
+package com.chatrealtime.search;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import com.chatrealtime.model.SearchHit;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Embedded full-text index of message content, fed by {@code MessageService} as messages are sent.
+ *
+ * A message is indexed under each of its participants: index keys are {@code userId + '\0' + term}, so a query only
+ * ever reads the postings of the caller's own conversations. New documents go to a {@link MemoryIndex}; every
+ * {@code flush-docs} documents it is written out as an immutable {@link IndexSegment} on the background
+ * "search-merger" thread, which also merges the last {@code merge-factor} segments whenever they are of the same
+ * size tier. Document ids grow with send time, so hits are returned most recent first without sorting.
+ * Each message is also indexed under the key of its conversation, so that the messages deleted by an expiry
+ * policy can be found and tombstoned; merges then drop their postings.
+ */
+@Component
+public class SearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+    private static final char SCOPE_SEPARATOR = '\0';
+    // Portée vide : aucune clé d'utilisateur ne commence par le séparateur
+    private static final String CHAT_SCOPE = "";
+    private static final int MAX_HITS = 100;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final int maxPrefixTerms;
+    private final Timer queryLatency;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<IndexSegment> segments = new ArrayList<>();
+    // Index mémoire gelés, en cours d'écriture sur disque
+    private final List<MemoryIndex> flushing = new ArrayList<>();
+    private final ExecutorService merger;
+    private MemoryIndex active = new MemoryIndex();
+    private DocumentStore documents;
+
+    public SearchIndex(MeterRegistry meterRegistry, ClusterNode clusterNode,
+                       @Value("${search.enabled:true}") boolean enabled,
+                       @Value("${search.index.path:data/search}") String path,
+                       @Value("${search.index.flush-docs:10000}") int flushDocs,
+                       @Value("${search.index.merge-factor:10}") int mergeFactor,
+                       @Value("${search.query.max-prefix-terms:512}") int maxPrefixTerms) throws IOException {
+        this.enabled = enabled;
+        this.dir = clusterNode.dataPath(path);
+        this.flushDocs = Math.max(1, flushDocs);
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.maxPrefixTerms = maxPrefixTerms;
+        this.merger = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queryLatency = Timer.builder("chat.search.query.latency")
+            .description("Time to evaluate a search query")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        Gauge.builder("chat.search.segments", this, SearchIndex::segmentCount)
+            .description("On-disk segments of the search index")
+            .register(meterRegistry);
+        Gauge.builder("chat.search.documents", this, SearchIndex::documentCount)
+            .description("Messages in the search index")
+            .register(meterRegistry);
+        if (enabled) {
+            open();
+        }
+    }
+
+    /**
+     * Adds a sent message to the index of both participants. Failures are logged: search is best effort.
+     */
+    public void index(String chatId, Message message) {
+        if (!enabled) {
+            return;
+        }
+        List<String> tokens = Tokenizer.tokenize(message.getContent());
+        if (tokens.isEmpty()) {
+            return;
+        }
+        long timestamp = message.getTimestamp() == null ? System.currentTimeMillis()
+            : message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        lock.writeLock().lock();
+        try {
+            int doc = documents.append(timestamp, chatId, message.getId(), message.getFrom(), message.getTo(),
+                message.getContent());
+            addToMemory(doc, chatId, message.getFrom(), message.getTo(), tokens);
+        } catch (IOException e) {
+            logger.error("Failed to index message {}: {}", message.getId(), e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes messages of a conversation from search results. Failures are logged: search is best effort.
+     */
+    public void delete(String chatId, Collection<String> messageIds) {
+        if (!enabled || messageIds.isEmpty()) {
+            return;
+        }
+        Set<String> ids = new HashSet<>(messageIds);
+        lock.writeLock().lock();
+        try {
+            // Seuls les documents encore vivants de la conversation sont relus sur disque
+            for (int doc : postings(key(CHAT_SCOPE, chatId), sources()).docs()) {
+                if (!documents.isDeleted(doc) && ids.contains(documents.read(doc).messageId)) {
+                    documents.delete(doc);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to remove {} messages of {} from the search index: {}", ids.size(), chatId,
+                e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes from search results the messages of a conversation sent before {@code beforeMillis}.
+     */
+    public void deleteBefore(String chatId, long beforeMillis) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (int doc : postings(key(CHAT_SCOPE, chatId), sources()).docs()) {
+                if (documents.timestamp(doc) < beforeMillis) {
+                    documents.delete(doc);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to remove old messages of {} from the search index: {}", chatId, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns, most recent first, up to {@code limit} messages of {@code userId}'s conversations matching
+     * {@code query} and sent within {@code [fromMillis, toMillis)}; either bound may be null.
+     */
+    public CompletableFuture<List<SearchHit>> search(String userId, String query, Long fromMillis, Long toMillis,
+                                                     int limit) {
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (!enabled || parsed.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        long start = System.nanoTime();
+        long from = fromMillis != null ? fromMillis : Long.MIN_VALUE;
+        long to = toMillis != null ? toMillis : Long.MAX_VALUE;
+        int maxHits = Math.max(1, Math.min(limit, MAX_HITS));
+        lock.readLock().lock();
+        try {
+            List<PostingsSource> sources = sources();
+            int[] docs = null;
+            for (SearchQuery.Clause clause : parsed.clauses()) {
+                int[] matches = match(userId, clause, sources);
+                docs = docs == null ? matches : intersect(docs, matches);
+                if (docs.length == 0) {
+                    break;
+                }
+            }
+            List<SearchHit> hits = new ArrayList<>();
+            for (int i = docs.length - 1; i >= 0 && hits.size() < maxHits; i--) {
+                long timestamp = documents.timestamp(docs[i]);
+                if (timestamp >= from && timestamp < to && !documents.isDeleted(docs[i])) {
+                    hits.add(toHit(documents.read(docs[i])));
+                }
+            }
+            return CompletableFuture.completedFuture(hits);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Search failed for user {}: {}", userId, e.getMessage());
+            CompletableFuture<List<SearchHit>> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        } finally {
+            lock.readLock().unlock();
+            queryLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        // Les documents encore en mémoire seront réindexés depuis documents.dat au prochain démarrage
+        merger.shutdown();
+        try {
+            merger.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (documents != null) {
+            documents.close();
+        }
+    }
+
+    static String key(String scope, String term) {
+        return scope + SCOPE_SEPARATOR + term;
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> dictionaries;
+        try (Stream<Path> files = Files.list(dir)) {
+            dictionaries = files.filter(IndexSegment::isDictionaryFile).collect(Collectors.toList());
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (Path dictionary : dictionaries) {
+            ranges.add(IndexSegment.parseRange(dictionary));
+        }
+        ranges.sort(Comparator.<int[]>comparingInt(range -> range[0]).thenComparingInt(range -> -range[1]));
+        int nextDoc = 0;
+        for (int[] range : ranges) {
+            IndexSegment segment = IndexSegment.open(dir, range[0], range[1]);
+            if (range[1] < nextDoc) {
+                // Entrée d'une fusion interrompue avant la suppression de ses segments
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            nextDoc = range[1] + 1;
+        }
+        deleteIncompleteFiles();
+
+        int replayFrom = nextDoc;
+        documents = new DocumentStore(dir, replayFrom, document ->
+            addToMemory(document.doc, document.chatId, document.from, document.to,
+                Tokenizer.tokenize(document.content)));
+        logger.info("Search index opened at {}: {} documents, {} segments, {} re-indexed",
+            dir.toAbsolutePath(), documents.count(), segments.size(), Math.max(0, documents.count() - replayFrom));
+    }
+
+    private void deleteIncompleteFiles() throws IOException {
+        Set<String> complete = new TreeSet<>();
+        for (IndexSegment segment : segments) {
+            complete.add(String.format("%010d-%010d", segment.minDoc(), segment.maxDoc()));
+        }
+        List<Path> stale;
+        try (Stream<Path> files = Files.list(dir)) {
+            stale = files.filter(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(IndexSegment.POSTINGS_SUFFIX)) {
+                    return !complete.contains(name.substring(0, name.length() - IndexSegment.POSTINGS_SUFFIX.length()));
+                }
+                return name.endsWith(".tmp");
+            }).collect(Collectors.toList());
+        }
+        for (Path file : stale) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Appelé sous un verrou
+    private List<PostingsSource> sources() {
+        List<PostingsSource> sources = new ArrayList<>(segments.size() + flushing.size() + 1);
+        sources.addAll(segments);
+        sources.addAll(flushing);
+        sources.add(active);
+        return sources;
+    }
+
+    // Appelé sous le verrou d'écriture, ou à l'ouverture
+    private void addToMemory(int doc, String chatId, String from, String to, List<String> tokens) {
+        if (chatId != null) {
+            active.addKey(doc, key(CHAT_SCOPE, chatId));
+        }
+        Set<String> scopes = new LinkedHashSet<>();
+        if (from != null) {
+            scopes.add(from);
+        }
+        if (to != null) {
+            scopes.add(to);
+        }
+        active.add(doc, scopes, tokens);
+        if (active.docCount() >= flushDocs) {
+            MemoryIndex frozen = active;
+            flushing.add(frozen);
+            active = new MemoryIndex();
+            merger.execute(() -> flush(frozen));
+        }
+    }
+
+    private void flush(MemoryIndex frozen) {
+        try {
+            IndexSegment segment = IndexSegment.write(dir, frozen.minDoc(), frozen.maxDoc(), frozen.entries());
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                flushing.remove(frozen);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.debug("Flushed search segment of documents {}-{}", frozen.minDoc(), frozen.maxDoc());
+            mergeIfNeeded();
+        } catch (IOException | UncheckedIOException e) {
+            // L'index gelé reste interrogeable et sera reconstruit depuis documents.dat au redémarrage
+            logger.error("Failed to flush search segment: {}", e.getMessage());
+        }
+    }
+
+    // Seul le thread search-merger modifie la liste des segments : la fenêtre choisie reste valide
+    private void mergeIfNeeded() throws IOException {
+        while (true) {
+            List<IndexSegment> window;
+            BitSet deleted;
+            lock.readLock().lock();
+            try {
+                window = mergeWindow();
+                deleted = window == null ? null : documents.deletedDocs();
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (window == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            IndexSegment merged = IndexSegment.merge(dir, window, deleted);
+            lock.writeLock().lock();
+            try {
+                int at = segments.indexOf(window.get(0));
+                segments.subList(at, at + window.size()).clear();
+                segments.add(at, merged);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (IndexSegment segment : window) {
+                segment.delete();
+            }
+            logger.debug("Merged {} search segments into documents {}-{} in {} ms", window.size(),
+                merged.minDoc(), merged.maxDoc(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    // Les derniers merge-factor segments, s'ils sont du même palier de taille : chaque document est réécrit
+    // une fois par palier, soit log(documents / flush-docs) fois au plus
+    private List<IndexSegment> mergeWindow() {
+        if (segments.size() < mergeFactor) {
+            return null;
+        }
+        List<IndexSegment> tail = segments.subList(segments.size() - mergeFactor, segments.size());
+        int tier = tier(tail.get(0));
+        for (IndexSegment segment : tail) {
+            if (tier(segment) != tier) {
+                return null;
+            }
+        }
+        return new ArrayList<>(tail);
+    }
+
+    private int tier(IndexSegment segment) {
+        long docs = (long) segment.maxDoc() - segment.minDoc() + 1;
+        int tier = 0;
+        for (long threshold = (long) flushDocs * mergeFactor; docs >= threshold; threshold *= mergeFactor) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private int[] match(String userId, SearchQuery.Clause clause, List<PostingsSource> sources) {
+        switch (clause.kind) {
+            case PREFIX: {
+                Set<String> keys = new TreeSet<>();
+                String prefix = key(userId, clause.terms.get(0));
+                for (PostingsSource source : sources) {
+                    source.collectKeys(prefix, maxPrefixTerms, keys);
+                }
+                List<int[]> lists = new ArrayList<>(keys.size());
+                for (String key : keys) {
+                    lists.add(postings(key, sources).docs());
+                }
+                return union(lists);
+            }
+            case PHRASE: {
+                List<TermPostings> terms = new ArrayList<>(clause.terms.size());
+                int[] docs = null;
+                for (String term : clause.terms) {
+                    TermPostings termPostings = postings(key(userId, term), sources);
+                    terms.add(termPostings);
+                    docs = docs == null ? termPostings.docs() : intersect(docs, termPostings.docs());
+                }
+                return Arrays.stream(docs).filter(doc -> containsPhrase(terms, doc)).toArray();
+            }
+            default:
+                return postings(key(userId, clause.terms.get(0)), sources).docs();
+        }
+    }
+
+    private static TermPostings postings(String key, List<PostingsSource> sources) {
+        List<TermPostings> parts = new ArrayList<>();
+        for (PostingsSource source : sources) {
+            TermPostings termPostings = source.postings(key);
+            if (termPostings.size() > 0) {
+                parts.add(termPostings);
+            }
+        }
+        return TermPostings.concat(parts);
+    }
+
+    private static boolean containsPhrase(List<TermPostings> terms, int doc) {
+        TermPostings first = terms.get(0);
+        int firstIndex = first.indexOf(doc);
+        int[] indexes = new int[terms.size()];
+        for (int t = 1; t < terms.size(); t++) {
+            indexes[t] = terms.get(t).indexOf(doc);
+        }
+        for (int p = 0; p < first.positionCount(firstIndex); p++) {
+            int start = first.position(firstIndex, p);
+            boolean matches = true;
+            for (int t = 1; t < terms.size() && matches; t++) {
+                matches = terms.get(t).hasPosition(indexes[t], start + t);
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(List<int[]> lists) {
+        return lists.stream().flatMapToInt(Arrays::stream).sorted().distinct().toArray();
+    }
+
+    private static SearchHit toHit(DocumentStore.StoredDocument document) {
+        return SearchHit.builder()
+            .messageId(document.messageId)
+            .chatId(document.chatId)
+            .from(document.from)
+            .to(document.to)
+            .content(document.content)
+            .timestamp(document.timestamp)
+            .build();
+    }
+
+    private double segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double documentCount() {
+        lock.readLock().lock();
+        try {
+            return documents == null ? 0 : documents.count() - documents.deletedCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.chatrealtime.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed search query: all clauses must match.
+ *
+ * {@code bonjour} is a term, {@code bon*} a prefix and {@code "à demain"} a phrase. A word the tokenizer splits
+ * in several terms, such as {@code l'ami}, is a phrase.
+ */
+final class SearchQuery {
+    enum Kind { TERM, PREFIX, PHRASE }
+
+    static final class Clause {
+        final Kind kind;
+        final List<String> terms;
+
+        Clause(Kind kind, List<String> terms) {
+            this.kind = kind;
+            this.terms = terms;
+        }
+    }
+
+    private final List<Clause> clauses;
+
+    private SearchQuery(List<Clause> clauses) {
+        this.clauses = Collections.unmodifiableList(clauses);
+    }
+
+    List<Clause> clauses() {
+        return clauses;
+    }
+
+    boolean isEmpty() {
+        return clauses.isEmpty();
+    }
+
+    static SearchQuery parse(String text) {
+        List<Clause> clauses = new ArrayList<>();
+        if (text == null) {
+            return new SearchQuery(clauses);
+        }
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = text.length();
+                }
+                addClause(clauses, Tokenizer.tokenize(text.substring(i + 1, end)), false);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                String word = text.substring(i, end);
+                boolean prefix = word.endsWith("*");
+                addClause(clauses, Tokenizer.tokenize(word), prefix);
+                i = end;
+            }
+        }
+        return new SearchQuery(clauses);
+    }
+
+    private static void addClause(List<Clause> clauses, List<String> terms, boolean prefix) {
+        if (terms.isEmpty()) {
+            return;
+        }
+        if (terms.size() > 1) {
+            clauses.add(new Clause(Kind.PHRASE, terms));
+        } else {
+            clauses.add(new Clause(prefix ? Kind.PREFIX : Kind.TERM, terms));
+        }
+    }
+}
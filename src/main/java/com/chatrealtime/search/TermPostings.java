@@ -0,0 +1,139 @@
+package com.chatrealtime.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Posting list of one index key: the ascending ids of the documents containing it and, for each document,
+ * the ascending positions of the term.
+ */
+final class TermPostings {
+    static final TermPostings EMPTY = new TermPostings(new int[0], new int[1], new int[0], 0);
+
+    private final int[] docs;
+    // Positions du document i : positions[positionStarts[i] .. positionStarts[i + 1])
+    private final int[] positionStarts;
+    private final int[] positions;
+    private final int size;
+
+    private TermPostings(int[] docs, int[] positionStarts, int[] positions, int size) {
+        this.docs = docs;
+        this.positionStarts = positionStarts;
+        this.positions = positions;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int doc(int index) {
+        return docs[index];
+    }
+
+    int[] docs() {
+        return Arrays.copyOf(docs, size);
+    }
+
+    int indexOf(int doc) {
+        int index = Arrays.binarySearch(docs, 0, size, doc);
+        return index >= 0 ? index : -1;
+    }
+
+    int positionCount(int index) {
+        return positionStarts[index + 1] - positionStarts[index];
+    }
+
+    int position(int index, int rank) {
+        return positions[positionStarts[index] + rank];
+    }
+
+    boolean hasPosition(int index, int position) {
+        return Arrays.binarySearch(positions, positionStarts[index], positionStarts[index + 1], position) >= 0;
+    }
+
+    /**
+     * Concatenates posting lists covering disjoint, ascending document ranges.
+     */
+    static TermPostings concat(List<TermPostings> parts) {
+        if (parts.isEmpty()) {
+            return EMPTY;
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int docCount = 0;
+        for (TermPostings part : parts) {
+            docCount += part.size;
+        }
+        Builder builder = new Builder(docCount);
+        for (TermPostings part : parts) {
+            for (int i = 0; i < part.size; i++) {
+                builder.add(part.docs[i], part.positions, part.positionStarts[i], part.positionStarts[i + 1]);
+            }
+        }
+        return builder.view();
+    }
+
+    /**
+     * Returns the postings of the documents not set in {@code deleted}.
+     */
+    TermPostings without(BitSet deleted) {
+        Builder builder = null;
+        for (int i = 0; i < size; i++) {
+            if (deleted.get(docs[i])) {
+                if (builder == null) {
+                    builder = new Builder(size - 1);
+                    for (int kept = 0; kept < i; kept++) {
+                        builder.add(docs[kept], positions, positionStarts[kept], positionStarts[kept + 1]);
+                    }
+                }
+            } else if (builder != null) {
+                builder.add(docs[i], positions, positionStarts[i], positionStarts[i + 1]);
+            }
+        }
+        return builder == null ? this : builder.view();
+    }
+
+    /**
+     * Append-only posting list. A {@link #view} stays valid, and unchanged, while the builder keeps growing:
+     * later additions only write past its end or into new arrays.
+     */
+    static final class Builder {
+        private int[] docs;
+        private int[] positionStarts;
+        private int[] positions;
+        private int size;
+
+        Builder(int expectedDocs) {
+            this.docs = new int[Math.max(1, expectedDocs)];
+            this.positionStarts = new int[Math.max(1, expectedDocs) + 1];
+            this.positions = new int[Math.max(1, expectedDocs)];
+        }
+
+        void add(int doc, int[] source, int from, int to) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                positionStarts = Arrays.copyOf(positionStarts, size * 2 + 1);
+            }
+            int start = positionStarts[size];
+            int count = to - from;
+            if (start + count > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(positions.length * 2, start + count));
+            }
+            System.arraycopy(source, from, positions, start, count);
+            docs[size] = doc;
+            positionStarts[size + 1] = start + count;
+            size++;
+        }
+
+        int lastDoc() {
+            return size == 0 ? -1 : docs[size - 1];
+        }
+
+        TermPostings view() {
+            return new TermPostings(docs, positionStarts, positions, size);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.chatrealtime.security;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,9 +11,15 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
@@ -25,6 +33,10 @@ import java.util.function.Function;
  * 
  * The implementation uses HMAC-SHA512 algorithm for token signing and validation.
  * 
+ * The claims of verified tokens are cached, keyed by the SHA-256 of the token, until the token expires, so
+ * that a token is parsed and its signature checked once per lifetime rather than on every request. The cache
+ * is a concurrent map read without locking; beyond its capacity the oldest verified tokens are dropped first.
+ * 
 
  */
 @Component
@@ -45,17 +57,55 @@ public class JwtTokenProvider {
      */
     private final Long expiration;
 
+    /**
+     * Parser shared by all validations, bound to the signing key
+     */
+    private final JwtParser parser;
+
+    /**
+     * Maximum number of verified tokens kept in the claims cache
+     */
+    private final int cacheCapacity;
+
+    /**
+     * Claims of verified tokens by token hash
+     */
+    private final Map<String, VerifiedClaims> verifiedClaims = new ConcurrentHashMap<>();
+
+    /**
+     * Hashes of the cached tokens in the order they were verified, and their number
+     */
+    private final ConcurrentLinkedQueue<String> verifiedOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger verifiedCount = new AtomicInteger();
+
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
     /**
      * Constructs a new JWT Token Provider with the specified secret and expiration time.
      * 
      * @param secret The secret key used for JWT signing (configured via application.properties)
      * @param expiration The token expiration time in milliseconds (configured via application.properties)
+     * @param cacheCapacity The number of verified tokens whose claims are cached
+     * @param meterRegistry Registry of the claims cache metrics
      */
     public JwtTokenProvider(
             @Value("${jwt.secret}") String secret,
-            @Value("${jwt.expiration}") Long expiration) {
+            @Value("${jwt.expiration}") Long expiration,
+            @Value("${jwt.cache.max-tokens:10000}") int cacheCapacity,
+            MeterRegistry meterRegistry) {
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
         this.expiration = expiration;
+        this.parser = Jwts.parserBuilder()
+            .setSigningKey(key)
+            .build();
+        this.cacheCapacity = cacheCapacity;
+        this.cacheHits = Counter.builder("chat.auth.token.cache.hits")
+            .description("Tokens whose claims were found in the verified claims cache")
+            .register(meterRegistry);
+        this.cacheMisses = Counter.builder("chat.auth.token.cache.misses")
+            .description("Tokens parsed and verified because their claims were not cached")
+            .register(meterRegistry);
     }
 
     /**
@@ -127,29 +177,55 @@ public class JwtTokenProvider {
     }
 
     /**
-     * Parses a JWT token and returns all claims.
+     * Returns the claims of a JWT token, from the cache when it was already verified.
+     * 
+     * A cached entry is only used until the token expires; after that the token is parsed again, which
+     * rejects it.
      * 
      * @param token The JWT token to parse
      * @return All claims from the token
      * @throws JwtException if the token is invalid or cannot be parsed
      */
     private Claims getAllClaimsFromToken(String token) {
-        return Jwts.parserBuilder()
-            .setSigningKey(key)
-            .build()
-            .parseClaimsJws(token)
-            .getBody();
+        String tokenHash = hash(token);
+        VerifiedClaims cached = verifiedClaims.get(tokenHash);
+        if (cached != null) {
+            if (System.currentTimeMillis() < cached.expiresAt) {
+                cacheHits.increment();
+                return cached.claims;
+            }
+            // Son hachage reste dans l'ordre de vérification jusqu'à en sortir par l'avant
+            verifiedClaims.remove(tokenHash, cached);
+        }
+        cacheMisses.increment();
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        if (cacheCapacity > 0) {
+            Date expiresAt = claims.getExpiration();
+            VerifiedClaims verified = new VerifiedClaims(claims, expiresAt != null ? expiresAt.getTime() : Long.MAX_VALUE);
+            if (verifiedClaims.putIfAbsent(tokenHash, verified) == null) {
+                verifiedOrder.add(tokenHash);
+                // Une entrée de plus, au plus une de moins : la file ne dépasse pas la capacité
+                if (verifiedCount.incrementAndGet() > cacheCapacity) {
+                    String oldest = verifiedOrder.poll();
+                    if (oldest != null) {
+                        verifiedCount.decrementAndGet();
+                        verifiedClaims.remove(oldest);
+                    }
+                }
+            }
+        }
+        return claims;
     }
 
     /**
-     * Checks if a JWT token has expired.
+     * Checks if the claims of a JWT token have expired.
      * 
-     * @param token The JWT token to check
+     * @param claims The verified claims of the token
      * @return true if the token has expired, false otherwise
      */
-    private Boolean isTokenExpired(String token) {
-        final Date expiration = getExpirationDateFromToken(token);
-        return expiration.before(new Date());
+    private Boolean isTokenExpired(Claims claims) {
+        final Date expiration = claims.getExpiration();
+        return expiration != null && expiration.before(new Date());
     }
 
     /**
@@ -164,15 +240,54 @@ public class JwtTokenProvider {
      * @return true if the token is valid, false otherwise
      */
     public Boolean validateToken(String token) {
+        return getValidClaims(token) != null;
+    }
+
+    /**
+     * Validates a JWT token like {@link #validateToken} and returns its claims, so that a caller needing both
+     * looks the token up once.
+     * 
+     * @param token The JWT token to validate
+     * @return The claims of the token, or null if the token is invalid or expired
+     */
+    public Claims getValidClaims(String token) {
         try {
-            Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token);
-            return !isTokenExpired(token);
+            Claims claims = getAllClaimsFromToken(token);
+            return isTokenExpired(claims) ? null : claims;
         } catch (JwtException | IllegalArgumentException e) {
             logger.error("Invalid JWT token: {}", e.getMessage());
-            return false;
+            return null;
+        }
+    }
+
+    /**
+     * Hashes a token for the claims cache, so that raw tokens are not kept as keys.
+     * 
+     * @param token The JWT token to hash
+     * @return The Base64 encoded SHA-256 of the token
+     */
+    private static String hash(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("JWT token is null");
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Claims of a verified token and the time after which they must not be used.
+     */
+    private static final class VerifiedClaims {
+        final Claims claims;
+        final long expiresAt;
+
+        VerifiedClaims(Claims claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
         }
     }
-} 
\ No newline at end of file
+}
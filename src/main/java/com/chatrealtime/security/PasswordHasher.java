@@ -0,0 +1,101 @@
+package com.chatrealtime.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs BCrypt hashing and verification off the request and database threads.
+ *
+ * Work goes to {@code auth.hash.threads} dedicated threads (one per core by default) behind a queue of
+ * {@code auth.hash.queue-capacity} tasks. When the queue is full the returned future fails at once with a
+ * {@link RejectedExecutionException}, so that a login storm is answered with 503 instead of piling up.
+ */
+@Component
+public class PasswordHasher {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final Timer encodeLatency;
+    private final Timer matchLatency;
+    private final Counter rejected;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder, MeterRegistry meterRegistry,
+                          @Value("${auth.hash.threads:0}") int threads,
+                          @Value("${auth.hash.queue-capacity:64}") int queueCapacity) {
+        this.passwordEncoder = passwordEncoder;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        this.encodeLatency = Timer.builder("chat.auth.hash.latency")
+            .description("Time spent hashing or verifying a password")
+            .tag("operation", "encode")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.matchLatency = Timer.builder("chat.auth.hash.latency")
+            .description("Time spent hashing or verifying a password")
+            .tag("operation", "match")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.rejected = Counter.builder("chat.auth.hash.rejected")
+            .description("Password operations refused because the hashing queue was full")
+            .register(meterRegistry);
+        Gauge.builder("chat.auth.hash.queue", executor, pool -> pool.getQueue().size())
+            .description("Password operations waiting for a hashing thread")
+            .register(meterRegistry);
+        logger.info("Password hashing on {} threads, queue of {}", poolSize, Math.max(1, queueCapacity));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public CompletableFuture<String> encode(String rawPassword) {
+        return submit(encodeLatency, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    /**
+     * Whether {@code rawPassword} matches the stored password, which is a BCrypt hash or, for accounts created
+     * before hashing, the password itself.
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String storedPassword) {
+        String stored = storedPassword == null ? "" : storedPassword.trim();
+        if (!stored.startsWith("$2a$")) {
+            return CompletableFuture.completedFuture(rawPassword.equals(stored));
+        }
+        return submit(matchLatency, () -> passwordEncoder.matches(rawPassword, stored));
+    }
+
+    private <T> CompletableFuture<T> submit(Timer latency, Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(() -> latency.record(task), executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
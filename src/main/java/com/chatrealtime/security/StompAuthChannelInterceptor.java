@@ -0,0 +1,189 @@
+package com.chatrealtime.security;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates STOMP sessions once, on CONNECT.
+ *
+ * The JWT of the {@code Authorization} header of the CONNECT frame is validated and its user bound to the
+ * session as its {@link java.security.Principal}, which Spring then attaches to every later frame; handlers
+ * read it without parsing anything. SEND and SUBSCRIBE frames of unauthenticated or expired sessions are
+ * refused, and a session is sent an ERROR frame, which closes it, when its token expires.
+ *
+ * A session may only subscribe to its own user's broker destinations, {@code {prefix}/chat/{userId}[/...]},
+ * never with a pattern, and may only SEND to application destinations: publishing goes through the controllers.
+ */
+@Component
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(StompAuthChannelInterceptor.class);
+
+    private final JwtTokenProvider tokenProvider;
+    private final MessageChannel clientOutboundChannel;
+    private final String brokerPrefix;
+    private final String userDestinationPrefix;
+    private final Map<String, SessionExpiry> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter rejected;
+
+    public StompAuthChannelInterceptor(JwtTokenProvider tokenProvider,
+                                       @Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${websocket.destination-prefix:/topic}") String destinationPrefix) {
+        this.tokenProvider = tokenProvider;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.brokerPrefix = destinationPrefix + "/";
+        this.userDestinationPrefix = destinationPrefix + "/chat/";
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stomp-session-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rejected = Counter.builder("chat.websocket.auth.rejected")
+            .description("STOMP frames refused for a missing, invalid or expired token")
+            .register(meterRegistry);
+        Gauge.builder("chat.websocket.sessions.authenticated", sessions, Map::size)
+            .description("STOMP sessions authenticated at CONNECT")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+        String sessionId = accessor.getSessionId();
+        switch (accessor.getCommand()) {
+            case CONNECT:
+            case STOMP:
+                connect(accessor, sessionId);
+                break;
+            case SEND:
+            case SUBSCRIBE:
+                SessionExpiry session = sessionId != null ? sessions.get(sessionId) : null;
+                if (accessor.getUser() == null || session == null) {
+                    rejected.increment();
+                    throw new MessageDeliveryException(message, "Non authentifié");
+                }
+                // Simple comparaison : aucune vérification cryptographique par trame
+                if (System.currentTimeMillis() >= session.expiresAt) {
+                    rejected.increment();
+                    throw new MessageDeliveryException(message, "Session expirée");
+                }
+                if (!isAllowed(accessor.getCommand(), accessor.getDestination(), accessor.getUser().getName())) {
+                    rejected.increment();
+                    throw new MessageDeliveryException(message, "Destination interdite");
+                }
+                break;
+            case DISCONNECT:
+                SessionExpiry ended = sessionId != null ? sessions.remove(sessionId) : null;
+                if (ended != null) {
+                    ended.timer.cancel(false);
+                }
+                break;
+            default:
+                break;
+        }
+        return message;
+    }
+
+    private boolean isAllowed(StompCommand command, String destination, String userId) {
+        if (destination == null) {
+            return false;
+        }
+        boolean broker = destination.startsWith(brokerPrefix);
+        if (command == StompCommand.SEND) {
+            // Les messages passent par /app et ses contrôles, jamais directement par le broker
+            return !broker;
+        }
+        // Motifs (/topic/chat/**, {var}) : ils couvriraient les destinations des autres utilisateurs
+        if (destination.indexOf('*') >= 0 || destination.indexOf('?') >= 0 || destination.indexOf('{') >= 0) {
+            return false;
+        }
+        if (!broker) {
+            return true;
+        }
+        String own = userDestinationPrefix + userId;
+        return destination.equals(own) || destination.startsWith(own + "/");
+    }
+
+    private void connect(StompHeaderAccessor accessor, String sessionId) {
+        String token = accessor.getFirstNativeHeader("Authorization");
+        if (token != null && token.startsWith("Bearer ")) {
+            token = token.substring(7);
+        }
+        Claims claims = token != null && sessionId != null ? tokenProvider.getValidClaims(token) : null;
+        if (claims == null) {
+            rejected.increment();
+            throw new MessageDeliveryException("Non authentifié");
+        }
+        String userId = claims.getSubject();
+        Date expiration = claims.getExpiration();
+        long expiresAt = expiration != null ? expiration.getTime() : Long.MAX_VALUE;
+        accessor.setUser(new UsernamePasswordAuthenticationToken(userId, null, new ArrayList<>()));
+
+        ScheduledFuture<?> timer = scheduler.schedule(() -> expire(sessionId, userId),
+            Math.max(0, expiresAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        SessionExpiry previous = sessions.put(sessionId, new SessionExpiry(expiresAt, timer));
+        if (previous != null) {
+            previous.timer.cancel(false);
+        }
+        logger.debug("STOMP session {} authenticated for user {}", sessionId, userId);
+    }
+
+    // Une trame ERROR ferme la session côté serveur
+    private void expire(String sessionId, String userId) {
+        if (sessions.remove(sessionId) == null) {
+            return;
+        }
+        StompHeaderAccessor error = StompHeaderAccessor.create(StompCommand.ERROR);
+        error.setMessage("Session expirée");
+        error.setSessionId(sessionId);
+        error.setLeaveMutable(true);
+        clientOutboundChannel.send(MessageBuilder.createMessage(new byte[0], error.getMessageHeaders()));
+        logger.debug("STOMP session {} of user {} closed, token expired", sessionId, userId);
+    }
+
+    private static final class SessionExpiry {
+        final long expiresAt;
+        final ScheduledFuture<?> timer;
+
+        SessionExpiry(long expiresAt, ScheduledFuture<?> timer) {
+            this.expiresAt = expiresAt;
+            this.timer = timer;
+        }
+    }
+}
@@ -2,16 +2,14 @@ package com.chatrealtime.service;
 
 import com.chatrealtime.model.User;
 import com.chatrealtime.security.JwtTokenProvider;
-import com.google.firebase.database.*;
+import com.chatrealtime.security.PasswordHasher;
+import com.chatrealtime.database.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -21,12 +19,17 @@ public class AuthService {
     @Autowired
     private JwtTokenProvider tokenProvider;
     
-    private final FirebaseDatabase database;
-    private final BCryptPasswordEncoder passwordEncoder;
+    private final RealtimeDatabase database;
+    private final UserDirectory userDirectory;
+    private final PasswordHasher passwordHasher;
+    private final PresenceService presenceService;
     
-    public AuthService(FirebaseDatabase database) {
+    public AuthService(RealtimeDatabase database, UserDirectory userDirectory, PasswordHasher passwordHasher,
+                       PresenceService presenceService) {
         this.database = database;
-        this.passwordEncoder = new BCryptPasswordEncoder();
+        this.userDirectory = userDirectory;
+        this.passwordHasher = passwordHasher;
+        this.presenceService = presenceService;
     }
     
     public CompletableFuture<User> register(String email, String password, String name) {
@@ -36,86 +39,96 @@ public class AuthService {
         // Log registration attempt
         logger.info("Attempting to register user with email: {}", email);
         
-        usersRef.orderByChild("email").equalTo(email).addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (dataSnapshot.exists()) {
-                    logger.warn("Registration failed: Email already exists: {}", email);
-                    future.completeExceptionally(new RuntimeException("Email déjà utilisé"));
+        userDirectory.findUserId(email).whenComplete((existingId, lookupError) -> {
+            if (lookupError != null) {
+                logger.error("Registration cancelled: {}", lookupError.getMessage());
+                future.completeExceptionally(lookupError);
+                return;
+            }
+            String userId = UUID.randomUUID().toString();
+            if (existingId != null || !userDirectory.reserve(email, userId)) {
+                logger.warn("Registration failed: Email already exists: {}", email);
+                future.completeExceptionally(new RuntimeException("Email déjà utilisé"));
+                return;
+            }
+
+            // Le hachage se fait hors du thread de la base, qui sert aussi les autres écouteurs
+            passwordHasher.encode(password).whenComplete((hashedPassword, hashError) -> {
+                if (hashError != null) {
+                    logger.warn("Registration failed: password hashing refused for {}", email);
+                    userDirectory.release(email, userId);
+                    future.completeExceptionally(hashError);
                     return;
                 }
-                
-                String hashedPassword = passwordEncoder.encode(password);
-                String userId = UUID.randomUUID().toString();
-                
+
                 User newUser = new User();
                 newUser.setId(userId);
                 newUser.setEmail(email);  // Ensure email is set correctly
                 newUser.setPassword(hashedPassword);
                 newUser.setName(name != null && !name.isEmpty() ? name : email);  // Use email as name if name is not provided
                 newUser.setStatus("offline");
-                
+
                 // Create a new user with a specific ID instead of using push()
                 DatabaseReference newUserRef = usersRef.child(userId);
-                
+
                 newUserRef.setValue(newUser, (error, ref) -> {
                     if (error != null) {
                         logger.error("Failed to save user to database: {}", error.getMessage());
+                        userDirectory.release(email, userId);
                         future.completeExceptionally(error.toException());
                     } else {
                         logger.info("Successfully registered user: {}", email);
                         future.complete(newUser);
                     }
                 });
-            }
-            
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-                logger.error("Registration cancelled: {}", databaseError.getMessage());
-                future.completeExceptionally(databaseError.toException());
-            }
+            });
         });
         
         return future;
     }
     
-    public User login(String email, String password) {
-        DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
-        Query query = usersRef.orderByChild("email").equalTo(email);
-        
-        CompletableFuture<User> future = new CompletableFuture<>();
+    /**
+     * Checks the credentials and marks the user online; the password is verified on the {@link PasswordHasher}
+     * threads, which refuse work when saturated.
+     */
+    public CompletableFuture<User> login(String email, String password) {
+        DatabaseReference usersRef = database.getReference("users");
         
-        query.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                if (!dataSnapshot.exists()) {
-                    future.completeExceptionally(new RuntimeException("Utilisateur non trouvé"));
-                    return;
+        return userDirectory.findUserId(email)
+            .thenCompose(userId -> {
+                if (userId == null) {
+                    throw new RuntimeException("Utilisateur non trouvé");
                 }
-
-                DataSnapshot userSnapshot = dataSnapshot.getChildren().iterator().next();
+                return readUser(usersRef.child(userId));
+            })
+            .thenCompose(userSnapshot -> {
                 User user = userSnapshot.getValue(User.class);
                 logger.debug("User retrieved: {}", user != null ? user.getEmail() : "null");
-                
-                String userPassword = user.getPassword() == null ? "" : user.getPassword().trim();
-                if (user != null && (
-                      (userPassword.startsWith("$2a$") && passwordEncoder.matches(password, userPassword))
-                      || password.equals(userPassword)
-                )) {
-                    // Mettre à jour le statut en ligne
-                    Map<String, Object> updates = new HashMap<>();
-                    updates.put("online", true);
-                    updates.put("status", "online");
-                    userSnapshot.getRef().updateChildren(updates, (error, ref) -> {
-                        if (error != null) {
-                            future.completeExceptionally(error.toException());
-                            return;
-                        }
-                        future.complete(user);
-                    });
-                } else {
-                    future.completeExceptionally(new RuntimeException("Mot de passe incorrect"));
+                if (user == null) {
+                    throw new RuntimeException("Utilisateur non trouvé");
                 }
+                // Le statut en ligne vient de la session STOMP ouverte ensuite (PresenceService)
+                return passwordHasher.matches(password, user.getPassword()).thenApply(matches -> {
+                    if (!matches) {
+                        throw new RuntimeException("Mot de passe incorrect");
+                    }
+                    user.setToken(tokenProvider.generateToken(userSnapshot.getKey()));
+                    return user;
+                });
+            })
+            .orTimeout(10, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<DataSnapshot> readUser(DatabaseReference userRef) {
+        CompletableFuture<DataSnapshot> future = new CompletableFuture<>();
+        userRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot userSnapshot) {
+                if (!userSnapshot.exists()) {
+                    future.completeExceptionally(new RuntimeException("Utilisateur non trouvé"));
+                    return;
+                }
+                future.complete(userSnapshot);
             }
 
             @Override
@@ -123,37 +136,18 @@ public class AuthService {
                 future.completeExceptionally(databaseError.toException());
             }
         });
-
-        try {
-            return future.get(10, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            throw new RuntimeException(e.getMessage());
-        }
+        return future;
     }
     
     public CompletableFuture<Void> logout(String userId) {
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        DatabaseReference usersRef = database.getReference("users");
-        usersRef.child(userId).child("status").setValue("offline", (error, ref) -> {
-            if (error != null) {
-                future.completeExceptionally(error.toException());
-            } else {
-                future.complete(null);
-            }
-        });
-        return future;
+        // Hors ligne jusqu'à la prochaine connexion, même si une session reste ouverte
+        presenceService.setStatus(userId, PresenceService.OFFLINE);
+        return CompletableFuture.completedFuture(null);
     }
     
     public CompletableFuture<Void> updateStatus(String userId, String status) {
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        DatabaseReference usersRef = database.getReference("users");
-        usersRef.child(userId).child("status").setValue(status, (error, ref) -> {
-            if (error != null) {
-                future.completeExceptionally(error.toException());
-            } else {
-                future.complete(null);
-            }
-        });
-        return future;
+        // Le statut n'est plus écrit dans users/{id} : il est publié aux contacts par PresenceService
+        presenceService.setStatus(userId, status);
+        return CompletableFuture.completedFuture(null);
     }
 } 
\ No newline at end of file
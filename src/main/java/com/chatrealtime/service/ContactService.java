@@ -1,7 +1,7 @@
 package com.chatrealtime.service;
 
 import com.chatrealtime.model.User;
-import com.google.firebase.database.*;
+import com.chatrealtime.database.*;
 import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,10 +13,9 @@ public class ContactService {
     private final DatabaseReference contactsRef;
     private final DatabaseReference usersRef;
     
-    public ContactService() {
-        FirebaseDatabase db = FirebaseDatabase.getInstance();
-        this.contactsRef = db.getReference("contacts");
-        this.usersRef = db.getReference("users");
+    public ContactService(RealtimeDatabase database) {
+        this.contactsRef = database.getReference("contacts");
+        this.usersRef = database.getReference("users");
     }
     
     public CompletableFuture<Void> addContact(String userId, String contactId) {
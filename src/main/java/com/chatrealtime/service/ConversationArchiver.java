@@ -0,0 +1,180 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.archive.ArchiveStore;
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.cluster.ClusterReplication;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import com.chatrealtime.model.Message;
+import com.chatrealtime.store.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Moves cold history out of the realtime database, so that the root snapshots taken at startup and the
+ * conversation listeners stay small.
+ *
+ * Every {@code archive.interval-ms}, the messages older than {@code archive.after-days} of each conversation
+ * listed under {@code last_messages} are written to the {@link ArchiveStore} in batches of
+ * {@code archive.batch-size}, then deleted from the {@link MessageStore}. A batch is only
+ * deleted once its archive file is on disk; {@link MessageService#getHistory} reads across both.
+ * In cluster mode only the {@code cluster.leader} node archives, and its batches are replicated to the archive of
+ * the other nodes ({@link ClusterReplication}).
+ */
+@Service
+public class ConversationArchiver {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationArchiver.class);
+    private static final long FIRST_RUN_DELAY_MS = 60_000;
+
+    private final DatabaseReference lastMessagesRef;
+    private final MessageStore messageStore;
+    private final ArchiveStore archiveStore;
+    private final HistoryCache historyCache;
+    private final MessageExpiryService expiryService;
+    private final long afterMillis;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Counter archived;
+    // Présent avec cluster.enabled=true
+    @Autowired(required = false)
+    private ClusterReplication clusterReplication;
+
+    public ConversationArchiver(RealtimeDatabase database, MessageStore messageStore,
+                                ArchiveStore archiveStore, HistoryCache historyCache,
+                                MessageExpiryService expiryService, MeterRegistry meterRegistry,
+                                ClusterNode clusterNode,
+                                @Value("${archive.enabled:true}") boolean enabled,
+                                @Value("${archive.after-days:30}") int afterDays,
+                                @Value("${archive.interval-ms:3600000}") long intervalMillis,
+                                @Value("${archive.batch-size:1000}") int batchSize) {
+        this.lastMessagesRef = database.getReference("last_messages");
+        this.messageStore = messageStore;
+        this.archiveStore = archiveStore;
+        this.historyCache = historyCache;
+        this.expiryService = expiryService;
+        this.afterMillis = TimeUnit.DAYS.toMillis(Math.max(1, afterDays));
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "conversation-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.archived = Counter.builder("chat.archive.messages")
+            .description("Messages moved from the message store to the archive")
+            .register(meterRegistry);
+
+        // Un seul nœud du cluster déplace l'historique, les autres reçoivent ses lots
+        if (enabled && intervalMillis > 0 && clusterNode.isLeader()) {
+            scheduler.scheduleWithFixedDelay(this::archiveAll, Math.min(FIRST_RUN_DELAY_MS, intervalMillis),
+                intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void archiveAll() {
+        long cutoff = System.currentTimeMillis() - afterMillis;
+        try {
+            int total = 0;
+            for (String chatId : conversationIds().get()) {
+                total += archive(chatId, cutoff);
+            }
+            if (total > 0) {
+                logger.info("Archived {} messages older than {} days", total, TimeUnit.MILLISECONDS.toDays(afterMillis));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Conversation archiving failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private int archive(String chatId, long cutoff) throws IOException {
+        long lifetime = expiryService.getPolicy(chatId).lifetimeMillis();
+        if (lifetime > 0 && lifetime <= afterMillis) {
+            // Ces messages seront supprimés avant d'avoir à être archivés
+            return 0;
+        }
+        int count = 0;
+        long beforeMillis = cutoff;
+        String beforeId = null;
+        while (true) {
+            // Les plus récents d'abord, en reculant depuis le plus ancien du lot précédent : les messages déjà
+            // archivés et supprimés restent derrière le curseur, aucun lot ne les relit
+            List<Message> batch = messageStore.readBefore(chatId, beforeMillis, beforeId, batchSize).join();
+            if (batch.isEmpty()) {
+                break;
+            }
+            archiveStore.append(chatId, batch);
+            if (clusterReplication != null) {
+                clusterReplication.archived(chatId, batch);
+            }
+            messageStore.delete(chatId, batch.stream().map(Message::getId).collect(Collectors.toList())).join();
+            count += batch.size();
+            archived.increment(batch.size());
+            if (batch.size() < batchSize) {
+                break;
+            }
+            Message oldest = batch.get(0);
+            beforeMillis = toEpochMillis(oldest.getTimestamp());
+            beforeId = oldest.getId();
+        }
+        if (count > 0) {
+            // Tout ce qui précède la limite est archivé : le store embarqué peut abandonner ses segments entiers
+            messageStore.deleteBefore(chatId, cutoff).join();
+            historyCache.invalidate(chatId);
+            logger.debug("Archived {} messages of {}", count, chatId);
+        }
+        return count;
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            return 0L;
+        }
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private CompletableFuture<List<String>> conversationIds() {
+        CompletableFuture<List<String>> future = new CompletableFuture<>();
+        lastMessagesRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                List<String> chatIds = new ArrayList<>();
+                for (DataSnapshot conversation : snapshot.getChildren()) {
+                    chatIds.add(conversation.getKey());
+                }
+                future.complete(chatIds);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                future.completeExceptionally(error.toException());
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,330 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot history of the most active conversations, kept by {@link MessageService}.
+ *
+ * Each cached conversation holds a ring buffer of its last {@code messages-per-chat} messages, loaded on the first
+ * read of its latest page and then extended by every message sent through {@link MessageService}. Conversations
+ * are evicted in LRU order once the estimated size of all buffers exceeds {@code max-bytes}. Entries also expire
+ * after {@code expire-after-ms}, which bounds the staleness caused by clients writing to the database directly.
+ * The cache is disabled in cluster mode, where the other nodes write and delete messages without telling it.
+ *
+ * Reads and sends lock only their conversation's buffer; buffers are added to, extended and removed through
+ * the map's per-key operations. Eviction runs once the size exceeds the budget, by one thread at a time, and
+ * frees a tenth of the budget more than needed so that it is not run again by the next send.
+ */
+@Component
+public class HistoryCache {
+    private static final int EPOCH_STRIPES = 256;
+    private static final int MESSAGE_OVERHEAD_BYTES = 120;
+
+    private final boolean enabled;
+    private final int capacity;
+    private final long maxBytes;
+    private final long expireAfterMillis;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    // Incrémenté à chaque envoi : un chargement concurrent d'un envoi n'est pas mis en cache
+    private final AtomicIntegerArray epochs = new AtomicIntegerArray(EPOCH_STRIPES);
+    private final ConcurrentHashMap<String, ConversationBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    public HistoryCache(MeterRegistry meterRegistry, ClusterNode clusterNode,
+                        @Value("${message.history.cache.enabled:true}") boolean enabled,
+                        @Value("${message.history.cache.messages-per-chat:200}") int capacity,
+                        @Value("${message.history.cache.max-bytes:33554432}") long maxBytes,
+                        @Value("${message.history.cache.expire-after-ms:60000}") long expireAfterMillis) {
+        this.enabled = enabled && capacity > 0 && maxBytes > 0 && !clusterNode.isEnabled();
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.expireAfterMillis = expireAfterMillis;
+        this.hits = Counter.builder("chat.history.cache.hits")
+            .description("History pages served from the cache")
+            .register(meterRegistry);
+        this.misses = Counter.builder("chat.history.cache.misses")
+            .description("History pages read from the message store")
+            .register(meterRegistry);
+        this.evictions = Counter.builder("chat.history.cache.evictions")
+            .description("Conversations evicted from the history cache")
+            .register(meterRegistry);
+        Gauge.builder("chat.history.cache.size", totalBytes, AtomicLong::get)
+            .description("Estimated memory used by the history cache")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("chat.history.cache.conversations", buffers, Map::size)
+            .description("Conversations held by the history cache")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of messages to read from the store to fill a conversation buffer.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the page preceding the cursor when the cache can answer it exactly, {@code null} otherwise.
+     * The messages of the page are shared with the cache and must not be modified.
+     */
+    public List<Message> page(String chatId, Long beforeTimestamp, String beforeId, int size) {
+        if (!enabled) {
+            return null;
+        }
+        List<Message> page = null;
+        ConversationBuffer buffer = buffers.get(chatId);
+        if (buffer != null && buffer.isExpired(expireAfterMillis)) {
+            remove(chatId, buffer);
+        } else if (buffer != null) {
+            page = buffer.page(beforeTimestamp, beforeId, size);
+        }
+        if (page != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return page;
+    }
+
+    /**
+     * Captures the write epoch of a conversation before loading it from the store, see {@link #fill}.
+     */
+    public int epoch(String chatId) {
+        return epochs.get(stripe(chatId));
+    }
+
+    /**
+     * Caches the latest messages of a conversation, unless a message was sent to it since {@code epoch}:
+     * the loaded messages may then be missing it.
+     */
+    public void fill(String chatId, List<Message> latest, int epoch) {
+        if (!enabled) {
+            return;
+        }
+        // Vérifié sous le verrou de la clé : un envoi qui suit la vérification trouve le buffer dans append
+        buffers.computeIfAbsent(chatId, id -> {
+            if (epochs.get(stripe(chatId)) != epoch) {
+                return null;
+            }
+            ConversationBuffer buffer = new ConversationBuffer(capacity, latest.size() < capacity);
+            long bytes = 0;
+            for (Message message : latest) {
+                bytes += buffer.add(message);
+            }
+            totalBytes.addAndGet(bytes);
+            return buffer;
+        });
+        evictIfNeeded();
+    }
+
+    public void append(String chatId, Message message) {
+        if (!enabled) {
+            return;
+        }
+        epochs.incrementAndGet(stripe(chatId));
+        buffers.computeIfPresent(chatId, (id, buffer) -> {
+            if (!buffer.contains(message.getId())) {
+                totalBytes.addAndGet(buffer.add(message));
+            }
+            return buffer;
+        });
+        evictIfNeeded();
+    }
+
+    /**
+     * Drops a conversation from the cache, e.g. after some of its messages were deleted.
+     */
+    public void invalidate(String chatId) {
+        if (!enabled) {
+            return;
+        }
+        epochs.incrementAndGet(stripe(chatId));
+        ConversationBuffer buffer = buffers.get(chatId);
+        if (buffer != null) {
+            remove(chatId, buffer);
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (totalBytes.get() <= maxBytes || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<String> chatIds = new ArrayList<>(buffers.size());
+            List<Long> usedAt = new ArrayList<>(buffers.size());
+            for (Map.Entry<String, ConversationBuffer> entry : buffers.entrySet()) {
+                chatIds.add(entry.getKey());
+                // Relevé une fois : la date d'usage change pendant le tri
+                usedAt.add(entry.getValue().lastUsed);
+            }
+            Integer[] order = new Integer[chatIds.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(usedAt::get));
+            long target = maxBytes - maxBytes / 10;
+            for (int i = 0; i < order.length && totalBytes.get() > target; i++) {
+                ConversationBuffer buffer = buffers.get(chatIds.get(order[i]));
+                if (buffer != null && remove(chatIds.get(order[i]), buffer)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    // Hors de la map, le buffer n'est plus modifié : sa taille peut être retranchée
+    private boolean remove(String chatId, ConversationBuffer buffer) {
+        if (!buffers.remove(chatId, buffer)) {
+            return false;
+        }
+        totalBytes.addAndGet(-buffer.bytes());
+        return true;
+    }
+
+    private static int stripe(String chatId) {
+        return (chatId.hashCode() & 0x7fffffff) % EPOCH_STRIPES;
+    }
+
+    private static long estimateBytes(Message message) {
+        return MESSAGE_OVERHEAD_BYTES + 2L * (length(message.getId()) + length(message.getFrom())
+            + length(message.getTo()) + length(message.getContent()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Ring buffer holding a contiguous, most recent slice of a conversation, oldest first. Its monitor is the lock
+     * of the conversation.
+     */
+    private static final class ConversationBuffer {
+        private final Message[] ring;
+        private final long loadedAt = System.currentTimeMillis();
+        volatile long lastUsed = loadedAt;
+        private int head;
+        private int count;
+        private long bytes;
+        // Vrai tant que le buffer contient la conversation depuis son premier message
+        private boolean complete;
+
+        ConversationBuffer(int capacity, boolean complete) {
+            this.ring = new Message[capacity];
+            this.complete = complete;
+        }
+
+        boolean isExpired(long expireAfterMillis) {
+            return expireAfterMillis > 0 && System.currentTimeMillis() - loadedAt > expireAfterMillis;
+        }
+
+        /**
+         * Adds the newest message and returns the change of the estimated size.
+         */
+        synchronized long add(Message message) {
+            lastUsed = System.currentTimeMillis();
+            long delta = estimateBytes(message);
+            int slot = (head + count) % ring.length;
+            if (count == ring.length) {
+                delta -= estimateBytes(ring[head]);
+                head = (head + 1) % ring.length;
+                complete = false;
+            } else {
+                count++;
+            }
+            ring[slot] = message;
+            bytes += delta;
+            return delta;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        private Message get(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        synchronized boolean contains(String messageId) {
+            return indexOf(messageId) >= 0;
+        }
+
+        synchronized List<Message> page(Long beforeTimestamp, String beforeId, int size) {
+            lastUsed = System.currentTimeMillis();
+            int end = beforeTimestamp == null ? count : endOf(beforeTimestamp, beforeId);
+            if (end < 0) {
+                return null;
+            }
+            int start = end - size;
+            if (start < 0) {
+                if (!complete) {
+                    return null;
+                }
+                start = 0;
+            }
+            List<Message> page = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                page.add(get(i));
+            }
+            return page;
+        }
+
+        // Position du curseur dans le buffer, -1 s'il est plus ancien que le buffer
+        private int endOf(long beforeTimestamp, String beforeId) {
+            if (beforeId != null) {
+                int index = indexOf(beforeId);
+                if (index >= 0) {
+                    return index;
+                }
+            }
+            if (count == 0 || epochMillis(get(0)) >= beforeTimestamp) {
+                return complete ? 0 : -1;
+            }
+            int end = count;
+            while (end > 0 && epochMillis(get(end - 1)) >= beforeTimestamp) {
+                end--;
+            }
+            return end;
+        }
+
+        private int indexOf(String messageId) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (messageId.equals(get(i).getId())) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static long epochMillis(Message message) {
+            return message.getTimestamp() == null ? 0L
+                : message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+}
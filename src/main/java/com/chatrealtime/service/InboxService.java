@@ -0,0 +1,193 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import com.chatrealtime.database.WriteCoalescer;
+import com.chatrealtime.model.ConversationSummary;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-user conversation summaries under {@code user_conversations/{userId}/{chatId}}.
+ *
+ * Each summary holds the preview and timestamp of the last message, one {@code unread/{cursor}} marker per
+ * message received and a {@code readUpTo} cursor, the high-water mark of what its owner has read. A cursor
+ * ({@link #cursor}) sorts like the messages, so the unread count is the number of markers after {@code readUpTo}:
+ * it is kept without reading the summary first, and the whole inbox is a single query ordered by {@code timestamp}.
+ * Reading moves {@code readUpTo} forward and drops the markers it covers in one write, however many they are.
+ */
+@Service
+public class InboxService {
+    public static final String ROOT = "user_conversations";
+    public static final int DEFAULT_INBOX_SIZE = 100;
+    private static final int PREVIEW_LENGTH = 100;
+    private static final String READ_UP_TO = "readUpTo";
+    private static final int TIMESTAMP_DIGITS = 13;
+
+    private final DatabaseReference conversationsRef;
+    private final WriteCoalescer writeCoalescer;
+
+    public InboxService(RealtimeDatabase database, WriteCoalescer writeCoalescer) {
+        this.conversationsRef = database.getReference(ROOT);
+        this.writeCoalescer = writeCoalescer;
+    }
+
+    /**
+     * Writes, relative to the database root, that record a new message in the summaries of both participants.
+     */
+    public static Map<String, Object> summaryWrites(String chatId, String type, String senderId, String recipientId,
+                                                    String messageId, String content, long timestamp) {
+        Map<String, Object> writes = new HashMap<>();
+        putSummary(writes, senderId, recipientId, chatId, type, senderId, content, timestamp);
+        if (!senderId.equals(recipientId)) {
+            putSummary(writes, recipientId, senderId, chatId, type, senderId, content, timestamp);
+            writes.put(ROOT + "/" + recipientId + "/" + chatId + "/unread/" + cursor(timestamp, messageId), true);
+        }
+        return writes;
+    }
+
+    /**
+     * Returns the {@code limit} most recently active conversations of a user, most recent first.
+     */
+    public CompletableFuture<List<ConversationSummary>> getInbox(String userId, int limit) {
+        CompletableFuture<List<ConversationSummary>> future = new CompletableFuture<>();
+        conversationsRef.child(userId).orderByChild("timestamp").limitToLast(Math.max(1, limit))
+            .addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    List<ConversationSummary> inbox = new ArrayList<>();
+                    for (DataSnapshot conversation : snapshot.getChildren()) {
+                        inbox.add(toSummary(conversation));
+                    }
+                    Collections.reverse(inbox);
+                    future.complete(inbox);
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    future.completeExceptionally(error.toException());
+                }
+            });
+        return future;
+    }
+
+    /**
+     * Position of a message in its conversation as a key that sorts like the messages: by timestamp, then id.
+     */
+    public static String cursor(long timestamp, String messageId) {
+        StringBuilder cursor = new StringBuilder(TIMESTAMP_DIGITS + 1 + messageId.length());
+        String digits = Long.toString(Math.max(0, timestamp));
+        for (int i = digits.length(); i < TIMESTAMP_DIGITS; i++) {
+            cursor.append('0');
+        }
+        return cursor.append(digits).append('_').append(messageId).toString();
+    }
+
+    /**
+     * Moves the {@code readUpTo} cursor of a summary forward to {@code cursor}, dropping the unread markers it
+     * now covers in the same write.
+     *
+     * @return Whether the cursor moved; {@code false} when it already was at or after {@code cursor}
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Boolean> advanceReadMarker(String userId, String chatId, String cursor) {
+        // Transaction sur le résumé : deux avancées concurrentes ne peuvent pas faire reculer le curseur
+        return conversationsRef.child(userId).child(chatId).runTransaction(current -> {
+            Map<String, Object> summary = current instanceof Map ? (Map<String, Object>) current : new HashMap<>();
+            Object readUpTo = summary.get(READ_UP_TO);
+            if (readUpTo instanceof String && ((String) readUpTo).compareTo(cursor) >= 0) {
+                return DatabaseReference.Transaction.ABORT;
+            }
+            summary.put(READ_UP_TO, cursor);
+            Object unread = summary.get("unread");
+            if (unread instanceof Map) {
+                ((Map<String, Object>) unread).keySet().removeIf(marker -> marker.compareTo(cursor) <= 0);
+            }
+            return summary;
+        });
+    }
+
+    /**
+     * Returns the {@code readUpTo} cursor of a summary, {@code null} when the user never read the conversation.
+     */
+    public CompletableFuture<String> readMarker(String userId, String chatId) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        conversationsRef.child(userId).child(chatId).child(READ_UP_TO)
+            .addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    future.complete(snapshot.getValue(String.class));
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    future.completeExceptionally(error.toException());
+                }
+            });
+        return future;
+    }
+
+    public static ConversationSummary toSummary(DataSnapshot conversation) {
+        Long timestamp = conversation.child("timestamp").getValue(Long.class);
+        return ConversationSummary.builder()
+            .chatId(conversation.getKey())
+            .peerId(conversation.child("peerId").getValue(String.class))
+            .type(conversation.child("type").getValue(String.class))
+            .lastMessage(conversation.child("lastMessage").getValue(String.class))
+            .lastSenderId(conversation.child("lastSenderId").getValue(String.class))
+            .timestamp(timestamp != null ? timestamp : 0L)
+            .unreadCount(unreadCount(conversation))
+            .build();
+    }
+
+    private static int unreadCount(DataSnapshot conversation) {
+        String readUpTo = conversation.child(READ_UP_TO).getValue(String.class);
+        int count = 0;
+        for (DataSnapshot marker : conversation.child("unread").getChildren()) {
+            // Anciens marqueurs indexés par identifiant seul : couverts dès la première lecture
+            if (readUpTo == null || (isCursor(marker.getKey()) && marker.getKey().compareTo(readUpTo) > 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isCursor(String key) {
+        if (key.length() <= TIMESTAMP_DIGITS || key.charAt(TIMESTAMP_DIGITS) != '_') {
+            return false;
+        }
+        for (int i = 0; i < TIMESTAMP_DIGITS; i++) {
+            if (!Character.isDigit(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Champs écrits un par un pour ne pas écraser les marqueurs non lus du résumé
+    private static void putSummary(Map<String, Object> writes, String ownerId, String peerId, String chatId,
+                                   String type, String senderId, String content, long timestamp) {
+        String path = ROOT + "/" + ownerId + "/" + chatId + "/";
+        writes.put(path + "peerId", peerId);
+        writes.put(path + "type", type);
+        writes.put(path + "lastMessage", preview(content));
+        writes.put(path + "lastSenderId", senderId);
+        writes.put(path + "timestamp", timestamp);
+    }
+
+    private static String preview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        return content.substring(0, PREVIEW_LENGTH - 1) + "…";
+    }
+}
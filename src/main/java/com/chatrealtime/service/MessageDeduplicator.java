@@ -0,0 +1,98 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.model.Message;
+import com.chatrealtime.util.RotatingBloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Remembers the client message ids of recent sends, so that a retried send is not written twice.
+ *
+ * The last {@code message.dedup.recent-sends} sends are kept exactly, with their result, and answer retries
+ * (including concurrent ones) directly. Older sends of the last {@code message.dedup.window-ms} are only
+ * remembered by a {@link RotatingBloomFilter}: a send it may have seen is looked up among the messages of the
+ * window before being written, any other among the whole conversation when the store can tell an unknown id
+ * locally (see {@code MessageStore.findsUnknownIdsLocally}). Memory stays bounded whatever the send rate; beyond {@code message.dedup.expected-sends}
+ * per window the filter only reports more false positives, which cost a scan of the window, never a lost message.
+ */
+@Component
+public class MessageDeduplicator {
+    private final long windowMillis;
+    private final int recentCapacity;
+    private final RotatingBloomFilter filter;
+    private final LinkedHashMap<String, CompletableFuture<Message>> recent = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Counter hits;
+    private final Counter lookups;
+
+    public MessageDeduplicator(MeterRegistry meterRegistry,
+                               @Value("${message.dedup.window-ms:3600000}") long windowMillis,
+                               @Value("${message.dedup.recent-sends:10000}") int recentCapacity,
+                               @Value("${message.dedup.expected-sends:1000000}") long expectedSends,
+                               @Value("${message.dedup.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.windowMillis = windowMillis;
+        this.recentCapacity = Math.max(1, recentCapacity);
+        this.filter = new RotatingBloomFilter(expectedSends, falsePositiveRate, windowMillis, System.currentTimeMillis());
+        this.hits = Counter.builder("chat.messages.dedup.hits")
+            .description("Retried sends answered with the message already written")
+            .register(meterRegistry);
+        this.lookups = Counter.builder("chat.messages.dedup.lookups")
+            .description("Sends checked against the message store after a Bloom filter match")
+            .register(meterRegistry);
+        Gauge.builder("chat.messages.dedup.size", filter, RotatingBloomFilter::sizeBytes)
+            .description("Memory used by the dedup Bloom filter")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    public long windowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Registers {@code pending} as the send of {@code key}, unless a recent send of the same key is known:
+     * its result is then returned and {@code pending} must be dropped.
+     */
+    public synchronized CompletableFuture<Message> claim(String key, CompletableFuture<Message> pending) {
+        CompletableFuture<Message> existing = recent.putIfAbsent(key, pending);
+        if (existing != null) {
+            hits.increment();
+            return existing;
+        }
+        if (recent.size() > recentCapacity) {
+            recent.remove(recent.keySet().iterator().next());
+        }
+        return null;
+    }
+
+    /**
+     * Adds {@code key} to the window; returns whether it may have been sent within it.
+     */
+    public boolean mightBeDuplicate(String key) {
+        boolean seen = filter.add(key, System.currentTimeMillis());
+        if (seen) {
+            lookups.increment();
+        }
+        return seen;
+    }
+
+    /**
+     * Records a duplicate found in the store.
+     */
+    public void duplicateFound() {
+        hits.increment();
+    }
+
+    /**
+     * Forgets a failed send, so that its retry is written again.
+     */
+    public synchronized void release(String key, CompletableFuture<Message> pending) {
+        recent.remove(key, pending);
+    }
+}
@@ -0,0 +1,369 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.archive.ArchiveStore;
+import com.chatrealtime.cluster.ClusterReplication;
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import com.chatrealtime.model.ConversationPolicy;
+import com.chatrealtime.model.ExpiryEvent;
+import com.chatrealtime.model.Message;
+import com.chatrealtime.search.SearchIndex;
+import com.chatrealtime.store.MessageStore;
+import com.chatrealtime.util.TimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ephemeral messages and retention (UC015).
+ *
+ * Policies live under {@code conversation_policies/{chatId}} and are mirrored in memory by a child listener.
+ * Every message sent to a conversation with a policy is scheduled on a {@link TimingWheel} at its expiry time;
+ * on each tick the expired messages are grouped per conversation and deleted through the {@link MessageStore}
+ * in batches of at most {@code message.expiry.max-batch-size}, then announced on {@code /topic/chat/{userId}/expired}
+ * to the participants of the policy or, in a group, to the members of {@code groups/{groupId}/members} at that time. A periodic sweep deletes whatever the wheel does not hold: messages
+ * older than a new or shortened policy, and those whose timer was lost on restart. Deleted messages are also
+ * removed from the {@link SearchIndex}.
+ */
+@Service
+public class MessageExpiryService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageExpiryService.class);
+    public static final String POLICIES = "conversation_policies";
+    private static final String GROUP_PREFIX = "group_";
+    // Messages rechargés dans la roue au démarrage, par conversation
+    private static final int RESCHEDULE_LIMIT = 10_000;
+
+    private final DatabaseReference policiesRef;
+    private final DatabaseReference groupsRef;
+    private final MessageStore messageStore;
+    private final ArchiveStore archiveStore;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final HistoryCache historyCache;
+    private final SearchIndex searchIndex;
+    private final TimingWheel<Expiration> wheel;
+    private final int maxBatchSize;
+    private final long sweepIntervalMillis;
+    private final Map<String, ConversationPolicy> policies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter expired;
+    // Présent avec cluster.enabled=true
+    @Autowired(required = false)
+    private ClusterReplication clusterReplication;
+
+    public MessageExpiryService(RealtimeDatabase database, MessageStore messageStore, ArchiveStore archiveStore,
+                                SimpMessagingTemplate messagingTemplate, HistoryCache historyCache,
+                                SearchIndex searchIndex, MeterRegistry meterRegistry,
+                                @Value("${message.expiry.tick-ms:1000}") long tickMillis,
+                                @Value("${message.expiry.max-batch-size:500}") int maxBatchSize,
+                                @Value("${message.retention.sweep-interval-ms:3600000}") long sweepIntervalMillis) {
+        this.policiesRef = database.getReference(POLICIES);
+        this.groupsRef = database.getReference("groups");
+        this.messageStore = messageStore;
+        this.archiveStore = archiveStore;
+        this.messagingTemplate = messagingTemplate;
+        this.historyCache = historyCache;
+        this.searchIndex = searchIndex;
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-expirer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expired = Counter.builder("chat.messages.expired")
+            .description("Messages deleted by their conversation policy")
+            .register(meterRegistry);
+        Gauge.builder("chat.messages.expiry.pending", wheel, TimingWheel::size)
+            .description("Messages waiting for their expiry on the timing wheel")
+            .register(meterRegistry);
+
+        policiesRef.addChildEventListener(new PolicyListener());
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        if (sweepIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::sweepAll, sweepIntervalMillis, sweepIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public ConversationPolicy getPolicy(String chatId) {
+        ConversationPolicy policy = policies.get(chatId);
+        return policy != null ? policy : ConversationPolicy.builder().chatId(chatId).build();
+    }
+
+    /**
+     * Stores the policy of a conversation; the listener then applies it to the messages already sent.
+     * The {@code participants} of a group conversation are ignored: its events go to the group's members.
+     */
+    public CompletableFuture<Void> setPolicy(String chatId, long ttlSeconds, int retentionDays,
+                                             List<String> participants) {
+        Map<String, Object> node = new HashMap<>();
+        node.put("ttlSeconds", Math.max(0, ttlSeconds));
+        node.put("retentionDays", Math.max(0, retentionDays));
+        Map<String, Object> members = new HashMap<>();
+        for (String participant : participants) {
+            members.put(participant, true);
+        }
+        node.put("participants", members);
+        return policiesRef.child(chatId).setValueAsync(node);
+    }
+
+    /**
+     * Schedules the expiry of a message just sent, when its conversation has a policy.
+     */
+    public void onMessageSent(String chatId, Message message) {
+        ConversationPolicy policy = policies.get(chatId);
+        if (policy == null || policy.lifetimeMillis() == 0 || message.getId() == null) {
+            return;
+        }
+        long sentAt = toEpochMillis(message);
+        wheel.schedule(new Expiration(chatId, message.getId(), sentAt), sentAt + policy.lifetimeMillis());
+    }
+
+    /**
+     * Oldest timestamp a message of the conversation may have, {@link Long#MIN_VALUE} when messages are kept forever.
+     */
+    public long cutoff(String chatId) {
+        ConversationPolicy policy = policies.get(chatId);
+        if (policy == null || policy.lifetimeMillis() == 0) {
+            return Long.MIN_VALUE;
+        }
+        return System.currentTimeMillis() - policy.lifetimeMillis();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Expiration> due = wheel.advance(now);
+            if (due.isEmpty()) {
+                return;
+            }
+            Map<String, List<String>> byChat = new LinkedHashMap<>();
+            for (Expiration expiration : due) {
+                // La politique a pu être retirée ou allongée depuis la planification
+                ConversationPolicy policy = policies.get(expiration.chatId);
+                if (policy == null || policy.lifetimeMillis() == 0) {
+                    continue;
+                }
+                long deadline = expiration.sentAt + policy.lifetimeMillis();
+                if (deadline > now) {
+                    wheel.schedule(expiration, deadline);
+                } else {
+                    byChat.computeIfAbsent(expiration.chatId, id -> new ArrayList<>()).add(expiration.messageId);
+                }
+            }
+            for (Map.Entry<String, List<String>> chat : byChat.entrySet()) {
+                List<String> messageIds = chat.getValue();
+                for (int from = 0; from < messageIds.size(); from += maxBatchSize) {
+                    deleteBatch(chat.getKey(), new ArrayList<>(messageIds.subList(from,
+                        Math.min(messageIds.size(), from + maxBatchSize))));
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Message expiry tick failed: {}", e.getMessage());
+        }
+    }
+
+    private void deleteBatch(String chatId, List<String> messageIds) {
+        messageStore.delete(chatId, messageIds).whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("Failed to delete {} expired messages of {}: {}", messageIds.size(), chatId,
+                    error.getMessage());
+                return;
+            }
+            expired.increment(messageIds.size());
+            historyCache.invalidate(chatId);
+            searchIndex.delete(chatId, messageIds);
+            if (clusterReplication != null) {
+                clusterReplication.expired(chatId, messageIds);
+            }
+            publish(chatId, ExpiryEvent.builder().chatId(chatId).messageIds(messageIds).build());
+        });
+    }
+
+    private void sweepAll() {
+        for (String chatId : policies.keySet()) {
+            sweep(chatId);
+        }
+    }
+
+    private void sweep(String chatId) {
+        ConversationPolicy policy = policies.get(chatId);
+        if (policy == null || policy.lifetimeMillis() == 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - policy.lifetimeMillis();
+        messageStore.deleteBefore(chatId, cutoff).whenCompleteAsync((hotDeleted, error) -> {
+            if (error != null) {
+                logger.error("Retention sweep of {} failed: {}", chatId, error.getMessage());
+                return;
+            }
+            int deleted = hotDeleted;
+            // Aussi ce que l'index garde de messages supprimés sans lui (archive, redémarrage)
+            searchIndex.deleteBefore(chatId, cutoff);
+            try {
+                // L'historique archivé suit la même politique
+                deleted += archiveStore.deleteBefore(chatId, cutoff);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Retention sweep of the archive of {} failed: {}", chatId, e.getMessage());
+            }
+            if (deleted > 0) {
+                logger.debug("Retention sweep deleted {} messages of {}", deleted, chatId);
+                expired.increment(deleted);
+                historyCache.invalidate(chatId);
+                publish(chatId, ExpiryEvent.builder().chatId(chatId).before(cutoff).build());
+            }
+        }, scheduler);
+    }
+
+    // Les messages encore vivants d'une politique courte ne sont pas couverts par le balayage : on les replanifie
+    private void reschedule(String chatId, ConversationPolicy policy) {
+        long lifetime = policy.lifetimeMillis();
+        if (lifetime == 0 || (sweepIntervalMillis > 0 && lifetime > sweepIntervalMillis)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        messageStore.readRange(chatId, now - lifetime, Long.MAX_VALUE, RESCHEDULE_LIMIT)
+            .thenAccept(messages -> {
+                for (Message message : messages) {
+                    long sentAt = toEpochMillis(message);
+                    wheel.schedule(new Expiration(chatId, message.getId(), sentAt), sentAt + lifetime);
+                }
+            })
+            .exceptionally(e -> {
+                logger.error("Failed to schedule the expiry of {}: {}", chatId, e.getMessage());
+                return null;
+            });
+    }
+
+    private void publish(String chatId, ExpiryEvent event) {
+        if (chatId.startsWith(GROUP_PREFIX)) {
+            // Membres lus à l'annonce : ceux qui ont rejoint le groupe après la politique la reçoivent aussi
+            groupsRef.child(chatId.substring(GROUP_PREFIX.length())).child("members")
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot snapshot) {
+                        for (DataSnapshot member : snapshot.getChildren()) {
+                            send(member.getKey(), event);
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        logger.warn("Failed to read the members of {}: {}", chatId, error.getMessage());
+                    }
+                });
+            return;
+        }
+        ConversationPolicy policy = policies.get(chatId);
+        if (policy == null || policy.getParticipants() == null) {
+            return;
+        }
+        for (String participant : policy.getParticipants()) {
+            send(participant, event);
+        }
+    }
+
+    private void send(String userId, ExpiryEvent event) {
+        messagingTemplate.convertAndSend("/topic/chat/" + userId + "/expired", event);
+    }
+
+    private static long toEpochMillis(Message message) {
+        return message.getTimestamp() == null ? System.currentTimeMillis()
+            : message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static ConversationPolicy toPolicy(DataSnapshot snapshot) {
+        Long ttlSeconds = snapshot.child("ttlSeconds").getValue(Long.class);
+        Long retentionDays = snapshot.child("retentionDays").getValue(Long.class);
+        List<String> participants = new ArrayList<>();
+        for (DataSnapshot participant : snapshot.child("participants").getChildren()) {
+            participants.add(participant.getKey());
+        }
+        return ConversationPolicy.builder()
+            .chatId(snapshot.getKey())
+            .ttlSeconds(ttlSeconds != null ? ttlSeconds : 0L)
+            .retentionDays(retentionDays != null ? retentionDays.intValue() : 0)
+            .participants(participants)
+            .build();
+    }
+
+    private final class PolicyListener implements ChildEventListener {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            apply(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            apply(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            // Les expirations déjà planifiées seront ignorées à leur échéance
+            policies.remove(snapshot.getKey());
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            logger.error("Conversation policies listener cancelled: {}", error.getMessage());
+        }
+
+        private void apply(DataSnapshot snapshot) {
+            ConversationPolicy policy = toPolicy(snapshot);
+            ConversationPolicy previous = policies.put(policy.getChatId(), policy);
+            if (previous == null || previous.lifetimeMillis() != policy.lifetimeMillis()) {
+                scheduler.execute(() -> {
+                    sweep(policy.getChatId());
+                    reschedule(policy.getChatId(), policy);
+                });
+            }
+        }
+    }
+
+    private static final class Expiration {
+        final String chatId;
+        final String messageId;
+        final long sentAt;
+
+        Expiration(String chatId, String messageId, long sentAt) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.sentAt = sentAt;
+        }
+    }
+}
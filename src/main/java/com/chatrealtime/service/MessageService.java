@@ -1,118 +1,400 @@
 package com.chatrealtime.service;
 
+import com.chatrealtime.archive.ArchiveStore;
+import com.chatrealtime.cluster.ClusterReplication;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import com.chatrealtime.database.WriteCoalescer;
 import com.chatrealtime.model.Message;
-import com.google.firebase.database.*;
+import com.chatrealtime.model.MessagePage;
+import com.chatrealtime.search.SearchIndex;
+import com.chatrealtime.store.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Service
 public class MessageService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageService.class);
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    public static final int MAX_STREAM_PAGES = 20;
+    private static final int MAX_CLIENT_MESSAGE_ID_LENGTH = 128;
+    private static final int MESSAGE_ID_LENGTH = 22;
     
-    private final DatabaseReference messagesRef;
+    private final MessageStore messageStore;
     private final SimpMessagingTemplate messagingTemplate;
+    private final WriteCoalescer writeCoalescer;
+    private final HistoryCache historyCache;
+    private final InboxService inboxService;
+    private final SearchIndex searchIndex;
+    private final MessageExpiryService expiryService;
+    private final ArchiveStore archiveStore;
+    private final MessageDeduplicator deduplicator;
+    private final ReadMarkerService readMarkers;
+    private final DatabaseReference groupsRef;
+    // Présent avec cluster.enabled=true
+    @Autowired(required = false)
+    private ClusterReplication clusterReplication;
     
-    public MessageService(SimpMessagingTemplate messagingTemplate) {
+    public MessageService(RealtimeDatabase database, SimpMessagingTemplate messagingTemplate, MessageStore messageStore,
+                          WriteCoalescer writeCoalescer, HistoryCache historyCache, InboxService inboxService,
+                          SearchIndex searchIndex, MessageExpiryService expiryService, ArchiveStore archiveStore,
+                          MessageDeduplicator deduplicator, ReadMarkerService readMarkers) {
         this.messagingTemplate = messagingTemplate;
-        this.messagesRef = FirebaseDatabase.getInstance().getReference("messages");
+        this.messageStore = messageStore;
+        this.writeCoalescer = writeCoalescer;
+        this.historyCache = historyCache;
+        this.inboxService = inboxService;
+        this.searchIndex = searchIndex;
+        this.expiryService = expiryService;
+        this.archiveStore = archiveStore;
+        this.deduplicator = deduplicator;
+        this.readMarkers = readMarkers;
+        this.groupsRef = database.getReference("groups");
     }
     
+    /**
+     * Writes a message and publishes it to its recipient and its sender. A message carrying a {@code clientMessageId}
+     * is written at most once per sender and id: a retry completes with the message already written, published
+     * again to the sender only.
+     */
     public CompletableFuture<Message> sendMessage(Message message) {
-        CompletableFuture<Message> future = new CompletableFuture<>();
-        
+        // Le store embarqué horodate à nouveau sous le verrou de la conversation, dans l'ordre d'écriture
         message.setTimestamp(LocalDateTime.now());
         message.setRead(false);
         
         String chatId = getChatId(message.getFrom(), message.getTo());
-        String messageId = messagesRef.child(chatId).push().getKey();
-        message.setId(messageId);
+        String clientMessageId = message.getClientMessageId();
+        if (clientMessageId == null) {
+            // Sans identifiant client, l'identifiant est attribué par le store
+            message.setId(null);
+            return write(chatId, message);
+        }
+        if (clientMessageId.isEmpty() || clientMessageId.length() > MAX_CLIENT_MESSAGE_ID_LENGTH) {
+            CompletableFuture<Message> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Invalid client message id"));
+            return failed;
+        }
         
-        messagesRef.child(chatId).child(messageId).setValue(message, (error, ref) -> {
+        // Identifiant dérivé de l'expéditeur : un client ne peut pas écraser le message d'un autre
+        String key = message.getFrom() + '\0' + clientMessageId;
+        message.setId(messageIdFor(key));
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        CompletableFuture<Message> previous = deduplicator.claim(key, result);
+        if (previous != null) {
+            return previous;
+        }
+        // Inconnu du filtre, un renvoi plus tardif que ses deux générations garde le même identifiant : le store
+        // embarqué le cherche dans toute la conversation avec ses filtres par segment ; Firebase, sans lecture
+        // distante, réécrit le même nœud au lieu de créer un doublon
+        boolean recent = deduplicator.mightBeDuplicate(key);
+        CompletableFuture<Message> sent;
+        if (!recent && !messageStore.findsUnknownIdsLocally()) {
+            sent = write(chatId, message);
+        } else {
+            long notBefore = recent ? System.currentTimeMillis() - 2 * deduplicator.windowMillis() : Long.MIN_VALUE;
+            sent = messageStore.find(chatId, message.getId(), notBefore).thenCompose(existing -> {
+                if (existing == null) {
+                    return write(chatId, message);
+                }
+                deduplicator.duplicateFound();
+                existing.setClientMessageId(clientMessageId);
+                // L'acquittement du premier envoi a pu se perdre : seul l'expéditeur le reçoit à nouveau
+                messagingTemplate.convertAndSend("/topic/chat/" + existing.getFrom(), existing);
+                return CompletableFuture.completedFuture(existing);
+            });
+        }
+        sent.whenComplete((savedMessage, error) -> {
             if (error != null) {
-                future.completeExceptionally(error.toException());
+                // Un envoi en échec doit pouvoir être retenté
+                deduplicator.release(key, result);
+                result.completeExceptionally(error);
             } else {
-                // Envoyer via WebSocket
-                String destination = "/topic/chat/" + message.getTo();
-                messagingTemplate.convertAndSend(destination, message);
-                future.complete(message);
+                result.complete(savedMessage);
             }
         });
-        
-        return future;
+        return result;
     }
     
-    public CompletableFuture<List<Message>> getHistory(String userId1, String userId2, String type) {
-        CompletableFuture<List<Message>> future = new CompletableFuture<>();
-        String chatId = getChatId(userId1, userId2);
+    private CompletableFuture<Message> write(String chatId, Message message) {
+        CompletableFuture<Message> saved;
+        if (messageStore.appendsThroughCoalescer()) {
+            // Le message et les résumés de conversation partent dans le même updateChildren
+            saved = writeCoalescer.batch(() -> {
+                CompletableFuture<Message> appended = messageStore.append(chatId, message);
+                updateConversation(chatId, message);
+                return appended;
+            });
+        } else {
+            // Écriture disque (et fsync) hors du verrou du coalesceur : seuls les résumés y passent
+            saved = messageStore.append(chatId, message);
+            updateConversation(chatId, message);
+        }
         
-        messagesRef.child(chatId).orderByChild("timestamp")
-            .limitToLast(100)  // Limiter à 100 messages
-            .addListenerForSingleValueEvent(new ValueEventListener() {
-                @Override
-                public void onDataChange(DataSnapshot snapshot) {
-                    List<Message> messages = new ArrayList<>();
-                    for (DataSnapshot messageSnapshot : snapshot.getChildren()) {
-                        Message message = messageSnapshot.getValue(Message.class);
-                        if (message != null) {
-                            messages.add(message);
-                        }
-                    }
-                    future.complete(messages);
+        return saved
+            .thenApply(savedMessage -> {
+                historyCache.append(chatId, savedMessage);
+                searchIndex.index(chatId, savedMessage);
+                if (clusterReplication != null) {
+                    clusterReplication.indexed(chatId, savedMessage);
                 }
-                
-                @Override
-                public void onCancelled(DatabaseError error) {
-                    future.completeExceptionally(error.toException());
+                expiryService.onMessageSent(chatId, savedMessage);
+                // Envoyer via WebSocket, au destinataire et à l'expéditeur, dont les clients attendent cet acquittement
+                messagingTemplate.convertAndSend("/topic/chat/" + savedMessage.getTo(), savedMessage);
+                if (!savedMessage.getFrom().equals(savedMessage.getTo())) {
+                    messagingTemplate.convertAndSend("/topic/chat/" + savedMessage.getFrom(), savedMessage);
                 }
+                return savedMessage;
             });
-        
-        return future;
     }
     
-    public void markAsRead(String messageId, String chatId) {
-        messagesRef.child(chatId).child(messageId).child("read").setValueAsync(true);
+    /**
+     * Returns the page of history that precedes the cursor, or the latest page when {@code beforeTimestamp} is null.
+     * In a private conversation, messages are flagged read from the read markers of both participants.
+     *
+     * @param type {@code private} for a conversation with {@code peerId}, {@code group} when {@code peerId} is a group
+     */
+    public CompletableFuture<MessagePage> getHistory(String userId, String peerId, String type,
+                                                     Long beforeTimestamp, String beforeId, int pageSize) {
+        if ("group".equals(type)) {
+            return conversationId(userId, peerId, type)
+                .thenCompose(chatId -> readPage(chatId, beforeTimestamp, beforeId, pageSize));
+        }
+        String chatId = getChatId(userId, peerId);
+        CompletableFuture<MessagePage> page = readPage(chatId, beforeTimestamp, beforeId, pageSize);
+        // Un marqueur illisible laisse simplement les messages non lus
+        CompletableFuture<String> mine = readMarkers.readUpTo(userId, chatId).exceptionally(e -> null);
+        CompletableFuture<String> theirs = readMarkers.readUpTo(peerId, chatId).exceptionally(e -> null);
+        return page.thenCombine(mine.thenCombine(theirs, (own, peer) -> new String[] {own, peer}), (result, marks) -> {
+            List<Message> messages = new ArrayList<>(result.getMessages().size());
+            for (Message message : result.getMessages()) {
+                String marker = userId.equals(message.getTo()) ? marks[0] : marks[1];
+                // Copié avant d'être marqué : le message peut être celui du cache, que voient les autres lecteurs
+                if (!message.isRead() && marker != null && message.getId() != null && InboxService.cursor(
+                        toEpochMillis(message.getTimestamp()), message.getId()).compareTo(marker) <= 0) {
+                    message = new Message(message.getId(), message.getFrom(), message.getTo(), message.getContent(),
+                        message.getTimestamp(), true, message.getClientMessageId());
+                }
+                messages.add(message);
+            }
+            result.setMessages(messages);
+            return result;
+        });
     }
     
-    public void subscribeToMessages(String userId, MessageListener listener) {
-        String userChatPattern = "%" + userId + "%";
-        messagesRef.orderByKey()
-            .startAt(userChatPattern)
-            .endAt(userChatPattern + "\uf8ff")
-            .addChildEventListener(new ChildEventListener() {
-                @Override
-                public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
-                    Message message = snapshot.getValue(Message.class);
-                    if (message != null && message.getTo().equals(userId)) {
-                        listener.onNewMessage(message);
-                    }
-                }
-                
-                @Override
-                public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
-                    // Gérer les mises à jour de messages (ex: marquage comme lu)
-                }
-                
-                @Override
-                public void onChildRemoved(DataSnapshot snapshot) {
-                    // Gérer la suppression de messages
-                }
-                
-                @Override
-                public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
-                    // Non utilisé
-                }
-                
-                @Override
-                public void onCancelled(DatabaseError error) {
-                    listener.onError(error.toException());
+    private CompletableFuture<MessagePage> readPage(String chatId, Long beforeTimestamp, String beforeId,
+                                                    int pageSize) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        List<Message> cached = historyCache.page(chatId, beforeTimestamp, beforeId, size);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(toPage(cached, size));
+        }
+        if (beforeTimestamp == null && historyCache.isEnabled()) {
+            // Dernière page : on charge de quoi remplir le cache de la conversation
+            int epoch = historyCache.epoch(chatId);
+            return readBefore(chatId, Long.MAX_VALUE, null, Math.max(size, historyCache.capacity()))
+                .thenApply(latest -> {
+                    historyCache.fill(chatId, latest, epoch);
+                    return toPage(new ArrayList<>(latest.subList(Math.max(0, latest.size() - size), latest.size())), size);
+                });
+        }
+        long before = beforeTimestamp != null ? beforeTimestamp : Long.MAX_VALUE;
+        return readBefore(chatId, before, beforeTimestamp != null ? beforeId : null, size)
+            .thenApply(messages -> toPage(messages, size));
+    }
+    
+    // Le ConversationArchiver déplace l'historique ancien hors du store : une page peut chevaucher les deux
+    private CompletableFuture<List<Message>> readBefore(String chatId, long before, String beforeId, int limit) {
+        return messageStore.readBefore(chatId, before, beforeId, limit)
+            .thenApply(hot -> withArchived(chatId, before, beforeId, limit, hot));
+    }
+    
+    private List<Message> withArchived(String chatId, long before, String beforeId, int limit, List<Message> hot) {
+        long newestArchived = archiveStore.newestTimestamp(chatId);
+        // Page pleine et plus récente que toute l'archive : rien à y lire
+        if (newestArchived == Long.MIN_VALUE
+                || (hot.size() >= limit && toEpochMillis(hot.get(0).getTimestamp()) > newestArchived)) {
+            return hot;
+        }
+        List<Message> archived;
+        try {
+            archived = archiveStore.readBefore(chatId, expiryService.cutoff(chatId), before, beforeId, limit);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to read the archive of {}: {}", chatId, e.getMessage());
+            return hot;
+        }
+        // Un message archivé pas encore supprimé du store n'apparaît qu'une fois
+        Set<String> ids = new HashSet<>();
+        List<Message> merged = new ArrayList<>(archived.size() + hot.size());
+        for (Message message : archived) {
+            if (ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        for (Message message : hot) {
+            if (ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        // Départagés par identifiant, comme le curseur (horodatage, identifiant) des pages suivantes
+        merged.sort(Comparator.<Message>comparingLong(message -> toEpochMillis(message.getTimestamp()))
+            .thenComparing(Message::getId, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return merged.size() > limit ? new ArrayList<>(merged.subList(merged.size() - limit, merged.size())) : merged;
+    }
+    
+    /**
+     * Walks the history backwards from the cursor, handing each page to {@code consumer} as soon as it is read.
+     * A page is only requested once the previous one has been consumed; the stream stops after {@code maxPages}
+     * pages (at most {@link #MAX_STREAM_PAGES}), at the start of the conversation, or when {@code consumer} throws.
+     */
+    public CompletableFuture<Void> streamHistory(String userId, String peerId, String type,
+                                                 Long beforeTimestamp, String beforeId, int pageSize, int maxPages,
+                                                 Consumer<MessagePage> consumer) {
+        return streamPages(userId, peerId, type, beforeTimestamp, beforeId, pageSize,
+            Math.max(1, Math.min(maxPages, MAX_STREAM_PAGES)), consumer);
+    }
+    
+    private CompletableFuture<Void> streamPages(String userId, String peerId, String type, Long beforeTimestamp,
+                                                String beforeId, int pageSize, int maxPages,
+                                                Consumer<MessagePage> consumer) {
+        return getHistory(userId, peerId, type, beforeTimestamp, beforeId, pageSize)
+            .thenCompose(page -> {
+                consumer.accept(page);
+                if (!page.isHasMore() || maxPages <= 1) {
+                    return CompletableFuture.completedFuture(null);
                 }
+                return streamPages(userId, peerId, type, page.getNextBeforeTimestamp(), page.getNextBeforeId(),
+                    pageSize, maxPages - 1, consumer);
             });
     }
     
+    /**
+     * Records that {@code userId} has read the conversation with {@code peerId} up to the message
+     * {@code (timestamp, messageId)}, see {@link ReadMarkerService}.
+     */
+    public CompletableFuture<Void> markAsRead(String userId, String peerId, String type, long timestamp,
+                                              String messageId) {
+        return conversationId(userId, peerId, type)
+            .thenCompose(chatId -> readMarkers.markRead(userId, chatId, timestamp, messageId));
+    }
+    
+    public void subscribeToMessages(String userId, MessageListener listener) {
+        messageStore.subscribe(userId, new MessageStore.Listener() {
+            @Override
+            public void onAppended(String chatId, Message message) {
+                listener.onNewMessage(message);
+            }
+            
+            @Override
+            public void onError(Exception e) {
+                listener.onError(e);
+            }
+        });
+    }
+    
+    private void updateConversation(String chatId, Message message) {
+        Map<String, Object> lastMessage = new HashMap<>();
+        lastMessage.put("senderId", message.getFrom());
+        lastMessage.put("content", message.getContent());
+        lastMessage.put("timestamp", toEpochMillis(message.getTimestamp()));
+        lastMessage.put("status", "delivered");
+        
+        Map<String, Object> writes = InboxService.summaryWrites(chatId, "private", message.getFrom(), message.getTo(),
+            message.getId(), message.getContent(), toEpochMillis(message.getTimestamp()));
+        writes.put("last_messages/" + chatId, lastMessage);
+        writeCoalescer.update(writes).exceptionally(e -> {
+            logger.warn("Failed to update conversation {} after message: {}", chatId, e.getMessage());
+            return null;
+        });
+    }
+    
+    private static MessagePage toPage(List<Message> messages, int pageSize) {
+        MessagePage page = new MessagePage();
+        page.setMessages(messages);
+        // Une page pleine laisse supposer des messages plus anciens
+        page.setHasMore(messages.size() == pageSize);
+        if (!messages.isEmpty()) {
+            Message oldest = messages.get(0);
+            page.setNextBeforeTimestamp(toEpochMillis(oldest.getTimestamp()));
+            page.setNextBeforeId(oldest.getId());
+        }
+        return page;
+    }
+    
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            return 0L;
+        }
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Identifier of the conversation between {@code userId} and {@code peerId}, see {@link #getHistory}.
+     * A group conversation is only resolved for a member of the group ({@code groups/<peerId>/members/<userId>}),
+     * the future failing with {@link AccessDeniedException} otherwise.
+     */
+    public CompletableFuture<String> conversationId(String userId, String peerId, String type) {
+        if (!"group".equals(type)) {
+            return CompletableFuture.completedFuture(getChatId(userId, peerId));
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            groupsRef.child(peerId).child("members").child(userId)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot snapshot) {
+                        if (snapshot.exists()) {
+                            future.complete("group_" + peerId);
+                        } else {
+                            future.completeExceptionally(new AccessDeniedException("Not a member of " + peerId));
+                        }
+                    }
+                    
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        future.completeExceptionally(error.toException());
+                    }
+                });
+        } catch (RuntimeException e) {
+            // Identifiant de groupe qui n'est pas un chemin valide
+            future.completeExceptionally(new AccessDeniedException("Invalid group " + peerId));
+        }
+        return future;
+    }
+    
+    private static String messageIdFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, MESSAGE_ID_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
     private String getChatId(String userId1, String userId2) {
         // Pour les chats individuels, créer un ID unique et cohérent
         String[] ids = {userId1, userId2};
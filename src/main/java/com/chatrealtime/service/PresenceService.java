@@ -0,0 +1,453 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.util.TimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presence of the users, derived from their STOMP sessions instead of a {@code status} field written by clients.
+ *
+ * A user is {@code offline} without a live session, otherwise in the status they chose ({@code online} by
+ * default, {@code offline} to appear offline). A session is live from its CONNECT until its DISCONNECT or until
+ * no frame, heartbeats included, arrived for {@code websocket.heartbeat.timeout}; timeouts are checked on a
+ * {@link TimingWheel} and a heartbeat only updates a timestamp. Status changes are collected and published every
+ * {@code presence.batch-ms}: each connected user gets one {@code {"statuses": {contactId: status}}} delta on
+ * {@code /topic/chat/{userId}/presence} with the contacts whose status actually changed. A full snapshot
+ * ({@code "snapshot": true}) is sent when the user subscribes. Contact lists are mirrored from {@code contacts},
+ * along with the reverse index of the users listing each contact: a change is sent to those users.
+ *
+ * In cluster mode, the {@link ClusterView} tells which users have sessions on other nodes and in which status:
+ * they are live recipients, their status is the one they chose there, and a status chosen here is announced to
+ * the other nodes. Each node publishes the changes of its own sessions; the users of a node that left the cluster
+ * are published offline by the others.
+ */
+@Service
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+    public static final String ONLINE = "online";
+    public static final String OFFLINE = "offline";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long timeoutMillis;
+    private final TimingWheel<Session> wheel;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, UserPresence> users = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> contacts = new ConcurrentHashMap<>();
+    // Pour chaque utilisateur, ceux qui l'ont dans leurs contacts
+    private final Map<String, Set<String>> watchers = new ConcurrentHashMap<>();
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private final Counter timeouts;
+    private final Counter deltas;
+    @Autowired(required = false)
+    private ClusterView cluster;
+
+    public PresenceService(RealtimeDatabase database, SimpMessagingTemplate messagingTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${websocket.heartbeat.timeout:60000}") long timeoutMillis,
+                           @Value("${presence.tick-ms:1000}") long tickMillis,
+                           @Value("${presence.batch-ms:1000}") long batchMillis) {
+        this.messagingTemplate = messagingTemplate;
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeouts = Counter.builder("chat.presence.timeouts")
+            .description("STOMP sessions considered gone after missing their heartbeats")
+            .register(meterRegistry);
+        this.deltas = Counter.builder("chat.presence.deltas")
+            .description("Batched presence deltas sent to users")
+            .register(meterRegistry);
+        Gauge.builder("chat.presence.sessions", sessions, Map::size)
+            .description("STOMP sessions tracked for presence")
+            .register(meterRegistry);
+
+        database.getReference("contacts").addChildEventListener(new ContactsListener());
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::publishChanges, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Starts tracking a session authenticated for {@code userId}.
+     */
+    public void connected(String sessionId, String userId) {
+        long now = System.currentTimeMillis();
+        Session session = new Session(sessionId, userId, now);
+        Session previous = sessions.put(sessionId, session);
+        if (previous != null) {
+            disconnected(previous);
+        }
+        synchronized (session) {
+            session.timeout = wheel.schedule(session, now + timeoutMillis);
+            setLive(session, true);
+        }
+    }
+
+    /**
+     * Records a frame or heartbeat received on the session.
+     */
+    public void touch(String sessionId) {
+        Session session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        session.lastSeen = now;
+        if (!session.live) {
+            synchronized (session) {
+                // Revenue après un délai dépassé : la session n'est plus dans la roue
+                if (!session.live && sessions.get(sessionId) == session) {
+                    session.timeout = wheel.schedule(session, now + timeoutMillis);
+                    setLive(session, true);
+                }
+            }
+        }
+    }
+
+    public void disconnected(String sessionId) {
+        Session session = sessionId != null ? sessions.remove(sessionId) : null;
+        if (session != null) {
+            disconnected(session);
+        }
+    }
+
+    /**
+     * Sets the status {@code userId} chose; it is published while the user has a live session.
+     */
+    public void setStatus(String userId, String status) {
+        String chosen = status.trim().toLowerCase(Locale.ROOT);
+        while (true) {
+            UserPresence user = users.computeIfAbsent(userId, id -> new UserPresence());
+            synchronized (user) {
+                if (user.removed) {
+                    continue;
+                }
+                user.chosen = chosen;
+                break;
+            }
+        }
+        if (cluster != null) {
+            cluster.statusChosen(userId, chosen);
+        }
+        changed.add(userId);
+    }
+
+    public String getStatus(String userId) {
+        UserPresence user = users.get(userId);
+        if (user == null) {
+            return remoteStatusOrOffline(userId);
+        }
+        synchronized (user) {
+            return effective(userId, user);
+        }
+    }
+
+    /**
+     * Applies the status {@code userId} chose on another cluster node to their sessions on this one.
+     */
+    public void remoteStatusChosen(String userId, String status) {
+        UserPresence user = users.get(userId);
+        if (user == null) {
+            return;
+        }
+        synchronized (user) {
+            if (!user.removed && user.liveSessions > 0) {
+                // Déjà publié par le nœud où il a été choisi
+                user.chosen = status;
+                user.published = status;
+            }
+        }
+    }
+
+    /**
+     * Publishes {@code userId} offline after the cluster node holding their sessions left, unless they have
+     * sessions here.
+     */
+    public void remoteSessionsLost(String userId, String lastStatus) {
+        while (true) {
+            UserPresence user = users.computeIfAbsent(userId, id -> {
+                UserPresence gone = new UserPresence();
+                gone.published = lastStatus;
+                return gone;
+            });
+            synchronized (user) {
+                if (user.removed) {
+                    continue;
+                }
+                break;
+            }
+        }
+        changed.add(userId);
+    }
+
+    /**
+     * Sends {@code userId} the current status of all their contacts.
+     */
+    public void sendSnapshot(String userId) {
+        Map<String, String> statuses = new HashMap<>();
+        for (String contactId : contacts.getOrDefault(userId, Collections.emptySet())) {
+            statuses.put(contactId, getStatus(contactId));
+        }
+        send(userId, statuses, true);
+    }
+
+    private void disconnected(Session session) {
+        synchronized (session) {
+            if (session.timeout != null) {
+                session.timeout.cancel();
+            }
+            setLive(session, false);
+        }
+    }
+
+    // Appelé sous le verrou de la session
+    private void setLive(Session session, boolean live) {
+        if (session.live == live) {
+            return;
+        }
+        session.live = live;
+        String chosen = null;
+        while (true) {
+            UserPresence user = users.computeIfAbsent(session.userId, id -> new UserPresence());
+            synchronized (user) {
+                if (user.removed) {
+                    // Retiré entre-temps par la publication : on repart d'un nouvel état
+                    continue;
+                }
+                if (live && user.liveSessions == 0) {
+                    String remote = cluster != null ? cluster.remoteStatus(session.userId) : null;
+                    if (remote != null) {
+                        // Déjà connecté sur un autre nœud : son statut y est choisi et publié
+                        user.chosen = remote;
+                        user.published = remote;
+                    } else {
+                        // Nouvelle connexion après une déconnexion complète : de nouveau en ligne
+                        user.chosen = ONLINE;
+                    }
+                    chosen = user.chosen;
+                }
+                user.liveSessions += live ? 1 : -1;
+                break;
+            }
+        }
+        if (chosen != null && cluster != null) {
+            cluster.statusChosen(session.userId, chosen);
+        }
+        changed.add(session.userId);
+    }
+
+    // Appelé sous le verrou de l'utilisateur
+    private String effective(String userId, UserPresence user) {
+        return user.liveSessions > 0 ? user.chosen : remoteStatusOrOffline(userId);
+    }
+
+    private String remoteStatusOrOffline(String userId) {
+        String remote = cluster != null ? cluster.remoteStatus(userId) : null;
+        return remote != null ? remote : OFFLINE;
+    }
+
+    private boolean isLive(String userId) {
+        UserPresence user = users.get(userId);
+        return (user != null && user.liveSessions > 0) || (cluster != null && cluster.remoteStatus(userId) != null);
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        try {
+            for (Session session : wheel.advance(now)) {
+                synchronized (session) {
+                    if (!session.live || sessions.get(session.id) != session) {
+                        continue;
+                    }
+                    if (now - session.lastSeen >= timeoutMillis) {
+                        session.timeout = null;
+                        setLive(session, false);
+                        timeouts.increment();
+                        logger.debug("STOMP session {} of user {} timed out", session.id, session.userId);
+                    } else {
+                        // Les heartbeats reçus entre-temps ont repoussé l'échéance
+                        session.timeout = wheel.schedule(session, session.lastSeen + timeoutMillis);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Presence tick failed", e);
+        }
+    }
+
+    private void publishChanges() {
+        try {
+            List<String> userIds = new ArrayList<>(changed);
+            changed.removeAll(userIds);
+            Map<String, Map<String, String>> byRecipient = new HashMap<>();
+            for (String userId : userIds) {
+                UserPresence user = users.get(userId);
+                if (user == null) {
+                    continue;
+                }
+                String status;
+                synchronized (user) {
+                    status = effective(userId, user);
+                    boolean unchanged = status.equals(user.published);
+                    user.published = status;
+                    if (user.liveSessions == 0) {
+                        // Rien à retenir d'un utilisateur déconnecté : son état est hors ligne par défaut
+                        user.removed = true;
+                        users.remove(userId, user);
+                    }
+                    if (unchanged) {
+                        continue;
+                    }
+                }
+                for (String watcherId : watchers.getOrDefault(userId, Collections.emptySet())) {
+                    // Les utilisateurs déconnectés recevront un instantané à leur prochain abonnement ; ceux
+                    // connectés à un autre nœud du cluster reçoivent le delta par le relais
+                    if (isLive(watcherId)) {
+                        byRecipient.computeIfAbsent(watcherId, id -> new HashMap<>()).put(userId, status);
+                    }
+                }
+            }
+            for (Map.Entry<String, Map<String, String>> delta : byRecipient.entrySet()) {
+                send(delta.getKey(), delta.getValue(), false);
+                deltas.increment();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Presence publication failed", e);
+        }
+    }
+
+    private void send(String userId, Map<String, String> statuses, boolean snapshot) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("statuses", statuses);
+        event.put("snapshot", snapshot);
+        try {
+            messagingTemplate.convertAndSend("/topic/chat/" + userId + "/presence", event);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot send presence to {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private final class ContactsListener implements ChildEventListener {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            index(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            index(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            update(snapshot.getKey(), null);
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            logger.error("Contacts listener cancelled: {}", error.getMessage());
+        }
+
+        private void index(DataSnapshot snapshot) {
+            Set<String> contactIds = ConcurrentHashMap.newKeySet();
+            for (DataSnapshot contact : snapshot.getChildren()) {
+                contactIds.add(contact.getKey());
+            }
+            update(snapshot.getKey(), contactIds);
+        }
+
+        // Événements reçus sur le seul thread de la base : les mises à jour de l'index inverse ne se croisent pas
+        private void update(String userId, Set<String> contactIds) {
+            Set<String> previous = contactIds != null ? contacts.put(userId, contactIds) : contacts.remove(userId);
+            if (previous != null) {
+                for (String contactId : previous) {
+                    if (contactIds == null || !contactIds.contains(contactId)) {
+                        watchers.computeIfPresent(contactId, (id, watching) -> {
+                            watching.remove(userId);
+                            return watching.isEmpty() ? null : watching;
+                        });
+                    }
+                }
+            }
+            if (contactIds != null) {
+                for (String contactId : contactIds) {
+                    if (previous == null || !previous.contains(contactId)) {
+                        watchers.computeIfAbsent(contactId, id -> ConcurrentHashMap.newKeySet()).add(userId);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Session {
+        final String id;
+        final String userId;
+        volatile long lastSeen;
+        volatile boolean live;
+        TimingWheel.Timeout<Session> timeout;
+
+        Session(String id, String userId, long lastSeen) {
+            this.id = id;
+            this.userId = userId;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private static final class UserPresence {
+        volatile int liveSessions;
+        String chosen = ONLINE;
+        String published = OFFLINE;
+        boolean removed;
+    }
+
+    /**
+     * Sessions of the users on the other nodes of a cluster, provided by the cluster relay.
+     */
+    public interface ClusterView {
+        /**
+         * Status chosen by {@code userId} on the other nodes, {@code null} when no other node holds a session of them.
+         */
+        String remoteStatus(String userId);
+
+        /**
+         * Announces the status chosen by {@code userId} on this node to the other nodes.
+         */
+        void statusChosen(String userId, String status);
+    }
+}
@@ -0,0 +1,264 @@
+package com.chatrealtime.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read state of conversations: one high-water mark per (user, conversation), the {@link InboxService#cursor} of
+ * the last message read, instead of a flag written on every message.
+ *
+ * Markers only move forward. Advances are merged max-wins in memory and written every {@code read.batch-ms}, so
+ * reading a backlog costs one marker write however many messages it holds, and a marker is never written while
+ * the previous write of the same marker is in flight. Each write that moves a marker of a private conversation
+ * sends the peer a single {@code {"chatId", "readerId", "readUpTo"}} receipt on
+ * {@code /topic/chat/{peerId}/receipts}. A write that fails goes back into the next batch, merged with the
+ * advances received since, up to {@code read.write.max-attempts} times. The last markers seen are kept in memory,
+ * at most {@code read.markers.cache-size}, for the read flags of the history.
+ */
+@Service
+public class ReadMarkerService {
+    private static final Logger logger = LoggerFactory.getLogger(ReadMarkerService.class);
+    private static final String PRIVATE_PREFIX = "private_";
+    // Trié après tout identifiant de message de la même milliseconde
+    private static final String AFTER_ANY_ID = "~";
+
+    private final InboxService inboxService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int cacheSize;
+    private final int maxAttempts;
+    private final Map<String, PendingRead> pending = new ConcurrentHashMap<>();
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> markers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter signals;
+    private final Counter advances;
+    private final Counter receipts;
+
+    public ReadMarkerService(InboxService inboxService, SimpMessagingTemplate messagingTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${read.batch-ms:500}") long batchMillis,
+                             @Value("${read.markers.cache-size:100000}") int cacheSize,
+                             @Value("${read.write.max-attempts:10}") int maxAttempts) {
+        this.inboxService = inboxService;
+        this.messagingTemplate = messagingTemplate;
+        this.cacheSize = Math.max(1, cacheSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-markers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.signals = Counter.builder("chat.read.signals")
+            .description("Read positions reported by clients")
+            .register(meterRegistry);
+        this.advances = Counter.builder("chat.read.advances")
+            .description("Read markers moved forward in the database")
+            .register(meterRegistry);
+        this.receipts = Counter.builder("chat.read.receipts")
+            .description("Read receipts sent to peers")
+            .register(meterRegistry);
+        Gauge.builder("chat.read.pending", pending, Map::size)
+            .description("Read markers waiting for the next batch")
+            .register(meterRegistry);
+
+        long interval = Math.max(1, batchMillis);
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records that {@code userId} has read the conversation up to the message {@code (timestamp, messageId)}.
+     *
+     * @return Completed once the marker is written, or at once when it is already further
+     */
+    public CompletableFuture<Void> markRead(String userId, String chatId, long timestamp, String messageId) {
+        return advance(userId, chatId, InboxService.cursor(timestamp, messageId));
+    }
+
+    /**
+     * Marks everything received in the conversation until now as read.
+     */
+    public CompletableFuture<Void> markConversationRead(String userId, String chatId) {
+        return advance(userId, chatId, InboxService.cursor(System.currentTimeMillis(), AFTER_ANY_ID));
+    }
+
+    /**
+     * Returns the read marker of {@code userId} in a conversation, {@code null} when they never read it.
+     */
+    public CompletableFuture<String> readUpTo(String userId, String chatId) {
+        String key = key(userId, chatId);
+        String known = markers.get(key);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return inboxService.readMarker(userId, chatId).thenApply(marker -> {
+            if (marker != null) {
+                remember(key, marker);
+            }
+            return marker;
+        });
+    }
+
+    private CompletableFuture<Void> advance(String userId, String chatId, String cursor) {
+        signals.increment();
+        String key = key(userId, chatId);
+        String known = markers.get(key);
+        if (known != null && known.compareTo(cursor) >= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pending.compute(key, (k, read) -> {
+            if (read == null) {
+                return new PendingRead(userId, chatId, cursor);
+            }
+            if (cursor.compareTo(read.cursor) > 0) {
+                read.cursor = cursor;
+            }
+            return read;
+        }).written;
+    }
+
+    private void flush() {
+        try {
+            for (String key : new ArrayList<>(pending.keySet())) {
+                // Écriture précédente du même marqueur en cours : il partira au prochain lot
+                if (!writing.add(key)) {
+                    continue;
+                }
+                PendingRead read = pending.remove(key);
+                if (read == null) {
+                    writing.remove(key);
+                    continue;
+                }
+                write(key, read);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Read marker flush failed", e);
+        }
+    }
+
+    private void write(String key, PendingRead read) {
+        read.attempts++;
+        inboxService.advanceReadMarker(read.userId, read.chatId, read.cursor).whenComplete((advanced, error) -> {
+            if (error != null) {
+                if (read.attempts >= maxAttempts) {
+                    writing.remove(key);
+                    logger.error("Giving up the read marker of {} in {} after {} attempts: {}", read.userId,
+                        read.chatId, read.attempts, error.getMessage());
+                    read.written.completeExceptionally(error);
+                    return;
+                }
+                logger.warn("Cannot write the read marker of {} in {}, retrying: {}", read.userId, read.chatId,
+                    error.getMessage());
+                // Remis en attente avant de libérer le marqueur : le prochain lot le réécrit
+                pending.merge(key, read, (newer, failed) -> {
+                    if (failed.cursor.compareTo(newer.cursor) > 0) {
+                        newer.cursor = failed.cursor;
+                    }
+                    newer.attempts = failed.attempts;
+                    newer.written.whenComplete((ignored, cause) -> {
+                        if (cause != null) {
+                            failed.written.completeExceptionally(cause);
+                        } else {
+                            failed.written.complete(null);
+                        }
+                    });
+                    return newer;
+                });
+                writing.remove(key);
+                return;
+            }
+            writing.remove(key);
+            remember(key, read.cursor);
+            if (advanced) {
+                advances.increment();
+                sendReceipt(read);
+            }
+            read.written.complete(null);
+        });
+    }
+
+    private void sendReceipt(PendingRead read) {
+        String peerId = peerOf(read.userId, read.chatId);
+        if (peerId == null) {
+            return;
+        }
+        Map<String, Object> receipt = new HashMap<>();
+        receipt.put("chatId", read.chatId);
+        receipt.put("readerId", read.userId);
+        receipt.put("readUpTo", read.cursor);
+        try {
+            messagingTemplate.convertAndSend("/topic/chat/" + peerId + "/receipts", receipt);
+            receipts.increment();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot send read receipt to {}: {}", peerId, e.getMessage());
+        }
+    }
+
+    private void remember(String key, String cursor) {
+        markers.merge(key, cursor, (current, candidate) -> current.compareTo(candidate) >= 0 ? current : candidate);
+        if (markers.size() > cacheSize) {
+            // Éviction arbitraire : un marqueur absent est relu dans la base
+            Iterator<String> keys = markers.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    // private_{a}_{b}, identifiants triés : l'autre participant est ce qui reste autour de userId
+    private static String peerOf(String userId, String chatId) {
+        if (!chatId.startsWith(PRIVATE_PREFIX)) {
+            return null;
+        }
+        String ids = chatId.substring(PRIVATE_PREFIX.length());
+        if (ids.startsWith(userId + "_")) {
+            return ids.substring(userId.length() + 1);
+        }
+        if (ids.endsWith("_" + userId)) {
+            return ids.substring(0, ids.length() - userId.length() - 1);
+        }
+        return null;
+    }
+
+    private static String key(String userId, String chatId) {
+        return userId + '\0' + chatId;
+    }
+
+    private static final class PendingRead {
+        final String userId;
+        final String chatId;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        // Modifiés sous le verrou de la map, lus après son retrait
+        String cursor;
+        int attempts;
+
+        PendingRead(String userId, String chatId, String cursor) {
+            this.userId = userId;
+            this.chatId = chatId;
+            this.cursor = cursor;
+        }
+    }
+}
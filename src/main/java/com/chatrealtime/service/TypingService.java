@@ -0,0 +1,189 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.broker.OutboundBackpressure;
+import com.chatrealtime.util.TimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing indicators: ephemeral signals, never stored.
+ *
+ * The state of each (sender, recipient) pair is kept in memory and announced on
+ * {@code /topic/chat/{recipient}/typing} as {@code {"from", "typing"}}. A change is published at once when the
+ * pair published nothing during the last {@code typing.interval-ms}, otherwise once at the end of the interval
+ * with the latest state, so a burst of keystrokes gives at most one event per interval. A sender that stops
+ * signalling is announced as stopped after {@code typing.expiry-ms}. Deferred publications and expiries are
+ * checked on a {@link TimingWheel}; a keystroke only moves a deadline in memory.
+ */
+@Service
+public class TypingService {
+    private static final Logger logger = LoggerFactory.getLogger(TypingService.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long intervalMillis;
+    private final long expiryMillis;
+    private final TimingWheel<Typing> wheel;
+    private final Map<String, Typing> states = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter signals;
+    private final Counter published;
+
+    public TypingService(SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry,
+                         @Value("${typing.interval-ms:1000}") long intervalMillis,
+                         @Value("${typing.expiry-ms:5000}") long expiryMillis,
+                         @Value("${typing.tick-ms:100}") long tickMillis) {
+        this.messagingTemplate = messagingTemplate;
+        this.intervalMillis = Math.max(0, intervalMillis);
+        this.expiryMillis = Math.max(1, expiryMillis);
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "typing-notifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.signals = Counter.builder("chat.typing.signals")
+            .description("Typing signals received from clients")
+            .register(meterRegistry);
+        this.published = Counter.builder("chat.typing.published")
+            .description("Typing start/stop events sent to recipients")
+            .register(meterRegistry);
+        Gauge.builder("chat.typing.active", states, Map::size)
+            .description("Sender/recipient pairs with a typing state in memory")
+            .register(meterRegistry);
+
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records that {@code senderId} started ({@code typing}) or stopped typing to {@code recipientId}.
+     */
+    public void signal(String senderId, String recipientId, boolean typing) {
+        if (senderId == null || recipientId == null || senderId.equals(recipientId)) {
+            return;
+        }
+        signals.increment();
+        String key = senderId + '\u0000' + recipientId;
+        long now = System.currentTimeMillis();
+        while (true) {
+            Typing state = states.computeIfAbsent(key, k -> new Typing(key, senderId, recipientId));
+            synchronized (state) {
+                if (state.removed) {
+                    // Retiré entre-temps par le timer : on repart d'un nouvel état
+                    continue;
+                }
+                state.requested = typing;
+                if (typing) {
+                    state.expiresAt = now + expiryMillis;
+                }
+                // Publié sous le verrou : un début et un arrêt ne peuvent pas s'inverser
+                publish(state, reconcile(state, now));
+            }
+            return;
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        try {
+            for (Typing state : wheel.advance(now)) {
+                synchronized (state) {
+                    state.check = null;
+                    publish(state, reconcile(state, now));
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Typing indicator tick failed", e);
+        }
+    }
+
+    // Appelé sous le verrou de l'état ; renvoie l'état à annoncer, ou null
+    private Boolean reconcile(Typing state, long now) {
+        if (state.requested && now >= state.expiresAt) {
+            state.requested = false;
+        }
+        Boolean event = null;
+        if (state.requested != state.announced && now - state.publishedAt >= intervalMillis) {
+            state.announced = state.requested;
+            state.publishedAt = now;
+            event = state.announced;
+        }
+
+        long next = Long.MAX_VALUE;
+        if (state.requested != state.announced) {
+            next = state.publishedAt + intervalMillis;
+        }
+        if (state.requested) {
+            next = Math.min(next, state.expiresAt);
+        }
+        if (next == Long.MAX_VALUE) {
+            if (state.check == null) {
+                state.removed = true;
+                states.remove(state.key, state);
+            }
+        } else if (state.check == null || next < state.checkAt) {
+            // Une échéance repoussée est revue au passage de l'ancienne : pas de replanification par frappe
+            if (state.check != null) {
+                state.check.cancel();
+            }
+            state.check = wheel.schedule(state, next);
+            state.checkAt = next;
+        }
+        return event;
+    }
+
+    private void publish(Typing state, Boolean typing) {
+        if (typing == null) {
+            return;
+        }
+        Map<String, Object> event = new HashMap<>();
+        event.put("from", state.senderId);
+        event.put("typing", typing);
+        try {
+            // Clé de regroupement : sous contre-pression, l'événement ne remplace que celui du même expéditeur
+            messagingTemplate.convertAndSend("/topic/chat/" + state.recipientId + "/typing", event,
+                Collections.singletonMap(OutboundBackpressure.COALESCE_KEY_HEADER, state.senderId));
+            published.increment();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot send typing indicator to {}: {}", state.recipientId, e.getMessage());
+        }
+    }
+
+    private static final class Typing {
+        final String key;
+        final String senderId;
+        final String recipientId;
+        boolean requested;
+        boolean announced;
+        long publishedAt = Long.MIN_VALUE / 2;
+        long expiresAt;
+        TimingWheel.Timeout<Typing> check;
+        long checkAt;
+        boolean removed;
+
+        Typing(String key, String senderId, String recipientId) {
+            this.key = key;
+            this.senderId = senderId;
+            this.recipientId = recipientId;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.ValueEventListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory email to user id index of the {@code users} node, used instead of
+ * {@code orderByChild("email").equalTo(email)} queries.
+ *
+ * The index is filled by a read of {@code users} at startup and then kept up to date by a child listener, so
+ * that renamed emails and deleted users are followed. Until the first read completes, lookups fall back to the
+ * query. Only the id and email of each user are kept on the heap.
+ */
+@Component
+public class UserDirectory {
+    private static final Logger logger = LoggerFactory.getLogger(UserDirectory.class);
+
+    private final DatabaseReference usersRef;
+    private final Map<String, String> idsByEmail = new ConcurrentHashMap<>();
+    private final Map<String, String> emailsById = new ConcurrentHashMap<>();
+    private final Counter fallbacks;
+    private volatile boolean ready;
+
+    public UserDirectory(RealtimeDatabase database, MeterRegistry meterRegistry) {
+        this.usersRef = database.getReference("users");
+        this.fallbacks = Counter.builder("chat.users.directory.fallbacks")
+            .description("Email lookups sent to the database before the directory was loaded")
+            .register(meterRegistry);
+        Gauge.builder("chat.users.directory.size", idsByEmail, Map::size)
+            .description("Emails held by the user directory")
+            .register(meterRegistry);
+
+        usersRef.addChildEventListener(new UserListener());
+        // Les événements enfants initiaux précèdent cette lecture : l'index est alors complet
+        usersRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                for (DataSnapshot user : snapshot.getChildren()) {
+                    index(user);
+                }
+                ready = true;
+                logger.info("User directory loaded with {} emails", idsByEmail.size());
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                logger.error("User directory load cancelled: {}", error.getMessage());
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Id of the user registered with {@code email}, {@code null} when there is none.
+     */
+    public CompletableFuture<String> findUserId(String email) {
+        if (email == null || email.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (ready) {
+            return CompletableFuture.completedFuture(idsByEmail.get(email));
+        }
+        fallbacks.increment();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        usersRef.orderByChild("email").equalTo(email).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                String userId = null;
+                for (DataSnapshot user : snapshot.getChildren()) {
+                    userId = user.getKey();
+                    break;
+                }
+                future.complete(userId);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                future.completeExceptionally(error.toException());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reserves {@code email} for a user being registered, so that a concurrent registration of the same email
+     * on this server fails.
+     *
+     * @return {@code false} when the email is already taken
+     */
+    public boolean reserve(String email, String userId) {
+        if (idsByEmail.putIfAbsent(email, userId) != null) {
+            return false;
+        }
+        emailsById.put(userId, email);
+        return true;
+    }
+
+    /**
+     * Releases a reservation whose user could not be written.
+     */
+    public void release(String email, String userId) {
+        idsByEmail.remove(email, userId);
+        emailsById.remove(userId, email);
+    }
+
+    private void index(DataSnapshot user) {
+        String userId = user.getKey();
+        String email = user.child("email").getValue(String.class);
+        String previous = email != null ? emailsById.put(userId, email) : emailsById.remove(userId);
+        if (previous != null && !previous.equals(email)) {
+            idsByEmail.remove(previous, userId);
+        }
+        if (email != null) {
+            // En cas de doublon, le premier utilisateur indexé garde l'adresse, comme la requête
+            idsByEmail.putIfAbsent(email, userId);
+        }
+    }
+
+    private void unindex(String userId) {
+        String email = emailsById.remove(userId);
+        if (email != null) {
+            idsByEmail.remove(email, userId);
+        }
+    }
+
+    private final class UserListener implements ChildEventListener {
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            index(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            index(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            unindex(snapshot.getKey());
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            ready = false;
+            logger.error("User directory listener cancelled: {}", error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Segmented append-only log of a single conversation.
+ *
+ * Messages are appended to the active {@link LogSegment}; once it reaches {@code segmentBytes} a new segment
+ * is started, named after the ordinal of its first record. Messages are appended in timestamp order, which is
+ * what the sparse indexes rely on: each message is stamped under the log's lock, never before the last one.
+ * Read flags and deletions live in a small side file so opening a conversation never has to scan its segments.
+ * A message is looked up by id only in the segments whose id filter may hold it (see {@link LogSegment}).
+ * Deleted messages are skipped by reads; segments holding only messages older than a retention cutoff are
+ * dropped whole, and with them the flags of their messages. The side file is rewritten with the live flags once
+ * most of its records are obsolete.
+ */
+final class ConversationLog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationLog.class);
+    private static final String READS_FILE = "reads.dat";
+    private static final int CURSOR_SCAN_CHUNK = 32;
+    private static final int FLAGS_COMPACTION_MIN_RECORDS = 1024;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int indexIntervalBytes;
+    private final boolean syncOnAppend;
+    private final List<LogSegment> segments = new ArrayList<>();
+    private final Set<String> readIds = new HashSet<>();
+    private final Set<String> deletedIds = new HashSet<>();
+    private FileChannel readsChannel;
+    private long readsPosition;
+    // Enregistrements du fichier des marques, obsolètes compris
+    private long flagRecords;
+    private boolean closed;
+
+    ConversationLog(Path dir, int segmentBytes, int indexIntervalBytes, boolean syncOnAppend) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.syncOnAppend = syncOnAppend;
+        Files.createDirectories(dir);
+
+        List<Path> logFiles;
+        try (Stream<Path> files = Files.list(dir)) {
+            logFiles = files.filter(LogSegment::isLogFile).sorted().collect(Collectors.toList());
+        }
+        for (Path logFile : logFiles) {
+            segments.add(LogSegment.open(dir, LogSegment.parseBaseOrdinal(logFile), indexIntervalBytes));
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(dir, 0, indexIntervalBytes));
+        }
+        for (int i = 0; i < segments.size() - 1; i++) {
+            segments.get(i).seal();
+        }
+
+        this.readsChannel = openFlags();
+        recoverReads();
+    }
+
+    /**
+     * Appends a message, stamped with the current time or, if the clock went back, with the last message's time.
+     */
+    synchronized void appendMessage(Message message) throws IOException {
+        ensureOpen();
+        // Horodaté sous le verrou : deux envois concurrents ne peuvent pas s'inscrire dans le désordre
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp());
+        message.setTimestamp(MessageRecordCodec.fromEpochMillis(timestamp));
+        LogSegment active = activeSegment();
+        if (active.size() >= segmentBytes) {
+            active.seal();
+            active = LogSegment.create(dir, active.baseOrdinal() + active.recordCount(), indexIntervalBytes);
+            segments.add(active);
+            logger.debug("Rolled conversation log {} to segment {}", dir.getFileName(), active.baseOrdinal());
+        }
+        active.append(MessageRecordCodec.encodeMessage(message), timestamp, syncOnAppend);
+    }
+
+    synchronized void appendRead(String messageId) throws IOException {
+        ensureOpen();
+        if (deletedIds.contains(messageId) || !readIds.add(messageId)) {
+            return;
+        }
+        writeFlags(MessageRecordCodec.frame(MessageRecordCodec.encodeRead(messageId)), 1);
+    }
+
+    synchronized void appendDeletes(Collection<String> messageIds) throws IOException {
+        ensureOpen();
+        List<ByteBuffer> frames = new ArrayList<>(messageIds.size());
+        int size = 0;
+        for (String messageId : messageIds) {
+            if (deletedIds.add(messageId)) {
+                // Un message supprimé n'est plus jamais lu : sa marque de lecture devient obsolète
+                readIds.remove(messageId);
+                ByteBuffer frame = MessageRecordCodec.frame(MessageRecordCodec.encodeDelete(messageId));
+                frames.add(frame);
+                size += frame.remaining();
+            }
+        }
+        if (frames.isEmpty()) {
+            return;
+        }
+        // Toutes les suppressions d'un lot en une seule écriture
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        for (ByteBuffer frame : frames) {
+            batch.put(frame);
+        }
+        batch.flip();
+        writeFlags(batch, frames.size());
+    }
+
+    /**
+     * Deletes the messages older than {@code millis}: the segments made only of such messages are removed,
+     * the others get delete records. Returns the number of messages deleted.
+     */
+    synchronized int deleteBefore(long millis) throws IOException {
+        ensureOpen();
+        long end = ordinalAtOrAfter(millis);
+        int deleted = 0;
+        while (segments.size() > 1 && segments.get(0).baseOrdinal() + segments.get(0).recordCount() <= end) {
+            LogSegment segment = segments.remove(0);
+            deleted += segment.recordCount();
+            if (!readIds.isEmpty() || !deletedIds.isEmpty()) {
+                // Les marques des messages du segment n'ont plus d'objet
+                segment.read(0, segment.recordCount(), record -> {
+                    String messageId = MessageRecordCodec.decodeMessageId(record);
+                    readIds.remove(messageId);
+                    deletedIds.remove(messageId);
+                });
+            }
+            segment.delete();
+        }
+        List<String> messageIds = new ArrayList<>();
+        forEachRecord(segments.get(0).baseOrdinal(), end, record -> {
+            String messageId = MessageRecordCodec.decodeMessage(record).getId();
+            if (!deletedIds.contains(messageId)) {
+                messageIds.add(messageId);
+            }
+        });
+        appendDeletes(messageIds);
+        if (flagRecords > FLAGS_COMPACTION_MIN_RECORDS && flagRecords > 2L * (readIds.size() + deletedIds.size())) {
+            compactFlags();
+        }
+        return deleted + messageIds.size();
+    }
+
+    /**
+     * Returns, in chronological order, the last {@code limit} messages whose timestamp is in {@code [fromMillis, toMillis)}.
+     * Only the segments overlapping the result are touched, each through its sparse index.
+     */
+    synchronized List<Message> readRange(long fromMillis, long toMillis, int limit) throws IOException {
+        ensureOpen();
+        return readLatest(ordinalAtOrAfter(fromMillis), ordinalAtOrAfter(toMillis), limit);
+    }
+
+    /**
+     * Returns, in chronological order, the {@code limit} messages preceding the cursor {@code (beforeMillis, beforeId)}.
+     * Messages sharing a timestamp are in append order; a cursor id that is not found excludes the whole timestamp.
+     */
+    synchronized List<Message> readBefore(long beforeMillis, String beforeId, int limit) throws IOException {
+        ensureOpen();
+        long end = ordinalAtOrAfter(beforeMillis);
+        if (beforeId != null) {
+            end = ordinalOf(beforeId, beforeMillis, end);
+        }
+        return readLatest(0, end, limit);
+    }
+
+    /**
+     * Returns the message {@code messageId} if it was appended at or after {@code fromMillis}, {@code null} otherwise.
+     * Only the segments of that period whose id filter may hold the id are scanned, newest first.
+     */
+    synchronized Message find(String messageId, long fromMillis) throws IOException {
+        ensureOpen();
+        if (deletedIds.contains(messageId)) {
+            return null;
+        }
+        long start = ordinalAtOrAfter(fromMillis);
+        Message[] found = {null};
+        for (int i = segments.size() - 1; i >= 0 && found[0] == null; i--) {
+            LogSegment segment = segments.get(i);
+            long base = segment.baseOrdinal();
+            if (base + segment.recordCount() <= start) {
+                break;
+            }
+            if (!segment.mightContain(messageId)) {
+                continue;
+            }
+            segment.read((int) (Math.max(start, base) - base), segment.recordCount(), record -> {
+                if (found[0] == null && MessageRecordCodec.hasMessageId(record, messageId)) {
+                    found[0] = MessageRecordCodec.decodeMessage(record);
+                }
+            });
+        }
+        if (found[0] != null) {
+            found[0].setRead(found[0].isRead() || readIds.contains(messageId));
+        }
+        return found[0];
+    }
+
+    // Les derniers messages non supprimés de [floor, end) : on recule tant que des suppressions creusent la page
+    private List<Message> readLatest(long floor, long end, int limit) throws IOException {
+        floor = Math.max(floor, segments.get(0).baseOrdinal());
+        List<Message> messages = new ArrayList<>();
+        while (messages.size() < limit && end > floor) {
+            long start = Math.max(floor, end - (limit - messages.size()));
+            List<Message> chunk = read(start, end);
+            chunk.addAll(messages);
+            messages = chunk;
+            end = start;
+        }
+        return messages;
+    }
+
+    private List<Message> read(long start, long end) throws IOException {
+        List<Message> messages = new ArrayList<>((int) Math.max(0, end - start));
+        forEachRecord(start, end, record -> {
+            Message message = MessageRecordCodec.decodeMessage(record);
+            if (deletedIds.contains(message.getId())) {
+                return;
+            }
+            message.setRead(message.isRead() || readIds.contains(message.getId()));
+            messages.add(message);
+        });
+        return messages;
+    }
+
+    // Parcourt les enregistrements de même horodatage, à partir du premier, jusqu'au curseur
+    private long ordinalOf(String messageId, long millis, long firstOrdinal) throws IOException {
+        long total = activeSegment().baseOrdinal() + activeSegment().recordCount();
+        long[] found = {-1};
+        boolean[] done = {false};
+        long ordinal = firstOrdinal;
+        while (!done[0] && ordinal < total) {
+            long chunkStart = ordinal;
+            long chunkEnd = Math.min(total, ordinal + CURSOR_SCAN_CHUNK);
+            long[] position = {chunkStart};
+            forEachRecord(chunkStart, chunkEnd, record -> {
+                if (done[0]) {
+                    return;
+                }
+                if (MessageRecordCodec.timestampOf(record) != millis) {
+                    done[0] = true;
+                } else if (messageId.equals(MessageRecordCodec.decodeMessage(record).getId())) {
+                    found[0] = position[0];
+                    done[0] = true;
+                }
+                position[0]++;
+            });
+            ordinal = chunkEnd;
+        }
+        return found[0] >= 0 ? found[0] : firstOrdinal;
+    }
+
+    private void forEachRecord(long start, long end, Consumer<ByteBuffer> consumer) throws IOException {
+        for (LogSegment segment : segments) {
+            long base = segment.baseOrdinal();
+            long segmentEnd = base + segment.recordCount();
+            if (segmentEnd <= start || base >= end) {
+                continue;
+            }
+            int from = (int) (Math.max(start, base) - base);
+            int to = (int) (Math.min(end, segmentEnd) - base);
+            segment.read(from, to, consumer);
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+        readsChannel.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void writeFlags(ByteBuffer frames, int records) throws IOException {
+        while (frames.hasRemaining()) {
+            readsPosition += readsChannel.write(frames, readsPosition);
+        }
+        if (syncOnAppend) {
+            readsChannel.force(false);
+        }
+        flagRecords += records;
+    }
+
+    // Réécrit à côté puis renommé : une interruption laisse l'ancien fichier, complet
+    private void compactFlags() throws IOException {
+        Path temporary = dir.resolve(READS_FILE + ".tmp");
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (String messageId : readIds) {
+                position = write(channel, MessageRecordCodec.frame(MessageRecordCodec.encodeRead(messageId)), position);
+            }
+            for (String messageId : deletedIds) {
+                position = write(channel, MessageRecordCodec.frame(MessageRecordCodec.encodeDelete(messageId)), position);
+            }
+            channel.force(false);
+        }
+        readsChannel.close();
+        Files.move(temporary, dir.resolve(READS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        readsChannel = openFlags();
+        readsPosition = position;
+        logger.debug("Compacted the flags of {} from {} to {} records", dir.getFileName(), flagRecords,
+            readIds.size() + deletedIds.size());
+        flagRecords = readIds.size() + deletedIds.size();
+    }
+
+    private static long write(FileChannel channel, ByteBuffer frame, long position) throws IOException {
+        while (frame.hasRemaining()) {
+            position += channel.write(frame, position);
+        }
+        return position;
+    }
+
+    private FileChannel openFlags() throws IOException {
+        return FileChannel.open(dir.resolve(READS_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    // Segment actif vide juste après un changement de segment : le dernier message est dans le précédent
+    private long lastTimestamp() {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).recordCount() > 0) {
+                return segments.get(i).lastTimestamp();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private LogSegment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private long ordinalAtOrAfter(long millis) throws IOException {
+        for (LogSegment segment : segments) {
+            if (segment.recordCount() > 0 && segment.lastTimestamp() >= millis) {
+                return segment.baseOrdinal() + segment.ordinalAtOrAfter(millis);
+            }
+        }
+        LogSegment active = activeSegment();
+        return active.baseOrdinal() + active.recordCount();
+    }
+
+    private void recoverReads() throws IOException {
+        long fileSize = readsChannel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(MessageRecordCodec.FRAME_HEADER_SIZE);
+        while (position + MessageRecordCodec.FRAME_HEADER_SIZE <= fileSize) {
+            header.clear();
+            readsChannel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + MessageRecordCodec.FRAME_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readsChannel.read(payload, position + MessageRecordCodec.FRAME_HEADER_SIZE);
+            payload.flip();
+            if (MessageRecordCodec.checksum(payload) != checksum) {
+                break;
+            }
+            String messageId = MessageRecordCodec.decodeFlagMessageId(payload);
+            if (MessageRecordCodec.typeOf(payload) == MessageRecordCodec.TYPE_DELETE) {
+                deletedIds.add(messageId);
+                readIds.remove(messageId);
+            } else if (!deletedIds.contains(messageId)) {
+                readIds.add(messageId);
+            }
+            position += MessageRecordCodec.FRAME_HEADER_SIZE + length;
+            flagRecords++;
+        }
+        if (position < fileSize) {
+            readsChannel.truncate(position);
+        }
+        readsPosition = position;
+    }
+}
@@ -0,0 +1,225 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Local, on-disk message store: one segmented, memory-mapped {@link ConversationLog} per conversation
+ * under {@code message.store.embedded.path}. Operations run on the calling thread and complete at
+ * local-disk latency; history reads only touch the segments they return. At most
+ * {@code message.store.embedded.open-conversations} logs stay open: the least recently used one is closed
+ * to open another, and reopened when next needed.
+ */
+@Component
+@ConditionalOnProperty(name = "message.store.type", havingValue = "embedded")
+public class EmbeddedMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedMessageStore.class);
+
+    private final Path baseDir;
+    private final int segmentBytes;
+    private final int indexIntervalBytes;
+    private final boolean syncOnAppend;
+    private final int maxOpenConversations;
+    private final LinkedHashMap<String, ConversationLog> conversations = new LinkedHashMap<>(64, 0.75f, true);
+    private final MessageSubscriptions subscriptions = new MessageSubscriptions();
+
+    public EmbeddedMessageStore(ClusterNode clusterNode,
+            @Value("${message.store.embedded.path:data/messages}") String path,
+            @Value("${message.store.embedded.segment-bytes:8388608}") int segmentBytes,
+            @Value("${message.store.embedded.index-interval-bytes:4096}") int indexIntervalBytes,
+            @Value("${message.store.embedded.sync-on-append:false}") boolean syncOnAppend,
+            @Value("${message.store.embedded.open-conversations:1024}") int maxOpenConversations) throws IOException {
+        this.baseDir = clusterNode.dataPath(path);
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.syncOnAppend = syncOnAppend;
+        this.maxOpenConversations = Math.max(1, maxOpenConversations);
+        Files.createDirectories(baseDir);
+        logger.info("Embedded message store opened at {}", baseDir.toAbsolutePath());
+        if (clusterNode.isEnabled()) {
+            logger.warn("Embedded message store in cluster mode: each node only keeps the messages written through it");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Message> append(String chatId, Message message) {
+        try {
+            if (message.getId() == null) {
+                message.setId(UUID.randomUUID().toString());
+            }
+            apply(chatId, log -> {
+                log.appendMessage(message);
+                return null;
+            });
+            subscriptions.publish(chatId, message);
+            return CompletableFuture.completedFuture(message);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to append message to {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public boolean findsUnknownIdsLocally() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> readRange(String chatId, long fromMillis, long toMillis, int limit) {
+        try {
+            return CompletableFuture.completedFuture(apply(chatId, log -> log.readRange(fromMillis, toMillis, limit)));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to read messages of {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> readBefore(String chatId, long beforeMillis, String beforeId, int limit) {
+        try {
+            return CompletableFuture.completedFuture(apply(chatId, log -> log.readBefore(beforeMillis, beforeId, limit)));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to read messages of {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Message> find(String chatId, String messageId, long notBeforeMillis) {
+        try {
+            return CompletableFuture.completedFuture(apply(chatId, log -> log.find(messageId, notBeforeMillis)));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to read messages of {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> markAsRead(String chatId, String messageId) {
+        try {
+            apply(chatId, log -> {
+                log.appendRead(messageId);
+                return null;
+            });
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to mark message {} as read: {}", messageId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String chatId, Collection<String> messageIds) {
+        try {
+            apply(chatId, log -> {
+                log.appendDeletes(messageIds);
+                return null;
+            });
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to delete messages of {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteBefore(String chatId, long beforeMillis) {
+        try {
+            return CompletableFuture.completedFuture(apply(chatId, log -> log.deleteBefore(beforeMillis)));
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to delete messages of {}: {}", chatId, e.getMessage());
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(String userId, Listener listener) {
+        return subscriptions.add(userId, listener);
+    }
+
+    @PreDestroy
+    public void close() {
+        List<ConversationLog> logs;
+        synchronized (conversations) {
+            logs = new ArrayList<>(conversations.values());
+            conversations.clear();
+        }
+        for (ConversationLog log : logs) {
+            close(log);
+        }
+    }
+
+    private <T> T apply(String chatId, LogOperation<T> operation) throws IOException {
+        while (true) {
+            ConversationLog log = conversation(chatId);
+            try {
+                return operation.apply(log);
+            } catch (ClosedChannelException e) {
+                // Fermé par une éviction entre-temps : rouvert au tour suivant
+                if (!log.isClosed()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private ConversationLog conversation(String chatId) throws IOException {
+        synchronized (conversations) {
+            ConversationLog log = conversations.get(chatId);
+            if (log != null) {
+                return log;
+            }
+            log = new ConversationLog(baseDir.resolve(directoryName(chatId)), segmentBytes, indexIntervalBytes, syncOnAppend);
+            conversations.put(chatId, log);
+            while (conversations.size() > maxOpenConversations) {
+                // Fermé sous le verrou : la conversation ne peut pas être rouverte tant que ses fichiers sont ouverts
+                ConversationLog eldest = conversations.remove(conversations.keySet().iterator().next());
+                close(eldest);
+            }
+            return log;
+        }
+    }
+
+    private static void close(ConversationLog log) {
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.warn("Error closing conversation log: {}", e.getMessage());
+        }
+    }
+
+    private static String directoryName(String chatId) {
+        return URLEncoder.encode(chatId, StandardCharsets.UTF_8);
+    }
+
+    private interface LogOperation<T> {
+        T apply(ConversationLog log) throws IOException;
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
@@ -0,0 +1,291 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+import com.chatrealtime.database.*;
+import com.chatrealtime.service.InboxService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+@ConditionalOnProperty(name = "message.store.type", havingValue = "firebase", matchIfMissing = true)
+public class FirebaseMessageStore implements MessageStore {
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    private final DatabaseReference messagesRef;
+    private final DatabaseReference conversationsRef;
+    private final WriteCoalescer writeCoalescer;
+
+    public FirebaseMessageStore(RealtimeDatabase database, WriteCoalescer writeCoalescer) {
+        this.messagesRef = database.getReference("messages");
+        this.conversationsRef = database.getReference(InboxService.ROOT);
+        this.writeCoalescer = writeCoalescer;
+    }
+
+    @Override
+    public CompletableFuture<Message> append(String chatId, Message message) {
+        if (message.getId() == null) {
+            message.setId(messagesRef.child(chatId).push().getKey());
+        }
+
+        return writeCoalescer.update(Collections.singletonMap(messagePath(chatId, message.getId()), toNode(message)))
+            .thenApply(ignored -> message);
+    }
+
+    @Override
+    public boolean appendsThroughCoalescer() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> readRange(String chatId, long fromMillis, long toMillis, int limit) {
+        Query query = messagesRef.child(chatId).orderByChild("timestamp");
+        if (fromMillis > Long.MIN_VALUE) {
+            query = query.startAt(fromMillis);
+        }
+        if (toMillis < Long.MAX_VALUE) {
+            query = query.endAt(toMillis - 1);
+        }
+
+        return read(query.limitToLast(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> readBefore(String chatId, long beforeMillis, String beforeId, int limit) {
+        Query query = messagesRef.child(chatId).orderByChild("timestamp");
+        if (beforeId != null) {
+            // endAt est inclusif : une entrée de plus pour pouvoir écarter le curseur lui-même
+            query = query.endAt(beforeMillis, beforeId).limitToLast(limit + 1);
+        } else if (beforeMillis < Long.MAX_VALUE) {
+            query = query.endAt(beforeMillis - 1).limitToLast(limit);
+        } else {
+            query = query.limitToLast(limit);
+        }
+
+        return read(query).thenApply(messages -> {
+            if (beforeId != null && !messages.isEmpty() && beforeId.equals(messages.get(messages.size() - 1).getId())) {
+                messages.remove(messages.size() - 1);
+            }
+            return messages.size() > limit ? new ArrayList<>(messages.subList(messages.size() - limit, messages.size())) : messages;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Message> find(String chatId, String messageId, long notBeforeMillis) {
+        // Lecture directe du nœud : la fenêtre n'a pas d'intérêt avec une clé connue
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        messagesRef.child(chatId).child(messageId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                future.complete(snapshot.exists() ? fromSnapshot(snapshot) : null);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                future.completeExceptionally(error.toException());
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> markAsRead(String chatId, String messageId) {
+        return writeCoalescer.update(Collections.singletonMap(messagePath(chatId, messageId) + "/read", true));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String chatId, Collection<String> messageIds) {
+        Map<String, Object> writes = new HashMap<>();
+        for (String messageId : messageIds) {
+            writes.put(messagePath(chatId, messageId), null);
+        }
+        return writes.isEmpty() ? CompletableFuture.completedFuture(null) : writeCoalescer.update(writes);
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteBefore(String chatId, long beforeMillis) {
+        return deleteBefore(chatId, beforeMillis, 0);
+    }
+
+    // Par lots : on ne lit que les clés des plus anciens messages, puis on les supprime en un seul updateChildren
+    private CompletableFuture<Integer> deleteBefore(String chatId, long beforeMillis, int deleted) {
+        CompletableFuture<List<String>> keys = new CompletableFuture<>();
+        messagesRef.child(chatId).orderByChild("timestamp").endAt(beforeMillis - 1).limitToFirst(DELETE_BATCH_SIZE)
+            .addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    List<String> messageIds = new ArrayList<>();
+                    for (DataSnapshot messageSnapshot : snapshot.getChildren()) {
+                        messageIds.add(messageSnapshot.getKey());
+                    }
+                    keys.complete(messageIds);
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    keys.completeExceptionally(error.toException());
+                }
+            });
+        return keys.thenCompose(messageIds -> {
+            if (messageIds.isEmpty()) {
+                return CompletableFuture.completedFuture(deleted);
+            }
+            int total = deleted + messageIds.size();
+            return delete(chatId, messageIds).thenCompose(ignored -> messageIds.size() < DELETE_BATCH_SIZE
+                ? CompletableFuture.completedFuture(total)
+                : deleteBefore(chatId, beforeMillis, total));
+        });
+    }
+
+    // D'autres écrivent dans la base (autres instances, anciens clients) : les messages, les nôtres compris, sont
+    // reçus de chaque conversation de l'utilisateur (user_conversations/<userId>) à partir de l'abonnement
+    @Override
+    public Subscription subscribe(String userId, Listener listener) {
+        long since = System.currentTimeMillis();
+        Map<String, ChildEventListener> watched = new ConcurrentHashMap<>();
+        DatabaseReference userConversations = conversationsRef.child(userId);
+        ChildEventListener conversationsListener = userConversations.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+                String chatId = snapshot.getKey();
+                watched.computeIfAbsent(chatId, k -> messagesSince(chatId, since)
+                    .addChildEventListener(new MessageAddedListener(userId, chatId, listener)));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot snapshot) {
+                ChildEventListener removed = watched.remove(snapshot.getKey());
+                if (removed != null) {
+                    messagesSince(snapshot.getKey(), since).removeEventListener(removed);
+                }
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                listener.onError(error.toException());
+            }
+        });
+        return () -> {
+            userConversations.removeEventListener(conversationsListener);
+            watched.forEach((chatId, messagesListener) ->
+                messagesSince(chatId, since).removeEventListener(messagesListener));
+            watched.clear();
+        };
+    }
+
+    private Query messagesSince(String chatId, long sinceMillis) {
+        return messagesRef.child(chatId).orderByChild("timestamp").startAt(sinceMillis);
+    }
+
+    private static CompletableFuture<List<Message>> read(Query query) {
+        CompletableFuture<List<Message>> future = new CompletableFuture<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                List<Message> messages = new ArrayList<>();
+                for (DataSnapshot messageSnapshot : snapshot.getChildren()) {
+                    Message message = fromSnapshot(messageSnapshot);
+                    if (message != null) {
+                        messages.add(message);
+                    }
+                }
+                future.complete(messages);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                future.completeExceptionally(error.toException());
+            }
+        });
+        return future;
+    }
+
+    private static final class MessageAddedListener implements ChildEventListener {
+        private final String userId;
+        private final String chatId;
+        private final Listener listener;
+
+        MessageAddedListener(String userId, String chatId, Listener listener) {
+            this.userId = userId;
+            this.chatId = chatId;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            Message message = fromSnapshot(snapshot);
+            if (message != null && userId.equals(message.getTo())) {
+                listener.onAppended(chatId, message);
+            }
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            listener.onError(error.toException());
+        }
+    }
+
+    private static String messagePath(String chatId, String messageId) {
+        return "messages/" + chatId + "/" + messageId;
+    }
+
+    // Même schéma que les messages écrits par le client Swing (senderId, timestamp en millisecondes)
+    private static Map<String, Object> toNode(Message message) {
+        Map<String, Object> node = new HashMap<>();
+        node.put("id", message.getId());
+        node.put("from", message.getFrom());
+        node.put("senderId", message.getFrom());
+        node.put("to", message.getTo());
+        node.put("content", message.getContent());
+        node.put("timestamp", MessageRecordCodec.toEpochMillis(message.getTimestamp()));
+        node.put("read", message.isRead());
+        return node;
+    }
+
+    private static Message fromSnapshot(DataSnapshot snapshot) {
+        String content = snapshot.child("content").getValue(String.class);
+        if (content == null) {
+            return null;
+        }
+        Message message = new Message();
+        message.setId(snapshot.getKey());
+        String from = snapshot.child("from").getValue(String.class);
+        message.setFrom(from != null ? from : snapshot.child("senderId").getValue(String.class));
+        message.setTo(snapshot.child("to").getValue(String.class));
+        message.setContent(content);
+        Object timestamp = snapshot.child("timestamp").getValue();
+        if (timestamp instanceof Number) {
+            message.setTimestamp(MessageRecordCodec.fromEpochMillis(((Number) timestamp).longValue()));
+        }
+        message.setRead(Boolean.TRUE.equals(snapshot.child("read").getValue(Boolean.class)));
+        return message;
+    }
+}
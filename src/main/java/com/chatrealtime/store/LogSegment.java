@@ -0,0 +1,462 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * One segment of a {@link ConversationLog}: a {@code .log} file of framed message records and a
+ * sparse {@code .idx} file.
+ *
+ * Appends are sequential channel writes. Reads go through a read-only {@link MappedByteBuffer} of the
+ * segment and hand out slices of it, so decoding never copies a record into an intermediate buffer. The
+ * mapping of the active segment runs past its end and doubles when appends outgrow it, so that it is only
+ * remapped a logarithmic number of times; the file is cut back to its records when sealed or closed.
+ * An index entry [timestamp:long][position:int][ordinal:int] is written for the first record and then
+ * every {@code indexIntervalBytes} of log, which bounds every lookup to a short forward scan.
+ *
+ * The ids of the records are summed up by a {@link BloomFilter}, built by one scan the first time an id is looked up.
+ * The active segment keeps it on the heap, sized for twice its records and rebuilt when they outgrow it; once the
+ * segment is sealed the filter is written to an {@code .ids} file, [recordCount:int][hashCount:int][bits], and
+ * read back through a mapping.
+ */
+final class LogSegment implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(LogSegment.class);
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int MIN_MAPPING_BYTES = 64 * 1024;
+    private static final int IDS_HEADER_SIZE = 8;
+    private static final int IDS_MIN_CAPACITY = 256;
+    private static final double IDS_FALSE_POSITIVE_RATE = 0.01;
+
+    private final Path logPath;
+    private final Path indexPath;
+    private final Path idsPath;
+    private final long baseOrdinal;
+    private final int indexIntervalBytes;
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+
+    private MappedByteBuffer mapped;
+    private int size;
+    private int recordCount;
+    private int bytesSinceIndex;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private boolean sealed;
+    // Filtre des identifiants, null tant qu'aucune recherche n'a eu lieu ou quand il est à reconstruire
+    private BloomFilter ids;
+    private int idsCapacity;
+
+    private long[] indexTimestamps = new long[16];
+    private int[] indexPositions = new int[16];
+    private int[] indexOrdinals = new int[16];
+    private int indexSize;
+
+    private LogSegment(Path dir, long baseOrdinal, int indexIntervalBytes) throws IOException {
+        this.baseOrdinal = baseOrdinal;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.logPath = dir.resolve(fileName(baseOrdinal, ".log"));
+        this.indexPath = dir.resolve(fileName(baseOrdinal, ".idx"));
+        this.idsPath = dir.resolve(fileName(baseOrdinal, ".ids"));
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static LogSegment create(Path dir, long baseOrdinal, int indexIntervalBytes) throws IOException {
+        return new LogSegment(dir, baseOrdinal, indexIntervalBytes);
+    }
+
+    /**
+     * Opens an existing segment. The sparse index is loaded from disk and the records after the last
+     * index entry are re-validated; a torn tail left by a crash is truncated.
+     */
+    static LogSegment open(Path dir, long baseOrdinal, int indexIntervalBytes) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOrdinal, indexIntervalBytes);
+        segment.recover();
+        return segment;
+    }
+
+    static long parseBaseOrdinal(Path logFile) {
+        String name = logFile.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - ".log".length()));
+    }
+
+    long baseOrdinal() {
+        return baseOrdinal;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int recordCount() {
+        return recordCount;
+    }
+
+    synchronized long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    synchronized void append(byte[] payload, long timestamp, boolean sync) throws IOException {
+        ByteBuffer frame = MessageRecordCodec.frame(payload);
+        int position = size;
+        long writePosition = position;
+        while (frame.hasRemaining()) {
+            writePosition += channel.write(frame, writePosition);
+        }
+        if (recordCount == 0 || bytesSinceIndex >= indexIntervalBytes) {
+            writeIndexEntry(timestamp, position, recordCount);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        size = (int) writePosition;
+        bytesSinceIndex += size - position;
+        recordCount++;
+        lastTimestamp = timestamp;
+        if (ids != null) {
+            if (recordCount > idsCapacity) {
+                // Reconstruit deux fois plus grand à la prochaine recherche
+                ids = null;
+            } else {
+                ids.add(MessageRecordCodec.decodeMessageId(ByteBuffer.wrap(payload)));
+            }
+        }
+    }
+
+    /**
+     * Marks the segment as no longer appended to: its id filter is written out, or will be once built.
+     */
+    synchronized void seal() throws IOException {
+        sealed = true;
+        trimMapping();
+        if (ids != null && idsCapacity > 0) {
+            writeIds();
+            // Relu par un mapping à la prochaine recherche, hors du tas
+            ids = null;
+        }
+    }
+
+    /**
+     * Returns whether a record with id {@code messageId} may be in this segment, i.e. {@code false} when it
+     * certainly is not.
+     */
+    synchronized boolean mightContain(String messageId) throws IOException {
+        if (recordCount == 0) {
+            return false;
+        }
+        if (ids == null) {
+            loadIds();
+        }
+        return ids.mightContain(messageId);
+    }
+
+    /**
+     * Returns the ordinal, relative to this segment, of the first record whose timestamp is {@code >= millis},
+     * or {@link #recordCount()} when there is none.
+     */
+    synchronized int ordinalAtOrAfter(long millis) throws IOException {
+        if (recordCount == 0 || lastTimestamp < millis) {
+            return recordCount;
+        }
+        // Dernière entrée d'index strictement antérieure, puis parcours séquentiel
+        int entry = lastEntryBefore(millis);
+        if (entry < 0) {
+            return 0;
+        }
+        ByteBuffer view = view();
+        int position = indexPositions[entry];
+        int ordinal = indexOrdinals[entry];
+        while (ordinal < recordCount) {
+            int length = view.getInt(position);
+            if (MessageRecordCodec.timestampOf(slice(view, position + MessageRecordCodec.FRAME_HEADER_SIZE, length)) >= millis) {
+                break;
+            }
+            position += MessageRecordCodec.FRAME_HEADER_SIZE + length;
+            ordinal++;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Hands the payload of every record with a relative ordinal in {@code [fromOrdinal, toOrdinal)} to
+     * {@code consumer}, as a slice of the mapped segment.
+     */
+    synchronized void read(int fromOrdinal, int toOrdinal, Consumer<ByteBuffer> consumer) throws IOException {
+        if (fromOrdinal >= toOrdinal) {
+            return;
+        }
+        ByteBuffer view = view();
+        int entry = lastEntryAtOrBeforeOrdinal(fromOrdinal);
+        int position = indexPositions[entry];
+        int ordinal = indexOrdinals[entry];
+        while (ordinal < toOrdinal) {
+            int length = view.getInt(position);
+            if (ordinal >= fromOrdinal) {
+                consumer.accept(slice(view, position + MessageRecordCodec.FRAME_HEADER_SIZE, length));
+            }
+            position += MessageRecordCodec.FRAME_HEADER_SIZE + length;
+            ordinal++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            trimMapping();
+        }
+        ids = null;
+        indexChannel.close();
+        channel.close();
+    }
+
+    /**
+     * Closes the segment and removes its files.
+     */
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(idsPath);
+        Files.deleteIfExists(indexPath);
+        Files.deleteIfExists(logPath);
+    }
+
+    private ByteBuffer view() throws IOException {
+        // Le segment actif grandit : on ne remappe que lorsque la lecture dépasse la zone déjà mappée
+        if (mapped == null || mapped.capacity() < size) {
+            long capacity = size;
+            if (!sealed) {
+                long doubled = mapped == null ? MIN_MAPPING_BYTES : 2L * mapped.capacity();
+                capacity = Math.min(Integer.MAX_VALUE, Math.max(size, doubled));
+                if (channel.size() < capacity) {
+                    // Fichier étendu (creux) jusqu'à la fin du mapping ; la récupération écarte cette queue de zéros
+                    channel.write(ByteBuffer.allocate(1), capacity - 1);
+                }
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+        }
+        return mapped.duplicate();
+    }
+
+    private void trimMapping() throws IOException {
+        mapped = null;
+        if (channel.size() > size) {
+            channel.truncate(size);
+        }
+    }
+
+    private void loadIds() throws IOException {
+        if (sealed && Files.exists(idsPath)) {
+            try (FileChannel idsChannel = FileChannel.open(idsPath, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(IDS_HEADER_SIZE);
+                idsChannel.read(header, 0);
+                header.flip();
+                long bitsSize = idsChannel.size() - IDS_HEADER_SIZE;
+                // Un fichier d'un autre nombre d'enregistrements (queue tronquée) ou incomplet est reconstruit
+                if (header.remaining() == IDS_HEADER_SIZE && header.getInt() == recordCount && bitsSize > 0
+                        && bitsSize % Long.BYTES == 0) {
+                    int hashCount = header.getInt();
+                    if (hashCount > 0) {
+                        ids = BloomFilter.wrap(idsChannel.map(FileChannel.MapMode.READ_ONLY, IDS_HEADER_SIZE, bitsSize),
+                            hashCount);
+                        idsCapacity = 0;
+                        return;
+                    }
+                }
+            }
+        }
+        idsCapacity = sealed ? recordCount : Math.max(IDS_MIN_CAPACITY, recordCount * 2);
+        BloomFilter filter = BloomFilter.create(idsCapacity, IDS_FALSE_POSITIVE_RATE);
+        read(0, recordCount, record -> filter.add(MessageRecordCodec.decodeMessageId(record)));
+        ids = filter;
+        if (sealed) {
+            writeIds();
+        }
+    }
+
+    // Écrit à côté puis renommé : un fichier .ids présent est toujours complet
+    private void writeIds() throws IOException {
+        Path temporary = idsPath.resolveSibling(idsPath.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(IDS_HEADER_SIZE);
+        header.putInt(recordCount).putInt(ids.hashCount()).flip();
+        ByteBuffer[] buffers = {header, ids.bits()};
+        try (FileChannel idsChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffers[1].hasRemaining()) {
+                idsChannel.write(buffers);
+            }
+            idsChannel.force(false);
+        }
+        Files.move(temporary, idsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer slice(ByteBuffer view, int position, int length) {
+        ByteBuffer slice = view.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice.slice();
+    }
+
+    private int lastEntryBefore(long millis) {
+        int low = 0;
+        int high = indexSize - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimestamps[mid] < millis) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private int lastEntryAtOrBeforeOrdinal(int ordinal) {
+        int low = 0;
+        int high = indexSize - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexOrdinals[mid] <= ordinal) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private void writeIndexEntry(long timestamp, int position, int ordinal) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(timestamp).putInt(position).putInt(ordinal).flip();
+        long indexPosition = (long) indexSize * INDEX_ENTRY_SIZE;
+        while (entry.hasRemaining()) {
+            indexPosition += indexChannel.write(entry, indexPosition);
+        }
+        addIndexEntry(timestamp, position, ordinal);
+        bytesSinceIndex = 0;
+    }
+
+    private void addIndexEntry(long timestamp, int position, int ordinal) {
+        if (indexSize == indexTimestamps.length) {
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            indexOrdinals = Arrays.copyOf(indexOrdinals, indexSize * 2);
+        }
+        indexTimestamps[indexSize] = timestamp;
+        indexPositions[indexSize] = position;
+        indexOrdinals[indexSize] = ordinal;
+        indexSize++;
+    }
+
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        loadIndex(fileSize);
+
+        int position = 0;
+        int ordinal = 0;
+        if (indexSize > 0) {
+            position = indexPositions[indexSize - 1];
+            ordinal = indexOrdinals[indexSize - 1];
+        }
+        // Seules les entrées postérieures à la dernière entrée d'index sont revalidées
+        bytesSinceIndex = 0;
+        ByteBuffer view = fileSize == 0 ? ByteBuffer.allocate(0) : channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        while (position + MessageRecordCodec.FRAME_HEADER_SIZE <= fileSize) {
+            int length = view.getInt(position);
+            int checksum = view.getInt(position + 4);
+            if (length <= 0 || position + MessageRecordCodec.FRAME_HEADER_SIZE + (long) length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = slice(view, position + MessageRecordCodec.FRAME_HEADER_SIZE, length);
+            if (MessageRecordCodec.checksum(payload) != checksum) {
+                break;
+            }
+            long timestamp = MessageRecordCodec.timestampOf(payload);
+            if (ordinal == 0 && indexSize == 0) {
+                writeIndexEntry(timestamp, position, ordinal);
+            } else if (bytesSinceIndex >= indexIntervalBytes) {
+                writeIndexEntry(timestamp, position, ordinal);
+            }
+            int recordSize = MessageRecordCodec.FRAME_HEADER_SIZE + length;
+            position += recordSize;
+            bytesSinceIndex += recordSize;
+            lastTimestamp = timestamp;
+            ordinal++;
+        }
+
+        if (position < fileSize) {
+            if (position + MessageRecordCodec.FRAME_HEADER_SIZE <= fileSize && view.getInt(position) == 0) {
+                // Queue étendue pour le mapping et jamais écrite : le segment n'a pas été fermé
+                logger.debug("Truncating {} bytes of mapping space in {}", fileSize - position, logPath);
+            } else {
+                logger.warn("Truncating {} bytes of incomplete records in {}", fileSize - position, logPath);
+            }
+            channel.truncate(position);
+            while (indexSize > 0 && indexPositions[indexSize - 1] >= position) {
+                indexSize--;
+            }
+            indexChannel.truncate((long) indexSize * INDEX_ENTRY_SIZE);
+        }
+        size = position;
+        recordCount = ordinal;
+        if (recordCount > 0 && lastTimestamp == Long.MIN_VALUE) {
+            lastTimestamp = scanLastTimestamp(view);
+        }
+    }
+
+    private long scanLastTimestamp(ByteBuffer view) {
+        int position = indexPositions[indexSize - 1];
+        long timestamp = indexTimestamps[indexSize - 1];
+        while (position < size) {
+            int length = view.getInt(position);
+            timestamp = MessageRecordCodec.timestampOf(slice(view, position + MessageRecordCodec.FRAME_HEADER_SIZE, length));
+            position += MessageRecordCodec.FRAME_HEADER_SIZE + length;
+        }
+        return timestamp;
+    }
+
+    private void loadIndex(long logSize) throws IOException {
+        long indexFileSize = indexChannel.size();
+        int entries = (int) (indexFileSize / INDEX_ENTRY_SIZE);
+        if (entries == 0) {
+            indexChannel.truncate(0);
+            return;
+        }
+        ByteBuffer buffer = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * INDEX_ENTRY_SIZE);
+        for (int i = 0; i < entries; i++) {
+            long timestamp = buffer.getLong();
+            int position = buffer.getInt();
+            int ordinal = buffer.getInt();
+            // Une entrée qui pointe au-delà du log provient d'une écriture interrompue
+            if (position >= logSize) {
+                break;
+            }
+            addIndexEntry(timestamp, position, ordinal);
+        }
+        if ((long) indexSize * INDEX_ENTRY_SIZE != indexFileSize) {
+            indexChannel.truncate((long) indexSize * INDEX_ENTRY_SIZE);
+        }
+    }
+
+    private static String fileName(long baseOrdinal, String extension) {
+        return String.format("%020d%s", baseOrdinal, extension);
+    }
+
+    static boolean isLogFile(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().endsWith(".log")
+            && path.getFileName().toString().length() == 24;
+    }
+}
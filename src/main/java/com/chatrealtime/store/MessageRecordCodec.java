@@ -0,0 +1,181 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the records written by the embedded store.
+ *
+ * Frame:          [length:int][crc32:int][payload]
+ * Message record: [type][timestamp:long][read:byte][id][from][to][content]
+ * Read record:    [type][messageId]
+ * Delete record:  [type][messageId]
+ * Strings are written as [length:int][UTF-8 bytes], a length of -1 meaning null.
+ */
+final class MessageRecordCodec {
+    static final byte TYPE_MESSAGE = 1;
+    static final byte TYPE_READ = 2;
+    static final byte TYPE_DELETE = 3;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    private MessageRecordCodec() {
+    }
+
+    static byte[] encodeMessage(Message message) {
+        byte[] id = utf8(message.getId());
+        byte[] from = utf8(message.getFrom());
+        byte[] to = utf8(message.getTo());
+        byte[] content = utf8(message.getContent());
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 1 + sizeOf(id) + sizeOf(from) + sizeOf(to) + sizeOf(content));
+        buffer.put(TYPE_MESSAGE);
+        buffer.putLong(toEpochMillis(message.getTimestamp()));
+        buffer.put((byte) (message.isRead() ? 1 : 0));
+        putString(buffer, id);
+        putString(buffer, from);
+        putString(buffer, to);
+        putString(buffer, content);
+        return buffer.array();
+    }
+
+    static byte[] encodeRead(String messageId) {
+        return encodeFlag(TYPE_READ, messageId);
+    }
+
+    static byte[] encodeDelete(String messageId) {
+        return encodeFlag(TYPE_DELETE, messageId);
+    }
+
+    private static byte[] encodeFlag(byte type, String messageId) {
+        byte[] id = utf8(messageId);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + sizeOf(id));
+        buffer.put(type);
+        putString(buffer, id);
+        return buffer.array();
+    }
+
+    static ByteBuffer frame(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(payload, 0, payload.length));
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    static byte typeOf(ByteBuffer record) {
+        return record.get(record.position());
+    }
+
+    /**
+     * Reads the timestamp of a message record without decoding the rest of it.
+     */
+    static long timestampOf(ByteBuffer record) {
+        return record.getLong(record.position() + 1);
+    }
+
+    static Message decodeMessage(ByteBuffer record) {
+        ByteBuffer buffer = record.duplicate();
+        buffer.get();
+        long timestamp = buffer.getLong();
+        boolean read = buffer.get() != 0;
+        Message message = new Message();
+        message.setId(getString(buffer));
+        message.setFrom(getString(buffer));
+        message.setTo(getString(buffer));
+        message.setContent(getString(buffer));
+        message.setTimestamp(fromEpochMillis(timestamp));
+        message.setRead(read);
+        return message;
+    }
+
+    /**
+     * Compares the id of a message record without decoding it.
+     */
+    static boolean hasMessageId(ByteBuffer record, String messageId) {
+        int offset = record.position() + 1 + 8 + 1;
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        if (record.getInt(offset) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (record.get(offset + 4 + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the id of a message record without decoding the rest of it.
+     */
+    static String decodeMessageId(ByteBuffer record) {
+        ByteBuffer buffer = record.duplicate();
+        buffer.position(record.position() + 1 + 8 + 1);
+        return getString(buffer);
+    }
+
+    /**
+     * Reads the message id of a read or delete record.
+     */
+    static String decodeFlagMessageId(ByteBuffer record) {
+        ByteBuffer buffer = record.duplicate();
+        buffer.get();
+        return getString(buffer);
+    }
+
+    static long toEpochMillis(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            return 0L;
+        }
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
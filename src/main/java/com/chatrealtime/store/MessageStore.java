@@ -0,0 +1,102 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Persistence SPI used by {@link com.chatrealtime.service.MessageService}.
+ *
+ * The implementation is selected with the {@code message.store.type} property:
+ * - {@code firebase}: messages are kept under {@code messages/<chatId>} in the Realtime Database (default)
+ * - {@code embedded}: messages are kept in local append-only files, no network round-trip
+ */
+public interface MessageStore {
+
+    /**
+     * Appends a message to a conversation. An id is assigned when the message has none.
+     *
+     * @param chatId The conversation identifier (e.g. {@code private_<a>_<b>})
+     * @param message The message to persist
+     * @return The persisted message, completed once the write is acknowledged
+     */
+    CompletableFuture<Message> append(String chatId, Message message);
+
+    /**
+     * Whether {@link #append} writes through the {@link com.chatrealtime.database.WriteCoalescer}, so that a message
+     * and the database writes issued with it can be grouped with {@code WriteCoalescer.batch}.
+     */
+    default boolean appendsThroughCoalescer() {
+        return false;
+    }
+
+    /**
+     * Whether {@link #find} answers for an id absent from a conversation locally, without a remote read: such a
+     * store can be asked about every message sent, the others only about likely duplicates.
+     */
+    default boolean findsUnknownIdsLocally() {
+        return false;
+    }
+
+    /**
+     * Reads the messages of a conversation whose timestamp is in {@code [fromMillis, toMillis)}.
+     * When more than {@code limit} messages match, only the most recent ones are returned.
+     *
+     * @return The matching messages in chronological order
+     */
+    CompletableFuture<List<Message>> readRange(String chatId, long fromMillis, long toMillis, int limit);
+
+    /**
+     * Reads the page of messages that precede the cursor {@code (beforeMillis, beforeId)}, the cursor being the
+     * oldest message of the previous page. Messages sharing a timestamp are ordered by key in Firebase and by
+     * append order in the embedded store. A {@code null} {@code beforeId} excludes every message at {@code beforeMillis}.
+     *
+     * @return At most {@code limit} messages, in chronological order
+     */
+    CompletableFuture<List<Message>> readBefore(String chatId, long beforeMillis, String beforeId, int limit);
+
+    /**
+     * Looks a message up by id among the messages of a conversation sent at or after {@code notBeforeMillis}.
+     * {@code Long.MIN_VALUE} searches the whole conversation: a keyed read in Firebase, a lookup in the id filter of
+     * each segment in the embedded store, which scans only the segments that may hold the id.
+     *
+     * @return The message, or {@code null} when it does not exist
+     */
+    CompletableFuture<Message> find(String chatId, String messageId, long notBeforeMillis);
+
+    /**
+     * Flags a single message of a conversation as read.
+     */
+    CompletableFuture<Void> markAsRead(String chatId, String messageId);
+
+    /**
+     * Deletes messages of a conversation in a single write. Unknown ids are ignored.
+     */
+    CompletableFuture<Void> delete(String chatId, Collection<String> messageIds);
+
+    /**
+     * Deletes every message of a conversation whose timestamp is before {@code beforeMillis}.
+     *
+     * @return The number of messages deleted
+     */
+    CompletableFuture<Integer> deleteBefore(String chatId, long beforeMillis);
+
+    /**
+     * Registers a listener notified for every message appended for {@code userId} after this call: by any writer of
+     * the database in Firebase, by this process in the embedded store, whose clients must send through the server.
+     *
+     * @return A handle used to stop receiving notifications
+     */
+    Subscription subscribe(String userId, Listener listener);
+
+    interface Listener {
+        void onAppended(String chatId, Message message);
+        void onError(Exception e);
+    }
+
+    interface Subscription {
+        void cancel();
+    }
+}
@@ -0,0 +1,44 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process registry of {@link MessageStore.Listener}s, keyed by recipient.
+ * Used by the embedded store, whose files are only written by this process: it publishes its own appends here.
+ */
+final class MessageSubscriptions {
+    private static final Logger logger = LoggerFactory.getLogger(MessageSubscriptions.class);
+
+    private final Map<String, Set<MessageStore.Listener>> listenersByUser = new ConcurrentHashMap<>();
+
+    MessageStore.Subscription add(String userId, MessageStore.Listener listener) {
+        listenersByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(listener);
+        return () -> listenersByUser.computeIfPresent(userId, (k, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    void publish(String chatId, Message message) {
+        if (message.getTo() == null) {
+            return;
+        }
+        Set<MessageStore.Listener> listeners = listenersByUser.get(message.getTo());
+        if (listeners == null) {
+            return;
+        }
+        for (MessageStore.Listener listener : listeners) {
+            try {
+                listener.onAppended(chatId, message);
+            } catch (Exception e) {
+                logger.warn("Message listener failed for chat {}: {}", chatId, e.getMessage());
+            }
+        }
+    }
+}
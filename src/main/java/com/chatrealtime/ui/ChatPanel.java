@@ -1,17 +1,17 @@
 package com.chatrealtime.ui;
 
 import com.chatrealtime.model.User;
-import com.google.firebase.database.*;
+import com.chatrealtime.database.*;
+import com.chatrealtime.service.InboxService;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.UUID;
 import javax.swing.text.*;
 
@@ -22,13 +22,29 @@ public class ChatPanel extends JPanel {
     private final JTextField messageField;
     private final JButton sendButton;
     private String currentChatWith;
+    // Résolus une seule fois à la sélection du contact, réutilisés à chaque envoi
+    private String currentContactId;
+    private String currentChatId;
+    // Message en attente d'acquittement : une nouvelle tentative réutilise son identifiant
+    private String pendingAttempt;
+    private String pendingMessageId;
     private final DateTimeFormatter timeFormatter;
     private final JLabel titleLabel;
-    private DatabaseReference messagesRef;
-    private ValueEventListener messagesListener;
+    // Indicateur de saisie : éphémère, jamais écrit dans la base
+    private final JLabel typingLabel;
+    private final Timer typingExpiry;
+    private final Timer idleTimer;
+    // Accusé de lecture : affiché quand le contact a lu jusqu'à mon dernier message
+    private final JLabel readLabel;
+    private String lastSentCursor;
+    private String peerReadUpTo;
+    private final RealtimeChannel realtimeChannel;
+    // Messages affichés de la conversation courante, par curseur (horodatage, identifiant)
+    private final NavigableMap<String, Map<String, Object>> shown = new TreeMap<>();
 
-    public ChatPanel(User user) {
+    public ChatPanel(User user, RealtimeChannel realtimeChannel) {
         this.currentUser = user;
+        this.realtimeChannel = realtimeChannel;
         this.timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
         setLayout(new BorderLayout());
         setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
@@ -39,6 +55,15 @@ public class ChatPanel extends JPanel {
         titleLabel = new JLabel("Sélectionnez un contact ");
         titleLabel.setFont(new Font("Arial", Font.BOLD, 16));
         titlePanel.add(titleLabel, BorderLayout.WEST);
+        typingLabel = new JLabel(" ");
+        typingLabel.setFont(new Font("Arial", Font.ITALIC, 12));
+        typingLabel.setForeground(Color.GRAY);
+        titlePanel.add(typingLabel, BorderLayout.EAST);
+        readLabel = new JLabel(" ");
+        readLabel.setFont(new Font("Arial", Font.ITALIC, 12));
+        readLabel.setForeground(Color.GRAY);
+        readLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        titlePanel.add(readLabel, BorderLayout.CENTER);
         add(titlePanel, BorderLayout.NORTH);
 
         // Zone de chat (remplacée par JTextPane)
@@ -57,7 +82,12 @@ public class ChatPanel extends JPanel {
         messageField.setEnabled(false);
         messageField.addKeyListener(new KeyListener() {
             @Override
-            public void keyTyped(KeyEvent e) {}
+            public void keyTyped(KeyEvent e) {
+                if (currentContactId != null && e.getKeyChar() != '\n') {
+                    realtimeChannel.typing(currentContactId);
+                    idleTimer.restart();
+                }
+            }
 
             @Override
             public void keyPressed(KeyEvent e) {
@@ -88,15 +118,33 @@ public class ChatPanel extends JPanel {
         bottomPanel.add(sendButton, BorderLayout.EAST);
         add(bottomPanel, BorderLayout.SOUTH);
 
-        // Initialiser la référence Firebase
-        messagesRef = FirebaseDatabase.getInstance().getReference("messages");
+        realtimeChannel.setMessageListener(event -> SwingUtilities.invokeLater(() -> onMessage(event)));
+        realtimeChannel.setTypingListener(event -> SwingUtilities.invokeLater(() -> onTypingEvent(event)));
+        realtimeChannel.setReceiptListener(event -> SwingUtilities.invokeLater(() -> onReceipt(event)));
+        // Messages ou accusés manqués pendant une coupure trop longue : seul cas où la conversation est relue
+        realtimeChannel.setResyncListener(() -> SwingUtilities.invokeLater(() -> {
+            if (currentChatId != null) {
+                loadPeerRead(currentContactId, currentChatId);
+                loadHistory(currentContactId, currentChatId);
+            }
+        }));
+        // Masqué si l'arrêt de saisie du contact n'arrive jamais
+        typingExpiry = new Timer(6000, e -> hideTypingIndicator());
+        typingExpiry.setRepeats(false);
+        idleTimer = new Timer(3000, e -> realtimeChannel.stopped());
+        idleTimer.setRepeats(false);
     }
 
     public void setCurrentChat(String chatWith) {
-        if (messagesListener != null) {
-            messagesRef.removeEventListener(messagesListener);
-        }
+        realtimeChannel.stopped();
+        hideTypingIndicator();
         this.currentChatWith = chatWith;
+        this.currentContactId = null;
+        this.currentChatId = null;
+        this.lastSentCursor = null;
+        this.peerReadUpTo = null;
+        shown.clear();
+        readLabel.setText(" ");
         textPane.setText("");
         textPane.requestFocus();
         Component[] components = getComponents();
@@ -116,7 +164,7 @@ public class ChatPanel extends JPanel {
         // Extraire le vrai nom du contact (sans le statut)
         String contactName = chatWith.split(" \\(")[0];
         // Trouver l'ID du contact à partir de son nom
-        DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
+        DatabaseReference usersRef = RealtimeDatabase.getInstance().getReference("users");
         usersRef.orderByChild("name").equalTo(contactName)
             .addListenerForSingleValueEvent(new ValueEventListener() {
                 @Override
@@ -124,64 +172,15 @@ public class ChatPanel extends JPanel {
                     for (DataSnapshot userSnapshot : snapshot.getChildren()) {
                         String contactId = userSnapshot.child("id").getValue(String.class);
                         if (contactId != null) {
-                            // Marquer les messages comme lus (unread = false)
-                            DatabaseReference unreadRef = FirebaseDatabase.getInstance().getReference("contacts").child(currentUser.getId()).child(contactId).child("unread");
-                            unreadRef.setValue(false, null);
                             String[] ids = {currentUser.getId(), contactId};
                             java.util.Arrays.sort(ids);
                             String chatId = "private_" + ids[0] + "_" + ids[1];
-                            DatabaseReference chatRef = FirebaseDatabase.getInstance()
-                                .getReference("messages")
-                                .child(chatId);
-                            messagesListener = new ValueEventListener() {
-                                @Override
-                                public void onDataChange(DataSnapshot snapshot) {
-                                    textPane.setText("");
-                                    java.util.List<java.util.Map<String, Object>> messages = new java.util.ArrayList<>();
-                                    for (DataSnapshot messageSnapshot : snapshot.getChildren()) {
-                                        try {
-                                            String content = messageSnapshot.child("content").getValue(String.class);
-                                            String senderId = messageSnapshot.child("senderId").getValue(String.class);
-                                            Long timestamp = messageSnapshot.child("timestamp").getValue(Long.class);
-                                            if (content != null && senderId != null && timestamp != null) {
-                                                java.util.Map<String, Object> message = new java.util.HashMap<>();
-                                                message.put("content", content);
-                                                message.put("senderId", senderId);
-                                                message.put("timestamp", timestamp);
-                                                messages.add(message);
-                                            }
-                                        } catch (Exception e) {
-                                            System.err.println("Erreur de lecture du message: " + e.getMessage());
-                                        }
-                                    }
-                                    messages.sort((m1, m2) -> ((Long) m1.get("timestamp")).compareTo((Long) m2.get("timestamp")));
-                                    for (java.util.Map<String, Object> msg : messages) {
-                                        String time = new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss")
-                                                .format(new java.util.Date((Long) msg.get("timestamp")));
-                                        String content = (String) msg.get("content");
-                                        String senderId = (String) msg.get("senderId");
-                                        String formattedMessage;
-                                        boolean isMine = senderId.equals(currentUser.getId());
-                                        if (isMine) {
-                                            formattedMessage = String.format("[%s] Moi: %s\n", time, content);
-                                        } else {
-                                            formattedMessage = String.format("[%s] %s: %s\n", time, contactName, content);
-                                        }
-                                        appendStyledMessage(formattedMessage, isMine);
-                                    }
-                                    textPane.revalidate();
-                                    textPane.repaint();
-                                    JScrollBar vertical = textScrollPane.getVerticalScrollBar();
-                                    vertical.setValue(vertical.getMaximum());
-                                }
-                                @Override
-                                public void onCancelled(DatabaseError error) {
-                                    System.err.println("Error loading messages: " + error.getMessage());
-                                    addSystemMessage("Erreur lors du chargement des messages: " + error.getMessage());
-                                }
-                            };
-                            chatRef.addValueEventListener(messagesListener);
-                            messagesRef = chatRef;
+                            currentContactId = contactId;
+                            currentChatId = chatId;
+                            // Position lue par le contact à l'ouverture, les accusés suivants arrivent par STOMP
+                            loadPeerRead(contactId, chatId);
+                            // Dernière page lue par le serveur, les messages suivants arrivent par STOMP
+                            loadHistory(contactId, chatId);
                         }
                     }
                 }
@@ -196,44 +195,175 @@ public class ChatPanel extends JPanel {
         if (currentChatWith == null || messageField.getText().trim().isEmpty()) {
             return;
         }
+        if (currentContactId == null) {
+            addSystemMessage("Contact en cours de chargement, veuillez réessayer");
+            return;
+        }
         String messageContent = messageField.getText().trim();
-        String messageId = UUID.randomUUID().toString();
-        Map<String, Object> messageData = new HashMap<>();
-        messageData.put("content", messageContent);
-        messageData.put("senderId", currentUser.getId());
-        messageData.put("senderName", currentUser.getName());
-        messageData.put("timestamp", System.currentTimeMillis());
-        messagesRef.child(messageId).setValue(messageData, (error, ref) -> {
-            if (error == null) {
-                messageField.setText("");
-                messageField.requestFocus();
-                // Mettre à jour le champ unread pour le destinataire
-                // Trouver l'ID du contact à partir du nom
-                String contactName = currentChatWith.split(" \\(")[0];
-                DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
-                usersRef.orderByChild("name").equalTo(contactName)
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(DataSnapshot snapshot) {
-                            for (DataSnapshot userSnapshot : snapshot.getChildren()) {
-                                String contactId = userSnapshot.child("id").getValue(String.class);
-                                if (contactId != null) {
-                                    DatabaseReference unreadRef = FirebaseDatabase.getInstance().getReference("contacts").child(contactId).child(currentUser.getId()).child("unread");
-                                    unreadRef.setValue(true, null);
-                                }
-                            }
+        // Même conversation et même texte : le renvoi garde son identifiant client et le serveur ne l'écrit qu'une fois
+        String attempt = currentChatId + '\0' + messageContent;
+        if (!attempt.equals(pendingAttempt)) {
+            pendingAttempt = attempt;
+            pendingMessageId = UUID.randomUUID().toString();
+        }
+        idleTimer.stop();
+        realtimeChannel.stopped();
+        // Écrit par le serveur (cache, index, expiration, dédoublonnage) : le champ est vidé quand le message revient
+        if (!realtimeChannel.sendMessage(currentContactId, messageContent, pendingMessageId)) {
+            addSystemMessage("Erreur d'envoi du message: connexion au serveur en cours de rétablissement");
+        }
+    }
+
+    private void loadHistory(String contactId, String chatId) {
+        MessageHistory.latestPage(currentUser, contactId).whenComplete((messages, error) ->
+            SwingUtilities.invokeLater(() -> {
+                if (!chatId.equals(currentChatId)) {
+                    return;
+                }
+                if (error != null) {
+                    addSystemMessage("Erreur lors du chargement des messages: " + error.getMessage());
+                    return;
+                }
+                // Fusionnée avec les messages arrivés par STOMP pendant la lecture
+                for (Map<String, Object> message : messages) {
+                    shown.put(cursorOf(message), message);
+                }
+                renderMessages();
+            }));
+    }
+
+    private void onMessage(Map<String, Object> message) {
+        String from = (String) message.get("from");
+        boolean isMine = currentUser.getId().equals(from);
+        if (currentContactId == null || !currentContactId.equals(isMine ? message.get("to") : from)) {
+            return;
+        }
+        if (isMine && pendingMessageId != null && pendingMessageId.equals(message.get("clientMessageId"))) {
+            pendingAttempt = null;
+            pendingMessageId = null;
+            messageField.setText("");
+            messageField.requestFocus();
+        }
+        String cursor = cursorOf(message);
+        if (shown.put(cursor, message) != null) {
+            return;
+        }
+        if (!cursor.equals(shown.lastKey())) {
+            renderMessages();
+            return;
+        }
+        appendMessage(message);
+        messageShown();
+    }
+
+    private void renderMessages() {
+        textPane.setText("");
+        lastSentCursor = null;
+        for (Map<String, Object> message : shown.values()) {
+            appendMessage(message);
+        }
+        messageShown();
+    }
+
+    private void appendMessage(Map<String, Object> message) {
+        String time = new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss")
+                .format(new java.util.Date(MessageHistory.timestampOf(message)));
+        String content = (String) message.get("content");
+        boolean isMine = currentUser.getId().equals(message.get("from"));
+        String formattedMessage;
+        if (isMine) {
+            formattedMessage = String.format("[%s] Moi: %s\n", time, content);
+            lastSentCursor = cursorOf(message);
+        } else {
+            formattedMessage = String.format("[%s] %s: %s\n", time, currentChatWith.split(" \\(")[0], content);
+        }
+        appendStyledMessage(formattedMessage, isMine);
+    }
+
+    private void messageShown() {
+        // Conversation affichée jusqu'au dernier message : un seul marqueur de lecture
+        if (!shown.isEmpty()) {
+            Map<String, Object> last = shown.lastEntry().getValue();
+            realtimeChannel.markRead(currentContactId, MessageHistory.timestampOf(last), (String) last.get("id"));
+        }
+        updateReadLabel();
+        textPane.revalidate();
+        textPane.repaint();
+        JScrollBar vertical = textScrollPane.getVerticalScrollBar();
+        vertical.setValue(vertical.getMaximum());
+    }
+
+    private static String cursorOf(Map<String, Object> message) {
+        return InboxService.cursor(MessageHistory.timestampOf(message), (String) message.get("id"));
+    }
+
+    public void showTypingIndicator(String username) {
+        typingLabel.setText(username + " est en train d'écrire...");
+        typingExpiry.restart();
+    }
+
+    public void hideTypingIndicator() {
+        typingExpiry.stop();
+        typingLabel.setText(" ");
+    }
+
+    /**
+     * Stops the typing indicator timers; called when the main window closes.
+     */
+    public void close() {
+        idleTimer.stop();
+        typingExpiry.stop();
+        realtimeChannel.stopped();
+    }
+
+    private void onTypingEvent(Map<String, Object> event) {
+        if (currentChatWith == null || currentContactId == null || !currentContactId.equals(event.get("from"))) {
+            return;
+        }
+        if (Boolean.TRUE.equals(event.get("typing"))) {
+            showTypingIndicator(currentChatWith.split(" \\(")[0]);
+        } else {
+            hideTypingIndicator();
+        }
+    }
+
+    private void loadPeerRead(String contactId, String chatId) {
+        RealtimeDatabase.getInstance().getReference(InboxService.ROOT).child(contactId)
+            .child(chatId).child("readUpTo")
+            .addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot snapshot) {
+                    String readUpTo = snapshot.getValue(String.class);
+                    SwingUtilities.invokeLater(() -> {
+                        if (chatId.equals(currentChatId)) {
+                            updatePeerRead(readUpTo);
                         }
-                        @Override
-                        public void onCancelled(DatabaseError error) {}
                     });
-            } else {
-                addSystemMessage("Erreur d'envoi du message: " + error.getMessage());
-            }
-        });
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                }
+            });
     }
 
-    public void showTypingIndicator(String username) {
-        addSystemMessage(username + " est en train d'écrire...");
+    private void onReceipt(Map<String, Object> event) {
+        if (currentChatId != null && currentChatId.equals(event.get("chatId"))
+                && currentContactId != null && currentContactId.equals(event.get("readerId"))) {
+            updatePeerRead((String) event.get("readUpTo"));
+        }
+    }
+
+    private void updatePeerRead(String readUpTo) {
+        if (readUpTo != null && (peerReadUpTo == null || readUpTo.compareTo(peerReadUpTo) > 0)) {
+            peerReadUpTo = readUpTo;
+        }
+        updateReadLabel();
+    }
+
+    private void updateReadLabel() {
+        boolean read = lastSentCursor != null && peerReadUpTo != null && lastSentCursor.compareTo(peerReadUpTo) <= 0;
+        readLabel.setText(read ? "Vu" : " ");
     }
 
     public void addSystemMessage(String message) {
@@ -1,6 +1,8 @@
 package com.chatrealtime.ui;
 
+import com.chatrealtime.model.ConversationSummary;
 import com.chatrealtime.model.User;
+import com.chatrealtime.service.InboxService;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
@@ -9,13 +11,17 @@ import java.util.List;
 import java.util.function.Consumer;
 import java.util.HashMap;
 import java.util.Map;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.ValueEventListener;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ContactsPanel extends JPanel {
@@ -26,6 +32,12 @@ public class ContactsPanel extends JPanel {
     private ChatSelectionListener chatSelectionListener;
     private final Map<String, Boolean> unreadMap = new ConcurrentHashMap<>();
     private final Map<String, String> displayNameToId = new ConcurrentHashMap<>();
+    private final Map<String, String> contactDisplayNames = new ConcurrentHashMap<>();
+    private final Map<String, String> contactNames = new ConcurrentHashMap<>();
+    // Statuts reçus du serveur (PresenceService), absents = hors ligne
+    private final Map<String, String> presence = new ConcurrentHashMap<>();
+    private final Map<String, ValueEventListener> contactListeners = new ConcurrentHashMap<>();
+    private ValueEventListener contactsListener;
 
     public ContactsPanel(User user) {
         this.currentUser = user;
@@ -102,57 +114,40 @@ public class ContactsPanel extends JPanel {
     }
 
     public void refreshContacts() {
-        DatabaseReference contactsRef = FirebaseDatabase.getInstance().getReference("contacts").child(currentUser.getId());
-        contactsRef.addValueEventListener(new ValueEventListener() {
+        // Les écouteurs ne sont posés qu'une fois : la liste se met ensuite à jour d'elle-même
+        if (contactsListener == null) {
+            listenToContacts();
+            listenToInbox();
+        }
+        renderContacts();
+    }
+
+    private void listenToContacts() {
+        DatabaseReference contactsRef = RealtimeDatabase.getInstance().getReference("contacts").child(currentUser.getId());
+        DatabaseReference usersRef = RealtimeDatabase.getInstance().getReference("users");
+        contactsListener = contactsRef.addValueEventListener(new ValueEventListener() {
             @Override
             public void onDataChange(DataSnapshot snapshot) {
-                java.util.List<String> tempList = new java.util.ArrayList<>();
-                unreadMap.clear();
-                displayNameToId.clear();
-                int totalContacts = (int) snapshot.getChildrenCount();
-                if (totalContacts == 0) {
-                    contactsListModel.clear();
-                    return;
-                }
-                final int[] processed = {0};
+                Set<String> contactIds = new HashSet<>();
                 for (DataSnapshot contactSnapshot : snapshot.getChildren()) {
-                    String contactId = contactSnapshot.getKey();
-                    Boolean unread = contactSnapshot.child("unread").getValue(Boolean.class);
-                    unreadMap.put(contactId, unread != null && unread);
-                    DatabaseReference userRef = FirebaseDatabase.getInstance().getReference("users").child(contactId);
-                    userRef.addValueEventListener(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(DataSnapshot userSnapshot) {
-                            String name = userSnapshot.child("name").getValue(String.class);
-                            String status = userSnapshot.child("status").getValue(String.class);
-                            if (name != null) {
-                                String statusLabel;
-                                if ("Online".equalsIgnoreCase(status)) statusLabel = " (Online)";
-                                else statusLabel = " (Offline)";
-                                String displayName = name + statusLabel;
-                                displayNameToId.put(displayName, contactId);
-                                if (!tempList.contains(displayName)) tempList.add(displayName);
-                            }
-                            processed[0]++;
-                            if (processed[0] == totalContacts) {
-                                contactsListModel.clear();
-                                for (String contact : tempList) {
-                                    contactsListModel.addElement(contact);
-                                }
-                            }
-                        }
-                        @Override
-                        public void onCancelled(DatabaseError error) {
-                            processed[0]++;
-                            if (processed[0] == totalContacts) {
-                                contactsListModel.clear();
-                                for (String contact : tempList) {
-                                    contactsListModel.addElement(contact);
-                                }
-                            }
-                        }
-                    });
+                    contactIds.add(contactSnapshot.getKey());
                 }
+                // Un écouteur par contact, posé à son ajout et retiré à sa suppression
+                Iterator<Map.Entry<String, ValueEventListener>> listeners = contactListeners.entrySet().iterator();
+                while (listeners.hasNext()) {
+                    Map.Entry<String, ValueEventListener> listener = listeners.next();
+                    if (!contactIds.contains(listener.getKey())) {
+                        usersRef.child(listener.getKey()).removeEventListener(listener.getValue());
+                        contactNames.remove(listener.getKey());
+                        contactDisplayNames.remove(listener.getKey());
+                        listeners.remove();
+                    }
+                }
+                for (String contactId : contactIds) {
+                    contactListeners.computeIfAbsent(contactId,
+                        id -> usersRef.child(id).addValueEventListener(contactListener(id)));
+                }
+                renderContacts();
             }
             @Override
             public void onCancelled(DatabaseError error) {
@@ -161,6 +156,108 @@ public class ContactsPanel extends JPanel {
         });
     }
 
+    private ValueEventListener contactListener(String contactId) {
+        return new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot userSnapshot) {
+                String name = userSnapshot.child("name").getValue(String.class);
+                if (name != null) {
+                    contactNames.put(contactId, name);
+                } else {
+                    contactNames.remove(contactId);
+                }
+                updateDisplayName(contactId);
+                renderContacts();
+            }
+            @Override
+            public void onCancelled(DatabaseError error) {
+                System.err.println("Erreur de lecture du contact " + contactId + ": " + error.getMessage());
+            }
+        };
+    }
+
+    // Les pastilles non lues viennent des résumés de conversation : un seul écouteur pour tous les contacts
+    private void listenToInbox() {
+        DatabaseReference inboxRef = RealtimeDatabase.getInstance().getReference(InboxService.ROOT).child(currentUser.getId());
+        inboxRef.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                Set<String> unreadPeers = new HashSet<>();
+                for (DataSnapshot conversation : snapshot.getChildren()) {
+                    ConversationSummary summary = InboxService.toSummary(conversation);
+                    if (summary.getPeerId() != null && summary.getUnreadCount() > 0) {
+                        unreadPeers.add(summary.getPeerId());
+                    }
+                }
+                unreadMap.keySet().retainAll(unreadPeers);
+                for (String peerId : unreadPeers) {
+                    unreadMap.put(peerId, true);
+                }
+                SwingUtilities.invokeLater(contactsList::repaint);
+            }
+            @Override
+            public void onCancelled(DatabaseError error) {
+                System.err.println("Erreur de lecture des conversations: " + error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Applies a presence event of the server: a snapshot of all contacts or the statuses that changed.
+     */
+    @SuppressWarnings("unchecked")
+    public void applyPresence(Map<String, Object> event) {
+        Object statuses = event.get("statuses");
+        if (!(statuses instanceof Map)) {
+            return;
+        }
+        Set<String> changed = new HashSet<>();
+        if (Boolean.TRUE.equals(event.get("snapshot"))) {
+            changed.addAll(presence.keySet());
+            presence.clear();
+        }
+        for (Map.Entry<String, Object> status : ((Map<String, Object>) statuses).entrySet()) {
+            presence.put(status.getKey(), String.valueOf(status.getValue()));
+            changed.add(status.getKey());
+        }
+        for (String contactId : changed) {
+            updateDisplayName(contactId);
+        }
+        renderContacts();
+    }
+
+    private String statusLabel(String contactId) {
+        return "online".equalsIgnoreCase(presence.get(contactId)) ? "Online" : "Offline";
+    }
+
+    private void updateDisplayName(String contactId) {
+        String name = contactNames.get(contactId);
+        if (name != null) {
+            contactDisplayNames.put(contactId, name + " (" + statusLabel(contactId) + ")");
+        } else {
+            contactDisplayNames.remove(contactId);
+        }
+    }
+
+    private void renderContacts() {
+        SwingUtilities.invokeLater(() -> {
+            List<String> displayNames = new ArrayList<>(contactDisplayNames.values());
+            displayNames.sort(String.CASE_INSENSITIVE_ORDER);
+            // Ne pas vider la liste (et perdre la sélection) quand rien n'a changé
+            if (displayNames.equals(Collections.list(contactsListModel.elements()))) {
+                return;
+            }
+            displayNameToId.clear();
+            for (Map.Entry<String, String> contact : contactDisplayNames.entrySet()) {
+                displayNameToId.put(contact.getValue(), contact.getKey());
+            }
+            contactsListModel.clear();
+            for (String displayName : displayNames) {
+                contactsListModel.addElement(displayName);
+            }
+        });
+    }
+
     public void showAddContactDialog() {
         JTextField nameField = new JTextField();
         JTextField emailField = new JTextField();
@@ -178,42 +275,32 @@ public class ContactsPanel extends JPanel {
             String email = emailField.getText().trim();
             
             if (!name.isEmpty() && !email.isEmpty()) {
-                DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
-                usersRef.orderByChild("email").equalTo(email)
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(DataSnapshot snapshot) {
-                            if (snapshot.exists()) {
-                                for (DataSnapshot userSnapshot : snapshot.getChildren()) {
-                                    String contactId = userSnapshot.child("id").getValue(String.class);
-                                    // Ajouter le contact dans contacts/{currentUser.id}/{contactId} avec la bonne structure
-                                    DatabaseReference contactsRef = FirebaseDatabase.getInstance().getReference("contacts").child(currentUser.getId()).child(contactId);
-                                    Map<String, Object> contactData = new HashMap<>();
-                                    contactData.put("unread", false);
-                                    contactsRef.setValue(contactData, null);
-                                    // Mettre à jour le nom si besoin
-                                    userSnapshot.getRef().child("name").setValue(name, null);
-                                }
-                                JOptionPane.showMessageDialog(null, 
-                                    "Contact ajouté avec succès!",
-                                    "Succès",
-                                    JOptionPane.INFORMATION_MESSAGE);
-                                refreshContacts();
-                            } else {
-                                JOptionPane.showMessageDialog(null, 
-                                    "Cet email n'existe pas .",
-                                    "Erreur",
-                                    JOptionPane.ERROR_MESSAGE);
-                            }
-                        }
-                        @Override
-                        public void onCancelled(DatabaseError error) {
-                            JOptionPane.showMessageDialog(null, 
-                                "Erreur lors de la vérification de l'email: " + error.getMessage(),
-                                "Erreur",
-                                JOptionPane.ERROR_MESSAGE);
-                        }
-                    });
+                UserLookup.findUserId(currentUser, email).whenComplete((contactId, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(null, 
+                            "Erreur lors de la vérification de l'email: " + error.getMessage(),
+                            "Erreur",
+                            JOptionPane.ERROR_MESSAGE);
+                    } else if (contactId == null) {
+                        JOptionPane.showMessageDialog(null, 
+                            "Cet email n'existe pas .",
+                            "Erreur",
+                            JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        // Ajouter le contact dans contacts/{currentUser.id}/{contactId} avec la bonne structure
+                        DatabaseReference contactsRef = RealtimeDatabase.getInstance().getReference("contacts").child(currentUser.getId()).child(contactId);
+                        Map<String, Object> contactData = new HashMap<>();
+                        contactData.put("unread", false);
+                        contactsRef.setValue(contactData, null);
+                        // Mettre à jour le nom si besoin
+                        RealtimeDatabase.getInstance().getReference("users").child(contactId).child("name").setValue(name, null);
+                        JOptionPane.showMessageDialog(null, 
+                            "Contact ajouté avec succès!",
+                            "Succès",
+                            JOptionPane.INFORMATION_MESSAGE);
+                        refreshContacts();
+                    }
+                }));
             }
         }
     }
@@ -255,17 +342,14 @@ public class ContactsPanel extends JPanel {
     }
 
     private void showContactProperties(String contactName) {
-        DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
+        DatabaseReference usersRef = RealtimeDatabase.getInstance().getReference("users");
         usersRef.orderByChild("name").equalTo(contactName)
             .addListenerForSingleValueEvent(new ValueEventListener() {
                 @Override
                 public void onDataChange(DataSnapshot snapshot) {
                     for (DataSnapshot userSnapshot : snapshot.getChildren()) {
                         String email = userSnapshot.child("email").getValue(String.class);
-                        String status = userSnapshot.child("status").getValue(String.class);
-                        String statusLabel;
-                        if ("Online".equalsIgnoreCase(status)) statusLabel = "Online";
-                        else statusLabel = "Offline";
+                        String statusLabel = statusLabel(userSnapshot.getKey());
                         
                         StringBuilder info = new StringBuilder();
                         info.append("Nom: ").append(contactName).append("\n");
@@ -297,7 +381,7 @@ public class ContactsPanel extends JPanel {
                 JOptionPane.YES_NO_OPTION);
                 
             if (confirm == JOptionPane.YES_OPTION) {
-                DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
+                DatabaseReference usersRef = RealtimeDatabase.getInstance().getReference("users");
                 usersRef.orderByChild("name").equalTo(contactName)
                     .addListenerForSingleValueEvent(new ValueEventListener() {
                         @Override
@@ -324,7 +408,7 @@ public class ContactsPanel extends JPanel {
         String contactName = selectedContact.split(" \\(")[0];
         String newName = JOptionPane.showInputDialog(this, "Nouveau nom pour le contact :", contactName);
         if (newName != null && !newName.trim().isEmpty()) {
-            DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
+            DatabaseReference usersRef = RealtimeDatabase.getInstance().getReference("users");
             usersRef.orderByChild("name").equalTo(contactName)
                 .addListenerForSingleValueEvent(new ValueEventListener() {
                     @Override
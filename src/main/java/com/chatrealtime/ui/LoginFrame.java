@@ -100,17 +100,12 @@ public class LoginFrame extends JFrame {
                 user.setId((String) userData.get("id"));
                 user.setEmail(email);
                 user.setName((String) userData.get("name"));
+                // Le statut en ligne est publié par le serveur à l'ouverture de la session STOMP
                 user.setStatus("online");
                 
-                // Mettre à jour le statut dans Firebase
-                com.google.firebase.database.DatabaseReference userRef = com.google.firebase.database.FirebaseDatabase.getInstance()
-                    .getReference("users").child(user.getId());
-                java.util.Map<String, Object> updates = new java.util.HashMap<>();
-                updates.put("status", "Online");
-                userRef.updateChildrenAsync(updates);
-                
                 // Stocker le token JWT pour les futures requêtes
                 String token = (String) userData.get("token");
+                user.setToken(token);
                 
                 // Ouvrir la fenêtre principale
                 MainFrame mainFrame = new MainFrame(user);
@@ -121,6 +116,8 @@ public class LoginFrame extends JFrame {
             String errorMessage = "Erreur d'authentification. Vérifiez vos identifiants.";
             if (e.getMessage() != null && e.getMessage().contains("401")) {
                 errorMessage = "Email ou mot de passe incorrect";
+            } else if (e.getMessage() != null && e.getMessage().contains("503")) {
+                errorMessage = "Serveur surchargé, réessayez dans un instant";
             }
             JOptionPane.showMessageDialog(this,
                     errorMessage,
@@ -6,27 +6,27 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.Map;
 import java.util.HashMap;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.RealtimeDatabase;
 import com.chatrealtime.model.Message;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.util.Date;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
 
 public class MainFrame extends JFrame {
     private final JPanel contactsPanel;
     private final JPanel chatPanel;
     private final JPanel statusPanel;
     private final User currentUser;
+    // Présence et indicateurs de saisie : connexion STOMP partagée par les panneaux
+    private final RealtimeChannel realtimeChannel;
     private final String API_URL = "http://localhost:8081/api/";
     private final RestTemplate restTemplate;
 
     public MainFrame(User user) {
         this.currentUser = user;
         this.restTemplate = new RestTemplate();
+        this.realtimeChannel = new RealtimeChannel(currentUser);
         
         setTitle("ChatRealTime - " + user.getName());
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -41,7 +41,7 @@ public class MainFrame extends JFrame {
         add(new JScrollPane(contactsPanel), BorderLayout.WEST);
 
         // Panel de chat (centre)
-        chatPanel = new ChatPanel(currentUser);
+        chatPanel = new ChatPanel(currentUser, realtimeChannel);
         add(chatPanel, BorderLayout.CENTER);
 
         // Panel de statut (bas)
@@ -73,7 +73,9 @@ public class MainFrame extends JFrame {
         addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent e) {
-                updateUserStatus("Offline");
+                // La fermeture de la session STOMP suffit : le serveur annonce le passage hors ligne
+                ((ChatPanel) chatPanel).close();
+                realtimeChannel.disconnect();
             }
         });
     }
@@ -154,7 +156,7 @@ public class MainFrame extends JFrame {
             }
 
             try {
-                DatabaseReference userRef = FirebaseDatabase.getInstance()
+                DatabaseReference userRef = RealtimeDatabase.getInstance()
                     .getReference("users")
                     .child(currentUser.getId());
 
@@ -192,26 +194,11 @@ public class MainFrame extends JFrame {
     }
 
     private void handleLogout() {
-        try {
-            updateUserStatus("offline");
-            
-            // Déconnexion de Firebase
-            DatabaseReference userRef = FirebaseDatabase.getInstance()
-                .getReference("users")
-                .child(currentUser.getId());
-            
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("online", false);
-            userRef.updateChildrenAsync(updates)
-                .addListener(() -> {
-                    dispose();
-                    new LoginFrame().setVisible(true);
-                }, Runnable::run);
-        } catch (Exception e) {
-            System.err.println("Erreur lors de la déconnexion: " + e.getMessage());
-            dispose();
-            new LoginFrame().setVisible(true);
-        }
+        ((ChatPanel) chatPanel).close();
+        // Fin de la session STOMP : le serveur annonce le passage hors ligne aux contacts
+        realtimeChannel.disconnect();
+        dispose();
+        new LoginFrame().setVisible(true);
     }
 
     private void showAboutDialog() {
@@ -249,86 +236,48 @@ public class MainFrame extends JFrame {
             String name = nameField.getText().trim();
             String email = emailField.getText().trim();
             if (!name.isEmpty() && !email.isEmpty()) {
-                DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
-                usersRef.orderByChild("email").equalTo(email)
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(DataSnapshot snapshot) {
-                            if (snapshot.exists()) {
-                                for (DataSnapshot userSnapshot : snapshot.getChildren()) {
-                                    String contactId = userSnapshot.child("id").getValue(String.class);
-                                    // Ajouter le contact dans contacts/{currentUser.id}/{contactId} avec la bonne structure
-                                    DatabaseReference contactsRef = FirebaseDatabase.getInstance().getReference("contacts").child(currentUser.getId()).child(contactId);
-                                    Map<String, Object> contactData = new HashMap<>();
-                                    contactData.put("unread", false);
-                                    contactsRef.setValue(contactData, null);
-                                    // Mettre à jour le nom si besoin
-                                    userSnapshot.getRef().child("name").setValue(name, null);
-                                }
-                                JOptionPane.showMessageDialog(null, 
-                                    "Contact ajouté avec succès!",
-                                    "Succès",
-                                    JOptionPane.INFORMATION_MESSAGE);
-                                // Rafraîchir la liste des contacts
-                                ((ContactsPanel) contactsPanel).refreshContacts();
-                            } else {
-                                JOptionPane.showMessageDialog(null, 
-                                    "Cet email n'existe pas .",
-                                    "Erreur",
-                                    JOptionPane.ERROR_MESSAGE);
-                            }
-                        }
-                        @Override
-                        public void onCancelled(DatabaseError error) {
-                            JOptionPane.showMessageDialog(null, 
-                                "Erreur lors de la vérification de l'email: " + error.getMessage(),
-                                "Erreur",
-                                JOptionPane.ERROR_MESSAGE);
-                        }
-                    });
+                UserLookup.findUserId(currentUser, email).whenComplete((contactId, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(null, 
+                            "Erreur lors de la vérification de l'email: " + error.getMessage(),
+                            "Erreur",
+                            JOptionPane.ERROR_MESSAGE);
+                    } else if (contactId == null) {
+                        JOptionPane.showMessageDialog(null, 
+                            "Cet email n'existe pas .",
+                            "Erreur",
+                            JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        // Ajouter le contact dans contacts/{currentUser.id}/{contactId} avec la bonne structure
+                        DatabaseReference contactsRef = RealtimeDatabase.getInstance().getReference("contacts").child(currentUser.getId()).child(contactId);
+                        Map<String, Object> contactData = new HashMap<>();
+                        contactData.put("unread", false);
+                        contactsRef.setValue(contactData, null);
+                        // Mettre à jour le nom si besoin
+                        RealtimeDatabase.getInstance().getReference("users").child(contactId).child("name").setValue(name, null);
+                        JOptionPane.showMessageDialog(null, 
+                            "Contact ajouté avec succès!",
+                            "Succès",
+                            JOptionPane.INFORMATION_MESSAGE);
+                        // Rafraîchir la liste des contacts
+                        ((ContactsPanel) contactsPanel).refreshContacts();
+                    }
+                }));
             }
         }
     }
 
     private void updateUserStatus(String status) {
-        try {
-            // Mettre à jour le statut dans Firebase directement
-            DatabaseReference userRef = FirebaseDatabase.getInstance()
-                .getReference("users")
-                .child(currentUser.getId());
-            Map<String, Object> updates = new HashMap<>();
-            String statusKey = status;
-            updates.put("status", statusKey);
-            userRef.updateChildrenAsync(updates)
-                .addListener(() -> {
-                    ((StatusPanel) statusPanel).setStatusUIOnly(status);
-                }, Runnable::run);
-        } catch (Exception e) {
-            System.err.println("Erreur lors de la mise à jour du statut: " + e.getMessage());
-        }
+        // Le statut n'est plus écrit dans la base : le serveur le publie aux contacts
+        realtimeChannel.setStatus(status);
+        ((StatusPanel) statusPanel).setStatusUIOnly(status);
     }
 
     private void initializeWebSocket() {
-        try {
-            // Mettre à jour le statut initial
-            updateUserStatus("online");
-            
-            // Écouter les changements de statut des autres utilisateurs
-            DatabaseReference usersRef = FirebaseDatabase.getInstance().getReference("users");
-            usersRef.addValueEventListener(new ValueEventListener() {
-                @Override
-                public void onDataChange(DataSnapshot snapshot) {
-                    updateContacts();
-                }
-
-                @Override
-                public void onCancelled(DatabaseError error) {
-                    System.err.println("Erreur de synchronisation: " + error.getMessage());
-                }
-            });
-        } catch (Exception e) {
-            System.err.println("Erreur d'initialisation WebSocket: " + e.getMessage());
-        }
+        // En ligne dès l'ouverture de la session STOMP ; seuls les statuts modifiés des contacts sont ensuite reçus
+        realtimeChannel.setPresenceListener(event -> SwingUtilities.invokeLater(
+            () -> ((ContactsPanel) contactsPanel).applyPresence(event)));
+        realtimeChannel.connect();
     }
 
     public void updateStatus(String status) {
@@ -390,11 +339,11 @@ public class MainFrame extends JFrame {
                 JOptionPane.WARNING_MESSAGE);
         if (confirm == JOptionPane.YES_OPTION) {
             try {
-                DatabaseReference userRef = FirebaseDatabase.getInstance().getReference("users").child(currentUser.getId());
-                userRef.removeValueAsync().addListener(() -> {
+                DatabaseReference userRef = RealtimeDatabase.getInstance().getReference("users").child(currentUser.getId());
+                userRef.removeValueAsync().whenComplete((result, error) -> {
                     dispose();
                     new LoginFrame().setVisible(true);
-                }, Runnable::run);
+                });
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(this, "Erreur lors de la suppression: " + e.getMessage(), "Erreur", JOptionPane.ERROR_MESSAGE);
             }
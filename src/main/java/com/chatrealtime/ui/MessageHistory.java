@@ -0,0 +1,58 @@
+package com.chatrealtime.ui;
+
+import com.chatrealtime.model.User;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads a conversation through the server's paginated history ({@code GET /api/messages/{peerId}}), served from
+ * its history cache and archive, rather than by listening to the {@code messages} node.
+ */
+final class MessageHistory {
+    private static final String API_URL = "http://localhost:8081/api/";
+    private static final int PAGE_SIZE = 50;
+    private static final RestTemplate restTemplate = new RestTemplate();
+
+    private MessageHistory() {
+    }
+
+    /**
+     * Latest page of the conversation with {@code peerId}, oldest message first; completes off the EDT.
+     */
+    @SuppressWarnings("unchecked")
+    static CompletableFuture<List<Map<String, Object>>> latestPage(User currentUser, String peerId) {
+        return CompletableFuture.supplyAsync(() -> {
+            HttpHeaders headers = new HttpHeaders();
+            if (currentUser.getToken() != null) {
+                headers.setBearerAuth(currentUser.getToken());
+            }
+            ResponseEntity<Map> response = restTemplate.exchange(API_URL + "messages/{peerId}?size={size}",
+                HttpMethod.GET, new HttpEntity<>(headers), Map.class, peerId, PAGE_SIZE);
+            Object messages = response.getBody() != null ? response.getBody().get("messages") : null;
+            return messages != null ? (List<Map<String, Object>>) messages : Collections.emptyList();
+        });
+    }
+
+    /**
+     * Timestamp of a message received from the server, in epoch milliseconds.
+     */
+    static long timestampOf(Map<String, Object> message) {
+        Object timestamp = message.get("timestamp");
+        if (timestamp instanceof Number) {
+            return ((Number) timestamp).longValue();
+        }
+        // LocalDateTime du serveur, écrit en ISO-8601 et interprété dans son fuseau, le même que le nôtre
+        return timestamp != null
+            ? LocalDateTime.parse(timestamp.toString()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+            : 0L;
+    }
+}
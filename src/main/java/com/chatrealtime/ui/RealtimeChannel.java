@@ -0,0 +1,367 @@
+package com.chatrealtime.ui;
+
+import com.chatrealtime.broker.BinaryPayloadConverter;
+import com.chatrealtime.broker.BinaryPayloads;
+import com.chatrealtime.broker.DecompressingWebSocketClient;
+import com.chatrealtime.broker.FrameCompression;
+import com.chatrealtime.broker.ShardedBrokerMessageHandler;
+import com.chatrealtime.model.User;
+import com.chatrealtime.service.InboxService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The client's STOMP connection to the server, through which it sends its messages and receives them, along with
+ * typing indicators, presence and read markers: the client never writes any of them to the database itself.
+ *
+ * The connection sends heartbeats, which keep the user online (see {@code PresenceService}), and is reopened
+ * after a failure. {@link #typing} sends a start signal at most once every {@value #RESEND_MILLIS} ms per contact,
+ * however fast the user types, and {@link #markRead} only reports a position further than the last one sent.
+ * Messages sent and received by the current user ({@code {"id", "from", "to", "content", "timestamp",
+ * "clientMessageId"}}), typing events ({@code {"from", "typing"}}), presence deltas ({@code {"statuses",
+ * "snapshot"}}) and read receipts ({@code {"chatId", "readerId", "readUpTo"}}) are passed to the listeners on the
+ * STOMP thread.
+ * Payloads are exchanged in the compact {@link BinaryPayloads} format; a server that ignores the request keeps
+ * sending JSON, which is still understood. Frames from the server may also be deflated ({@link FrameCompression}).
+ * After a reconnection the message and receipt subscriptions resume from the highest sequence number received, so
+ * only the frames missed meanwhile are sent again; when the server cannot replay them, or when nothing was received
+ * before the connection dropped, the resync listener is called and the client reloads what it shows.
+ */
+final class RealtimeChannel {
+    private static final String WS_URL = "ws://localhost:8081/api/ws/websocket";
+    // Inférieur à typing.expiry-ms côté serveur, pour que l'indicateur ne s'éteigne pas en cours de frappe
+    private static final long RESEND_MILLIS = 2000;
+    // Le serveur impose son propre intervalle s'il est plus long (websocket.heartbeat.interval)
+    private static final long HEARTBEAT_MILLIS = 10000;
+    private static final long RECONNECT_MILLIS = 5000;
+    // Limite par défaut de WebSocketStompClient pour une trame reçue
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private final User currentUser;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final WebSocketStompClient stompClient;
+    private volatile Consumer<Map<String, Object>> messageListener = event -> { };
+    private volatile Consumer<Map<String, Object>> typingListener = event -> { };
+    private volatile Consumer<Map<String, Object>> presenceListener = event -> { };
+    private volatile Consumer<Map<String, Object>> receiptListener = event -> { };
+    private volatile Runnable resyncListener = () -> { };
+    // Plus grand numéro de séquence reçu du serveur, envoyé à la reprise des abonnements rejouables
+    private volatile String lastSeq;
+    // Position lue la plus avancée par contact, et dernière envoyée : renvoyée après une reconnexion
+    private final Map<String, Map<String, Object>> readWanted = new HashMap<>();
+    private final Map<String, String> readSent = new HashMap<>();
+    private volatile StompSession session;
+    private boolean connectedBefore;
+    private boolean connecting;
+    private boolean closed;
+    private String status;
+    private String typingTo;
+    private long startSentAt;
+
+    RealtimeChannel(User currentUser) {
+        this.currentUser = currentUser;
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setThreadNamePrefix("stomp-client-");
+        this.scheduler.setDaemon(true);
+        this.scheduler.initialize();
+        this.stompClient = new WebSocketStompClient(
+            new DecompressingWebSocketClient(new StandardWebSocketClient(), MAX_FRAME_BYTES));
+        this.stompClient.setMessageConverter(new CompositeMessageConverter(Arrays.asList(
+            new BinaryPayloadConverter(new ObjectMapper()), new MappingJackson2MessageConverter())));
+        this.stompClient.setTaskScheduler(scheduler);
+        this.stompClient.setDefaultHeartbeat(new long[] {HEARTBEAT_MILLIS, 0});
+    }
+
+    void setMessageListener(Consumer<Map<String, Object>> listener) {
+        this.messageListener = listener;
+    }
+
+    void setTypingListener(Consumer<Map<String, Object>> listener) {
+        this.typingListener = listener;
+    }
+
+    void setPresenceListener(Consumer<Map<String, Object>> listener) {
+        this.presenceListener = listener;
+    }
+
+    void setReceiptListener(Consumer<Map<String, Object>> listener) {
+        this.receiptListener = listener;
+    }
+
+    void setResyncListener(Runnable listener) {
+        this.resyncListener = listener;
+    }
+
+    synchronized void connect() {
+        if (closed || connecting || isConnected() || currentUser.getToken() == null) {
+            return;
+        }
+        connecting = true;
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + currentUser.getToken());
+        connectHeaders.add(BinaryPayloads.FORMAT_HEADER, BinaryPayloads.BINARY);
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        handshakeHeaders.add(FrameCompression.HEADER,
+            FrameCompression.DEFLATE_DICTIONARY + ", " + FrameCompression.DEFLATE);
+        stompClient.connect(WS_URL, handshakeHeaders, connectHeaders, new StompSessionHandlerAdapter() {
+            @Override
+            public void afterConnected(StompSession stompSession, StompHeaders connectedHeaders) {
+                String prefix = "/topic/chat/" + currentUser.getId();
+                stompSession.subscribe(resumable(prefix), new EventHandler(() -> messageListener));
+                stompSession.subscribe(prefix + "/typing", new EventHandler(() -> typingListener));
+                // Le serveur répond à cet abonnement par l'état de tous les contacts
+                stompSession.subscribe(prefix + "/presence", new EventHandler(() -> presenceListener));
+                stompSession.subscribe(resumable(prefix + "/receipts"), new EventHandler(() -> receiptListener));
+                boolean resync;
+                synchronized (RealtimeChannel.this) {
+                    // Sans numéro de séquence, rien ne dit ce qui a été manqué pendant la coupure
+                    resync = connectedBefore && lastSeq == null;
+                    connectedBefore = true;
+                    session = stompSession;
+                    connecting = false;
+                    if (status != null) {
+                        sendStatus();
+                    }
+                    for (String contactId : readWanted.keySet()) {
+                        sendRead(contactId);
+                    }
+                }
+                if (resync) {
+                    resyncListener.run();
+                }
+            }
+
+            @Override
+            public void handleException(StompSession stompSession, StompCommand command, StompHeaders headers,
+                                        byte[] payload, Throwable exception) {
+                System.err.println("Erreur de la connexion temps réel: " + exception.getMessage());
+            }
+
+            @Override
+            public void handleTransportError(StompSession stompSession, Throwable exception) {
+                synchronized (RealtimeChannel.this) {
+                    session = null;
+                    connecting = false;
+                }
+                reconnectLater();
+            }
+        }).addCallback(connected -> { }, error -> {
+            synchronized (RealtimeChannel.this) {
+                connecting = false;
+            }
+            reconnectLater();
+        });
+    }
+
+    /**
+     * Publishes the status chosen by the user; sent again after each reconnection.
+     */
+    synchronized void setStatus(String status) {
+        this.status = status;
+        if (isConnected()) {
+            sendStatus();
+        }
+    }
+
+    /**
+     * Sends a message to {@code contactId}, written by the server once per {@code clientMessageId} however many
+     * times it is sent; the message written comes back to the message listener. False when not connected.
+     */
+    synchronized boolean sendMessage(String contactId, String content, String clientMessageId) {
+        if (!isConnected()) {
+            return false;
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put("to", contactId);
+        message.put("content", content);
+        message.put("clientMessageId", clientMessageId);
+        return send("/app/chat.send", message);
+    }
+
+    /**
+     * Called on each keystroke in the conversation with {@code contactId}.
+     */
+    synchronized void typing(String contactId) {
+        long now = System.currentTimeMillis();
+        if (contactId.equals(typingTo) && now - startSentAt < RESEND_MILLIS) {
+            return;
+        }
+        if (typingTo != null && !typingTo.equals(contactId)) {
+            sendTyping(typingTo, false);
+        }
+        if (sendTyping(contactId, true)) {
+            typingTo = contactId;
+            startSentAt = now;
+        }
+    }
+
+    /**
+     * Called when the user sent the message, went idle or left the conversation.
+     */
+    synchronized void stopped() {
+        if (typingTo != null) {
+            sendTyping(typingTo, false);
+            typingTo = null;
+        }
+    }
+
+    /**
+     * Reports that the conversation with {@code contactId} has been read up to the message
+     * {@code (timestamp, messageId)}.
+     */
+    synchronized void markRead(String contactId, long timestamp, String messageId) {
+        Map<String, Object> wanted = readWanted.get(contactId);
+        if (wanted == null || InboxService.cursor(timestamp, messageId).compareTo(cursorOf(wanted)) > 0) {
+            Map<String, Object> read = new HashMap<>();
+            read.put("peerId", contactId);
+            read.put("timestamp", timestamp);
+            read.put("messageId", messageId);
+            readWanted.put(contactId, read);
+        }
+        sendRead(contactId);
+    }
+
+    /**
+     * Closes the connection for good; the server then announces the user offline.
+     */
+    synchronized void disconnect() {
+        stopped();
+        closed = true;
+        if (isConnected()) {
+            session.disconnect();
+        }
+        session = null;
+        stompClient.stop();
+        scheduler.shutdown();
+    }
+
+    private void reconnectLater() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        scheduler.schedule(this::connect, new Date(System.currentTimeMillis() + RECONNECT_MILLIS));
+    }
+
+    private StompHeaders resumable(String destination) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        if (lastSeq != null) {
+            headers.add(ShardedBrokerMessageHandler.RESUME_HEADER, lastSeq);
+        }
+        return headers;
+    }
+
+    private boolean isConnected() {
+        return session != null && session.isConnected();
+    }
+
+    private void sendStatus() {
+        Map<String, Object> update = new HashMap<>();
+        update.put("status", status);
+        send("/app/presence.status", update);
+    }
+
+    private void sendRead(String contactId) {
+        Map<String, Object> wanted = readWanted.get(contactId);
+        String sent = readSent.get(contactId);
+        if (wanted == null || !isConnected() || (sent != null && sent.compareTo(cursorOf(wanted)) >= 0)) {
+            return;
+        }
+        if (send("/app/chat.read", wanted)) {
+            readSent.put(contactId, cursorOf(wanted));
+        }
+    }
+
+    private static String cursorOf(Map<String, Object> read) {
+        return InboxService.cursor((Long) read.get("timestamp"), (String) read.get("messageId"));
+    }
+
+    private boolean sendTyping(String contactId, boolean typing) {
+        if (!isConnected()) {
+            return false;
+        }
+        Map<String, Object> signal = new HashMap<>();
+        signal.put("to", contactId);
+        signal.put("typing", typing);
+        return send("/app/chat.typing", signal);
+    }
+
+    private boolean send(String destination, Map<String, Object> payload) {
+        try {
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination(destination);
+            headers.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+            session.send(headers, payload);
+            return true;
+        } catch (RuntimeException e) {
+            // La reconnexion suit l'erreur de transport
+            return false;
+        }
+    }
+
+    /**
+     * The furthest of two {@code {epoch}:{n}} sequence numbers; one from another epoch (server restart) wins.
+     */
+    private static String newer(String current, String seq) {
+        if (current == null) {
+            return seq;
+        }
+        int at = current.lastIndexOf(':');
+        int seqAt = seq.lastIndexOf(':');
+        if (at < 0 || at != seqAt || !current.regionMatches(0, seq, 0, at)) {
+            return seq;
+        }
+        try {
+            return Long.parseLong(seq.substring(seqAt + 1)) > Long.parseLong(current.substring(at + 1)) ? seq : current;
+        } catch (NumberFormatException e) {
+            return seq;
+        }
+    }
+
+    private final class EventHandler implements StompFrameHandler {
+        private final Supplier<Consumer<Map<String, Object>>> listener;
+
+        EventHandler(Supplier<Consumer<Map<String, Object>>> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return Map.class;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleFrame(StompHeaders headers, Object payload) {
+            String seq = headers.getFirst(ShardedBrokerMessageHandler.SEQ_HEADER);
+            if (seq != null) {
+                lastSeq = newer(lastSeq, seq);
+            }
+            if ("true".equals(headers.getFirst(ShardedBrokerMessageHandler.RESYNC_HEADER))) {
+                resyncListener.run();
+                return;
+            }
+            listener.get().accept((Map<String, Object>) payload);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatrealtime.ui;
+
+import com.chatrealtime.model.User;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Finds users by email through the server's user directory ({@code GET /api/users/lookup}), rather than by
+ * querying the {@code users} node.
+ */
+final class UserLookup {
+    private static final String API_URL = "http://localhost:8081/api/";
+    private static final RestTemplate restTemplate = new RestTemplate();
+
+    private UserLookup() {
+    }
+
+    /**
+     * Id of the user registered with {@code email}, {@code null} when there is none; completes off the EDT.
+     */
+    static CompletableFuture<String> findUserId(User currentUser, String email) {
+        return CompletableFuture.supplyAsync(() -> {
+            HttpHeaders headers = new HttpHeaders();
+            if (currentUser.getToken() != null) {
+                headers.setBearerAuth(currentUser.getToken());
+            }
+            try {
+                ResponseEntity<Map> response = restTemplate.exchange(API_URL + "users/lookup?email={email}",
+                    HttpMethod.GET, new HttpEntity<>(headers), Map.class, email);
+                return response.getBody() != null ? (String) response.getBody().get("id") : null;
+            } catch (HttpClientErrorException.NotFound e) {
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatrealtime.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size Bloom filter whose bits live in a {@link ByteBuffer}, so that it can be written to a file as it is and
+ * read back through a mapping, off the heap.
+ *
+ * Uses the same hashing as {@link RotatingBloomFilter}. Not thread-safe: callers serialize adds and lookups.
+ */
+public final class BloomFilter {
+    static final long SEED1 = 0x9E3779B97F4A7C15L;
+    static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final ByteBuffer bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    private BloomFilter(ByteBuffer bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = bits.capacity() * 8;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter, on the heap, sized for {@code expectedKeys} at {@code falsePositiveRate}.
+     */
+    public static BloomFilter create(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        double bits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        int words = (int) Math.min(Integer.MAX_VALUE / 64, Math.max(1, Math.ceil(bits / 64)));
+        int hashCount = Math.max(1, (int) Math.round(words * 64.0 / expectedKeys * Math.log(2)));
+        return new BloomFilter(ByteBuffer.allocate(words * Long.BYTES), hashCount);
+    }
+
+    /**
+     * Wraps the bits of a filter previously returned by {@link #bits()}, e.g. a read-only mapping of them.
+     */
+    public static BloomFilter wrap(ByteBuffer bits, int hashCount) {
+        if (bits.capacity() == 0 || bits.capacity() % Long.BYTES != 0 || hashCount <= 0) {
+            throw new IllegalArgumentException("Invalid Bloom filter bits");
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    public void add(String key) {
+        long hash1 = hash(key, SEED1);
+        long hash2 = hash(key, SEED2);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(hash1, hash2, i);
+            int word = (bit >>> 6) * Long.BYTES;
+            bits.putLong(word, bits.getLong(word) | (1L << bit));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash1 = hash(key, SEED1);
+        long hash2 = hash(key, SEED2);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(hash1, hash2, i);
+            if ((bits.getLong((bit >>> 6) * Long.BYTES) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * The bits of the filter, positioned at zero; writing them out and wrapping them back gives the same filter.
+     */
+    public ByteBuffer bits() {
+        ByteBuffer view = bits.duplicate();
+        view.clear();
+        return view;
+    }
+
+    private int index(long hash1, long hash2, int i) {
+        return (int) Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+    }
+
+    // FNV-1a sur les caractères, puis le finaliseur de MurmurHash3 pour répartir les bits
+    static long hash(String key, long seed) {
+        long hash = seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
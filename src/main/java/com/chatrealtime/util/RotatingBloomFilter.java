@@ -0,0 +1,114 @@
+package com.chatrealtime.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter remembering the keys added during a sliding time window, in constant memory.
+ *
+ * Keys are added to the current generation and looked up in the current and previous ones. Once the current
+ * generation is {@code windowMillis} old it becomes the previous one and an empty generation replaces it, so a
+ * key is remembered for at least {@code windowMillis} and at most twice as long. Each generation is sized for
+ * {@code expectedKeys} per window at {@code falsePositiveRate}; its {@code k} bit positions are derived from
+ * two 64-bit hashes (Kirsch and Mitzenmacher). Bits are set with CAS, so adding and looking up never block.
+ */
+public final class RotatingBloomFilter {
+    private final long windowMillis;
+    private final int bitCount;
+    private final int hashCount;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public RotatingBloomFilter(long expectedKeys, double falsePositiveRate, long windowMillis, long nowMillis) {
+        if (expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        double bits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.windowMillis = windowMillis;
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(bits)));
+        this.hashCount = Math.max(1, (int) Math.round(bitCount / (double) expectedKeys * Math.log(2)));
+        this.current = new Generation(bitCount, nowMillis);
+        this.previous = new Generation(bitCount, nowMillis);
+    }
+
+    /**
+     * Adds {@code key} and returns whether it may have been added before, i.e. {@code false} when it certainly
+     * was not.
+     */
+    public boolean add(String key, long nowMillis) {
+        rotateIfNeeded(nowMillis);
+        long hash1 = BloomFilter.hash(key, BloomFilter.SEED1);
+        long hash2 = BloomFilter.hash(key, BloomFilter.SEED2);
+        Generation generation = current;
+        boolean present = previous.contains(hash1, hash2);
+        boolean added = false;
+        for (int i = 0; i < hashCount; i++) {
+            added |= generation.set(index(hash1, hash2, i));
+        }
+        return present || !added;
+    }
+
+    public boolean mightContain(String key, long nowMillis) {
+        rotateIfNeeded(nowMillis);
+        long hash1 = BloomFilter.hash(key, BloomFilter.SEED1);
+        long hash2 = BloomFilter.hash(key, BloomFilter.SEED2);
+        return current.contains(hash1, hash2) || previous.contains(hash1, hash2);
+    }
+
+    /**
+     * Memory used by both generations.
+     */
+    public long sizeBytes() {
+        return 2L * ((bitCount + 63) / 64) * Long.BYTES;
+    }
+
+    private void rotateIfNeeded(long nowMillis) {
+        if (nowMillis - current.startedAt < windowMillis) {
+            return;
+        }
+        synchronized (this) {
+            if (nowMillis - current.startedAt >= windowMillis) {
+                // Une génération restée vide pendant plus d'une fenêtre n'a rien à retenir
+                previous = nowMillis - current.startedAt < 2 * windowMillis ? current : new Generation(bitCount, nowMillis);
+                current = new Generation(bitCount, nowMillis);
+            }
+        }
+    }
+
+    private int index(long hash1, long hash2, int i) {
+        return (int) Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+    }
+
+    private final class Generation {
+        final AtomicLongArray words;
+        final long startedAt;
+
+        Generation(int bits, long startedAt) {
+            this.words = new AtomicLongArray((bits + 63) / 64);
+            this.startedAt = startedAt;
+        }
+
+        boolean contains(long hash1, long hash2) {
+            for (int i = 0; i < hashCount; i++) {
+                int bit = index(hash1, hash2, i);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Vrai si le bit était à zéro
+        boolean set(int bit) {
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long value;
+            do {
+                value = words.get(word);
+                if ((value & mask) != 0) {
+                    return false;
+                }
+            } while (!words.compareAndSet(word, value, value | mask));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.chatrealtime.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical hashed timing wheel (Varghese & Lauck, scheme 7).
+ *
+ * Time advances in ticks of {@code tickMillis}. Level {@code L} has {@value #SLOTS} slots of
+ * {@code SLOTS^L} ticks each, so four levels cover 2^32 ticks. A timeout is hashed into the slot of the
+ * lowest level its deadline fits in and moves down one level each time the slot above comes due. Scheduling
+ * and cancelling are O(1), and a tick only touches the timeouts that fire or cascade, however many are pending.
+ * Deadlines further away than the wheel covers are parked in the farthest slot and re-hashed when they cascade.
+ *
+ * Not tied to a thread: the owner calls {@link #advance} periodically. All methods are thread-safe.
+ */
+public final class TimingWheel<T> {
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout<T>[][] slots;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.slots = new Timeout[LEVELS][SLOTS];
+    }
+
+    /**
+     * Schedules {@code item} to be returned by the first {@link #advance} at or after {@code deadlineMillis}.
+     * A deadline in the past fires on the next tick.
+     */
+    public synchronized Timeout<T> schedule(T item, long deadlineMillis) {
+        long ticks = Math.max(0, deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        Timeout<T> timeout = new Timeout<>(this, item, Math.max(currentTick + 1, ticks));
+        insert(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel to {@code nowMillis} and returns the items whose deadline has passed, earliest first.
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        List<T> expired = new ArrayList<>();
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return expired;
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Les niveaux supérieurs d'abord : leurs timeouts redescendent jusqu'au niveau 0
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (BITS * level)) & MASK));
+                }
+            }
+            Timeout<T> timeout = detach(0, (int) (currentTick & MASK));
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                timeout.next = null;
+                timeout.prev = null;
+                if (timeout.deadlineTick <= currentTick) {
+                    timeout.level = -1;
+                    size--;
+                    expired.add(timeout.item);
+                } else {
+                    insert(timeout);
+                }
+                timeout = next;
+            }
+            if (size == 0) {
+                currentTick = targetTick;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> timeout = detach(level, slot);
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            insert(timeout);
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout<T> timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        long tick = timeout.deadlineTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        if (delta >= (1L << (BITS * LEVELS))) {
+            // Au-delà de la roue : garé dans le créneau le plus lointain, réinséré à la descente
+            tick = currentTick + (1L << (BITS * LEVELS)) - 1;
+        }
+        int slot = (int) ((tick >>> (BITS * level)) & MASK);
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.next = slots[level][slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[level][slot] = timeout;
+    }
+
+    private Timeout<T> detach(int level, int slot) {
+        Timeout<T> head = slots[level][slot];
+        slots[level][slot] = null;
+        return head;
+    }
+
+    private synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout.level < 0) {
+            return false;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+        size--;
+        return true;
+    }
+
+    /**
+     * Handle of a scheduled item.
+     */
+    public static final class Timeout<T> {
+        private final TimingWheel<T> wheel;
+        private final T item;
+        private final long deadlineTick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private int level;
+        private int slot;
+
+        private Timeout(TimingWheel<T> wheel, T item, long deadlineTick) {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T item() {
+            return item;
+        }
+
+        /**
+         * Removes the item from the wheel; returns {@code false} when it already fired or was cancelled.
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+    }
+}
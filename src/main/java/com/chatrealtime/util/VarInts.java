@@ -0,0 +1,43 @@
+package com.chatrealtime.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 variable-length integers: 7 bits per byte, high bit set on every byte but the last.
+ * Used by the search postings and the message archive, which store small deltas that mostly fit in a single byte.
+ */
+public final class VarInts {
+    private VarInts() {
+    }
+
+    public static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static long readLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    public static int readInt(ByteBuffer in) {
+        return (int) readLong(in);
+    }
+
+    public static void skip(ByteBuffer in) {
+        while (in.get() < 0) {
+            // octets de continuation
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.chatrealtime.archive;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArchiveStoreTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pagesSpanSeveralFiles() throws IOException {
+        ArchiveStore archive = open(1);
+        archive.append("c1", messages(0, 5));
+        archive.append("c1", messages(5, 10));
+
+        assertEquals(List.of("m7", "m8", "m9"), ids(archive.readBefore("c1", Long.MIN_VALUE, Long.MAX_VALUE, null, 3)));
+        assertEquals(List.of("m3", "m4", "m5", "m6"), ids(archive.readBefore("c1", Long.MIN_VALUE, millis(7), "m7", 4)));
+        // Les messages plus anciens que le plancher sont ignorés
+        assertEquals(List.of("m2", "m3", "m4"), ids(archive.readBefore("c1", millis(2), millis(5), "m5", 10)));
+        assertEquals(List.of(), ids(archive.readBefore("c2", Long.MIN_VALUE, Long.MAX_VALUE, null, 3)));
+    }
+
+    @Test
+    void cursorSeparatesMessagesOfTheSameMillisecondById() throws IOException {
+        ArchiveStore archive = open(4);
+        List<Message> sameTime = new ArrayList<>();
+        for (String id : List.of("b", "a", "c")) {
+            sameTime.add(message(id, 3));
+        }
+        archive.append("c1", sameTime);
+
+        assertEquals(List.of("a"), ids(archive.readBefore("c1", Long.MIN_VALUE, millis(3), "b", 10)));
+        assertEquals(List.of("a", "b"), ids(archive.readBefore("c1", Long.MIN_VALUE, millis(3), "c", 10)));
+    }
+
+    @Test
+    void messageArchivedTwiceIsKeptOnce() throws IOException {
+        ArchiveStore archive = open(4);
+        archive.append("c1", messages(0, 3));
+        // Reprise après un arrêt entre l'archivage et la suppression du store chaud
+        archive.append("c1", messages(0, 3));
+
+        assertEquals(List.of("m0", "m1", "m2"), ids(archive.readBefore("c1", Long.MIN_VALUE, Long.MAX_VALUE, null, 10)));
+    }
+
+    @Test
+    void deleteBeforeRewritesTheFileAcrossTheLimit() throws IOException {
+        ArchiveStore archive = open(4);
+        archive.append("c1", messages(0, 4));
+        archive.append("c1", messages(4, 8));
+
+        assertEquals(6, archive.deleteBefore("c1", millis(6)));
+        assertEquals(List.of("m6", "m7"), ids(archive.readBefore("c1", Long.MIN_VALUE, Long.MAX_VALUE, null, 10)));
+    }
+
+    @Test
+    void reopenedArchiveFindsItsFiles() throws IOException {
+        open(4).append("c1", messages(0, 4));
+
+        ArchiveStore archive = open(4);
+        assertEquals(millis(3), archive.newestTimestamp("c1"));
+        assertEquals(Long.MIN_VALUE, archive.newestTimestamp("c2"));
+        assertEquals(List.of("m2", "m3"), ids(archive.readBefore("c1", Long.MIN_VALUE, Long.MAX_VALUE, null, 2)));
+    }
+
+    private ArchiveStore open(int openFiles) throws IOException {
+        return new ArchiveStore(new SimpleMeterRegistry(), new ClusterNode(false, "", 0, ""), dir.toString(), openFiles);
+    }
+
+    private static List<Message> messages(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(message("m" + i, i));
+        }
+        return messages;
+    }
+
+    private static Message message(String id, int seconds) {
+        return new Message(id, "alice", "bob", "message " + id, START.plusSeconds(seconds), true, null);
+    }
+
+    private static long millis(int seconds) {
+        return START.plusSeconds(seconds).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+}
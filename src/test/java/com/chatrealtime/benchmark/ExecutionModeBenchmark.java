@@ -0,0 +1,114 @@
+package com.chatrealtime.benchmark;
+
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.ValueEventListener;
+import com.chatrealtime.database.memory.InMemoryDatabase;
+import com.chatrealtime.util.VirtualThreads;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the blocking request style (a handler thread parked on {@code future.get} while the database
+ * answers) on a Tomcat-sized platform thread pool and on virtual threads ({@code execution.virtual-threads}).
+ *
+ * Every request reads a user from an {@link InMemoryDatabase} with a fixed latency and waits for it; all requests
+ * are submitted at once, as during a login storm. Usage:
+ * {@code ExecutionModeBenchmark [requests=20000] [latencyMs=20] [platformThreads=200]}. The virtual thread run
+ * needs JDK 21.
+ */
+public final class ExecutionModeBenchmark {
+    private static final int USERS = 1000;
+
+    private ExecutionModeBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        try (InMemoryDatabase database = new InMemoryDatabase(latencyMillis, 0)) {
+            for (int i = 0; i < USERS; i++) {
+                Map<String, Object> user = new HashMap<>();
+                user.put("id", "user" + i);
+                user.put("email", "user" + i + "@example.com");
+                database.getReference("users").child("user" + i).setValueAsync(user).join();
+            }
+
+            System.out.printf("%d requests, database latency %d ms, Java %s%n", requests, latencyMillis,
+                System.getProperty("java.version"));
+            System.out.printf("%-22s %10s %12s %10s %10s %10s%n", "mode", "elapsed ms", "requests/s",
+                "p50 ms", "p99 ms", "max ms");
+
+            ExecutorService platform = Executors.newFixedThreadPool(platformThreads);
+            run(database, platform, Math.min(requests, 1000), null);
+            run(database, platform, requests, "platform (" + platformThreads + ")");
+            platform.shutdown();
+
+            if (VirtualThreads.isAvailable()) {
+                ExecutorService virtual = VirtualThreads.newThreadPerTaskExecutor("benchmark-");
+                run(database, virtual, Math.min(requests, 1000), null);
+                run(database, virtual, requests, "virtual");
+                virtual.shutdown();
+            } else {
+                System.out.println("virtual threads not available on this JDK, run with Java 21 or later");
+            }
+        }
+    }
+
+    // Un label nul correspond à une passe de chauffe, non affichée
+    private static void run(InMemoryDatabase database, ExecutorService executor, int requests, String label)
+            throws InterruptedException {
+        long[] latencies = new long[requests];
+        CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            long submittedAt = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    readUser(database, "user" + (request % USERS)).get(30, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    latencies[request] = System.nanoTime() - submittedAt;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        if (label == null) {
+            return;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-22s %10d %12.0f %10.1f %10.1f %10.1f%n", label,
+            TimeUnit.NANOSECONDS.toMillis(elapsed), requests / (elapsed / 1e9),
+            latencies[requests / 2] / 1e6, latencies[(int) (requests * 0.99)] / 1e6,
+            latencies[requests - 1] / 1e6);
+    }
+
+    private static CompletableFuture<DataSnapshot> readUser(InMemoryDatabase database, String userId) {
+        CompletableFuture<DataSnapshot> future = new CompletableFuture<>();
+        database.getReference("users").child(userId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                future.complete(snapshot);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                future.completeExceptionally(error.toException());
+            }
+        });
+        return future;
+    }
+}
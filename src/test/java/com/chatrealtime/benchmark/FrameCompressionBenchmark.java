@@ -0,0 +1,129 @@
+package com.chatrealtime.benchmark;
+
+import com.chatrealtime.broker.FrameCompression;
+import com.chatrealtime.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures {@link FrameCompression} on STOMP MESSAGE frames carrying chat messages, as the broker sends them:
+ * bytes per frame on the wire and deflate/inflate cost, without and with the preset dictionary, for several
+ * compression levels. Every frame is checked to inflate back to itself. Usage:
+ * {@code FrameCompressionBenchmark [frames=10000] [rounds=20]}.
+ */
+public final class FrameCompressionBenchmark {
+    private static final String WORDS = "salut ça va oui et toi on se voit demain à midi au café pour le projet "
+        + "d'accord j'arrive dans cinq minutes merci 👍 bonne soirée";
+    private static final int[] LEVELS = {1, 6, 9};
+
+    private FrameCompressionBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<byte[]> frames = frames(count);
+        long rawBytes = 0;
+        for (byte[] frame : frames) {
+            rawBytes += frame.length;
+        }
+
+        System.out.printf("%d frames, %d rounds, Java %s%n", count, rounds, System.getProperty("java.version"));
+        System.out.printf("%-22s %12s %14s %14s%n", "mode", "bytes/frame", "deflate ns", "inflate ns");
+        System.out.printf("%-22s %12.1f %14s %14s%n", "none", (double) rawBytes / count, "-", "-");
+        for (int level : LEVELS) {
+            FrameCompression compression = new FrameCompression(level);
+            for (boolean dictionary : new boolean[] {false, true}) {
+                // Première passe : chauffe du JIT, non affichée
+                run(compression, null, frames, rounds, dictionary);
+                run(compression, "level " + level + (dictionary ? " + dictionary" : ""), frames, rounds, dictionary);
+            }
+        }
+    }
+
+    private static void run(FrameCompression compression, String label, List<byte[]> frames, int rounds,
+                            boolean dictionary) {
+        List<byte[]> compressed = new ArrayList<>(frames.size());
+        long bytes = 0;
+        for (byte[] frame : frames) {
+            byte[] message = compression.compress(frame, false, dictionary);
+            if (message == null) {
+                message = frame;
+            } else if (!Arrays.equals(frame, compression.decompress(message, 65536))) {
+                throw new IllegalStateException("Frame does not round-trip");
+            }
+            compressed.add(message);
+            bytes += message.length;
+        }
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] frame : frames) {
+                byte[] message = compression.compress(frame, false, dictionary);
+                sink += message != null ? message.length : 0;
+            }
+        }
+        long deflateNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] message : compressed) {
+                sink += FrameCompression.isCompressed(message) ? compression.decompress(message, 65536).length : 0;
+            }
+        }
+        long inflateNanos = System.nanoTime() - start;
+        if (label != null) {
+            double operations = (double) frames.size() * rounds;
+            System.out.printf("%-22s %12.1f %14.0f %14.0f (checksum %d)%n",
+                label, (double) bytes / frames.size(),
+                deflateNanos / operations, inflateNanos / operations, sink);
+        }
+    }
+
+    // Trames STOMP MESSAGE telles qu'écrites par StompEncoder pour /topic/chat/{userId}
+    private static List<byte[]> frames(int count) throws Exception {
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        Random random = new Random(42);
+        String[] words = WORDS.split(" ");
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(UUID.randomUUID().toString());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<byte[]> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder content = new StringBuilder();
+            int length = 1 + random.nextInt(20);
+            for (int w = 0; w < length; w++) {
+                content.append(w == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+            }
+            String to = users.get(random.nextInt(users.size()));
+            byte[] body = mapper.writeValueAsBytes(Message.builder()
+                .id(UUID.randomUUID().toString())
+                .from(users.get(random.nextInt(users.size())))
+                .to(to)
+                .content(content.toString())
+                .timestamp(now.minusSeconds(random.nextInt(86_400)))
+                .isRead(false)
+                .clientMessageId(random.nextBoolean() ? UUID.randomUUID().toString() : null)
+                .build());
+            String headers = "MESSAGE\ndestination:/topic/chat/" + to + "\ncontent-type:application/json\n"
+                + "subscription:sub-0\nmessage-id:" + UUID.randomUUID() + "-" + i + "\ncontent-length:"
+                + body.length + "\n\n";
+            byte[] head = headers.getBytes(StandardCharsets.UTF_8);
+            byte[] frame = Arrays.copyOf(head, head.length + body.length + 1);
+            System.arraycopy(body, 0, frame, head.length, body.length);
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
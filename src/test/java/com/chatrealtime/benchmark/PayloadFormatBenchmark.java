@@ -0,0 +1,136 @@
+package com.chatrealtime.benchmark;
+
+import com.chatrealtime.broker.BinaryPayloads;
+import com.chatrealtime.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Compares the JSON payloads of chat messages with the binary format negotiated with {@code payload-format: binary}
+ * ({@link BinaryPayloads}): bytes per message and encode/decode cost, on the paths the server uses.
+ *
+ * JSON is written by the ObjectMapper setup of the STOMP converter (ISO timestamps); the binary format goes through
+ * the Jackson tree as {@code BinaryPayloadConverter} does, and the broker re-encodes published JSON for binary
+ * sessions. Every message is checked to decode back to the same JSON. Usage:
+ * {@code PayloadFormatBenchmark [messages=10000] [rounds=20]}.
+ */
+public final class PayloadFormatBenchmark {
+    private static final String WORDS = "salut ça va oui et toi on se voit demain à midi au café pour le projet "
+        + "d'accord j'arrive dans cinq minutes merci 👍 bonne soirée";
+
+    private PayloadFormatBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        List<Message> messages = messages(count);
+        List<byte[]> json = new ArrayList<>(count);
+        List<byte[]> binary = new ArrayList<>(count);
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        for (Message message : messages) {
+            byte[] jsonPayload = mapper.writeValueAsBytes(message);
+            byte[] binaryPayload = BinaryPayloads.encode(mapper.valueToTree(message));
+            Message decoded = mapper.treeToValue(BinaryPayloads.decode(binaryPayload), Message.class);
+            if (!Arrays.equals(jsonPayload, mapper.writeValueAsBytes(decoded))
+                    || !Arrays.equals(binaryPayload, BinaryPayloads.fromJson(jsonPayload))) {
+                throw new IllegalStateException("Binary payload does not round-trip: " + message);
+            }
+            json.add(jsonPayload);
+            binary.add(binaryPayload);
+            jsonBytes += jsonPayload.length;
+            binaryBytes += binaryPayload.length;
+        }
+
+        System.out.printf("%d messages, %d rounds, Java %s%n", count, rounds, System.getProperty("java.version"));
+        System.out.printf("%-28s %12s %14s%n", "path", "bytes/msg", "ns/msg");
+        long sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // Première passe : chauffe du JIT, non affichée
+            boolean print = pass == 1;
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (Message message : messages) {
+                    sink += mapper.writeValueAsBytes(message).length;
+                }
+            }
+            report(print, "json encode", jsonBytes, count, rounds, start);
+            start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] payload : json) {
+                    sink += mapper.readValue(payload, Message.class).getContent().length();
+                }
+            }
+            report(print, "json decode", jsonBytes, count, rounds, start);
+            start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (Message message : messages) {
+                    sink += BinaryPayloads.encode(mapper.valueToTree(message)).length;
+                }
+            }
+            report(print, "binary encode", binaryBytes, count, rounds, start);
+            start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] payload : binary) {
+                    sink += mapper.treeToValue(BinaryPayloads.decode(payload), Message.class).getContent().length();
+                }
+            }
+            report(print, "binary decode", binaryBytes, count, rounds, start);
+            start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] payload : json) {
+                    sink += BinaryPayloads.fromJson(payload).length;
+                }
+            }
+            report(print, "broker json -> binary", binaryBytes, count, rounds, start);
+        }
+        System.out.printf("binary/json size ratio: %.2f (checksum %d)%n", (double) binaryBytes / jsonBytes, sink);
+    }
+
+    private static void report(boolean print, String label, long bytes, int count, int rounds, long start) {
+        if (print) {
+            System.out.printf("%-28s %12.1f %14.0f%n", label, (double) bytes / count,
+                (System.nanoTime() - start) / ((double) count * rounds));
+        }
+    }
+
+    private static List<Message> messages(int count) {
+        Random random = new Random(42);
+        String[] words = WORDS.split(" ");
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(UUID.randomUUID().toString());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder content = new StringBuilder();
+            int length = 1 + random.nextInt(20);
+            for (int w = 0; w < length; w++) {
+                content.append(w == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+            }
+            messages.add(Message.builder()
+                .id(UUID.randomUUID().toString())
+                .from(users.get(random.nextInt(users.size())))
+                .to(users.get(random.nextInt(users.size())))
+                .content(content.toString())
+                .timestamp(now.minusSeconds(random.nextInt(86_400)))
+                .isRead(random.nextBoolean())
+                .clientMessageId(random.nextBoolean() ? UUID.randomUUID().toString() : null)
+                .build());
+        }
+        return messages;
+    }
+}
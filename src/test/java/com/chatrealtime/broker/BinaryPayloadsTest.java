@@ -0,0 +1,86 @@
+package com.chatrealtime.broker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryPayloadsTest {
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Test
+    void chatMessageRoundTrips() throws IOException {
+        assertRoundTrip("{\"id\":\"m1\",\"from\":\"alice\",\"to\":\"bob\",\"content\":\"Salut 👋\","
+            + "\"timestamp\":\"2024-03-01T12:34:56.789\",\"read\":false,\"clientMessageId\":null}");
+    }
+
+    @Test
+    void everyValueKindRoundTrips() throws IOException {
+        assertRoundTrip("{\"unknownKey\":[1,-1,0,9223372036854775807,-9223372036854775808,"
+            + "123456789012345678901234567890,1.5,-0.25,true,false,null,\"\",{}],\"nested\":{\"a\":{\"b\":[]}}}");
+        assertRoundTrip("[]");
+        assertRoundTrip("\"plain\"");
+        assertRoundTrip("42");
+    }
+
+    @Test
+    void onlyTimestampsThatFormatBackIdenticallyAreCompacted() throws IOException {
+        // Ni l'une ni l'autre ne sont réécrites ainsi par Jackson : elles restent des chaînes
+        assertRoundTrip("{\"timestamp\":\"2024-03-01T12:34:00.000\"}");
+        assertRoundTrip("{\"timestamp\":\"2024-03-01T12:34\"}");
+        assertRoundTrip("{\"timestamp\":\"2024-03-01T12:34:56\"}");
+        assertRoundTrip("{\"timestamp\":\"2024-13-01T12:34:56\"}");
+    }
+
+    @Test
+    void binaryFormIsSmallerThanJson() throws IOException {
+        byte[] json = ("{\"id\":\"m1\",\"from\":\"alice\",\"to\":\"bob\",\"content\":\"hello\","
+            + "\"timestamp\":\"2024-03-01T12:34:56.789\",\"read\":false}").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(BinaryPayloads.fromJson(json).length < json.length / 2);
+    }
+
+    @Test
+    void everyTruncationIsRejected() throws IOException {
+        byte[] payload = BinaryPayloads.fromJson(("{\"id\":\"m1\",\"content\":\"hello\",\"statuses\":{\"bob\":\"online\"},"
+            + "\"timestamp\":\"2024-03-01T12:34:56.789\",\"unreadCount\":300}").getBytes(StandardCharsets.UTF_8));
+
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(truncated),
+                "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    void malformedPayloadsAreRejected() {
+        // Autre version
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(new byte[] {2, 0}));
+        // Étiquette inconnue
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(new byte[] {1, 99}));
+        // Clé au-delà du dictionnaire
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(new byte[] {1, 8, 1, 100, 0}));
+        // Chaîne plus longue que ce qui reste
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(new byte[] {1, 5, 10, 'a'}));
+        // Octets après la valeur
+        assertThrows(IllegalArgumentException.class, () -> BinaryPayloads.decode(new byte[] {1, 0, 0}));
+        // Varint sans fin
+        assertThrows(IllegalArgumentException.class,
+            () -> BinaryPayloads.decode(new byte[] {1, 7, (byte) 0x80, (byte) 0x80}));
+    }
+
+    private static void assertRoundTrip(String json) throws IOException {
+        JsonNode expected = JSON.readTree(json);
+        JsonNode decoded = BinaryPayloads.decode(BinaryPayloads.fromJson(json.getBytes(StandardCharsets.UTF_8)));
+
+        // Comparé une fois sérialisé : un petit entier revient en LongNode, mais s'écrit pareil
+        assertEquals(JSON.writeValueAsString(expected), JSON.writeValueAsString(decoded));
+    }
+}
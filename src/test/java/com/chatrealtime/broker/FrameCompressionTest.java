@@ -0,0 +1,94 @@
+package com.chatrealtime.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCompressionTest {
+    private static final byte[] FRAME = ("MESSAGE\ndestination:/topic/chat/bob\nsubscription:sub-0\nmessage-id:1\n"
+        + "content-type:application/json\ncontent-length:140\n\n{\"id\":\"m1\",\"from\":\"alice\",\"to\":\"bob\","
+        + "\"content\":\"hello hello hello hello\",\"timestamp\":\"2024-03-01T12:34:56.789\",\"read\":false,"
+        + "\"clientMessageId\":null}\u0000").getBytes(StandardCharsets.UTF_8);
+
+    private final FrameCompression compression = new FrameCompression(Deflater.DEFAULT_COMPRESSION);
+
+    @Test
+    void frameRoundTripsWithAndWithoutDictionary() {
+        for (boolean dictionary : new boolean[] {false, true}) {
+            byte[] compressed = compression.compress(FRAME, false, dictionary);
+
+            assertNotNull(compressed);
+            assertTrue(FrameCompression.isCompressed(compressed));
+            assertFalse(FrameCompression.isBinary(compressed));
+            assertArrayEquals(FRAME, compression.decompress(compressed, FRAME.length));
+        }
+    }
+
+    @Test
+    void dictionaryShrinksChatFrames() {
+        assertTrue(compression.compress(FRAME, false, true).length < compression.compress(FRAME, false, false).length);
+    }
+
+    @Test
+    void binaryFlagIsKept() {
+        byte[] compressed = compression.compress(FRAME, true, false);
+
+        assertTrue(FrameCompression.isBinary(compressed));
+    }
+
+    @Test
+    void frameThatDoesNotShrinkIsLeftAsItIs() {
+        assertNull(compression.compress("MESSAGE\n\n\u0000".getBytes(StandardCharsets.UTF_8), false, false));
+        assertFalse(FrameCompression.isCompressed(FRAME));
+    }
+
+    @Test
+    void inflateBeyondTheLimitIsRejected() {
+        byte[] bomb = new byte[1 << 20];
+        Arrays.fill(bomb, (byte) 'a');
+        byte[] compressed = compression.compress(bomb, false, false);
+
+        assertTrue(compressed.length < 8192);
+        assertThrows(IllegalArgumentException.class, () -> compression.decompress(compressed, 64 * 1024));
+        assertEquals(bomb.length, compression.decompress(compressed, bomb.length).length);
+    }
+
+    @Test
+    void limitIsExactFrameSize() {
+        byte[] compressed = compression.compress(FRAME, false, true);
+
+        assertThrows(IllegalArgumentException.class, () -> compression.decompress(compressed, FRAME.length - 1));
+    }
+
+    @Test
+    void truncatedOrCorruptedFrameIsRejected() {
+        byte[] compressed = compression.compress(FRAME, false, false);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        byte[] corrupted = compressed.clone();
+        corrupted[1] = (byte) 0xFF;
+
+        assertThrows(IllegalArgumentException.class, () -> compression.decompress(truncated, 65536));
+        assertThrows(IllegalArgumentException.class, () -> compression.decompress(corrupted, 65536));
+        assertThrows(IllegalArgumentException.class, () -> compression.decompress(FRAME, 65536));
+    }
+
+    @Test
+    void pooledInflaterIsReusableAfterAFailure() {
+        byte[] compressed = compression.compress(FRAME, false, true);
+        for (int i = 0; i < 20; i++) {
+            assertThrows(IllegalArgumentException.class,
+                () -> compression.decompress(Arrays.copyOf(compressed, compressed.length / 2), 65536));
+            assertArrayEquals(FRAME, compression.decompress(compressed, 65536));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatrealtime.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayLogTest {
+
+    @Test
+    void resumeReturnsTheFramesSentAfterTheSequence() {
+        ReplayLog<String> log = new ReplayLog<>(10, Long.MAX_VALUE);
+        long first = log.append("alice", "a1", 10);
+        log.append("bob", "b1", 10);
+        log.append("alice", "a2", 10);
+
+        assertEquals(List.of("a2"), items(log.after("alice", first)));
+        assertEquals(List.of("a1", "a2"), items(log.after("alice", 0)));
+        assertTrue(log.after("alice", log.lastSeq()).isEmpty());
+    }
+
+    @Test
+    void sequenceNeverIssuedNeedsResync() {
+        ReplayLog<String> log = new ReplayLog<>(10, Long.MAX_VALUE);
+        log.append("alice", "a1", 10);
+
+        assertNull(log.after("alice", log.lastSeq() + 1));
+        assertNull(log.after("alice", -1));
+    }
+
+    @Test
+    void resumeBelowTheFloorOfAFullLogNeedsResync() {
+        ReplayLog<String> log = new ReplayLog<>(2, Long.MAX_VALUE);
+        long first = log.append("alice", "a1", 10);
+        long second = log.append("alice", "a2", 10);
+        log.append("alice", "a3", 10);
+
+        // a1 est sorti du journal : reprendre avant lui perdrait une trame
+        assertNull(log.after("alice", first - 1));
+        assertEquals(List.of("a2", "a3"), items(log.after("alice", first)));
+        assertEquals(List.of("a3"), items(log.after("alice", second)));
+    }
+
+    @Test
+    void droppedLogOnlyAnswersResumesAfterItsLastFrame() {
+        // Place pour deux entrées : la troisième fait tomber le journal le plus ancien
+        ReplayLog<String> log = new ReplayLog<>(10, 2 * (10 + 256));
+        long aliceFirst = log.append("alice", "a1", 10);
+        long aliceLast = log.append("alice", "a2", 10);
+        log.append("bob", "b1", 10);
+
+        assertNull(log.after("alice", aliceFirst));
+        List<ReplayLog.Entry<String>> resumed = log.after("alice", aliceLast);
+        assertNotNull(resumed);
+        assertTrue(resumed.isEmpty());
+    }
+
+    @Test
+    void logRecreatedAfterADropStartsAtTheDroppedSequence() {
+        ReplayLog<String> log = new ReplayLog<>(10, 2 * (10 + 256));
+        long aliceFirst = log.append("alice", "a1", 10);
+        long aliceLast = log.append("alice", "a2", 10);
+        log.append("bob", "b1", 10);
+        log.append("alice", "a3", 10);
+
+        assertNull(log.after("alice", aliceFirst));
+        assertEquals(List.of("a3"), items(log.after("alice", aliceLast)));
+    }
+
+    @Test
+    void unknownUserResumesOnlyAfterTheDroppedSequence() {
+        ReplayLog<String> log = new ReplayLog<>(10, 2 * (10 + 256));
+        log.append("alice", "a1", 10);
+        long dropped = log.append("alice", "a2", 10);
+        log.append("bob", "b1", 10);
+
+        // Carol a pu recevoir une trame d'un journal supprimé avant ce numéro
+        assertNull(log.after("carol", dropped - 1));
+        assertTrue(log.after("carol", dropped).isEmpty());
+    }
+
+    @Test
+    void bytesFollowTheHeldEntries() {
+        ReplayLog<String> log = new ReplayLog<>(1, Long.MAX_VALUE);
+        log.append("alice", "a1", 100);
+        long held = log.bytes();
+        log.append("alice", "a2", 100);
+
+        assertEquals(held, log.bytes());
+    }
+
+    private static List<String> items(List<ReplayLog.Entry<String>> entries) {
+        assertNotNull(entries, "resume refused");
+        return entries.stream().map(entry -> entry.item).collect(Collectors.toList());
+    }
+}
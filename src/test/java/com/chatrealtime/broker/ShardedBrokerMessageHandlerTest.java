@@ -0,0 +1,235 @@
+package com.chatrealtime.broker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ShardedBrokerMessageHandlerTest {
+    private final BlockingQueue<Message<?>> outbound = new LinkedBlockingQueue<>();
+    private final MessageChannel outboundChannel = (message, timeout) -> outbound.add(message);
+    private final ShardedBrokerMessageHandler broker = new ShardedBrokerMessageHandler(
+        new ExecutorSubscribableChannel(), outboundChannel, new ExecutorSubscribableChannel(), "/topic",
+        4, 16, 10_000, true, Set.of("messages"), 100, 1 << 20, new SimpleMeterRegistry());
+
+    ShardedBrokerMessageHandlerTest() {
+        broker.start();
+    }
+
+    @AfterEach
+    void stop() {
+        broker.stop();
+    }
+
+    @Test
+    void connectIsAcknowledged() throws InterruptedException {
+        broker.handleMessage(connect("s1", false));
+
+        Message<?> ack = next();
+        assertEquals(SimpMessageType.CONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(ack.getHeaders()));
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(ack.getHeaders()));
+    }
+
+    @Test
+    void destinationsOfAUserKeepThePublishOrder() throws InterruptedException {
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/chat/alice", null, "alice"));
+        broker.handleMessage(subscribe("s1", "sub-1", "/topic/chat/alice/receipts", null, "alice"));
+        broker.handleMessage(subscribe("s2", "sub-0", "/topic/chat/bob", null, "bob"));
+
+        // File de 16 par shard : l'envoi attend le thread de diffusion
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String destination = i % 3 == 0 ? "/topic/chat/alice/receipts" : "/topic/chat/alice";
+            broker.handleMessage(publish(destination, "{\"n\":" + i + "}"));
+            broker.handleMessage(publish("/topic/chat/bob", "{\"n\":" + i + "}"));
+            expected.add(destination + " {\"n\":" + i + "}");
+        }
+
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            Message<?> frame = next();
+            if ("s1".equals(SimpMessageHeaderAccessor.getSessionId(frame.getHeaders()))) {
+                received.add(SimpMessageHeaderAccessor.getDestination(frame.getHeaders()) + " " + payload(frame));
+            }
+        }
+        assertEquals(expected, received);
+    }
+
+    @Test
+    void unsubscribedSessionsNoLongerReceive() throws InterruptedException {
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/news", null, "alice"));
+        broker.handleMessage(subscribe("s2", "sub-0", "/topic/news", null, "bob"));
+        broker.handleMessage(subscribe("s3", "sub-0", "/topic/news", null, "carol"));
+        broker.handleMessage(unsubscribe("s1", "sub-0"));
+        broker.handleMessage(disconnect("s2"));
+        assertEquals(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(next().getHeaders()));
+
+        broker.handleMessage(publish("/topic/news", "{}"));
+
+        assertEquals("s3", SimpMessageHeaderAccessor.getSessionId(next().getHeaders()));
+        assertNull(outbound.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void patternSubscriptionsMatchEveryShard() throws InterruptedException {
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/chat/*", null, "admin"));
+
+        broker.handleMessage(publish("/topic/chat/alice", "{}"));
+        broker.handleMessage(publish("/topic/chat/bob", "{}"));
+        broker.handleMessage(publish("/topic/chat/bob/receipts", "{}"));
+
+        List<String> destinations = new ArrayList<>();
+        destinations.add(SimpMessageHeaderAccessor.getDestination(next().getHeaders()));
+        destinations.add(SimpMessageHeaderAccessor.getDestination(next().getHeaders()));
+        destinations.sort(null);
+        assertEquals(List.of("/topic/chat/alice", "/topic/chat/bob"), destinations);
+        assertNull(outbound.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void binarySessionsReceiveTheBinaryForm() throws Exception {
+        broker.handleMessage(connect("s1", true));
+        next();
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/news", null, "alice"));
+        broker.handleMessage(subscribe("s2", "sub-0", "/topic/news", null, "bob"));
+
+        String json = "{\"id\":\"m1\",\"content\":\"Salut\"}";
+        broker.handleMessage(publish("/topic/news", json));
+
+        for (int i = 0; i < 2; i++) {
+            Message<?> frame = next();
+            if ("s1".equals(SimpMessageHeaderAccessor.getSessionId(frame.getHeaders()))) {
+                assertEquals(MimeTypeUtils.APPLICATION_OCTET_STREAM,
+                    SimpMessageHeaderAccessor.wrap(frame).getContentType());
+                assertArrayEquals(BinaryPayloads.fromJson(json.getBytes(StandardCharsets.UTF_8)),
+                    (byte[]) frame.getPayload());
+            } else {
+                assertEquals(json, payload(frame));
+            }
+        }
+    }
+
+    @Test
+    void resumingSessionGetsTheFramesItMissed() throws InterruptedException {
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/chat/alice", null, "alice"));
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":1}"));
+        String seq = seqOf(next());
+        assertNotNull(seq);
+        broker.handleMessage(disconnect("s1"));
+        next();
+
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":2}"));
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":3}"));
+        broker.handleMessage(subscribe("s2", "sub-0", "/topic/chat/alice", seq, "alice"));
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":4}"));
+
+        assertEquals("{\"n\":2}", payload(next()));
+        assertEquals("{\"n\":3}", payload(next()));
+        assertEquals("{\"n\":4}", payload(next()));
+        assertNull(outbound.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void resumeFromAnotherInstanceAsksForAResync() throws InterruptedException {
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/chat/alice", "previous:12", "alice"));
+
+        Message<?> frame = next();
+        assertEquals("{}", payload(frame));
+        assertEquals("true", SimpMessageHeaderAccessor.wrap(frame).getFirstNativeHeader(
+            ShardedBrokerMessageHandler.RESYNC_HEADER));
+    }
+
+    @Test
+    void resumeIsIgnoredOnTheDestinationsOfOtherUsers() throws InterruptedException {
+        broker.handleMessage(subscribe("s0", "sub-0", "/topic/chat/alice", null, "alice"));
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":1}"));
+        next();
+        broker.handleMessage(subscribe("s1", "sub-0", "/topic/chat/alice", "previous:0", "mallory"));
+        broker.handleMessage(unsubscribe("s0", "sub-0"));
+        broker.handleMessage(publish("/topic/chat/alice", "{\"n\":2}"));
+
+        // Abonnement ordinaire : ni rattrapage ni resync, seulement la suite
+        assertEquals("{\"n\":2}", payload(next()));
+        assertNull(outbound.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private Message<?> next() throws InterruptedException {
+        Message<?> message = outbound.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        return message;
+    }
+
+    private static String payload(Message<?> frame) {
+        return new String((byte[]) frame.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    private static String seqOf(Message<?> frame) {
+        return SimpMessageHeaderAccessor.wrap(frame).getFirstNativeHeader(ShardedBrokerMessageHandler.SEQ_HEADER);
+    }
+
+    private static Message<byte[]> connect(String sessionId, boolean binary) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        headers.setSessionId(sessionId);
+        if (binary) {
+            headers.setNativeHeader(BinaryPayloads.FORMAT_HEADER, BinaryPayloads.BINARY);
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String subscriptionId, String destination,
+                                             String resumeAfter, String userId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination(destination);
+        headers.setUser(user(userId));
+        if (resumeAfter != null) {
+            headers.setNativeHeader(ShardedBrokerMessageHandler.RESUME_HEADER, resumeAfter);
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> unsubscribe(String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> disconnect(String sessionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        headers.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> publish(String destination, String json) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders());
+    }
+
+    private static Principal user(String name) {
+        return () -> name;
+    }
+}
@@ -0,0 +1,164 @@
+package com.chatrealtime.cluster;
+
+import com.chatrealtime.database.memory.InMemoryDatabase;
+import com.chatrealtime.service.PresenceService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterRelayTest {
+    private final InMemoryDatabase database = new InMemoryDatabase();
+    private final Node a;
+    private final Node b;
+
+    ClusterRelayTest() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        a = new Node("a", portA, portB);
+        b = new Node("b", portB, portA);
+    }
+
+    @AfterEach
+    void close() {
+        a.close();
+        b.close();
+        database.close();
+    }
+
+    @Test
+    void eventsReachTheHandlerOfTheOtherNodes() throws InterruptedException {
+        BlockingQueue<String> onA = new LinkedBlockingQueue<>();
+        BlockingQueue<String> onB = new LinkedBlockingQueue<>();
+        a.relay.onEvent("expiry", payload -> onA.add(new String(payload, StandardCharsets.UTF_8)));
+        b.relay.onEvent("expiry", payload -> onB.add(new String(payload, StandardCharsets.UTF_8)));
+
+        // Un nœud pas encore connecté ne reçoit pas l'événement : il est renvoyé jusqu'à l'établissement du lien
+        await(() -> {
+            a.relay.broadcast("expiry", "c1".getBytes(StandardCharsets.UTF_8));
+            return !onB.isEmpty();
+        });
+        b.relay.broadcast("unknown", new byte[0]);
+
+        assertEquals("c1", onB.poll());
+        assertNull(onA.poll(200, TimeUnit.MILLISECONDS));
+        // Ni l'événement ni celui sans handler ne sont remis au broker
+        assertNull(b.broker.poll());
+        assertNull(a.broker.poll());
+    }
+
+    @Test
+    void userMessagesOnlyGoToTheNodesHostingTheUser() throws InterruptedException {
+        b.relay.preSend(session(SimpMessageType.CONNECT, "s1", "bob"), null);
+        await(() -> a.relay.remoteStatus("bob") != null);
+        assertEquals(PresenceService.ONLINE, a.relay.remoteStatus("bob"));
+
+        a.relay.preSend(publish("/topic/chat/carol", "{\"n\":1}"), null);
+        a.relay.preSend(publish("/topic/chat/bob/receipts", "{\"n\":2}"), null);
+
+        Message<?> relayed = b.broker.poll(5, TimeUnit.SECONDS);
+        assertNotNull(relayed);
+        assertEquals("/topic/chat/bob/receipts", SimpMessageHeaderAccessor.getDestination(relayed.getHeaders()));
+        assertEquals("{\"n\":2}", new String((byte[]) relayed.getPayload(), StandardCharsets.UTF_8));
+        assertEquals("a", relayed.getHeaders().get(ClusterRelay.RELAYED_HEADER));
+        assertNull(b.broker.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void otherDestinationsGoToEveryNodeOnce() throws InterruptedException {
+        await(() -> {
+            a.relay.preSend(publish("/topic/news", "{}"), null);
+            return b.broker.poll() != null;
+        });
+        b.broker.clear();
+
+        // Reçu d'un autre nœud : n'est pas relayé de nouveau
+        Message<?> received = publish("/topic/news", "{}");
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(received);
+        headers.setHeader(ClusterRelay.RELAYED_HEADER, "c");
+        b.relay.preSend(MessageBuilder.createMessage(received.getPayload(), headers.getMessageHeaders()), null);
+
+        assertNull(a.broker.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void routeIsDroppedWithTheLastLocalSession() throws InterruptedException {
+        b.relay.preSend(session(SimpMessageType.CONNECT, "s1", "bob"), null);
+        b.relay.preSend(session(SimpMessageType.CONNECT, "s2", "bob"), null);
+        await(() -> a.relay.remoteStatus("bob") != null);
+
+        b.relay.preSend(session(SimpMessageType.DISCONNECT, "s1", "bob"), null);
+        b.relay.statusChosen("bob", "away");
+        await(() -> "away".equals(a.relay.remoteStatus("bob")));
+
+        b.relay.preSend(session(SimpMessageType.DISCONNECT, "s2", "bob"), null);
+        await(() -> a.relay.remoteStatus("bob") == null);
+    }
+
+    private static Message<byte[]> session(SimpMessageType type, String sessionId, String userId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        headers.setUser(() -> userId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private static Message<byte[]> publish(String destination, String json) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setDestination(destination);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met within 5 s");
+            Thread.sleep(20);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Un nœud du cluster : son relais, et le canal broker où il remet les messages reçus des autres
+    private final class Node {
+        final BlockingQueue<Message<?>> broker = new LinkedBlockingQueue<>();
+        final PresenceService presence;
+        final ClusterRelay relay;
+
+        Node(String id, int port, int peerPort) throws IOException {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            this.presence = new PresenceService(database, new SimpMessagingTemplate((message, timeout) -> true),
+                meterRegistry, 60_000, 1000, 1000);
+            this.relay = new ClusterRelay((message, timeout) -> broker.add(message), presence, meterRegistry,
+                "/topic", new ClusterNode(true, id, port, "a"), "127.0.0.1", port, "127.0.0.1:" + peerPort,
+                "secret", 65536, 1, 1 << 20, 100);
+        }
+
+        void close() {
+            relay.close();
+            presence.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.chatrealtime.database;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteCoalescerTest {
+    // Fenêtre assez longue pour que seul close() ou un recouvrement envoie un lot
+    private static final long WINDOW = 60_000;
+
+    private final List<Map<String, Object>> sent = new ArrayList<>();
+    private final WriteCoalescer coalescer = new WriteCoalescer(new RecordingDatabase(), new SimpleMeterRegistry(), WINDOW, 500);
+
+    @Test
+    void writesOfTheWindowGoOutTogether() {
+        CompletableFuture<Void> first = coalescer.update(Map.of("messages/c1/m1", "hello"));
+        CompletableFuture<Void> second = coalescer.update(Map.of("/user_conversations/alice/c1/", 1L));
+        assertFalse(first.isDone());
+
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("messages/c1/m1", "hello", "user_conversations/alice/c1", 1L)), sent);
+        assertTrue(first.isDone() && second.isDone());
+    }
+
+    @Test
+    void overlappingUpdateFlushesThePendingBatchFirst() {
+        coalescer.update(Map.of("a/x", 1L));
+        coalescer.update(Map.of("a", Map.of("y", 2L)));
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a/x", 1L), Map.of("a", Map.of("y", 2L))), sent);
+    }
+
+    @Test
+    void groupOfABatchIsNeverSplitByAnOverlap() {
+        coalescer.update(Map.of("a/x", 1L));
+        coalescer.batch(() -> {
+            coalescer.update(Map.of("b", 1L));
+            // Recouvre le lot en attente : vérifié à la sortie du batch, qui part alors entier dans le lot suivant
+            coalescer.update(Map.of("a", Map.of("y", 2L)));
+            return null;
+        });
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a/x", 1L), Map.of("a", Map.of("y", 2L), "b", 1L)), sent);
+    }
+
+    @Test
+    void overlapsWithinAGroupAreFoldedIntoOneWrite() {
+        Map<String, Object> node = new HashMap<>(Map.of("x", 1L));
+        coalescer.batch(() -> {
+            coalescer.update(Map.of("a", node));
+            coalescer.update(Map.of("a/y/z", 2L));
+            coalescer.update(Map.of("a/x", 3L));
+            coalescer.update(Map.of("c/d", 1L, "c/e", 2L));
+            coalescer.update(Map.of("c", 3L));
+            return null;
+        });
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a", Map.of("x", 3L, "y", Map.of("z", 2L)), "c", 3L)), sent);
+        // La map de l'appelant n'est pas modifiée
+        assertEquals(Map.of("x", 1L), node);
+    }
+
+    @Test
+    void deleteBelowAFoldedWriteRemovesTheChild() {
+        Map<String, Object> delete = new LinkedHashMap<>();
+        delete.put("a/x", null);
+        coalescer.batch(() -> {
+            coalescer.update(Map.of("a", Map.of("x", 1L, "y", 2L)));
+            coalescer.update(delete);
+            return null;
+        });
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a", Map.of("y", 2L))), sent);
+    }
+
+    @Test
+    void pathsSharingAPrefixWithoutASlashDoNotOverlap() {
+        coalescer.update(Map.of("a/b", 1L));
+        coalescer.update(Map.of("a/bc", 2L, "a-b", 3L, "a/b", 4L));
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a/b", 4L, "a/bc", 2L, "a-b", 3L)), sent);
+    }
+
+    @Test
+    void rootWriteOverlapsEverything() {
+        coalescer.update(Map.of("a", 1L));
+        coalescer.update(Map.of("/", Map.of("b", 2L)));
+        coalescer.close();
+
+        assertEquals(List.of(Map.of("a", 1L), Map.of("", Map.of("b", 2L))), sent);
+    }
+
+    // Enregistre les updateChildren reçus à la racine et les acquitte aussitôt
+    private final class RecordingDatabase extends RealtimeDatabase {
+        @Override
+        public DatabaseReference getReference() {
+            return (DatabaseReference) Proxy.newProxyInstance(DatabaseReference.class.getClassLoader(),
+                new Class<?>[] {DatabaseReference.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("updateChildrenAsync")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> update = (Map<String, Object>) args[0];
+                    sent.add(new HashMap<>(update));
+                    return CompletableFuture.completedFuture(null);
+                });
+        }
+
+        @Override
+        public DatabaseReference getReference(String path) {
+            throw new UnsupportedOperationException(path);
+        }
+    }
+}
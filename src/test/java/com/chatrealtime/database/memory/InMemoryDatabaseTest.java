@@ -0,0 +1,210 @@
+package com.chatrealtime.database.memory;
+
+import com.chatrealtime.database.ChildEventListener;
+import com.chatrealtime.database.DataSnapshot;
+import com.chatrealtime.database.DatabaseError;
+import com.chatrealtime.database.DatabaseReference;
+import com.chatrealtime.database.Query;
+import com.chatrealtime.database.ValueEventListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryDatabaseTest {
+    private final InMemoryDatabase database = new InMemoryDatabase();
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void multiPathUpdateIsReadBack() throws Exception {
+        await(database.getReference().updateChildrenAsync(Map.of("a/b", 1, "a/c", "x", "d", true)));
+
+        assertEquals(Map.of("b", 1L, "c", "x"), read(database.getReference("a")));
+        assertEquals(Boolean.TRUE, read(database.getReference("/d/")));
+    }
+
+    @Test
+    void removingTheLastChildRemovesTheParents() throws Exception {
+        await(database.getReference("a/b/c").setValueAsync("x"));
+        await(database.getReference("a/b/c").removeValueAsync());
+
+        assertNull(read(database.getReference("a")));
+        assertNull(read(database.getReference()));
+    }
+
+    @Test
+    void queriesOrderFilterAndLimitChildren() throws Exception {
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("m1", Map.of("timestamp", 30));
+        messages.put("m2", Map.of("timestamp", 10));
+        messages.put("m3", Map.of("timestamp", 20));
+        messages.put("m4", Map.of("timestamp", 40));
+        await(database.getReference("messages").setValueAsync(messages));
+
+        Query query = database.getReference("messages").orderByChild("timestamp").endAt(30).limitToLast(2);
+
+        assertEquals(List.of("m3", "m1"), keys(query));
+        assertEquals(List.of("m2", "m3"), keys(database.getReference("messages").orderByChild("timestamp").limitToFirst(2)));
+    }
+
+    @Test
+    void childListenerSeesEventsInWriteOrder() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        await(database.getReference("chat/m1").setValueAsync("a"));
+        database.getReference("chat").addChildEventListener(new RecordingListener(events));
+
+        database.getReference("chat/m2").setValueAsync("b");
+        database.getReference("chat/m1").setValueAsync("c");
+        await(database.getReference("chat/m2").removeValueAsync());
+
+        assertEquals(List.of("added m1 after null", "added m2 after m1", "changed m1 after null", "removed m2"), events);
+    }
+
+    @Test
+    void valueListenerIsOnlyCalledWhenTheValueChanges() throws Exception {
+        List<Object> values = Collections.synchronizedList(new ArrayList<>());
+        database.getReference("a").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                values.add(snapshot.getValue());
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+            }
+        });
+
+        database.getReference("a").setValueAsync(1);
+        database.getReference("a").setValueAsync(1);
+        database.getReference("b").setValueAsync(1);
+        await(database.getReference("a").setValueAsync(2));
+
+        assertEquals(Arrays.asList(null, 1L, 2L), values);
+    }
+
+    @Test
+    void transactionSeesTheLatestValueAndCanAbort() throws Exception {
+        DatabaseReference counter = database.getReference("counter");
+        counter.setValueAsync(1);
+        assertTrue(counter.runTransaction(current -> (Long) current + 1).get(5, TimeUnit.SECONDS));
+        assertFalse(counter.runTransaction(current -> DatabaseReference.Transaction.ABORT).get(5, TimeUnit.SECONDS));
+
+        assertEquals(2L, read(counter));
+    }
+
+    @Test
+    void pushIdsAreOrderedByCreation() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(database.getReference("messages").push().getKey());
+        }
+
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        assertEquals(sorted, ids);
+        assertEquals(ids.size(), ids.stream().distinct().count());
+    }
+
+    @Test
+    void latencyNeverReordersOperations() throws Exception {
+        // Gigue bien plus grande que la latence : l'ordre d'émission doit tout de même être conservé
+        try (InMemoryDatabase slow = new InMemoryDatabase(1, 20)) {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                writes.add(slow.getReference("value").setValueAsync(i));
+            }
+            await(writes.get(writes.size() - 1));
+
+            assertEquals(49L, read(slow.getReference("value")));
+            assertTrue(writes.stream().allMatch(CompletableFuture::isDone));
+        }
+    }
+
+    private static Object read(Query query) throws Exception {
+        CompletableFuture<Object> value = new CompletableFuture<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                value.complete(snapshot.getValue());
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                value.completeExceptionally(error.toException());
+            }
+        });
+        return value.get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<String> keys(Query query) throws Exception {
+        CompletableFuture<List<String>> keys = new CompletableFuture<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                List<String> result = new ArrayList<>();
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    result.add(child.getKey());
+                }
+                keys.complete(result);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                keys.completeExceptionally(error.toException());
+            }
+        });
+        return keys.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class RecordingListener implements ChildEventListener {
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+            events.add("added " + snapshot.getKey() + " after " + previousChildName);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+            events.add("changed " + snapshot.getKey() + " after " + previousChildName);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot snapshot) {
+            events.add("removed " + snapshot.getKey());
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+            events.add("moved " + snapshot.getKey() + " after " + previousChildName);
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.chatrealtime.search;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import com.chatrealtime.model.SearchHit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchIndexTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void termsMatchWithoutCaseOrAccents() throws Exception {
+        try (Index index = open(100)) {
+            index.add("c1", "m1", "alice", "bob", "Bonne journée à Noël", 0);
+            index.add("c1", "m2", "bob", "alice", "on se voit demain", 1);
+
+            assertEquals(List.of("m1"), index.search("alice", "noel JOURNEE"));
+            assertEquals(List.of(), index.search("alice", "noel demain"));
+        }
+    }
+
+    @Test
+    void prefixAndPhraseClauses() throws Exception {
+        try (Index index = open(100)) {
+            index.add("c1", "m1", "alice", "bob", "à demain matin", 0);
+            index.add("c1", "m2", "alice", "bob", "matin, pas demain", 1);
+            index.add("c1", "m3", "alice", "bob", "demande l'ami", 2);
+
+            // Plus récent d'abord
+            assertEquals(List.of("m3", "m2", "m1"), index.search("bob", "dem*"));
+            assertEquals(List.of("m1"), index.search("bob", "\"demain matin\""));
+            assertEquals(List.of("m3"), index.search("bob", "l'ami"));
+        }
+    }
+
+    @Test
+    void usersOnlySearchTheirOwnConversations() throws Exception {
+        try (Index index = open(100)) {
+            index.add("c1", "m1", "alice", "bob", "secret", 0);
+            index.add("c2", "m2", "carol", "dave", "secret", 1);
+
+            assertEquals(List.of("m1"), index.search("alice", "secret"));
+            assertEquals(List.of("m2"), index.search("dave", "secret"));
+            assertEquals(List.of(), index.search("eve", "secret"));
+        }
+    }
+
+    @Test
+    void timeRangeBoundsTheHits() throws Exception {
+        try (Index index = open(100)) {
+            for (int i = 0; i < 5; i++) {
+                index.add("c1", "m" + i, "alice", "bob", "bonjour", i);
+            }
+
+            List<String> ids = index.index.search("alice", "bonjour", millis(1), millis(3), 10).get().stream()
+                .map(SearchHit::getMessageId).collect(Collectors.toList());
+            assertEquals(List.of("m2", "m1"), ids);
+        }
+    }
+
+    @Test
+    void deletedMessagesAreNotFound() throws Exception {
+        try (Index index = open(100)) {
+            for (int i = 0; i < 4; i++) {
+                index.add("c1", "m" + i, "alice", "bob", "bonjour", i);
+            }
+            index.add("c2", "other", "alice", "carol", "bonjour", 4);
+
+            index.index.delete("c1", List.of("m3"));
+            index.index.deleteBefore("c1", millis(2));
+
+            assertEquals(List.of("other", "m2"), index.search("alice", "bonjour"));
+        }
+    }
+
+    @Test
+    void flushedAndMergedSegmentsAreSearchedAfterReopening() throws Exception {
+        // Deux documents par segment : les segments écrits sont fusionnés par groupes de deux
+        try (Index index = open(2)) {
+            for (int i = 0; i < 9; i++) {
+                index.add("c1", "m" + i, "alice", "bob", i % 2 == 0 ? "pair" : "impair", i);
+            }
+            index.index.delete("c1", List.of("m4"));
+        }
+        try (Index index = open(2)) {
+            assertEquals(List.of("m8", "m6", "m2", "m0"), index.search("bob", "pair"));
+            assertEquals(List.of("m7", "m5", "m3", "m1"), index.search("alice", "imp*"));
+        }
+    }
+
+    private Index open(int flushDocs) throws IOException {
+        return new Index(new SearchIndex(new SimpleMeterRegistry(), new ClusterNode(false, "", 0, ""), true,
+            dir.toString(), flushDocs, 2, 512));
+    }
+
+    private static long millis(int seconds) {
+        return START.plusSeconds(seconds).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static final class Index implements AutoCloseable {
+        final SearchIndex index;
+
+        Index(SearchIndex index) {
+            this.index = index;
+        }
+
+        void add(String chatId, String id, String from, String to, String content, int seconds) {
+            index.index(chatId, new Message(id, from, to, content, START.plusSeconds(seconds), false, null));
+        }
+
+        List<String> search(String userId, String query) throws Exception {
+            return index.search(userId, query, null, null, 100).get().stream()
+                .map(SearchHit::getMessageId).collect(Collectors.toList());
+        }
+
+        @Override
+        public void close() throws IOException {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.chatrealtime.service;
+
+import com.chatrealtime.cluster.ClusterNode;
+import com.chatrealtime.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HistoryCacheTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+    private static final ClusterNode STANDALONE = new ClusterNode(false, "", 0, "");
+
+    @Test
+    void latestPageIsServedFromTheFilledBuffer() {
+        HistoryCache cache = cache(10, 1 << 20);
+        cache.fill("c1", messages("c1", 0, 5), cache.epoch("c1"));
+
+        assertEquals(List.of("c1-3", "c1-4"), ids(cache.page("c1", null, null, 2)));
+        // Conversation chargée en entier : la page la plus ancienne est plus courte que demandé
+        assertEquals(List.of("c1-0", "c1-1"), ids(cache.page("c1", millis(2), "c1-2", 10)));
+        assertNull(cache.page("c2", null, null, 2));
+    }
+
+    @Test
+    void fillIsDroppedWhenAMessageWasSentDuringTheLoad() {
+        HistoryCache cache = cache(10, 1 << 20);
+        int epoch = cache.epoch("c1");
+        // Envoyé pendant la lecture du store : la liste chargée ne le contient peut-être pas
+        cache.append("c1", message("c1", 5));
+        cache.fill("c1", messages("c1", 0, 5), epoch);
+
+        assertNull(cache.page("c1", null, null, 2));
+    }
+
+    @Test
+    void sentMessagesExtendTheBufferOnce() {
+        HistoryCache cache = cache(10, 1 << 20);
+        cache.fill("c1", messages("c1", 0, 2), cache.epoch("c1"));
+        Message sent = message("c1", 2);
+        cache.append("c1", sent);
+        cache.append("c1", sent);
+
+        assertEquals(List.of("c1-0", "c1-1", "c1-2"), ids(cache.page("c1", null, null, 10)));
+    }
+
+    @Test
+    void pageOlderThanAFullBufferIsAMiss() {
+        HistoryCache cache = cache(3, 1 << 20);
+        cache.fill("c1", messages("c1", 0, 3), cache.epoch("c1"));
+        cache.append("c1", message("c1", 3));
+
+        // Le plus ancien message est sorti du buffer : il ne peut plus compléter la page
+        assertEquals(List.of("c1-2", "c1-3"), ids(cache.page("c1", null, null, 2)));
+        assertNull(cache.page("c1", null, null, 4));
+        assertNull(cache.page("c1", millis(1), "c1-1", 1));
+        // Curseur sans id : retrouvé par date
+        assertEquals(List.of("c1-1", "c1-2"), ids(cache.page("c1", millis(3), null, 2)));
+    }
+
+    @Test
+    void leastRecentlyUsedConversationIsEvicted() throws InterruptedException {
+        // Trois messages de 144 octets estimés par conversation : la troisième dépasse le budget
+        HistoryCache cache = cache(10, 1000);
+        cache.fill("c1", messages("c1", 0, 3), cache.epoch("c1"));
+        Thread.sleep(5);
+        cache.fill("c2", messages("c2", 0, 3), cache.epoch("c2"));
+        Thread.sleep(5);
+        cache.page("c1", null, null, 1);
+        Thread.sleep(5);
+        cache.fill("c3", messages("c3", 0, 3), cache.epoch("c3"));
+
+        assertNull(cache.page("c2", null, null, 1));
+        assertEquals(List.of("c1-2"), ids(cache.page("c1", null, null, 1)));
+        assertEquals(List.of("c3-2"), ids(cache.page("c3", null, null, 1)));
+    }
+
+    @Test
+    void invalidatedConversationIsReloaded() {
+        HistoryCache cache = cache(10, 1 << 20);
+        cache.fill("c1", messages("c1", 0, 3), cache.epoch("c1"));
+        cache.invalidate("c1");
+
+        assertNull(cache.page("c1", null, null, 1));
+        cache.fill("c1", messages("c1", 0, 2), cache.epoch("c1"));
+        assertEquals(List.of("c1-1"), ids(cache.page("c1", null, null, 1)));
+    }
+
+    @Test
+    void expiredConversationIsAMiss() throws InterruptedException {
+        HistoryCache cache = new HistoryCache(new SimpleMeterRegistry(), STANDALONE, true, 10, 1 << 20, 1);
+        cache.fill("c1", messages("c1", 0, 3), cache.epoch("c1"));
+        Thread.sleep(5);
+
+        assertNull(cache.page("c1", null, null, 1));
+    }
+
+    @Test
+    void cacheIsDisabledInClusterMode() {
+        HistoryCache cache = new HistoryCache(new SimpleMeterRegistry(), new ClusterNode(true, "n1", 0, "n1"),
+            true, 10, 1 << 20, 60_000);
+        cache.fill("c1", messages("c1", 0, 3), cache.epoch("c1"));
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.page("c1", null, null, 1));
+    }
+
+    private static HistoryCache cache(int capacity, long maxBytes) {
+        return new HistoryCache(new SimpleMeterRegistry(), STANDALONE, true, capacity, maxBytes, 60_000);
+    }
+
+    private static List<Message> messages(String chatId, int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(message(chatId, i));
+        }
+        return messages;
+    }
+
+    private static Message message(String chatId, int index) {
+        return new Message(chatId + "-" + index, "alice", "bob", "hi", START.plusSeconds(index), false, null);
+    }
+
+    private static long millis(int index) {
+        return START.plusSeconds(index).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static List<String> ids(List<Message> page) {
+        return page == null ? null : page.stream().map(Message::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,245 @@
+package com.chatrealtime.store;
+
+import com.chatrealtime.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationLogTest {
+    private static final int SEGMENT_BYTES = 1 << 20;
+    private static final int INDEX_INTERVAL_BYTES = 256;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenedLogReadsEveryMessage() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 20);
+        }
+        try (ConversationLog log = open()) {
+            assertEquals(20, contents(log).size());
+            assertEquals("message 19", contents(log).get(19));
+        }
+    }
+
+    @Test
+    void truncatedTailIsDroppedOnRecovery() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 20);
+        }
+        Path segment = segmentFile();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // Écriture interrompue au milieu du dernier enregistrement
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (ConversationLog log = open()) {
+            List<String> contents = contents(log);
+            assertEquals(19, contents.size());
+            assertEquals("message 18", contents.get(18));
+            append(log, 1);
+            assertEquals("message 0", contents(log).get(19));
+        }
+    }
+
+    @Test
+    void recordWithBadChecksumEndsTheLog() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 20);
+        }
+        Path segment = segmentFile();
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Dernier octet du contenu du dernier message
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            last.flip();
+            last.put(0, (byte) (last.get(0) ^ 0x5A));
+            channel.write(last, size - 1);
+        }
+
+        try (ConversationLog log = open()) {
+            assertEquals(19, contents(log).size());
+        }
+        assertTrue(Files.size(segment) < size, "corrupted record truncated");
+    }
+
+    @Test
+    void headerPointingPastTheEndIsDropped() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 5);
+        }
+        Path segment = segmentFile();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // En-tête d'un enregistrement de 1000 octets dont rien n'a été écrit
+            ByteBuffer header = ByteBuffer.allocate(MessageRecordCodec.FRAME_HEADER_SIZE);
+            header.putInt(1000).putInt(0).flip();
+            channel.write(header);
+        }
+
+        try (ConversationLog log = open()) {
+            assertEquals(5, contents(log).size());
+            append(log, 1);
+            assertEquals(6, contents(log).size());
+        }
+    }
+
+    @Test
+    void truncatedTailAfterManyIndexEntriesKeepsLookupsWorking() throws IOException {
+        long before;
+        try (ConversationLog log = open()) {
+            append(log, 200);
+            before = System.currentTimeMillis() + 1;
+        }
+        Path segment = segmentFile();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (ConversationLog log = open()) {
+            assertEquals(199, log.readRange(0, before, Integer.MAX_VALUE).size());
+            assertEquals(10, log.readBefore(before, null, 10).size());
+            assertNotNull(log.find("m198", 0));
+        }
+    }
+
+    @Test
+    void idsAreFoundInEverySegmentAfterReopening() throws IOException {
+        try (ConversationLog log = new ConversationLog(dir, 2048, INDEX_INTERVAL_BYTES, false)) {
+            append(log, 300);
+            assertNotNull(log.find("m0", Long.MIN_VALUE));
+            assertNotNull(log.find("m299", Long.MIN_VALUE));
+            assertNull(log.find("m300", Long.MIN_VALUE));
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".ids")), "sealed filters written");
+        }
+
+        try (ConversationLog log = new ConversationLog(dir, 2048, INDEX_INTERVAL_BYTES, false)) {
+            for (int i = 0; i < 300; i++) {
+                assertNotNull(log.find("m" + i, Long.MIN_VALUE), "m" + i);
+            }
+            assertNull(log.find("missing", Long.MIN_VALUE));
+            // Au-delà de la capacité du filtre du segment actif, reconstruit plus grand
+            append(log, 300);
+            assertEquals("message 299", log.find("m299", Long.MIN_VALUE).getContent());
+        }
+    }
+
+    @Test
+    void filterOfATruncatedSegmentIsRebuilt() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 20);
+            assertNotNull(log.find("m19", 0));
+        }
+        Path segment = segmentFile();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (ConversationLog log = open()) {
+            assertNull(log.find("m19", 0));
+            assertNotNull(log.find("m18", 0));
+        }
+    }
+
+    @Test
+    void flagsOfDroppedMessagesAreCompactedAway() throws IOException {
+        Path reads = dir.resolve("reads.dat");
+        long before;
+        try (ConversationLog log = new ConversationLog(dir, 2048, INDEX_INTERVAL_BYTES, false)) {
+            append(log, 1500);
+            for (int i = 0; i < 1500; i++) {
+                log.appendRead("m" + i);
+            }
+            before = Files.size(reads);
+            log.deleteBefore(Long.MAX_VALUE);
+            // Ne restent que les suppressions des messages du dernier segment
+            assertTrue(Files.size(reads) < before / 10, Files.size(reads) + " bytes of flags");
+            assertTrue(contents(log).isEmpty());
+        }
+
+        try (ConversationLog log = new ConversationLog(dir, 2048, INDEX_INTERVAL_BYTES, false)) {
+            assertTrue(contents(log).isEmpty());
+            append(log, 1);
+            log.appendRead("m0");
+            assertTrue(log.find("m0", Long.MIN_VALUE).isRead());
+        }
+    }
+
+    @Test
+    void mappingSpaceLeftByACrashIsDropped() throws IOException {
+        try (ConversationLog log = open()) {
+            append(log, 20);
+            contents(log);
+        }
+        Path segment = segmentFile();
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // Fermeture manquée : le fichier garde la queue étendue pour le mapping
+            channel.write(ByteBuffer.allocate(1), 64 * 1024 - 1);
+        }
+
+        try (ConversationLog log = open()) {
+            assertEquals(20, contents(log).size());
+            append(log, 1);
+            assertEquals(21, contents(log).size());
+        }
+        assertTrue(Files.size(segment) > size && Files.size(segment) < 64 * 1024);
+    }
+
+    @Test
+    void closedLogRejectsOperations() throws IOException {
+        ConversationLog log = open();
+        append(log, 1);
+        log.close();
+
+        assertTrue(log.isClosed());
+        assertThrows(ClosedChannelException.class, () -> log.find("m0", Long.MIN_VALUE));
+        assertThrows(ClosedChannelException.class, () -> append(log, 1));
+    }
+
+    private ConversationLog open() throws IOException {
+        return new ConversationLog(dir, SEGMENT_BYTES, INDEX_INTERVAL_BYTES, false);
+    }
+
+    private Path segmentFile() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(LogSegment::isLogFile).findFirst().orElseThrow();
+        }
+    }
+
+    private static void append(ConversationLog log, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setId("m" + i);
+            message.setFrom("alice");
+            message.setTo("bob");
+            message.setContent("message " + i);
+            log.appendMessage(message);
+        }
+    }
+
+    private static List<String> contents(ConversationLog log) throws IOException {
+        return log.readRange(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE).stream()
+            .map(Message::getContent)
+            .collect(Collectors.toList());
+    }
+}
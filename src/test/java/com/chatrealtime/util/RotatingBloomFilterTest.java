@@ -0,0 +1,75 @@
+package com.chatrealtime.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RotatingBloomFilterTest {
+    private static final long WINDOW = 1000;
+
+    @Test
+    void addReportsWhetherTheKeyMayHaveBeenAdded() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, WINDOW, 0);
+
+        assertFalse(filter.add("alice\u0000m1", 0));
+        assertTrue(filter.add("alice\u0000m1", 1));
+        assertTrue(filter.mightContain("alice\u0000m1", 2));
+        assertFalse(filter.mightContain("alice\u0000m2", 2));
+    }
+
+    @Test
+    void keyIsRememberedForAtLeastOneWindow() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, WINDOW, 0);
+        filter.add("key", WINDOW - 1);
+
+        // Passée dans la génération précédente, la clé reste connue
+        assertTrue(filter.mightContain("key", WINDOW));
+        assertTrue(filter.mightContain("key", 2 * WINDOW - 2));
+    }
+
+    @Test
+    void keyIsForgottenAfterTwoWindows() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, WINDOW, 0);
+        filter.add("key", 0);
+
+        assertTrue(filter.mightContain("key", WINDOW));
+        assertFalse(filter.mightContain("key", 2 * WINDOW));
+    }
+
+    @Test
+    void idleGenerationIsNotKeptAsThePreviousOne() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.01, WINDOW, 0);
+        filter.add("key", 0);
+
+        // Aucune rotation pendant plus de deux fenêtres : tout ce qui précède est oublié d'un coup
+        assertFalse(filter.mightContain("key", 5 * WINDOW));
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheTarget() {
+        int expected = 10_000;
+        RotatingBloomFilter filter = new RotatingBloomFilter(expected, 0.01, WINDOW, 0);
+        for (int i = 0; i < expected; i++) {
+            filter.add("sent-" + i, 0);
+        }
+        for (int i = 0; i < expected; i++) {
+            assertTrue(filter.mightContain("sent-" + i, 0), "false negative for sent-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < expected; i++) {
+            if (filter.mightContain("other-" + i, 0)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < expected * 0.03, falsePositives + " false positives");
+    }
+
+    @Test
+    void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new RotatingBloomFilter(0, 0.01, WINDOW, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RotatingBloomFilter(100, 1, WINDOW, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RotatingBloomFilter(100, 0.01, 0, 0));
+    }
+}
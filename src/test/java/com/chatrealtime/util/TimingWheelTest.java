@@ -0,0 +1,118 @@
+package com.chatrealtime.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    void itemFiresOnTheFirstAdvanceAtOrAfterItsDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.schedule("a", 55);
+
+        assertTrue(wheel.advance(50).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(60));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void pastDeadlineFiresOnTheNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.advance(1000);
+        wheel.schedule("late", 0);
+
+        assertTrue(wheel.advance(1005).isEmpty());
+        assertEquals(List.of("late"), wheel.advance(1010));
+    }
+
+    @Test
+    void itemsFireEarliestFirst() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.schedule("c", 300);
+        wheel.schedule("a", 100);
+        wheel.schedule("b", 200);
+
+        assertEquals(List.of("a", "b", "c"), wheel.advance(1000));
+    }
+
+    @Test
+    void deadlinesOnHigherLevelsCascadeDownToTheirTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 0);
+        // Niveaux 1, 2 et 3 : 256, 65 536 et 16 777 216 ticks
+        long[] ticks = {255, 256, 257, 1000, 65_535, 65_536, 70_000, 16_777_216 + 3};
+        for (long tick : ticks) {
+            wheel.schedule(tick, tick * TICK);
+        }
+
+        List<Long> fired = new ArrayList<>();
+        for (long tick : ticks) {
+            assertTrue(wheel.advance(tick * TICK - 1).isEmpty(), "fired before tick " + tick);
+            List<Long> now = wheel.advance(tick * TICK);
+            assertEquals(List.of(tick), now);
+            fired.addAll(now);
+        }
+        assertEquals(ticks.length, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlineBeyondTheWheelIsKeptUntilDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        long beyond = (1L << 32) + 100;
+        wheel.schedule("far", beyond);
+
+        assertTrue(wheel.advance(beyond - 1).isEmpty());
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("far"), wheel.advance(beyond));
+    }
+
+    @Test
+    void cancelledItemNeverFires() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        TimingWheel.Timeout<String> near = wheel.schedule("near", 50);
+        TimingWheel.Timeout<String> far = wheel.schedule("far", 50_000);
+        wheel.schedule("kept", 60);
+
+        assertTrue(near.cancel());
+        assertTrue(far.cancel());
+        assertFalse(near.cancel());
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("kept"), wheel.advance(100_000));
+    }
+
+    @Test
+    void cancelAfterFiringReturnsFalse() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        TimingWheel.Timeout<String> timeout = wheel.schedule("a", 10);
+        wheel.advance(10);
+
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelInTheMiddleOfASlotKeepsTheOthers() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.schedule("a", 100);
+        TimingWheel.Timeout<String> middle = wheel.schedule("b", 100);
+        wheel.schedule("c", 100);
+
+        assertTrue(middle.cancel());
+        List<String> fired = wheel.advance(100);
+        assertEquals(2, fired.size());
+        assertTrue(fired.containsAll(List.of("a", "c")));
+    }
+
+    @Test
+    void tickMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(0, 0));
+    }
+}